@@ -0,0 +1,162 @@
+package com.schoste.ddd.infrastructure.dal.v2.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of both DAOs ({@link FileSystemDAOBenchmark} and {@link SerializationDAOBenchmark})
+ * for every combination of object count, payload size and thread count.
+ * 
+ * The arguments are those of the JMH runner. Object counts and payload sizes are set by
+ * {@code -p objectCount=...} and {@code -p payloadSize=...}, thread counts by {@code -t}, otherwise the
+ * defaults below are run. Combinations whose stored payloads exceed the system property
+ * {@value #MAX_STORE_SIZE_PROPERTY} (in bytes, {@value #DEFAULT_MAX_STORE_SIZE} by default) are skipped,
+ * as 1M objects of 100 MB do not fit on a local disk. The GC profiler reporting the allocation rates is
+ * added unless other profilers are given.
+ * 
+ * The comparison benchmarks of the file system DAO ({@link SnapshotBenchmark}, {@link TransferToBenchmark} and {@link LockingBenchmark})
+ * are only run if included, e.g. by {@code SnapshotBenchmark} as argument.
+ * 
+ * The storage directories are created in the directory set by the system property
+ * {@value #DIRECTORY_PROPERTY} or in the temporary directory.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class DAOBenchmarks
+{
+	/**
+	 * The system property setting the directory holding the storage directories of the benchmarks
+	 */
+	public static final String DIRECTORY_PROPERTY = "dao.benchmark.directory";
+	
+	/**
+	 * The system property setting the maximum number of payload bytes stored by a benchmark
+	 */
+	public static final String MAX_STORE_SIZE_PROPERTY = "dao.benchmark.maxStoreSize";
+	
+	/**
+	 * The maximum number of payload bytes stored by a benchmark if not set otherwise (2 GB)
+	 */
+	public static final long DEFAULT_MAX_STORE_SIZE = 2L * 1024 * 1024 * 1024;
+	
+	/**
+	 * The number of data objects saved at once when a store is filled
+	 */
+	static final int BATCH_SIZE = 1000;
+	
+	private static final String[] DEFAULT_OBJECT_COUNTS = { "1000", "10000", "100000", "1000000" };
+	private static final String[] DEFAULT_PAYLOAD_SIZES = { "100", "10000", "1000000", "100000000" };
+	private static final int[] DEFAULT_THREADS = { 1, 4, 16 };
+	
+	/**
+	 * Runs the benchmarks
+	 * 
+	 * @param args the arguments of the JMH runner
+	 * @throws Exception re-throws every exception
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		long maxStoreSize = Long.getLong(MAX_STORE_SIZE_PROPERTY, DEFAULT_MAX_STORE_SIZE);
+		Collection<String> objectCounts = commandLineOptions.getParameter("objectCount").orElse(Arrays.asList(DEFAULT_OBJECT_COUNTS));
+		Collection<String> payloadSizes = commandLineOptions.getParameter("payloadSize").orElse(Arrays.asList(DEFAULT_PAYLOAD_SIZES));
+		int[] threads = commandLineOptions.getThreads().hasValue() ? new int[] { commandLineOptions.getThreads().get() } : DEFAULT_THREADS;
+		List<RunResult> results = new ArrayList<>();
+		
+		for (String objectCount : objectCounts)
+		{
+			for (String payloadSize : payloadSizes)
+			{
+				if (Long.parseLong(objectCount) * Long.parseLong(payloadSize) > maxStoreSize)
+				{
+					System.out.printf("Skipping %s objects of %s bytes, which exceed %d bytes%n", objectCount, payloadSize, maxStoreSize);
+					continue;
+				}
+				
+				for (int threadCount : threads)
+				{
+					ChainedOptionsBuilder options = new OptionsBuilder()
+						.parent(commandLineOptions)
+						.param("objectCount", objectCount)
+						.param("payloadSize", payloadSize)
+						.threads(threadCount);
+				
+					if (commandLineOptions.getIncludes().isEmpty()) options.include(DAOBenchmarks.class.getPackage().getName() + "\\..*DAOBenchmark\\.");
+					if (commandLineOptions.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+					
+					results.addAll(new Runner(options.build()).run());
+				}
+			}
+		}
+		
+		System.out.println();
+		ResultFormatFactory.getInstance(ResultFormatType.TEXT, System.out).writeOut(results);
+	}
+	
+	/**
+	 * Creates an empty storage directory for a benchmark
+	 * 
+	 * @param prefix the prefix of the name of the directory
+	 * @return the path to the directory
+	 * @throws IOException re-throws every exception
+	 */
+	static Path createStorageDirectory(String prefix) throws IOException
+	{
+		String directory = System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir"));
+		Path parent = Paths.get(directory);
+		
+		Files.createDirectories(parent);
+		
+		return Files.createTempDirectory(parent, "dao-benchmark-" + prefix + "-");
+	}
+	
+	/**
+	 * Deletes the storage directory of a benchmark with everything in it
+	 * 
+	 * @param storageDirectory the path to the directory
+	 * @throws IOException re-throws every exception
+	 */
+	static void deleteStorageDirectory(Path storageDirectory) throws IOException
+	{
+		if (!Files.exists(storageDirectory)) return;
+		
+		try (Stream<Path> files = Files.walk(storageDirectory))
+		{
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(file);
+		}
+	}
+	
+	/**
+	 * Creates a payload of random lower case letters, which is the same for every call with the same size
+	 * 
+	 * @param payloadSize the size of the payload in bytes
+	 * @return the payload
+	 */
+	static byte[] createPayload(int payloadSize)
+	{
+		Random random = new Random(payloadSize);
+		byte[] payload = new byte[payloadSize];
+		
+		for (int i=0; i<payload.length; i++) payload[i] = (byte) ('a' + random.nextInt(26));
+		
+		return payload;
+	}
+}
@@ -0,0 +1,264 @@
+package com.schoste.ddd.infrastructure.dal.v2.benchmarks;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.FileSystemDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.fs.GenericFileSystemDAO;
+
+/**
+ * Benchmarks of the operations of the {@link GenericFileSystemDAO} on a store filled with
+ * {@link #objectCount} file objects of {@link #payloadSize} bytes (see {@link DAOBenchmarks}).
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileSystemDAOBenchmark
+{
+	/**
+	 * The number of file objects in the store
+	 */
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int objectCount;
+	
+	/**
+	 * The size of the data of every file object in bytes
+	 */
+	@Param({ "100", "10000", "1000000", "100000000" })
+	public int payloadSize;
+	
+	private Path storageDirectory;
+	private BenchmarkDAO dao;
+	private byte[] payload;
+	private int[] ids;
+	
+	/**
+	 * Creates the DAO and fills its store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = DAOBenchmarks.createStorageDirectory("fs");
+		this.dao = new BenchmarkDAO(this.storageDirectory.toString());
+		this.payload = DAOBenchmarks.createPayload(this.payloadSize);
+		
+		this.fill();
+	}
+	
+	/**
+	 * Deletes the store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		this.dao.clear();
+		
+		DAOBenchmarks.deleteStorageDirectory(this.storageDirectory);
+	}
+	
+	/**
+	 * Gets a random file object of the store
+	 * 
+	 * @return the file object
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public FileSystemDO get() throws Exception
+	{
+		return this.dao.get(this.nextId());
+	}
+	
+	/**
+	 * Saves a random file object of the store again
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public void save() throws Exception
+	{
+		FileSystemDO fileObject = this.createFileObject();
+		
+		fileObject.setId(this.nextId());
+		
+		this.dao.save(fileObject);
+	}
+	
+	/**
+	 * Deletes a file object saved before the invocation
+	 * 
+	 * @param state the file object to delete
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public void delete(DeleteState state) throws Exception
+	{
+		this.dao.delete(state.fileObject);
+	}
+	
+	/**
+	 * Gets the file objects modified since the previous call, i.e. checks the store for modifications
+	 * 
+	 * @return the modified file objects
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public Collection<FileSystemDO> getAll() throws Exception
+	{
+		return this.dao.getAll();
+	}
+	
+	/**
+	 * Loads all file objects of the store
+	 * 
+	 * @return the file objects
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public Collection<FileSystemDO> reloadAll() throws Exception
+	{
+		return this.dao.reloadAll();
+	}
+	
+	/**
+	 * Removes all file objects of the store, which is filled again before every iteration
+	 * 
+	 * @param state the state filling the store
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	public void clear(ClearState state) throws Exception
+	{
+		this.dao.clear();
+		
+		this.ids = null;
+	}
+	
+	/**
+	 * File object saved before every invocation of {@link FileSystemDAOBenchmark#delete(DeleteState)}
+	 */
+	@State(Scope.Thread)
+	public static class DeleteState
+	{
+		private FileSystemDO fileObject;
+		
+		/**
+		 * Saves the file object to delete
+		 * 
+		 * @param benchmark the benchmark
+		 * @throws Exception re-throws every exception
+		 */
+		@Setup(Level.Invocation)
+		public void setUp(FileSystemDAOBenchmark benchmark) throws Exception
+		{
+			this.fileObject = benchmark.createFileObject();
+			
+			benchmark.dao.save(this.fileObject);
+		}
+	}
+	
+	/**
+	 * Fills the store before every iteration of {@link FileSystemDAOBenchmark#clear(ClearState)}
+	 */
+	@State(Scope.Benchmark)
+	public static class ClearState
+	{
+		/**
+		 * Fills the store unless it is filled already
+		 * 
+		 * @param benchmark the benchmark
+		 * @throws Exception re-throws every exception
+		 */
+		@Setup(Level.Iteration)
+		public void setUp(FileSystemDAOBenchmark benchmark) throws Exception
+		{
+			if (benchmark.ids == null) benchmark.fill();
+		}
+	}
+	
+	private void fill() throws Exception
+	{
+		List<FileSystemDO> fileObjects = new ArrayList<>(DAOBenchmarks.BATCH_SIZE);
+		int[] ids = new int[this.objectCount];
+		
+		for (int i=0; i<ids.length; i++)
+		{
+			FileSystemDO fileObject = this.createFileObject();
+			
+			fileObjects.add(fileObject);
+			
+			if ((fileObjects.size() == DAOBenchmarks.BATCH_SIZE) || (i == ids.length - 1))
+			{
+				this.dao.save(fileObjects);
+				
+				for (int j=0; j<fileObjects.size(); j++) ids[i - fileObjects.size() + 1 + j] = fileObjects.get(j).getId();
+				
+				fileObjects.clear();
+			}
+		}
+		
+		this.dao.getAll();
+		this.ids = ids;
+	}
+	
+	private FileSystemDO createFileObject()
+	{
+		FileSystemDO fileObject = this.dao.createDataObject();
+		
+		fileObject.setData(this.payload);
+		
+		return fileObject;
+	}
+	
+	private int nextId()
+	{
+		return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+	}
+	
+	/**
+	 * File system DAO of the benchmarks, which creates the file objects without an application context
+	 */
+	static class BenchmarkDAO extends GenericFileSystemDAO<FileSystemDO>
+	{
+		BenchmarkDAO(String storagePath) throws Exception
+		{
+			super(storagePath);
+		}
+		
+		@Override
+		public FileSystemDO createDataObject()
+		{
+			return new FileSystemDO();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.schoste.ddd.infrastructure.dal.v2.benchmarks;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.schoste.ddd.infrastructure.dal.v2.benchmarks.FileSystemDAOBenchmark.BenchmarkDAO;
+import com.schoste.ddd.infrastructure.dal.v2.models.FileSystemDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.fs.GenericFileSystemDAO;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.LockingMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StripedLocks;
+
+/**
+ * Compares the throughput of the {@link GenericFileSystemDAO} in both locking modes (see
+ * {@link GenericFileSystemDAO#setLockingMode(LockingMode)}) when random file objects are read and written
+ * concurrently. In {@link LockingMode#SYNCHRONIZED} mode the throughput stays flat as threads are added, in
+ * {@link LockingMode#STRIPED} mode it grows with the thread count up to the number of cores. The store holds
+ * {@link #objectCount} file objects of {@link #payloadSize} bytes.
+ * 
+ * Run by {@code mvn -P benchmarks verify -Djmh.args="LockingBenchmark"}, which runs every thread count of
+ * {@link DAOBenchmarks}, or with a single one by adding e.g. {@code -t 8}.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LockingBenchmark
+{
+	/**
+	 * The number of file objects in the store
+	 */
+	@Param({ "10000" })
+	public int objectCount;
+	
+	/**
+	 * The size of the data of every file object in bytes
+	 */
+	@Param({ "100", "10000" })
+	public int payloadSize;
+	
+	/**
+	 * The locking mode of the DAO
+	 */
+	@Param({ "SYNCHRONIZED", "STRIPED" })
+	public LockingMode lockingMode;
+	
+	private Path storageDirectory;
+	private BenchmarkDAO dao;
+	private byte[] payload;
+	private int[] ids;
+	
+	/**
+	 * Creates the DAO and fills its store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = DAOBenchmarks.createStorageDirectory("locking");
+		this.dao = new BenchmarkDAO(this.storageDirectory.toString());
+		this.payload = DAOBenchmarks.createPayload(this.payloadSize);
+		
+		this.dao.setLockStripes(StripedLocks.DEFAULT_STRIPES);
+		this.dao.setLockingMode(this.lockingMode);
+		this.fill();
+	}
+	
+	/**
+	 * Deletes the store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		this.dao.clear();
+		
+		DAOBenchmarks.deleteStorageDirectory(this.storageDirectory);
+	}
+	
+	/**
+	 * Gets a random file object of the store
+	 * 
+	 * @return the file object
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public FileSystemDO get() throws Exception
+	{
+		return this.dao.get(this.nextId());
+	}
+	
+	/**
+	 * Gets a random file object of the store or, for every tenth call, saves one again
+	 * 
+	 * @return the file object read or saved
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public FileSystemDO getOrSave() throws Exception
+	{
+		int id = this.nextId();
+		
+		if (ThreadLocalRandom.current().nextInt(10) > 0) return this.dao.get(id);
+		
+		FileSystemDO fileObject = this.createFileObject();
+		
+		fileObject.setId(id);
+		
+		this.dao.save(fileObject);
+		
+		return fileObject;
+	}
+	
+	private void fill() throws Exception
+	{
+		List<FileSystemDO> fileObjects = new ArrayList<>(DAOBenchmarks.BATCH_SIZE);
+		int[] ids = new int[this.objectCount];
+		
+		for (int i=0; i<ids.length; i++)
+		{
+			FileSystemDO fileObject = this.createFileObject();
+			
+			fileObjects.add(fileObject);
+			
+			if ((fileObjects.size() == DAOBenchmarks.BATCH_SIZE) || (i == ids.length - 1))
+			{
+				this.dao.save(fileObjects);
+				
+				for (int j=0; j<fileObjects.size(); j++) ids[i - fileObjects.size() + 1 + j] = fileObjects.get(j).getId();
+				
+				fileObjects.clear();
+			}
+		}
+		
+		this.ids = ids;
+	}
+	
+	private FileSystemDO createFileObject()
+	{
+		FileSystemDO fileObject = this.dao.createDataObject();
+		
+		fileObject.setData(this.payload);
+		
+		return fileObject;
+	}
+	
+	private int nextId()
+	{
+		return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+	}
+}
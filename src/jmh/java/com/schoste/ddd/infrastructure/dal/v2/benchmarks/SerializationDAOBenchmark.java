@@ -0,0 +1,265 @@
+package com.schoste.ddd.infrastructure.dal.v2.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.SerializationDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.serialization.GenericSerializationDAO;
+
+/**
+ * Benchmarks of the operations of the {@link GenericSerializationDAO} on a store filled with
+ * {@link #objectCount} data objects holding a text of {@link #payloadSize} characters (see {@link DAOBenchmarks}).
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SerializationDAOBenchmark
+{
+	/**
+	 * The number of data objects in the store
+	 */
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int objectCount;
+	
+	/**
+	 * The length of the text of every data object in characters
+	 */
+	@Param({ "100", "10000", "1000000", "100000000" })
+	public int payloadSize;
+	
+	private Path storageDirectory;
+	private BenchmarkDAO dao;
+	private String payload;
+	private int[] ids;
+	
+	/**
+	 * Creates the DAO and fills its store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = DAOBenchmarks.createStorageDirectory("ser");
+		this.dao = new BenchmarkDAO(this.storageDirectory.toString());
+		this.payload = new String(DAOBenchmarks.createPayload(this.payloadSize), StandardCharsets.US_ASCII);
+		
+		this.fill();
+	}
+	
+	/**
+	 * Deletes the store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		this.dao.clear();
+		
+		DAOBenchmarks.deleteStorageDirectory(this.storageDirectory);
+	}
+	
+	/**
+	 * Gets a random data object of the store
+	 * 
+	 * @return the data object
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public SerializationDO get() throws Exception
+	{
+		return this.dao.get(this.nextId());
+	}
+	
+	/**
+	 * Saves a random data object of the store again
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public void save() throws Exception
+	{
+		SerializationDO dataObject = this.createDataObject();
+		
+		dataObject.setId(this.nextId());
+		
+		this.dao.save(dataObject);
+	}
+	
+	/**
+	 * Deletes a data object saved before the invocation
+	 * 
+	 * @param state the data object to delete
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public void delete(DeleteState state) throws Exception
+	{
+		this.dao.delete(state.dataObject);
+	}
+	
+	/**
+	 * Gets the data objects modified since the previous call, i.e. checks the store for modifications
+	 * 
+	 * @return the modified data objects
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public Collection<SerializationDO> getAll() throws Exception
+	{
+		return this.dao.getAll();
+	}
+	
+	/**
+	 * Loads all data objects of the store
+	 * 
+	 * @return the data objects
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public Collection<SerializationDO> reloadAll() throws Exception
+	{
+		return this.dao.reloadAll();
+	}
+	
+	/**
+	 * Removes all data objects of the store, which is filled again before every iteration
+	 * 
+	 * @param state the state filling the store
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	public void clear(ClearState state) throws Exception
+	{
+		this.dao.clear();
+		
+		this.ids = null;
+	}
+	
+	/**
+	 * Data object saved before every invocation of {@link SerializationDAOBenchmark#delete(DeleteState)}
+	 */
+	@State(Scope.Thread)
+	public static class DeleteState
+	{
+		private SerializationDO dataObject;
+		
+		/**
+		 * Saves the data object to delete
+		 * 
+		 * @param benchmark the benchmark
+		 * @throws Exception re-throws every exception
+		 */
+		@Setup(Level.Invocation)
+		public void setUp(SerializationDAOBenchmark benchmark) throws Exception
+		{
+			this.dataObject = benchmark.createDataObject();
+			
+			benchmark.dao.save(this.dataObject);
+		}
+	}
+	
+	/**
+	 * Fills the store before every iteration of {@link SerializationDAOBenchmark#clear(ClearState)}
+	 */
+	@State(Scope.Benchmark)
+	public static class ClearState
+	{
+		/**
+		 * Fills the store unless it is filled already
+		 * 
+		 * @param benchmark the benchmark
+		 * @throws Exception re-throws every exception
+		 */
+		@Setup(Level.Iteration)
+		public void setUp(SerializationDAOBenchmark benchmark) throws Exception
+		{
+			if (benchmark.ids == null) benchmark.fill();
+		}
+	}
+	
+	private void fill() throws Exception
+	{
+		List<SerializationDO> dataObjects = new ArrayList<>(DAOBenchmarks.BATCH_SIZE);
+		int[] ids = new int[this.objectCount];
+		
+		for (int i=0; i<ids.length; i++)
+		{
+			SerializationDO dataObject = this.createDataObject();
+			
+			dataObjects.add(dataObject);
+			
+			if ((dataObjects.size() == DAOBenchmarks.BATCH_SIZE) || (i == ids.length - 1))
+			{
+				this.dao.save(dataObjects);
+				
+				for (int j=0; j<dataObjects.size(); j++) ids[i - dataObjects.size() + 1 + j] = dataObjects.get(j).getId();
+				
+				dataObjects.clear();
+			}
+		}
+		
+		this.dao.getAll();
+		this.ids = ids;
+	}
+	
+	private SerializationDO createDataObject()
+	{
+		SerializationDO dataObject = this.dao.createDataObject();
+		
+		dataObject.setExampleStringProperty(this.payload);
+		
+		return dataObject;
+	}
+	
+	private int nextId()
+	{
+		return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+	}
+	
+	/**
+	 * Serialization DAO of the benchmarks, which creates the data objects without an application context
+	 */
+	static class BenchmarkDAO extends GenericSerializationDAO<SerializationDO>
+	{
+		BenchmarkDAO(String storagePath) throws Exception
+		{
+			super(storagePath);
+		}
+		
+		@Override
+		public SerializationDO createDataObject()
+		{
+			return new SerializationDO();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.schoste.ddd.infrastructure.dal.v2.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.schoste.ddd.infrastructure.dal.v2.benchmarks.FileSystemDAOBenchmark.BenchmarkDAO;
+import com.schoste.ddd.infrastructure.dal.v2.models.FileSystemDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.fs.GenericFileSystemDAO;
+
+/**
+ * Compares a replica of the {@link GenericFileSystemDAO} serving a snapshot (see
+ * {@link GenericFileSystemDAO#setSnapshotFile(Path)}) with one serving the storage directory: the start,
+ * i.e. loading every file object, and random gets. The store holds {@link #objectCount} file objects of
+ * {@link #payloadSize} bytes.
+ * 
+ * Run by {@code mvn -P benchmarks verify -Djmh.args="SnapshotBenchmark"} (see {@link DAOBenchmarks}).
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SnapshotBenchmark
+{
+	/**
+	 * The number of file objects in the store
+	 */
+	@Param({ "1000", "10000", "100000" })
+	public int objectCount;
+	
+	/**
+	 * The size of the data of every file object in bytes
+	 */
+	@Param({ "100", "10000" })
+	public int payloadSize;
+	
+	private Path storageDirectory;
+	private Path snapshotFile;
+	private BenchmarkDAO directoryDAO;
+	private BenchmarkDAO snapshotDAO;
+	private int[] ids;
+	
+	/**
+	 * Fills the store, exports its snapshot and creates a DAO serving each of them
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = DAOBenchmarks.createStorageDirectory("snapshot");
+		this.snapshotFile = Files.createTempFile("dao-benchmark-", ".snapshot");
+		this.directoryDAO = new BenchmarkDAO(this.storageDirectory.toString());
+		
+		this.fill(DAOBenchmarks.createPayload(this.payloadSize));
+		this.directoryDAO.exportSnapshot(this.snapshotFile);
+		
+		this.snapshotDAO = this.startReplica(this.snapshotFile);
+	}
+	
+	/**
+	 * Deletes the store and the snapshot
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		this.snapshotDAO.setSnapshotFile(null);
+		this.directoryDAO.clear();
+		
+		Files.deleteIfExists(this.snapshotFile);
+		DAOBenchmarks.deleteStorageDirectory(this.storageDirectory);
+	}
+	
+	/**
+	 * Starts a replica serving the storage directory and loads every file object
+	 * 
+	 * @return the file objects
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Collection<FileSystemDO> startFromDirectory() throws Exception
+	{
+		return this.startReplica(null).reloadAll();
+	}
+	
+	/**
+	 * Starts a replica serving the snapshot and loads every file object
+	 * 
+	 * @return the file objects
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Collection<FileSystemDO> startFromSnapshot() throws Exception
+	{
+		BenchmarkDAO replica = this.startReplica(this.snapshotFile);
+		
+		try
+		{
+			return replica.reloadAll();
+		}
+		finally
+		{
+			replica.setSnapshotFile(null);
+		}
+	}
+	
+	/**
+	 * Gets a random file object of the storage directory
+	 * 
+	 * @return the file object
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public FileSystemDO getFromDirectory() throws Exception
+	{
+		return this.directoryDAO.get(this.nextId());
+	}
+	
+	/**
+	 * Gets a random file object of the snapshot
+	 * 
+	 * @return the file object
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public FileSystemDO getFromSnapshot() throws Exception
+	{
+		return this.snapshotDAO.get(this.nextId());
+	}
+	
+	private BenchmarkDAO startReplica(Path snapshotFile) throws Exception
+	{
+		BenchmarkDAO replica = new BenchmarkDAO(this.storageDirectory.toString());
+		
+		replica.setSnapshotFile(snapshotFile);
+		
+		return replica;
+	}
+	
+	private void fill(byte[] payload) throws Exception
+	{
+		List<FileSystemDO> fileObjects = new ArrayList<>(DAOBenchmarks.BATCH_SIZE);
+		int[] ids = new int[this.objectCount];
+		
+		for (int i=0; i<ids.length; i++)
+		{
+			FileSystemDO fileObject = this.directoryDAO.createDataObject();
+			
+			fileObject.setData(payload);
+			fileObjects.add(fileObject);
+			
+			if ((fileObjects.size() == DAOBenchmarks.BATCH_SIZE) || (i == ids.length - 1))
+			{
+				this.directoryDAO.save(fileObjects);
+				
+				for (int j=0; j<fileObjects.size(); j++) ids[i - fileObjects.size() + 1 + j] = fileObjects.get(j).getId();
+				
+				fileObjects.clear();
+			}
+		}
+		
+		this.ids = ids;
+	}
+	
+	private int nextId()
+	{
+		return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+	}
+}
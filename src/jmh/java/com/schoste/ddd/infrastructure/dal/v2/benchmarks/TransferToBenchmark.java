@@ -0,0 +1,211 @@
+package com.schoste.ddd.infrastructure.dal.v2.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.schoste.ddd.infrastructure.dal.v2.benchmarks.FileSystemDAOBenchmark.BenchmarkDAO;
+import com.schoste.ddd.infrastructure.dal.v2.models.FileSystemDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.fs.GenericFileSystemDAO;
+
+/**
+ * Compares sending random file objects of the {@link GenericFileSystemDAO} to a socket by
+ * {@link GenericFileSystemDAO#transferTo(int, WritableByteChannel)} with writing the data returned by get() to
+ * the socket. Every thread sends to its own socket of a loopback socket pair, whose peer is drained by a
+ * separate thread. The store holds {@link #objectCount} file objects of {@link #payloadSize} bytes.
+ * 
+ * Run by {@code mvn -P benchmarks verify -Djmh.args="TransferToBenchmark"} (see {@link DAOBenchmarks}).
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferToBenchmark
+{
+	/**
+	 * The number of file objects in the store
+	 */
+	@Param({ "1000" })
+	public int objectCount;
+	
+	/**
+	 * The size of the data of every file object in bytes
+	 */
+	@Param({ "10000", "1000000" })
+	public int payloadSize;
+	
+	private Path storageDirectory;
+	private BenchmarkDAO dao;
+	private int[] ids;
+	
+	/**
+	 * Creates the DAO and fills its store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = DAOBenchmarks.createStorageDirectory("transfer");
+		this.dao = new BenchmarkDAO(this.storageDirectory.toString());
+		
+		this.fill(DAOBenchmarks.createPayload(this.payloadSize));
+	}
+	
+	/**
+	 * Deletes the store
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		this.dao.clear();
+		
+		DAOBenchmarks.deleteStorageDirectory(this.storageDirectory);
+	}
+	
+	/**
+	 * Gets a random file object and writes its data to the socket
+	 * 
+	 * @param connection the socket of the thread
+	 * @return the number of bytes written
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public long getAndWrite(Connection connection) throws Exception
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(this.dao.get(this.nextId()).getData());
+		
+		while (buffer.hasRemaining()) connection.client.write(buffer);
+		
+		return buffer.capacity();
+	}
+	
+	/**
+	 * Transfers a random file object to the socket
+	 * 
+	 * @param connection the socket of the thread
+	 * @return the number of bytes transferred
+	 * @throws Exception re-throws every exception
+	 */
+	@Benchmark
+	public long transferTo(Connection connection) throws Exception
+	{
+		return this.dao.transferTo(this.nextId(), connection.client);
+	}
+	
+	/**
+	 * Loopback socket pair of a thread, whose peer is drained by a separate thread
+	 */
+	@State(Scope.Thread)
+	public static class Connection
+	{
+		private SocketChannel client;
+		private SocketChannel peer;
+		private Thread drainer;
+		
+		/**
+		 * Connects the sockets and starts draining the peer
+		 * 
+		 * @throws Exception re-throws every exception
+		 */
+		@Setup(Level.Trial)
+		public void setUp() throws Exception
+		{
+			try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)))
+			{
+				this.client = SocketChannel.open(server.getLocalAddress());
+				this.peer = server.accept();
+			}
+			
+			this.drainer = new Thread(this::drain, "transfer-benchmark-drainer");
+			this.drainer.setDaemon(true);
+			this.drainer.start();
+		}
+		
+		/**
+		 * Closes the sockets, which stops the draining thread
+		 * 
+		 * @throws Exception re-throws every exception
+		 */
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception
+		{
+			this.client.close();
+			this.drainer.join();
+			this.peer.close();
+		}
+		
+		private void drain()
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+			
+			try
+			{
+				while (this.peer.read(buffer) >= 0) buffer.clear();
+			}
+			catch (IOException e)
+			{
+				// The socket was closed
+			}
+		}
+	}
+	
+	private void fill(byte[] payload) throws Exception
+	{
+		List<FileSystemDO> fileObjects = new ArrayList<>(DAOBenchmarks.BATCH_SIZE);
+		int[] ids = new int[this.objectCount];
+		
+		for (int i=0; i<ids.length; i++)
+		{
+			FileSystemDO fileObject = this.dao.createDataObject();
+			
+			fileObject.setData(payload);
+			fileObjects.add(fileObject);
+			
+			if ((fileObjects.size() == DAOBenchmarks.BATCH_SIZE) || (i == ids.length - 1))
+			{
+				this.dao.save(fileObjects);
+				
+				for (int j=0; j<fileObjects.size(); j++) ids[i - fileObjects.size() + 1 + j] = fileObjects.get(j).getId();
+				
+				fileObjects.clear();
+			}
+		}
+		
+		this.ids = ids;
+	}
+	
+	private int nextId()
+	{
+		return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+	}
+}
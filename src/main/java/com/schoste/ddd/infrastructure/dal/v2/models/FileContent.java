@@ -0,0 +1,31 @@
+package com.schoste.ddd.infrastructure.dal.v2.models;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Content of a file object which is read through a channel instead of being held in memory.
+ * Used to store and load files of any size with constant memory use.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public interface FileContent
+{
+	/**
+	 * Gets the size of the content
+	 * 
+	 * @return the size in bytes or -1 if the size is unknown
+	 * @throws IOException re-throws every exception
+	 */
+	long getSize() throws IOException;
+	
+	/**
+	 * Opens a channel reading the content from its beginning.
+	 * The caller must close the channel.
+	 * 
+	 * @return the channel
+	 * @throws IllegalStateException if the content can be read only once and has already been read
+	 * @throws IOException re-throws every exception
+	 */
+	ReadableByteChannel openChannel() throws IllegalStateException, IOException;
+}
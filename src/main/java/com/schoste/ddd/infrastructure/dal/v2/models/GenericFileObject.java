@@ -1,5 +1,16 @@
 package com.schoste.ddd.infrastructure.dal.v2.models;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
 
 /**
@@ -16,12 +27,60 @@ public abstract class GenericFileObject extends GenericDataObject
 	protected byte[] data = new byte[0];
 	
 	/**
-	 * Gets the file data
+	 * The file data if they are held outside of the heap (e.g. mapped into memory) or null
+	 */
+	protected transient ByteBuffer dataBuffer;
+	
+	/**
+	 * The file data if they are read through a channel or null
+	 */
+	protected transient FileContent dataContent;
+	
+	/**
+	 * Gets the file data. If the data are held in a buffer (see {@link #getDataBuffer()}) or
+	 * read through a channel (see {@link #getDataContent()}), they are copied into an array on the first call.
 	 * 
 	 * @return the data of the file
+	 * @throws IllegalStateException if the data are larger than Integer.MAX_VALUE bytes or cannot be read
 	 */
-	public byte[] getData()
+	public byte[] getData() throws IllegalStateException
 	{
+		if (this.dataContent != null)
+		{
+			try (ReadableByteChannel channel = this.dataContent.openChannel();
+				 InputStream inputStream = Channels.newInputStream(channel))
+			{
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				long size = 0;
+				
+				for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer))
+				{
+					if ((size += read) > Integer.MAX_VALUE) throw new IllegalStateException("data are larger than Integer.MAX_VALUE bytes");
+					
+					data.write(buffer, 0, read);
+				}
+				
+				this.data = data.toByteArray();
+				this.dataContent = null;
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		if (this.dataBuffer != null)
+		{
+			ByteBuffer buffer = this.dataBuffer.duplicate();
+			byte[] data = new byte[buffer.remaining()];
+			
+			buffer.get(data);
+			
+			this.data = data;
+			this.dataBuffer = null;
+		}
+		
 		return this.data;
 	}
 	
@@ -33,5 +92,240 @@ public abstract class GenericFileObject extends GenericDataObject
 	public void setData(byte[] data)
 	{
 		this.data = data;
+		this.dataBuffer = null;
+		this.dataContent = null;
+	}
+	
+	/**
+	 * Gets the file data as read-only buffer without copying them.
+	 * The position and limit of the returned buffer are independent of the ones of this object.
+	 * If the data are read through a channel, they are copied into the heap first.
+	 * 
+	 * @return the data of the file or null if there are no data
+	 * @throws IllegalStateException if the data are read through a channel and cannot be copied
+	 */
+	public ByteBuffer getDataBuffer() throws IllegalStateException
+	{
+		if (this.dataContent != null) this.getData();
+		if (this.dataBuffer != null) return this.dataBuffer.asReadOnlyBuffer();
+		if (this.data != null) return ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+		
+		return null;
+	}
+	
+	/**
+	 * Sets the file data as buffer, e.g. a file mapped into memory.
+	 * The data between the position and the limit of the buffer are used.
+	 * 
+	 * @param dataBuffer the file data to be written to storage
+	 * @throws IllegalArgumentException if the buffer is null
+	 */
+	public void setDataBuffer(ByteBuffer dataBuffer) throws IllegalArgumentException
+	{
+		if (dataBuffer == null) throw new IllegalArgumentException("dataBuffer");
+		
+		this.dataBuffer = dataBuffer.slice();
+		this.data = new byte[0];
+		this.dataContent = null;
+	}
+	
+	/**
+	 * Checks if the file data are mapped into memory instead of being held in the heap
+	 * 
+	 * @return true if the file data are mapped, false otherwise
+	 */
+	public boolean isDataMapped()
+	{
+		return (this.dataBuffer instanceof MappedByteBuffer);
+	}
+	
+	/**
+	 * Gets the file data as content which is read through a channel.
+	 * Data held in memory are wrapped without copying them.
+	 * 
+	 * @return the content of the file or null if there are no data
+	 */
+	public FileContent getDataContent()
+	{
+		if (this.dataContent != null) return this.dataContent;
+		
+		ByteBuffer buffer = this.getDataBuffer();
+		
+		return (buffer == null) ? null : new BufferContent(buffer);
+	}
+	
+	/**
+	 * Sets the file data as content which is read through a channel when the file object is saved
+	 * or the data are accessed. The content is not read by this method.
+	 * 
+	 * @param dataContent the file data to be written to storage
+	 * @throws IllegalArgumentException if the content is null
+	 */
+	public void setDataContent(FileContent dataContent) throws IllegalArgumentException
+	{
+		if (dataContent == null) throw new IllegalArgumentException("dataContent");
+		
+		this.dataContent = dataContent;
+		this.data = new byte[0];
+		this.dataBuffer = null;
+	}
+	
+	/**
+	 * Checks if the file data are read through a channel instead of being held in memory
+	 * 
+	 * @return true if the file data are read through a channel, false otherwise
+	 */
+	public boolean isDataStreamed()
+	{
+		return (this.dataContent != null);
+	}
+	
+	/**
+	 * Sets the file data to be read from a channel when the file object is saved.
+	 * The channel can be read only once and is closed after it has been read.
+	 * 
+	 * @param dataChannel the channel to read the file data from
+	 * @throws IllegalArgumentException if the channel is null
+	 */
+	public void setDataChannel(ReadableByteChannel dataChannel) throws IllegalArgumentException
+	{
+		if (dataChannel == null) throw new IllegalArgumentException("dataChannel");
+		
+		this.setDataContent(new ChannelContent(dataChannel));
+	}
+	
+	/**
+	 * Sets the file data to be read from a stream when the file object is saved.
+	 * The stream can be read only once and is closed after it has been read.
+	 * 
+	 * @param dataStream the stream to read the file data from
+	 * @throws IllegalArgumentException if the stream is null
+	 */
+	public void setDataStream(InputStream dataStream) throws IllegalArgumentException
+	{
+		if (dataStream == null) throw new IllegalArgumentException("dataStream");
+		
+		this.setDataChannel(Channels.newChannel(dataStream));
+	}
+	
+	/**
+	 * Opens a channel reading the file data
+	 * 
+	 * @return the channel, which must be closed by the caller, or null if there are no data
+	 * @throws IOException re-throws every exception
+	 */
+	public ReadableByteChannel openDataChannel() throws IOException
+	{
+		FileContent content = this.getDataContent();
+		
+		return (content == null) ? null : content.openChannel();
+	}
+	
+	/**
+	 * Gets the size of the file data
+	 * 
+	 * @return the size in bytes or -1 if the size is unknown
+	 * @throws IOException re-throws every exception
+	 */
+	public long getDataSize() throws IOException
+	{
+		if (this.dataContent != null) return this.dataContent.getSize();
+		if (this.dataBuffer != null) return this.dataBuffer.remaining();
+		
+		return (this.data == null) ? 0 : this.data.length;
+	}
+	
+	/**
+	 * Content held in a buffer
+	 */
+	private static class BufferContent implements FileContent
+	{
+		private final ByteBuffer buffer;
+		
+		private BufferContent(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public long getSize()
+		{
+			return this.buffer.remaining();
+		}
+		
+		@Override
+		public ReadableByteChannel openChannel()
+		{
+			ByteBuffer buffer = this.buffer.duplicate();
+			
+			return new ReadableByteChannel()
+			{
+				private boolean open = true;
+				
+				@Override
+				public boolean isOpen()
+				{
+					return this.open;
+				}
+				
+				@Override
+				public void close()
+				{
+					this.open = false;
+				}
+				
+				@Override
+				public int read(ByteBuffer destination) throws IOException
+				{
+					if (!this.open) throw new ClosedChannelException();
+					if (!buffer.hasRemaining()) return -1;
+					
+					int length = Math.min(buffer.remaining(), destination.remaining());
+					ByteBuffer chunk = buffer.duplicate();
+					
+					chunk.limit(chunk.position() + length);
+					destination.put(chunk);
+					buffer.position(buffer.position() + length);
+					
+					return length;
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Content read once from a channel
+	 */
+	private static class ChannelContent implements FileContent
+	{
+		private final AtomicReference<ReadableByteChannel> channel;
+		
+		private ChannelContent(ReadableByteChannel channel)
+		{
+			this.channel = new AtomicReference<>(channel);
+		}
+		
+		@Override
+		public long getSize()
+		{
+			return -1;
+		}
+		
+		@Override
+		public ReadableByteChannel openChannel() throws IllegalStateException
+		{
+			ReadableByteChannel channel = this.channel.getAndSet(null);
+			
+			if (channel == null) throw new IllegalStateException("the channel has already been read");
+			
+			return channel;
+		}
+	}
+	
+	private void writeObject(ObjectOutputStream outputStream) throws IOException
+	{
+		this.getData();
+		
+		outputStream.defaultWriteObject();
 	}
 }
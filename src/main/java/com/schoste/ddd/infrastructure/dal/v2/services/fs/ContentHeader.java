@@ -0,0 +1,157 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.fs;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BlobStore;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.CompressionCodec;
+
+/**
+ * Header of the files written by {@link GenericFileSystemDAO} whose content is not stored as it is.
+ * 
+ * The header consists of a magic number, the id of the {@link CompressionCodec} which compressed the
+ * content and the uncompressed length of the content as int. Files without the magic number hold the
+ * content as it is, so files written by previous versions remain readable. Content which happens to
+ * start with the magic number is stored behind a header with the codec id 0.
+ * 
+ * Files of deduplicated content hold a header with the codec id {@link #BLOB_REFERENCE} instead,
+ * followed by the hash of the blob holding the content (see {@link BlobStore}).
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+final class ContentHeader
+{
+	private static final byte[] MAGIC = { (byte) 0x89, 'D', 'A', 'O', 'Z', '\r', '\n', 0x1A };
+	
+	/**
+	 * The size of the header in bytes
+	 */
+	static final int SIZE = MAGIC.length + 1 + 4;
+	
+	/**
+	 * The codec id of the header of a reference to a blob, whose length is the length of the hash
+	 */
+	static final byte BLOB_REFERENCE = (byte) 0xFF;
+	
+	private final byte codecId;
+	private final int length;
+	
+	/**
+	 * Creates a header
+	 * 
+	 * @param codecId the id of the codec which compressed the content or 0 if the content is stored as it is
+	 * @param length the uncompressed length of the content
+	 */
+	ContentHeader(byte codecId, int length)
+	{
+		this.codecId = codecId;
+		this.length = length;
+	}
+	
+	/**
+	 * Gets the id of the codec which compressed the content
+	 * 
+	 * @return the codec id or 0 if the content is stored as it is
+	 */
+	byte getCodecId()
+	{
+		return this.codecId;
+	}
+	
+	/**
+	 * Gets the uncompressed length of the content
+	 * 
+	 * @return the length in bytes
+	 */
+	int getLength()
+	{
+		return this.length;
+	}
+	
+	/**
+	 * Writes the header to a buffer
+	 * 
+	 * @param target the buffer to write to
+	 */
+	void write(ByteBuffer target)
+	{
+		target.put(MAGIC);
+		target.put(this.codecId);
+		target.putInt(this.length);
+	}
+	
+	/**
+	 * Checks if content starts with the magic number and therefore must be stored behind a header
+	 * 
+	 * @param content the content from its position to its limit
+	 * @return true if the content starts with the magic number, false otherwise
+	 */
+	static boolean startsWithMagic(ByteBuffer content)
+	{
+		if (content.remaining() < MAGIC.length) return false;
+		
+		for (int i = 0; i < MAGIC.length; i++)
+		{
+			if (content.get(content.position() + i) != MAGIC[i]) return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks if the content of a file starts with a header
+	 * 
+	 * @param content the content from its position to its limit
+	 * @return true if the content starts with a header, false otherwise
+	 */
+	static boolean isPresent(ByteBuffer content)
+	{
+		return (content.remaining() >= SIZE) && startsWithMagic(content);
+	}
+	
+	/**
+	 * Checks if a file starts with a header without changing the position of the channel
+	 * 
+	 * @param channel the channel of the file
+	 * @return true if the file starts with a header, false otherwise
+	 * @throws IOException re-throws every exception
+	 */
+	static boolean isPresent(FileChannel channel) throws IOException
+	{
+		if (channel.size() < SIZE) return false;
+		
+		ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+		
+		while (magic.hasRemaining())
+		{
+			if (channel.read(magic, magic.position()) < 0) return false;
+		}
+		
+		magic.flip();
+		
+		return startsWithMagic(magic);
+	}
+	
+	/**
+	 * Reads the header from a buffer, which is positioned behind the header afterwards
+	 * 
+	 * @param content the content starting with a header
+	 * @return the header
+	 * @throws StreamCorruptedException if the content does not start with a header
+	 */
+	static ContentHeader read(ByteBuffer content) throws StreamCorruptedException
+	{
+		if (!isPresent(content)) throw new StreamCorruptedException("missing header");
+		
+		content.position(content.position() + MAGIC.length);
+		
+		byte codecId = content.get();
+		int length = content.getInt();
+		
+		if (length < 0) throw new StreamCorruptedException(String.format("invalid length %d", length));
+		
+		return new ContentHeader(codecId, length);
+	}
+}
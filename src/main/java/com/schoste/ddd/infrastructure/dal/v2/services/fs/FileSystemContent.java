@@ -0,0 +1,63 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.fs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.FileContent;
+
+/**
+ * Content of a file object which is read from its file when accessed.
+ * The file is opened by every call of {@link #openChannel()}, so changes of the file
+ * after the file object has been loaded are visible to the reader.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class FileSystemContent implements FileContent
+{
+	private final Path path;
+	
+	/**
+	 * Creates the content of a file
+	 * 
+	 * @param path the path to the file
+	 * @throws IllegalArgumentException if the path is null
+	 */
+	public FileSystemContent(Path path) throws IllegalArgumentException
+	{
+		if (path == null) throw new IllegalArgumentException("path");
+		
+		this.path = path;
+	}
+	
+	/**
+	 * Gets the path to the file
+	 * 
+	 * @return the path to the file
+	 */
+	public Path getPath()
+	{
+		return this.path;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getSize() throws IOException
+	{
+		return Files.size(this.path);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ReadableByteChannel openChannel() throws IOException
+	{
+		return FileChannel.open(this.path, StandardOpenOption.READ);
+	}
+}
@@ -1,24 +1,77 @@
 package com.schoste.ddd.infrastructure.dal.v2.services.fs;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.EOFException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import com.schoste.ddd.infrastructure.dal.v2.services.GenericDAO;
 import com.schoste.ddd.infrastructure.dal.v2.services.GenericDataAccessObject;
 import com.schoste.ddd.infrastructure.dal.v2.exceptions.DALException;
+import com.schoste.ddd.infrastructure.dal.v2.models.FileContent;
 import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
 import com.schoste.ddd.infrastructure.dal.v2.models.GenericFileObject;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.AsyncExecutor;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BlobStore;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BulkExecutor;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BulkOperationException;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ClearMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.CompressionCodec;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DAOMetrics;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DeflateCodec;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DirectoryScanner;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DirectoryWatcher;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.Durability;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.GroupCommitter;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.HandleScanner;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.IdAllocator;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.LockingMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ObjectCache;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ObjectHandle;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.OperationTrace;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.OperationTracer;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.PendingSaves;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.SegmentStore;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.SnapshotFile;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.SlabCache;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageEngine;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageLayout;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageManifest;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageTrash;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StripedLocks;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteBatch;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteMode;
 
 /**
  * Version 2 implementation of the GenericDataAccessObject interface to persist data objects
@@ -26,25 +79,234 @@ import com.schoste.ddd.infrastructure.dal.v2.models.GenericFileObject;
  * 
  * When files are saved, their content is completely overwritten and never appended.
  * 
- * Note that the maximum storage capacity is Integer.MAX_VALUE bytes.
+ * Files larger than Integer.MAX_VALUE bytes are not loaded into memory but read through
+ * a channel when accessed (see {@link GenericFileObject#getDataContent()}).
  * 
  * @author Philipp Schosteritsch <s.philipp@schoste.com>
- *
+ * 
  * @param <T> the class of the data object to persist
  */
 public abstract class GenericFileSystemDAO<T extends GenericFileObject> extends GenericDAO<T> implements GenericDataAccessObject<T> 
 {
+	/**
+	 * The number of records in the manifest which triggers its compaction if not set otherwise
+	 */
+	public static final long DEFAULT_MANIFEST_COMPACTION_THRESHOLD = 65536;
+	
+	/**
+	 * The smallest number of bytes of content which are compressed if not set otherwise
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+	
+	/**
+	 * The largest ratio of compressed to uncompressed bytes at which the compressed content is stored if not set otherwise
+	 */
+	public static final double DEFAULT_COMPRESSION_RATIO = 0.9;
+	
+	/**
+	 * The maximum number of bytes transferred from a channel into a file at once
+	 */
+	private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * The size of the created time stamp preceding the data of file objects stored in segments
+	 */
+	private static final int SEGMENT_HEADER_SIZE = 8;
+	
+	/**
+	 * The size of the files of deduplicated content, which reference a blob
+	 */
+	private static final int BLOB_REFERENCE_SIZE = ContentHeader.SIZE + BlobStore.HASH_SIZE;
+	
+	/**
+	 * The number of times a get resolves the content of a file whose blob has been released by concurrent saves
+	 */
+	private static final int MAX_BLOB_RESOLUTIONS = 16;
+	
+	/**
+	 * The entries of the auxiliary stores in the storage directory, which are kept by a swap clear
+	 */
+	private static final String[] AUXILIARY_ENTRIES = { IdAllocator.DIRECTORY_NAME, SegmentStore.DIRECTORY_NAME, BlobStore.DIRECTORY_NAME, StorageManifest.FILE_NAME, StorageManifest.LOCK_FILE_NAME };
+	
 	/**
 	 * The directory where the files of the data objects are located
 	 */
 	protected final Path storagePath;
 	
-	protected synchronized void tryAddToCollectionIfNewer(Collection<T> newerFiles, Path fileToAdd)
+	/**
+	 * The locks guarding the files of the data objects
+	 */
+	protected volatile StripedLocks locks = new StripedLocks(LockingMode.SYNCHRONIZED, 1);
+	
+	/**
+	 * The number of lock stripes used in {@link LockingMode#STRIPED} mode
+	 */
+	protected volatile int lockStripes = StripedLocks.DEFAULT_STRIPES;
+	
+	/**
+	 * Whether files are overwritten in place or replaced atomically
+	 */
+	protected volatile WriteMode writeMode = WriteMode.IN_PLACE;
+	
+	/**
+	 * Whether clears delete every file or swap the storage directory with an empty one
+	 */
+	protected volatile ClearMode clearMode = ClearMode.DELETE;
+	
+	/**
+	 * How far saves wait for files to reach the storage device
+	 */
+	protected volatile Durability durability = Durability.NONE;
+	
+	/**
+	 * The committer combining the commits of concurrent saves or null if every save commits on its own
+	 */
+	protected volatile GroupCommitter groupCommitter;
+	
+	/**
+	 * The saves waiting for the group committer after releasing the locks of their file objects
+	 */
+	protected final PendingSaves pendingSaves = new PendingSaves();
+	
+	/**
+	 * The layout mapping the ids of the data objects to the paths of their files
+	 */
+	protected volatile StorageLayout storageLayout = StorageLayout.FLAT;
+	
+	/**
+	 * The store of the file objects if they are stored in segments, null if they are stored in files of their own
+	 */
+	protected volatile SegmentStore segmentStore;
+	
+	/**
+	 * The snapshot served read-only instead of the storage directory or null if the storage directory is served
+	 */
+	protected volatile SnapshotFile snapshot;
+	
+	/**
+	 * The pool scanning the directory in parallel or null if the calling thread scans it
+	 */
+	protected volatile ForkJoinPool scanPool;
+	
+	/**
+	 * True if the scan pool was created by this DAO and must be shut down when replaced
+	 */
+	private boolean ownsScanPool;
+	
+	/**
+	 * The pool processing the ids of bulk gets and deletes in parallel or null if the calling thread processes them
+	 */
+	protected volatile ForkJoinPool bulkPool;
+	
+	/**
+	 * True if the bulk pool was created by this DAO and must be shut down when replaced
+	 */
+	private boolean ownsBulkPool;
+	
+	/**
+	 * The executor running the asynchronous operations or null until the first one is started
+	 */
+	protected volatile AsyncExecutor asyncExecutor;
+	
+	/**
+	 * True if the async executor was created by this DAO and must be closed when replaced
+	 */
+	private boolean ownsAsyncExecutor;
+	
+	/**
+	 * The metrics of the operations, which are collected while enabled (see {@link #setMetricsEnabled(boolean)})
+	 */
+	protected final DAOMetrics metrics = new DAOMetrics();
+	
+	/**
+	 * The journal of saves and deletes or null if incremental loads scan the storage directory
+	 */
+	protected volatile StorageManifest manifest;
+	
+	/**
+	 * The position in the manifest up to which changes have been loaded
+	 */
+	private volatile StorageManifest.Cursor manifestCursor;
+	
+	/**
+	 * The number of records in the manifest which triggers its compaction
+	 */
+	private volatile long manifestCompactionThreshold = DEFAULT_MANIFEST_COMPACTION_THRESHOLD;
+	
+	/**
+	 * The watcher collecting the ids of created and modified files or null if incremental loads scan the storage directory
+	 */
+	protected volatile DirectoryWatcher watcher;
+	
+	/**
+	 * True if the storage directory has been scanned since the watcher was started
+	 */
+	private volatile boolean watcherBaselineLoaded;
+	
+	/**
+	 * The modification time stamps of the data objects last loaded for the ids collected by the watcher
+	 */
+	private final Map<Integer, Long> watchedTimeStamps = new ConcurrentHashMap<>();
+	
+	/**
+	 * The allocator of the ids of new data objects
+	 */
+	protected final IdAllocator idAllocator;
+	
+	/**
+	 * The size in bytes from which files are mapped into memory instead of being read into the heap
+	 */
+	private volatile long mappedReadThreshold = Long.MAX_VALUE;
+	
+	/**
+	 * The size in bytes from which files are read through a channel when accessed instead of being loaded
+	 */
+	private volatile long streamingReadThreshold = Long.MAX_VALUE;
+	
+	/**
+	 * The codec compressing the content of the files or null if it is not compressed
+	 */
+	protected volatile CompressionCodec compressionCodec;
+	
+	/**
+	 * The codecs decompressing the content of the files by their codec id
+	 */
+	protected final Map<Byte, CompressionCodec> compressionCodecs = new ConcurrentHashMap<Byte, CompressionCodec>();
+	
+	/**
+	 * The smallest number of bytes of content which are compressed
+	 */
+	private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+	
+	/**
+	 * The largest ratio of compressed to uncompressed bytes at which the compressed content is stored
+	 */
+	private volatile double compressionRatio = DEFAULT_COMPRESSION_RATIO;
+	
+	/**
+	 * The store of the deduplicated content or null if the storage directory holds none
+	 */
+	protected volatile BlobStore blobStore;
+	
+	/**
+	 * True if the content of saved file objects is deduplicated
+	 */
+	private volatile boolean deduplicationEnabled;
+	
+	/**
+	 * The cache of the content of read files outside of the heap or null if every get reads the file
+	 */
+	private volatile SlabCache contentCache;
+	
+	protected void tryAddToCollectionIfNewer(Collection<T> newerFiles, Path fileToAdd)
 	{
 		try
 		{
 			String fileName = fileToAdd.getFileName().toString();
 			int id = Integer.valueOf(fileName);
+			
+			this.metrics.addFilesScanned(1);
+			
 			BasicFileAttributes attr = Files.readAttributes(fileToAdd, BasicFileAttributes.class);
 			long lastModified = attr.lastModifiedTime().to(TimeUnit.MILLISECONDS);
 			
@@ -53,14 +315,18 @@ public abstract class GenericFileSystemDAO<T extends GenericFileObject> extends
 			T dataObject = this.get(id);
 			
 			newerFiles.add(dataObject);
+			
+			this.metrics.addFilesLoaded(1);
 		}
 		catch (Exception e)
 		{
+			this.metrics.recordBackgroundError();
+			
 			e.printStackTrace(System.err);
 		}
 	}
 	
-	protected synchronized void updateTimeStamp(T fileObject, Path pathToFile)
+	protected void updateTimeStamp(T fileObject, Path pathToFile)
 	{
 		try
 		{
@@ -75,14 +341,39 @@ public abstract class GenericFileSystemDAO<T extends GenericFileObject> extends
 		}
 	}
 	
-	protected synchronized int getNewFileId()
+	/**
+	 * Gets a new id which is not used by any stored data object.
+	 * See {@link IdAllocator} for how ids are allocated.
+	 * 
+	 * @return the new id
+	 * @throws Exception re-throws every exception
+	 */
+	protected int getNewFileId() throws Exception
 	{
-		int now = Math.toIntExact(System.currentTimeMillis() / 1000);
-		Path fileToCheck = Paths.get(this.storagePath.toString(), String.valueOf(now));
-		
-		while (Files.exists(fileToCheck)) fileToCheck = Paths.get(this.storagePath.toString(), String.valueOf(++now));
-		
-		return now;
+		return this.idAllocator.allocate();
+	}
+	
+	/**
+	 * Gets the path to the file of a data object in the storage layout
+	 * 
+	 * @param id the id of the data object
+	 * @return the path to the file
+	 */
+	protected Path getPathToFile(int id)
+	{
+		return this.storageLayout.resolve(this.storagePath, id);
+	}
+	
+	/**
+	 * Gets the path to the existing file of a data object. Falls back to the file directly
+	 * in the storage directory if the store has not been migrated to the storage layout yet.
+	 * 
+	 * @param id the id of the data object
+	 * @return the path to the existing file or the path in the storage layout if no file exists
+	 */
+	protected Path findPathToFile(int id)
+	{
+		return this.storageLayout.find(this.storagePath, id);
 	}
 	
 	/**
@@ -116,6 +407,14 @@ public abstract class GenericFileSystemDAO<T extends GenericFileObject> extends
 			Files.delete(testFile);
 
 			if (Files.exists(testFile)) throw new IllegalStateException();
+			
+			this.idAllocator = new IdAllocator(this.storagePath);
+			
+			this.registerCompressionCodec(new DeflateCodec());
+			
+			if (Files.isDirectory(this.storagePath.resolve(BlobStore.DIRECTORY_NAME))) this.blobStore = new BlobStore(this.storagePath);
+			
+			for (Path trashDirectory : StorageTrash.find(this.storagePath)) this.deleteTrash(trashDirectory);
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -142,165 +441,2468 @@ public abstract class GenericFileSystemDAO<T extends GenericFileObject> extends
 	}
 	
 	/**
-	 * {@inheritDoc}
+	 * Gets the locking mode applied to get, save and delete operations
+	 * 
+	 * @return the locking mode
 	 */
-	@Override
-	protected synchronized T doGet(int id) throws IllegalStateException, Exception
+	public LockingMode getLockingMode()
 	{
-		Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(id));
-		
-		if (!Files.exists(pathToFile)) return null;
-		if (!Files.isRegularFile(pathToFile)) throw new IllegalStateException();
-		if (!Files.isReadable(pathToFile)) throw new IllegalStateException();
-		
-		File file = pathToFile.toFile();
-		
-		if (file.length() > Integer.MAX_VALUE) throw new IllegalStateException();
-		
-		int fileLength = Math.toIntExact(file.length());
-		T fileObject = this.createDataObject();
-		  fileObject.setId(id);
-		  
-		try (FileInputStream fis = new FileInputStream(file))
-		{
-			byte[] data = new byte[fileLength];
-			
-			fis.read(data, 0, fileLength);
-			fileObject.setData(data);
-		}
-		catch (Exception e)
-		{
-			throw e;
-		}
-		
-		this.updateTimeStamp(fileObject, pathToFile);
-		
-		return fileObject;
+		return this.locks.getLockingMode();
 	}
 	
 	/**
-	 * {@inheritDoc}
+	 * Sets the locking mode applied to get, save and delete operations.
+	 * Defaults to {@link LockingMode#SYNCHRONIZED}. Keeps the number of stripes set by {@link #setLockStripes(int)}.
+	 * Should be set before the DAO is used by more than one thread.
+	 * 
+	 * @param lockingMode the locking mode to apply
+	 * @throws IllegalArgumentException if the locking mode is null
 	 */
-	@Override
-	protected synchronized Collection<T> doReloadAll() throws Exception
+	public void setLockingMode(LockingMode lockingMode) throws IllegalArgumentException
 	{
-		this.latestModificationTimeStamp = 0;
-		
-		return this.getAll();
+		this.locks = new StripedLocks(lockingMode, this.lockStripes);
 	}
 	
 	/**
-	 * {@inheritDoc}
+	 * Gets the number of lock stripes used in {@link LockingMode#STRIPED} mode
+	 * 
+	 * @return the number of stripes as set, which is rounded up to the next power of two by the locks
 	 */
-	@Override
-	protected Collection<T> doGet(int[] ids) throws Exception 
+	public int getLockStripes()
 	{
-		Collection<T> newDataObjects = new ArrayList<T>();
-
-		if (ids != null)
-		{
-			for (int id : ids) newDataObjects.add(this.doGet(id));
-
-			return newDataObjects;
-		}
-
-		try (Stream<Path> files = Files.walk(this.storagePath)) 
-		{
-		    files
-		        .filter(Files::isRegularFile)
-		        .forEach(file -> this.tryAddToCollectionIfNewer(newDataObjects, file));
-		}
-
-		T latestModifiedObject = newDataObjects.stream().max(Comparator.comparing(GenericDataObject::getModifiedTimeStamp)).orElseGet(() -> null);
-		
-		if (latestModifiedObject != null) this.latestModificationTimeStamp = latestModifiedObject.getModifiedTimeStamp();
-		
-		return newDataObjects;
+		return this.lockStripes;
 	}
 	
 	/**
-	 * {@inheritDoc}
+	 * Sets the number of lock stripes used in {@link LockingMode#STRIPED} mode, also if it is applied later.
+	 * Defaults to {@value StripedLocks#DEFAULT_STRIPES}.
+	 * Should be set before the DAO is used by more than one thread.
+	 * 
+	 * @param lockStripes the number of stripes
+	 * @throws IllegalArgumentException if the number of stripes is less than 1
 	 */
-	@Override
-	protected synchronized void doSave(T fileObject) throws Exception
+	public void setLockStripes(int lockStripes) throws IllegalArgumentException
 	{
-		if (fileObject == null) throw new IllegalArgumentException("fileObject");
-
-		int fileId = (fileObject.getId() > 0) ? fileObject.getId() : this.getNewFileId();
-		
-		Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(fileId));
-		
-		try (FileOutputStream fos = new FileOutputStream(pathToFile.toFile()))
-		{
-			fos.write(fileObject.getData());
-		}
-		catch (Exception e)
-		{
-			throw e;
-		}
-		
-		fileObject.setId(fileId);
-		
-		this.updateTimeStamp(fileObject, pathToFile);
+		this.locks = new StripedLocks(this.locks.getLockingMode(), lockStripes);
+		this.lockStripes = lockStripes;
 	}
-
-	@Override
-	protected void doSave(Collection<T> fileObjects) throws Exception
+	
+	/**
+	 * Gets whether files are overwritten in place or replaced atomically
+	 * 
+	 * @return the write mode
+	 */
+	public WriteMode getWriteMode()
 	{
-		for (T fileObject : fileObjects) this.doSave(fileObject);
+		return this.writeMode;
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Sets whether files are overwritten in place or replaced atomically. In {@link WriteMode#ATOMIC} mode
+	 * the content is written to a temporary file which replaces the file by an atomic move, so neither
+	 * concurrent readers nor a crash ever see a partly written file, and gets do not acquire any lock.
+	 * 
+	 * @param writeMode the write mode ({@link WriteMode#IN_PLACE} by default)
+	 * @throws IllegalArgumentException if the write mode is null
 	 */
-	@Override
-	protected synchronized void doDelete(T dataObject) throws Exception 
+	public void setWriteMode(WriteMode writeMode) throws IllegalArgumentException
 	{
-		if (dataObject == null) throw new IllegalArgumentException("dataObject");
-		
-		Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(dataObject.getId()));
+		if (writeMode == null) throw new IllegalArgumentException("writeMode");
 		
-		if (Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS)) Files.delete(pathToFile);
-		
-		dataObject.setIsDeleted(!Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS));
+		this.writeMode = writeMode;
 	}
-
-	@Override
-	protected void doDelete(Collection<T> fileObjects) throws Exception
+	
+	/**
+	 * Gets whether clears delete every file or swap the storage directory with an empty one
+	 * 
+	 * @return the clear mode
+	 */
+	public ClearMode getClearMode()
 	{
-		for (T fileObject : fileObjects) this.doDelete(fileObject);
+		return this.clearMode;
 	}
-
-	@Override
-	protected void doDelete(int[] fileObjectIds) throws Exception
+	
+	/**
+	 * Sets whether clears delete every file or swap the storage directory with an empty one. In {@link ClearMode#SWAP}
+	 * mode {@link #clear()} returns as soon as the storage directory has been renamed to a trash directory and
+	 * recreated. The trash directory is deleted in the background by the scan pool (see {@link #setScanPool(ForkJoinPool)})
+	 * or by the common pool. Trash directories left over by previous processes are deleted when a DAO is created.
+	 * The auxiliary stores (e.g. the id ranges and the manifest) are moved back into the recreated directory and
+	 * cleared like in {@link ClearMode#DELETE} mode. Other DAOs sharing the storage directory find them missing
+	 * meanwhile, so swap clears must only be used while a single DAO uses the storage directory.
+	 * 
+	 * @param clearMode the clear mode ({@link ClearMode#DELETE} by default)
+	 * @throws IllegalArgumentException if the clear mode is null
+	 */
+	public void setClearMode(ClearMode clearMode) throws IllegalArgumentException
 	{
-		for (int fileObjectId : fileObjectIds)
-		{
-			Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(fileObjectId));
-			
-			if (Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS)) Files.delete(pathToFile);			
-		}
+		if (clearMode == null) throw new IllegalArgumentException("clearMode");
+		
+		this.clearMode = clearMode;
 	}
-
+	
+	/**
+	 * Gets how far saves wait for files to reach the storage device
+	 * 
+	 * @return the durability
+	 */
+	public Durability getDurability()
+	{
+		return this.durability;
+	}
+	
+	/**
+	 * Sets how far saves wait for files to reach the storage device. Use {@link Durability#FULL}
+	 * together with {@link WriteMode#ATOMIC} for saves which survive a crash of the system.
+	 * 
+	 * @param durability the durability ({@link Durability#NONE} by default)
+	 * @throws IllegalArgumentException if the durability is null
+	 */
+	public void setDurability(Durability durability) throws IllegalArgumentException
+	{
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		this.durability = durability;
+	}
+	
+	/**
+	 * Gets the time the commits of concurrent saves are combined
+	 * 
+	 * @return the window in milliseconds or 0 if every save commits on its own
+	 */
+	public long getGroupCommitWindow()
+	{
+		GroupCommitter groupCommitter = this.groupCommitter;
+		
+		return (groupCommitter == null) ? 0 : groupCommitter.getWindowMillis();
+	}
+	
+	/**
+	 * Sets the time the commits of concurrent saves are combined. If the {@link Durability} is not
+	 * {@link Durability#NONE}, the first of several concurrent saves waits for this time and then makes
+	 * the files of all saves arrived in the meantime durable at once, sharing the syncs of the storage device.
+	 * Saves release the locks of their file objects while they wait, so saves of other file objects can join
+	 * the group in every {@link LockingMode}.
+	 * 
+	 * @param groupCommitWindow the window in milliseconds or 0 to let every save commit on its own (default)
+	 * @throws IllegalArgumentException if the window is negative
+	 */
+	public void setGroupCommitWindow(long groupCommitWindow) throws IllegalArgumentException
+	{
+		if (groupCommitWindow < 0) throw new IllegalArgumentException("groupCommitWindow");
+		
+		this.groupCommitter = (groupCommitWindow == 0) ? null : new GroupCommitter(groupCommitWindow);
+	}
+	
+	/**
+	 * Gets the layout of the files in the storage directory
+	 * 
+	 * @return the storage layout
+	 */
+	public StorageLayout getStorageLayout()
+	{
+		return this.storageLayout;
+	}
+	
+	/**
+	 * Sets the layout of the files in the storage directory, e.g. {@link StorageLayout#SHARDED} for
+	 * stores with millions of data objects. Files are saved in the new layout from now on. Files of a
+	 * flat store remain readable, other existing files must be moved with {@link #migrateStorageLayout()}.
+	 * 
+	 * @param storageLayout the storage layout ({@link StorageLayout#FLAT} by default)
+	 * @throws IllegalArgumentException if the storage layout is null
+	 */
+	public void setStorageLayout(StorageLayout storageLayout) throws IllegalArgumentException
+	{
+		if (storageLayout == null) throw new IllegalArgumentException("storageLayout");
+		
+		this.storageLayout = storageLayout;
+	}
+	
+	/**
+	 * Sets the number of levels of sub-directories of the storage layout
+	 * 
+	 * @param storageLayoutLevels the number of levels; 0 for a flat layout (default)
+	 * @throws IllegalArgumentException if the number of levels is out of range
+	 * @see #setStorageLayout(StorageLayout)
+	 */
+	public void setStorageLayoutLevels(int storageLayoutLevels) throws IllegalArgumentException
+	{
+		this.setStorageLayout(new StorageLayout(storageLayoutLevels));
+	}
+	
+	/**
+	 * Moves the files of all data objects to their paths in the storage layout, e.g. to convert
+	 * a flat store into a sharded one. All data objects are locked while the files are moved.
+	 * 
+	 * @return the number of files moved
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public int migrateStorageLayout() throws DALException
+	{
+		StripedLocks locks = this.locks;
+		
+		locks.lockAll();
+		
+		try
+		{
+			this.awaitPendingSaves(locks);
+			
+			return this.storageLayout.migrate(this.storagePath);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+		finally
+		{
+			locks.unlockAll();
+		}
+	}
+	
+	/**
+	 * Gets how the file objects are stored
+	 * 
+	 * @return the storage engine
+	 */
+	public StorageEngine getStorageEngine()
+	{
+		return (this.segmentStore != null) ? StorageEngine.SEGMENTS : StorageEngine.FILES;
+	}
+	
+	/**
+	 * Sets how the file objects are stored. With {@link StorageEngine#SEGMENTS} the file objects are appended to
+	 * the segments of a {@link SegmentStore} in the storage directory, which is opened (and its index loaded) by this call.
+	 * Their data are held in the heap when read and the created time stamp is stored with them. The storage layout,
+	 * the write mode, the read thresholds, the manifest, the watcher and the content cache only apply to
+	 * {@link StorageEngine#FILES}, the durability applies to both. File objects are not migrated between the engines,
+	 * so {@link #reloadAll()} should be called after switching.
+	 * 
+	 * The index of the segments is only held in memory, so only one DAO (in this or another process) may use the
+	 * segments of a storage directory at a time. The segments stay locked until {@link StorageEngine#FILES} is set again.
+	 * 
+	 * @param storageEngine the storage engine ({@link StorageEngine#FILES} by default)
+	 * @throws IllegalArgumentException if the storage engine is null
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. when the segments cannot be opened or are used by another DAO)
+	 */
+	public synchronized void setStorageEngine(StorageEngine storageEngine) throws IllegalArgumentException, DALException
+	{
+		if (storageEngine == null) throw new IllegalArgumentException("storageEngine");
+		
+		try
+		{
+			if ((storageEngine == StorageEngine.SEGMENTS) && (this.segmentStore == null))
+			{
+				SegmentStore segmentStore = new SegmentStore(this.storagePath);
+				
+				this.idAllocator.observe(segmentStore.getLargestId());
+				this.segmentStore = segmentStore;
+			}
+			else if ((storageEngine == StorageEngine.FILES) && (this.segmentStore != null))
+			{
+				this.segmentStore.close();
+				this.segmentStore = null;
+			}
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Packs the file objects of the storage directory (or of the segments, see {@link #setStorageEngine(StorageEngine)})
+	 * into a snapshot file (see {@link SnapshotFile}), which can be served read-only by {@link #setSnapshotFile(Path)},
+	 * e.g. to start read replicas without opening a file per file object. The snapshot replaces the file only once it
+	 * is complete. Every file object is locked for reading while it is packed.
+	 * 
+	 * @param snapshotFile the snapshot file to write, which should not be located in the storage directory
+	 * @return the number of packed file objects
+	 * @throws IllegalArgumentException if the snapshot file is null
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public int exportSnapshot(Path snapshotFile) throws IllegalArgumentException, DALException
+	{
+		if (snapshotFile == null) throw new IllegalArgumentException("snapshotFile");
+		
+		try (SnapshotFile.Writer writer = new SnapshotFile.Writer(snapshotFile))
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				for (int id : segmentStore.getIds(0))
+				{
+					SegmentStore.Record record = segmentStore.get(id);
+					
+					if (record == null) continue;
+					
+					ByteBuffer payload = record.getPayload();
+					long createdTimeStamp = payload.getLong();
+					
+					writer.add(id, createdTimeStamp, record.getTimeStamp(), payload);
+				}
+			}
+			else
+			{
+				Set<Integer> ids = new TreeSet<Integer>();
+				
+				DirectoryScanner.forEachDataObjectFile(this.storagePath, null, file -> ids.add(DirectoryScanner.getDataObjectId(file)));
+				
+				for (int id : ids) this.exportFile(writer, id);
+			}
+			
+			writer.commit();
+			
+			return writer.getSize();
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	private void exportFile(SnapshotFile.Writer writer, int id) throws Exception
+	{
+		Lock lock = (this.writeMode == WriteMode.ATOMIC) ? null : this.locks.readLock(id);
+		
+		if (lock != null) this.lock(lock);
+		
+		try
+		{
+			Path pathToFile = this.findPathToFile(id);
+			BasicFileAttributes attributes = Files.readAttributes(pathToFile, BasicFileAttributes.class);
+			
+			try (FileChannel channel = FileChannel.open(this.resolveBlob(pathToFile), StandardOpenOption.READ))
+			{
+				writer.add(id, attributes.creationTime().toMillis(), attributes.lastModifiedTime().toMillis(), channel);
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted since the directory has been scanned
+			return;
+		}
+		finally
+		{
+			if (lock != null) lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the snapshot served by the DAO
+	 * 
+	 * @return the path to the snapshot file or null if the storage directory is served
+	 */
+	public Path getSnapshotFile()
+	{
+		SnapshotFile snapshot = this.snapshot;
+		
+		return (snapshot == null) ? null : snapshot.getFile();
+	}
+	
+	/**
+	 * Serves the file objects of a snapshot written by {@link #exportSnapshot(Path)} instead of the ones of the
+	 * storage directory. The snapshot is mapped into memory and gets find the file objects by a binary search of its
+	 * index, without opening files. While a snapshot is served, the DAO is read-only: saves, deletes and clears throw
+	 * an {@link IllegalStateException}. {@link #reloadAll()} should be called after switching.
+	 * 
+	 * @param snapshotFile the snapshot file or null to serve the storage directory again (default)
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. if the file is no snapshot)
+	 */
+	public synchronized void setSnapshotFile(Path snapshotFile) throws DALException
+	{
+		try
+		{
+			SnapshotFile snapshot = this.snapshot;
+			
+			this.snapshot = (snapshotFile == null) ? null : new SnapshotFile(snapshotFile);
+			
+			if (snapshot != null) snapshot.close();
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Throws if a snapshot is served, as the DAO is read-only then
+	 * 
+	 * @throws IllegalStateException if a snapshot is served
+	 */
+	private void ensureWritable() throws IllegalStateException
+	{
+		if (this.snapshot != null) throw new IllegalStateException("snapshot");
+	}
+	
+	private void lock(Lock lock)
+	{
+		this.lock(lock, OperationTracer.DISABLED);
+	}
+	
+	private void lock(Lock lock, OperationTrace trace)
+	{
+		long startTime = this.metrics.startLockWait();
+		long traceStartTime = trace.startPhase();
+		
+		lock.lock();
+		
+		trace.endPhase(OperationTrace.Phase.LOCK, traceStartTime);
+		this.metrics.recordLockWait(startTime);
+	}
+	
+	/**
+	 * Gets the pool which scans the storage directory in {@link #getAll()} and {@link #reloadAll()}
+	 * 
+	 * @return the pool or null if the directory is scanned by the calling thread
+	 */
+	public ForkJoinPool getScanPool()
+	{
+		return this.scanPool;
+	}
+	
+	/**
+	 * Sets the pool which scans the storage directory in {@link #getAll()} and {@link #reloadAll()}.
+	 * Reading the attributes of the files and loading the data objects is spread over the threads
+	 * of the pool. Loading only runs in parallel if the locking mode is {@link LockingMode#STRIPED}.
+	 * 
+	 * @param scanPool the pool or null to scan the directory on the calling thread (default)
+	 */
+	public synchronized void setScanPool(ForkJoinPool scanPool)
+	{
+		if (this.ownsScanPool) this.scanPool.shutdown();
+		
+		this.scanPool = scanPool;
+		this.ownsScanPool = false;
+	}
+	
+	/**
+	 * Sets the number of threads which scan the storage directory in {@link #getAll()} and {@link #reloadAll()}.
+	 * A dedicated pool with the given parallelism is created for the DAO.
+	 * 
+	 * @param scanParallelism the number of threads; 1 or less scans the directory on the calling thread
+	 */
+	public synchronized void setScanParallelism(int scanParallelism)
+	{
+		this.setScanPool((scanParallelism > 1) ? new ForkJoinPool(scanParallelism) : null);
+		this.ownsScanPool = (this.scanPool != null);
+	}
+	
+	/**
+	 * Gets the pool which processes the ids of {@link #get(int[])} and {@link #delete(int[])}
+	 * 
+	 * @return the pool or null if the ids are processed one after another by the calling thread
+	 */
+	public ForkJoinPool getBulkPool()
+	{
+		return this.bulkPool;
+	}
+	
+	/**
+	 * Sets the pool which processes the ids of {@link #get(int[])} and {@link #delete(int[])} in parallel,
+	 * which keeps several I/O requests in flight on storage devices processing them concurrently (e.g. SSDs).
+	 * The ids bypass the synchronized single-id operations and only lock their own files. Gets take shared read
+	 * locks, which only exclude writes, so they run in parallel in every locking mode. Deletes take the write
+	 * locks of the ids and therefore only run in parallel if the locking mode is {@link LockingMode#STRIPED}.
+	 * Gets return the data objects in the order of the ids. Every id is processed, even if others fail,
+	 * and the failures are reported together by a {@link BulkOperationException}.
+	 * 
+	 * @param bulkPool the pool or null to process the ids one after another on the calling thread (default)
+	 */
+	public synchronized void setBulkPool(ForkJoinPool bulkPool)
+	{
+		if (this.ownsBulkPool) this.bulkPool.shutdown();
+		
+		this.bulkPool = bulkPool;
+		this.ownsBulkPool = false;
+	}
+	
+	/**
+	 * Sets the number of ids of {@link #get(int[])} and {@link #delete(int[])} processed in parallel
+	 * (see {@link #setBulkPool(ForkJoinPool)}). A dedicated pool with the given parallelism is created for the DAO.
+	 * 
+	 * @param bulkParallelism the number of threads; 1 or less processes the ids on the calling thread
+	 */
+	public synchronized void setBulkParallelism(int bulkParallelism)
+	{
+		this.setBulkPool((bulkParallelism > 1) ? new ForkJoinPool(bulkParallelism) : null);
+		this.ownsBulkPool = (this.bulkPool != null);
+	}
+	
+	/**
+	 * Gets the executor which runs the asynchronous operations (e.g. {@link #getAsync(int)})
+	 * 
+	 * @return the executor; a default one is created when first needed
+	 */
+	public AsyncExecutor getAsyncExecutor()
+	{
+		AsyncExecutor asyncExecutor = this.asyncExecutor;
+		
+		return (asyncExecutor != null) ? asyncExecutor : this.createAsyncExecutor();
+	}
+	
+	/**
+	 * Sets the executor which runs the asynchronous operations (e.g. {@link #getAsync(int)}).
+	 * An executor can be shared by several DAOs to limit the operations in flight on a storage device.
+	 * Only gets in the {@link WriteMode#ATOMIC} write mode read files asynchronously; in the default
+	 * {@link WriteMode#IN_PLACE} write mode, {@link #getAsync(int)} falls back to a blocking {@link #get(int)}
+	 * on a thread of the executor, like saves and deletes.
+	 * 
+	 * @param asyncExecutor the executor or null to create one with a thread per processor when first needed (default)
+	 */
+	public synchronized void setAsyncExecutor(AsyncExecutor asyncExecutor)
+	{
+		if (this.ownsAsyncExecutor) this.asyncExecutor.close();
+		
+		this.asyncExecutor = asyncExecutor;
+		this.ownsAsyncExecutor = false;
+	}
+	
+	/**
+	 * Sets the number of I/O threads and the maximum number of asynchronous operations in flight.
+	 * A dedicated executor is created for the DAO.
+	 * 
+	 * @param threads the number of I/O threads
+	 * @param maxInFlight the maximum number of operations started but not completed, beyond which starting an operation blocks
+	 * @throws IllegalArgumentException if a parameter is less than 1
+	 */
+	public synchronized void setAsyncParallelism(int threads, int maxInFlight) throws IllegalArgumentException
+	{
+		this.setAsyncExecutor(new AsyncExecutor(threads, maxInFlight));
+		this.ownsAsyncExecutor = true;
+	}
+	
+	private synchronized AsyncExecutor createAsyncExecutor()
+	{
+		if (this.asyncExecutor == null)
+		{
+			this.asyncExecutor = new AsyncExecutor();
+			this.ownsAsyncExecutor = true;
+		}
+		
+		return this.asyncExecutor;
+	}
+	
+	/**
+	 * Checks if saves and deletes are recorded in a manifest in the storage directory
+	 * 
+	 * @return true if the manifest is used, false otherwise
+	 */
+	public boolean isManifestEnabled()
+	{
+		return (this.manifest != null);
+	}
+	
+	/**
+	 * Enables or disables recording saves and deletes in a manifest in the storage directory.
+	 * If enabled, incremental calls of {@link #getAll()} only load the data objects recorded since the
+	 * previous call instead of reading the attributes of every file. The first call after enabling and
+	 * every call of {@link #reloadAll()} still scan the directory. A missing manifest is rebuilt from a
+	 * directory scan. Every DAO writing to the storage directory must have the manifest enabled.
+	 * 
+	 * @param manifestEnabled true to use the manifest, false to scan the directory (default)
+	 */
+	public void setManifestEnabled(boolean manifestEnabled)
+	{
+		this.manifestCursor = null;
+		this.manifest = (manifestEnabled) ? new StorageManifest(this.storagePath) : null;
+	}
+	
+	/**
+	 * Gets the number of records in the manifest which triggers its compaction
+	 * 
+	 * @return the number of records
+	 */
+	public long getManifestCompactionThreshold()
+	{
+		return this.manifestCompactionThreshold;
+	}
+	
+	/**
+	 * Sets the number of records in the manifest which triggers its compaction by {@link #getAll()}.
+	 * After a compaction the threshold is raised to twice the number of records left, so a manifest
+	 * holding mostly live data objects is not compacted again by every call.
+	 * 
+	 * @param manifestCompactionThreshold the number of records ({@value #DEFAULT_MANIFEST_COMPACTION_THRESHOLD} by default)
+	 * @throws IllegalArgumentException if the threshold is less than 1
+	 */
+	public void setManifestCompactionThreshold(long manifestCompactionThreshold) throws IllegalArgumentException
+	{
+		if (manifestCompactionThreshold < 1) throw new IllegalArgumentException("manifestCompactionThreshold");
+		
+		this.manifestCompactionThreshold = manifestCompactionThreshold;
+	}
+	
+	/**
+	 * Rewrites the manifest with one record per stored data object. Called by {@link #getAll()} once the
+	 * manifest holds more records than the compaction threshold (see {@link #setManifestCompactionThreshold(long)}).
+	 * The next call of {@link #getAll()} of every DAO reading the manifest scans the storage directory.
+	 * 
+	 * @throws IllegalStateException if the manifest is not enabled
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public void compactManifest() throws IllegalStateException, DALException
+	{
+		StorageManifest manifest = this.manifest;
+		
+		if (manifest == null) throw new IllegalStateException();
+		
+		try
+		{
+			long records = manifest.compact().getSequence();
+			
+			this.manifestCompactionThreshold = Math.max(this.manifestCompactionThreshold, 2 * records);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Gets the size in bytes from which files are mapped into memory
+	 * 
+	 * @return the size in bytes or {@link Long#MAX_VALUE} if files are never mapped
+	 */
+	public long getMappedReadThreshold()
+	{
+		return this.mappedReadThreshold;
+	}
+	
+	/**
+	 * Sets the size in bytes from which the content of files is mapped into memory read-only
+	 * (see {@link GenericFileObject#getDataBuffer()}) instead of being read into an array on the heap.
+	 * Mapped content is only read from disk when accessed and does not add to the heap. It is copied
+	 * into the heap when {@link GenericFileObject#getData()} is called or the file object is saved.
+	 * 
+	 * @param mappedReadThreshold the size in bytes or {@link Long#MAX_VALUE} to never map files (default)
+	 * @throws IllegalArgumentException if the threshold is less than 1
+	 */
+	public void setMappedReadThreshold(long mappedReadThreshold) throws IllegalArgumentException
+	{
+		if (mappedReadThreshold < 1) throw new IllegalArgumentException("mappedReadThreshold");
+		
+		this.mappedReadThreshold = mappedReadThreshold;
+	}
+	
+	/**
+	 * Gets the size in bytes from which files are read through a channel when accessed
+	 * 
+	 * @return the size in bytes or {@link Long#MAX_VALUE} if only files larger than Integer.MAX_VALUE bytes are streamed
+	 */
+	public long getStreamingReadThreshold()
+	{
+		return this.streamingReadThreshold;
+	}
+	
+	/**
+	 * Sets the size in bytes from which files are not loaded but read through a channel when accessed
+	 * (see {@link GenericFileObject#getDataContent()}), so they are served with constant memory use.
+	 * Files larger than Integer.MAX_VALUE bytes are always streamed. The file is opened when the content
+	 * is read, so changes saved in the meantime are visible to the reader.
+	 * 
+	 * @param streamingReadThreshold the size in bytes or {@link Long#MAX_VALUE} to only stream files larger than Integer.MAX_VALUE bytes (default)
+	 * @throws IllegalArgumentException if the threshold is less than 1
+	 */
+	public void setStreamingReadThreshold(long streamingReadThreshold) throws IllegalArgumentException
+	{
+		if (streamingReadThreshold < 1) throw new IllegalArgumentException("streamingReadThreshold");
+		
+		this.streamingReadThreshold = streamingReadThreshold;
+	}
+	
+	/**
+	 * Gets the codec which compresses the content of the files
+	 * 
+	 * @return the codec or null if the content is not compressed
+	 */
+	public CompressionCodec getCompressionCodec()
+	{
+		return this.compressionCodec;
+	}
+	
+	/**
+	 * Sets the codec which compresses the content of the files and registers it for reading.
+	 * Only content with at least {@link #getCompressionThreshold()} bytes is compressed, and only if
+	 * compression saves enough (see {@link #setCompressionRatio(double)}). Compressed files start with
+	 * a header, so compression can be switched on and off for an existing store without converting its
+	 * files. Compressed content is decompressed into the heap when read, so it is neither mapped nor
+	 * streamed, and {@link #transferTo(int, long, long, WritableByteChannel)} copies it through the heap.
+	 * Streamed content (see {@link GenericFileObject#getDataContent()}) is written as it is.
+	 * 
+	 * @param compressionCodec the codec (e.g. {@link DeflateCodec}) or null to not compress (default)
+	 */
+	public void setCompressionCodec(CompressionCodec compressionCodec)
+	{
+		if (compressionCodec != null) this.registerCompressionCodec(compressionCodec);
+		
+		this.compressionCodec = compressionCodec;
+	}
+	
+	/**
+	 * Registers a codec for reading the files compressed by it. The {@link DeflateCodec} is registered by default.
+	 * 
+	 * @param compressionCodec the codec to register; replaces a codec with the same codec id
+	 * @throws IllegalArgumentException if the codec is null or its codec id is not between 1 and 15
+	 */
+	public void registerCompressionCodec(CompressionCodec compressionCodec) throws IllegalArgumentException
+	{
+		if ((compressionCodec == null) || (compressionCodec.getCodecId() < 1) || (compressionCodec.getCodecId() > 15)) throw new IllegalArgumentException("compressionCodec");
+		
+		this.compressionCodecs.put(compressionCodec.getCodecId(), compressionCodec);
+	}
+	
+	/**
+	 * Gets the smallest number of bytes of content which are compressed
+	 * 
+	 * @return the number of bytes
+	 */
+	public int getCompressionThreshold()
+	{
+		return this.compressionThreshold;
+	}
+	
+	/**
+	 * Sets the smallest number of bytes of content which are compressed.
+	 * Smaller content rarely compresses well and is written as it is.
+	 * 
+	 * @param compressionThreshold the number of bytes ({@value #DEFAULT_COMPRESSION_THRESHOLD} by default)
+	 * @throws IllegalArgumentException if the threshold is negative
+	 */
+	public void setCompressionThreshold(int compressionThreshold) throws IllegalArgumentException
+	{
+		if (compressionThreshold < 0) throw new IllegalArgumentException("compressionThreshold");
+		
+		this.compressionThreshold = compressionThreshold;
+	}
+	
+	/**
+	 * Gets the largest ratio of compressed to uncompressed bytes at which the compressed content is stored
+	 * 
+	 * @return the ratio
+	 */
+	public double getCompressionRatio()
+	{
+		return this.compressionRatio;
+	}
+	
+	/**
+	 * Sets the largest ratio of compressed to uncompressed bytes at which the compressed content is stored.
+	 * Content which does not compress below the ratio is written as it is, as already compressed formats
+	 * (e.g. images) would only cost decompressing them on every read.
+	 * 
+	 * @param compressionRatio the ratio greater than 0 and at most 1 ({@value #DEFAULT_COMPRESSION_RATIO} by default)
+	 * @throws IllegalArgumentException if the ratio is out of range
+	 */
+	public void setCompressionRatio(double compressionRatio) throws IllegalArgumentException
+	{
+		if (!(compressionRatio > 0) || (compressionRatio > 1)) throw new IllegalArgumentException("compressionRatio");
+		
+		this.compressionRatio = compressionRatio;
+	}
+	
+	/**
+	 * Checks if the content of saved file objects is deduplicated
+	 * 
+	 * @return true if the content is deduplicated, false otherwise
+	 */
+	public boolean isDeduplicationEnabled()
+	{
+		return this.deduplicationEnabled;
+	}
+	
+	/**
+	 * Enables or disables the deduplication of the content of saved file objects. If enabled, every distinct
+	 * content is stored once in a blob named by its hash (see {@link BlobStore}) and the file of the id only
+	 * references the blob. Saving content which is stored already does not write it again, and a blob is
+	 * removed when the last file object referencing it is deleted or saved with other content. The files
+	 * keep their own time stamps. Deduplicated content remains readable when deduplication is disabled.
+	 * Streamed content (see {@link GenericFileObject#getDataContent()}) and file objects stored in segments
+	 * are not deduplicated.
+	 * 
+	 * @param deduplicationEnabled true to deduplicate the content, false to store it in the file of every id (default)
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public synchronized void setDeduplicationEnabled(boolean deduplicationEnabled) throws DALException
+	{
+		try
+		{
+			if (deduplicationEnabled && (this.blobStore == null)) this.blobStore = new BlobStore(this.storagePath);
+			
+			this.deduplicationEnabled = deduplicationEnabled;
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Gets the maximum number of bytes the content cache allocates outside of the heap
+	 * 
+	 * @return the maximum number of bytes or 0 if the content cache is disabled
+	 */
+	public long getContentCacheMaxBytes()
+	{
+		SlabCache contentCache = this.contentCache;
+		
+		return (contentCache == null) ? 0 : contentCache.getCapacity();
+	}
+	
+	/**
+	 * Enables the cache of the content of read files, which holds the content in direct buffers outside of the heap
+	 * (see {@link SlabCache}) and evicts the least recently used content. Gets of cached files copy the content into
+	 * the heap once, {@link #readContent(int, Function)} reads it without copying. Only files smaller than the
+	 * mapped and streaming read thresholds and a slab ({@link SlabCache#DEFAULT_SLAB_SIZE}) are cached by gets.
+	 * Cached content is returned as long as the last modification time and the size of its file are unchanged,
+	 * and is removed when the file object is saved or deleted. Replaces the current content cache.
+	 * 
+	 * @param contentCacheMaxBytes the maximum number of bytes or 0 to disable the content cache (default)
+	 * @throws IllegalArgumentException if the number of bytes is negative
+	 */
+	public synchronized void setContentCacheMaxBytes(long contentCacheMaxBytes) throws IllegalArgumentException
+	{
+		if (contentCacheMaxBytes < 0) throw new IllegalArgumentException("contentCacheMaxBytes");
+		
+		this.contentCache = (contentCacheMaxBytes == 0) ? null : new SlabCache(contentCacheMaxBytes);
+	}
+	
+	/**
+	 * Gets the statistics of the content cache
+	 * 
+	 * @return the statistics or null if the content cache is disabled
+	 */
+	public ObjectCache.Stats getContentCacheStats()
+	{
+		SlabCache contentCache = this.contentCache;
+		
+		return (contentCache == null) ? null : contentCache.getStats();
+	}
+	
+	/**
+	 * Checks if changes of the storage directory are tracked by a {@link java.nio.file.WatchService}
+	 * 
+	 * @return true if changes are tracked, false otherwise
+	 */
+	public boolean isWatchEnabled()
+	{
+		return (this.watcher != null);
+	}
+	
+	/**
+	 * Enables or disables tracking changes of the storage directory with a {@link java.nio.file.WatchService}.
+	 * If enabled, incremental calls of {@link #getAll()} only load the data objects whose files have been
+	 * reported as created or modified since the previous call, including the ones written by other processes.
+	 * The first call after enabling, every call of {@link #reloadAll()} and every call after the watch service
+	 * lost events still scan the directory. If the manifest is enabled too, it takes precedence
+	 * and the reported ids are kept until the manifest is disabled.
+	 * 
+	 * @param watchEnabled true to track changes, false to scan the directory (default)
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. when the directory cannot be watched)
+	 */
+	public synchronized void setWatchEnabled(boolean watchEnabled) throws DALException
+	{
+		try
+		{
+			if (watchEnabled && (this.watcher == null))
+			{
+				this.watcherBaselineLoaded = false;
+				this.watchedTimeStamps.clear();
+				this.watcher = new DirectoryWatcher(this.storagePath);
+			}
+			else if (!watchEnabled && (this.watcher != null))
+			{
+				this.watcher.close();
+				this.watcher = null;
+			}
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Gets the metrics of the operations of the DAO
+	 * 
+	 * @return the metrics
+	 */
+	public DAOMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Checks if the metrics of the operations are collected
+	 * 
+	 * @return true if the metrics are collected, false otherwise
+	 */
+	public boolean isMetricsEnabled()
+	{
+		return this.metrics.isEnabled();
+	}
+	
+	/**
+	 * Enables or disables collecting the metrics of the operations (see {@link DAOMetrics}).
+	 * While enabled, the metrics are published as an MXBean in the platform MBean server, named by the
+	 * class and the storage path of the DAO (see {@link DAOMetrics#register(String, Path)}).
+	 * 
+	 * @param metricsEnabled true to collect and publish the metrics, false to stop (default)
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. when the MXBean cannot be registered)
+	 */
+	public synchronized void setMetricsEnabled(boolean metricsEnabled) throws DALException
+	{
+		try
+		{
+			if (metricsEnabled) this.metrics.register(this.getClass().getSimpleName(), this.storagePath);
+			else this.metrics.unregister();
+			
+			this.metrics.setEnabled(metricsEnabled);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Writes the content of a stored file object to a channel without loading it into the heap.
+	 * 
+	 * @param id the id of the file object
+	 * @param target the channel to write to
+	 * @return the number of bytes written or -1 if there is no file object with the id
+	 * @throws IllegalArgumentException if the id is less than 1 or the target is null
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 * @see #transferTo(int, long, long, WritableByteChannel)
+	 */
+	public long transferTo(int id, WritableByteChannel target) throws IllegalArgumentException, DALException
+	{
+		return this.transferTo(id, 0, Long.MAX_VALUE, target);
+	}
+	
+	/**
+	 * Writes a range of the content of a stored file object to a channel with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+	 * which lets the operating system copy the content directly into the target (e.g. a socket) without
+	 * passing it through the heap. The file object is locked for reading while the content is transferred.
+	 * If the target is a non-blocking channel which cannot take more bytes, the transfer stops early.
+	 * 
+	 * @param id the id of the file object
+	 * @param offset the position in the file to start at
+	 * @param length the maximum number of bytes to write; the transfer stops at the end of the file
+	 * @param target the channel to write to
+	 * @return the number of bytes written or -1 if there is no file object with the id
+	 * @throws IllegalArgumentException if the id is less than 1, the offset or length is negative or the target is null
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public long transferTo(int id, long offset, long length, WritableByteChannel target) throws IllegalArgumentException, DALException
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		if (offset < 0) throw new IllegalArgumentException("offset");
+		if (length < 0) throw new IllegalArgumentException("length");
+		if (target == null) throw new IllegalArgumentException("target");
+		
+		Lock lock = (this.writeMode == WriteMode.ATOMIC) ? null : this.locks.readLock(id);
+		
+		if (lock != null) this.lock(lock);
+		
+		try
+		{
+			SnapshotFile snapshot = this.snapshot;
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (snapshot != null)
+			{
+				SnapshotFile.Entry entry = snapshot.get(id);
+				
+				if (entry == null) return -1;
+				if (ContentHeader.isPresent(entry.getContent())) return write(this.decode(entry.getContent()), offset, length, target);
+				
+				return snapshot.transferTo(id, offset, length, target);
+			}
+			
+			if (segmentStore != null)
+			{
+				ByteBuffer header = ByteBuffer.allocate(ContentHeader.SIZE);
+				
+				if (segmentStore.read(id, SEGMENT_HEADER_SIZE, header) < 0) return -1;
+				
+				header.flip();
+				
+				if (ContentHeader.isPresent(header))
+				{
+					SegmentStore.Record record = segmentStore.get(id);
+					
+					if (record == null) return -1;
+					
+					ByteBuffer payload = record.getPayload();
+					
+					payload.position(payload.position() + SEGMENT_HEADER_SIZE);
+					
+					return write(this.decode(payload), offset, length, target);
+				}
+				
+				return segmentStore.transferTo(id, Math.min(offset, Long.MAX_VALUE - SEGMENT_HEADER_SIZE) + SEGMENT_HEADER_SIZE, length, target);
+			}
+			
+			Path pathToFile = this.findPathToFile(id);
+			
+			if (!Files.isRegularFile(pathToFile)) return -1;
+			
+			try (FileChannel channel = FileChannel.open(this.resolveBlob(pathToFile), StandardOpenOption.READ))
+			{
+				if (ContentHeader.isPresent(channel))
+				{
+					ByteBuffer content = readFully(channel, pathToFile);
+					
+					content.flip();
+					
+					return write(this.decode(content), offset, length, target);
+				}
+				
+				long end = Math.min(channel.size(), (Long.MAX_VALUE - offset < length) ? Long.MAX_VALUE : offset + length);
+				long position = offset;
+				
+				while (position < end)
+				{
+					long transferred = channel.transferTo(position, end - position, target);
+					
+					if (transferred <= 0) break;
+					
+					position += transferred;
+				}
+				
+				return Math.max(0, position - offset);
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			return -1;
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+		finally
+		{
+			if (lock != null) lock.unlock();
+		}
+	}
+	
+	/**
+	 * Passes the content of a stored file object to a reader without copying it into the heap, if possible.
+	 * Content held by the content cache (see {@link #setContentCacheMaxBytes(long)}) is passed directly, files
+	 * reaching the mapped read threshold are mapped into memory and other files are read into the heap once.
+	 * The buffer is read-only and must not be used after the reader returns. The file object is locked for
+	 * reading while the reader runs.
+	 * 
+	 * @param <R> the class of the result of the reader
+	 * @param id the id of the file object
+	 * @param reader the function reading the content from the position to the limit of the buffer
+	 * @return the result of the reader or null if there is no file object with the id
+	 * @throws IllegalArgumentException if the id is less than 1 or the reader is null
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. if the file is larger than Integer.MAX_VALUE bytes)
+	 */
+	public <R> R readContent(int id, Function<ByteBuffer, R> reader) throws IllegalArgumentException, DALException
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		if (reader == null) throw new IllegalArgumentException("reader");
+		
+		Lock lock = (this.writeMode == WriteMode.ATOMIC) ? null : this.locks.readLock(id);
+		
+		if (lock != null) this.lock(lock);
+		
+		try
+		{
+			SnapshotFile snapshot = this.snapshot;
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (snapshot != null)
+			{
+				SnapshotFile.Entry entry = snapshot.get(id);
+				
+				return (entry == null) ? null : reader.apply(this.decode(entry.getContent()).asReadOnlyBuffer());
+			}
+			
+			if (segmentStore != null)
+			{
+				SegmentStore.Record record = segmentStore.get(id);
+				
+				if (record == null) return null;
+				
+				ByteBuffer payload = record.getPayload();
+				
+				payload.position(payload.position() + SEGMENT_HEADER_SIZE);
+				
+				return reader.apply(this.decode(payload).asReadOnlyBuffer());
+			}
+			
+			Path pathToFile = this.findPathToFile(id);
+			SlabCache contentCache = this.contentCache;
+			
+			// Read before the file is opened, so content saved in the meantime is cached as outdated
+			BasicFileAttributes attributes = Files.readAttributes(pathToFile, BasicFileAttributes.class);
+			long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+			
+			if (!attributes.isRegularFile()) return null;
+			
+			// Deduplicated content is read from its blob and not cached
+			Path pathToContent = this.resolveBlob(pathToFile);
+			boolean cacheable = (contentCache != null) && (pathToContent == pathToFile) && (attributes.size() <= contentCache.getMaxContentSize());
+			
+			if (cacheable)
+			{
+				try (SlabCache.Handle handle = contentCache.acquire(id, lastModified, attributes.size()))
+				{
+					if (handle != null) return reader.apply(this.decode(handle.getContent()).asReadOnlyBuffer());
+				}
+			}
+			
+			try (FileChannel channel = FileChannel.open(pathToContent, StandardOpenOption.READ))
+			{
+				ByteBuffer content = (channel.size() >= this.mappedReadThreshold) ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) : readFully(channel, pathToFile);
+				
+				if (!(content instanceof MappedByteBuffer)) content.flip();
+				
+				if (cacheable && (content.remaining() == attributes.size())) contentCache.put(id, lastModified, content);
+				
+				return reader.apply(this.decode(content).asReadOnlyBuffer());
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+		finally
+		{
+			if (lock != null) lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets a file object asynchronously. In the {@link WriteMode#ATOMIC} write mode, where gets do not lock
+	 * the file, files are read with an {@link AsynchronousFileChannel} on the I/O threads. Otherwise, i.e. in the
+	 * default {@link WriteMode#IN_PLACE} write mode, and for content which is cached, mapped, streamed or not
+	 * stored in files, it falls back to a blocking {@link #get(int)} on an I/O thread, as the locks of the ids
+	 * belong to the thread holding them. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param id the id of the file object
+	 * @return the future completed with the file object or null if there is none with the id
+	 * @throws IllegalArgumentException if the id is less than 1
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<T> getAsync(int id) throws IllegalArgumentException
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		
+		AsyncExecutor asyncExecutor = this.getAsyncExecutor();
+		
+		return asyncExecutor.submitAsync(() -> this.readFileObjectAsync(id, asyncExecutor));
+	}
+	
+	/**
+	 * Saves a file object on an I/O thread. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param fileObject the file object to save
+	 * @return the future completed with the saved file object or exceptionally with the exception {@link #save(GenericDataObject)} throws
+	 * @throws IllegalArgumentException if the file object is null
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<T> saveAsync(T fileObject) throws IllegalArgumentException
+	{
+		if (fileObject == null) throw new IllegalArgumentException("fileObject");
+		
+		return this.getAsyncExecutor().submit(() ->
+		{
+			this.save(fileObject);
+			
+			return fileObject;
+		});
+	}
+	
+	/**
+	 * Deletes a file object on an I/O thread. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param fileObject the file object to delete
+	 * @return the future completed when the file object is deleted or exceptionally with the exception {@link #delete(GenericDataObject)} throws
+	 * @throws IllegalArgumentException if the file object is null
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<Void> deleteAsync(T fileObject) throws IllegalArgumentException
+	{
+		if (fileObject == null) throw new IllegalArgumentException("fileObject");
+		
+		return this.getAsyncExecutor().submit(() ->
+		{
+			this.delete(fileObject);
+			
+			return null;
+		});
+	}
+	
+	/**
+	 * Gets the file objects modified since the previous call on an I/O thread (see {@link #getAll()}).
+	 * Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @return the future completed with the file objects or exceptionally with the exception {@link #getAll()} throws
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<Collection<T>> getAllAsync()
+	{
+		return this.getAsyncExecutor().submit(() -> this.getAll());
+	}
+	
+	/**
+	 * Gets handles of all stored file objects (see {@link #getAllHandles(long)})
+	 * 
+	 * @return the handles ordered by id
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public List<ObjectHandle<T>> getAllHandles() throws DALException
+	{
+		return this.getAllHandles(0);
+	}
+	
+	/**
+	 * Gets handles of the stored file objects modified after a time stamp. The handles hold the id, the time stamps
+	 * and the size read from the attributes of the files (or from the index of the segments or the snapshot)
+	 * and load the file object only when first accessed (see {@link ObjectHandle#get()}), so listing them takes memory
+	 * proportional to the number of file objects instead of their size. Unlike {@link #getAll()}, the call does not
+	 * change which file objects the next incremental load returns. To list the changed file objects only, pass the
+	 * largest modified time stamp of the handles returned by the previous call.
+	 * 
+	 * @param modifiedAfter the time stamp in milliseconds; 0 for all file objects
+	 * @return the handles ordered by id
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public List<ObjectHandle<T>> getAllHandles(long modifiedAfter) throws DALException
+	{
+		try
+		{
+			return HandleScanner.scan(this.snapshot, this.segmentStore, this.storagePath, this.scanPool, modifiedAfter, this::get, this.metrics);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	private CompletableFuture<T> readFileObjectAsync(int id, AsyncExecutor asyncExecutor) throws Exception
+	{
+		if ((this.writeMode != WriteMode.ATOMIC) || (this.snapshot != null) || (this.segmentStore != null) || (this.contentCache != null)) return CompletableFuture.completedFuture(this.get(id));
+		
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.GET, this.storagePath);
+		CompletableFuture<T> result;
+		
+		trace.setId(id);
+		
+		try
+		{
+			result = this.metrics.measureAsync(DAOMetrics.Operation.GET, () -> this.readFileAsync(id, asyncExecutor, trace));
+		}
+		catch (Exception e)
+		{
+			trace.finish();
+			
+			throw e;
+		}
+		
+		return result.whenComplete((fileObject, e) -> trace.finish());
+	}
+	
+	private CompletableFuture<T> readFileAsync(int id, AsyncExecutor asyncExecutor, OperationTrace trace) throws Exception
+	{
+		Path pathToFile = this.findPathToFile(id);
+		AsynchronousFileChannel channel;
+		
+		if (!Files.isRegularFile(pathToFile)) return CompletableFuture.completedFuture(null);
+		
+		try
+		{
+			channel = AsynchronousFileChannel.open(this.resolveBlob(pathToFile), EnumSet.of(StandardOpenOption.READ), asyncExecutor.getExecutorService());
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted concurrently or saved and the blob of the previous content released, which the blocking read retries
+			return CompletableFuture.completedFuture(Files.exists(pathToFile) ? this.readFileObject(id, trace) : null);
+		}
+		
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		
+		try
+		{
+			long fileLength = channel.size();
+			
+			if ((fileLength > Integer.MAX_VALUE) || (fileLength >= this.streamingReadThreshold) || (fileLength >= this.mappedReadThreshold))
+			{
+				channel.close();
+				
+				// Measured and traced as this get, as the file is not locked in the atomic write mode
+				return CompletableFuture.completedFuture(this.readFileObject(id, trace));
+			}
+			
+			AsyncExecutor.readFully(channel, ByteBuffer.allocate((int) fileLength)).whenComplete((data, e) ->
+			{
+				try
+				{
+					channel.close();
+					
+					if (e != null)
+					{
+						result.completeExceptionally((e instanceof Exception) ? new DALException((Exception) e) : e);
+						
+						return;
+					}
+					
+					this.metrics.addBytesRead(data.remaining());
+					
+					T fileObject = this.createDataObject();
+					
+					fileObject.setId(id);
+					fileObject.setData(this.decode(data).array());
+					
+					this.updateTimeStamp(fileObject, pathToFile);
+					if (trace.isEnabled()) trace.addBytes(fileObject.getDataSize());
+					
+					result.complete(fileObject);
+				}
+				catch (Exception ex)
+				{
+					result.completeExceptionally(new DALException(ex));
+				}
+			});
+		}
+		catch (Exception e)
+		{
+			channel.close();
+			
+			throw e;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected T doGet(int id) throws IllegalStateException, Exception
+	{
+		return this.metrics.measure(DAOMetrics.Operation.GET, () -> this.getFileObject(id));
+	}
+	
+	private T getFileObject(int id) throws IllegalStateException, Exception
+	{
+		return this.getFileObject(id, this.locks.readLock(id));
+	}
+	
+	private T getFileObject(int id, Lock readLock) throws IllegalStateException, Exception
+	{
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.GET, this.storagePath);
+		Lock lock = (this.writeMode == WriteMode.ATOMIC) ? null : readLock;
+		
+		trace.setId(id);
+		
+		if (lock != null) this.lock(lock, trace);
+		
+		try
+		{
+			return this.readFileObject(id, trace);
+		}
+		finally
+		{
+			if (lock != null) lock.unlock();
+			
+			trace.finish();
+		}
+	}
+	
+	private T readFileObject(int id, OperationTrace trace) throws IllegalStateException, Exception
+	{
+		T fileObject = this.readFileObject(id);
+		
+		if ((fileObject != null) && trace.isEnabled()) trace.addBytes(fileObject.getDataSize());
+		
+		return fileObject;
+	}
+	
+	private T readFileObject(int id) throws IllegalStateException, Exception
+	{
+		SnapshotFile snapshot = this.snapshot;
+		SegmentStore segmentStore = this.segmentStore;
+		
+		if (snapshot != null) return this.readSnapshotFileObject(id, snapshot);
+		if (segmentStore != null) return this.readStoredFileObject(id, segmentStore);
+		
+		Path pathToFile = this.findPathToFile(id);
+		SlabCache contentCache = this.contentCache;
+		
+		if (!Files.exists(pathToFile)) return null;
+		if (!Files.isRegularFile(pathToFile)) throw new IllegalStateException();
+		if (!Files.isReadable(pathToFile)) throw new IllegalStateException();
+		
+		T fileObject = this.createDataObject();
+		  fileObject.setId(id);
+		  
+		for (int resolutions=1; ; resolutions++)
+		{
+			try
+			{
+				// Read before the file is opened, so content saved in the meantime is cached as outdated
+				BasicFileAttributes attributes = (contentCache != null) ? Files.readAttributes(pathToFile, BasicFileAttributes.class) : null;
+				Path pathToContent = this.resolveBlob(pathToFile);
+				
+				if ((attributes != null) && (pathToContent == pathToFile) && this.isCacheable(attributes.size(), contentCache))
+				{
+					fileObject.setData(this.readCachedData(id, pathToFile, attributes, contentCache));
+				}
+				else
+				{
+					this.readData(fileObject, pathToContent);
+				}
+				
+				break;
+			}
+			catch (NoSuchFileException e)
+			{
+				// Deleted concurrently, as gets do not lock in atomic write mode
+				if (!Files.exists(pathToFile)) return null;
+				
+				// Otherwise saved concurrently and the blob of the previous content released, so the new reference is
+				// resolved again, unless the blob is missing too often to be explained by saves
+				if (resolutions == MAX_BLOB_RESOLUTIONS) throw e;
+			}
+			catch (Exception e)
+			{
+				throw e;
+			}
+		}
+		
+		this.updateTimeStamp(fileObject, pathToFile);
+		
+		return fileObject;
+	}
+	
+	private T readSnapshotFileObject(int id, SnapshotFile snapshot) throws Exception
+	{
+		SnapshotFile.Entry entry = snapshot.get(id);
+		
+		if (entry == null) return null;
+		
+		T fileObject = this.createDataObject();
+		
+		fileObject.setId(id);
+		fileObject.setCreatedTimeStamp(entry.getCreatedTimeStamp());
+		fileObject.setModifiedTimeStamp(entry.getModifiedTimeStamp());
+		fileObject.setDataBuffer(this.decode(entry.getContent()));
+		
+		this.metrics.addBytesRead(entry.getContent().remaining());
+		
+		return fileObject;
+	}
+	
+	private T readStoredFileObject(int id, SegmentStore segmentStore) throws Exception
+	{
+		SegmentStore.Record record = segmentStore.get(id);
+		
+		if (record == null) return null;
+		
+		ByteBuffer payload = record.getPayload();
+		T fileObject = this.createDataObject();
+		
+		this.metrics.addBytesRead(payload.remaining());
+		
+		fileObject.setId(id);
+		fileObject.setCreatedTimeStamp(payload.getLong());
+		fileObject.setModifiedTimeStamp(record.getTimeStamp());
+		fileObject.setDataBuffer(this.decode(payload));
+		
+		return fileObject;
+	}
+	
+	private void readData(T fileObject, Path pathToFile) throws Exception
+	{
+		try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ))
+		{
+			long fileLength = channel.size();
+			
+			this.metrics.addBytesRead(fileLength);
+			
+			// Compressed content is decompressed into the heap, whatever the size of the file
+			if (((fileLength > Integer.MAX_VALUE) || (fileLength >= this.streamingReadThreshold)) && !ContentHeader.isPresent(channel))
+			{
+				fileObject.setDataContent(new FileSystemContent(pathToFile));
+			}
+			else if ((fileLength >= this.mappedReadThreshold) && !ContentHeader.isPresent(channel))
+			{
+				fileObject.setDataBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength));
+			}
+			else
+			{
+				ByteBuffer data = readFully(channel, pathToFile);
+				
+				data.flip();
+				
+				fileObject.setData(this.decode(data).array());
+			}
+		}
+	}
+	
+	private boolean isCacheable(long fileLength, SlabCache contentCache)
+	{
+		return (fileLength <= contentCache.getMaxContentSize()) && (fileLength < this.streamingReadThreshold) && (fileLength < this.mappedReadThreshold);
+	}
+	
+	private byte[] readCachedData(int id, Path pathToFile, BasicFileAttributes attributes, SlabCache contentCache) throws Exception
+	{
+		long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+		
+		try (SlabCache.Handle handle = contentCache.acquire(id, lastModified, attributes.size()))
+		{
+			if (handle != null)
+			{
+				ByteBuffer content = handle.getContent();
+				
+				if (ContentHeader.isPresent(content)) return this.decode(content).array();
+				
+				byte[] data = new byte[content.remaining()];
+				
+				content.get(data);
+				
+				return data;
+			}
+		}
+		
+		try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ))
+		{
+			ByteBuffer data = readFully(channel, pathToFile);
+			
+			data.flip();
+			
+			this.metrics.addBytesRead(data.remaining());
+			
+			if (data.remaining() == attributes.size()) contentCache.put(id, lastModified, data);
+			
+			return this.decode(data).array();
+		}
+	}
+	
+	private static ByteBuffer readFully(FileChannel channel, Path pathToFile) throws Exception
+	{
+		ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+		
+		while (data.hasRemaining())
+		{
+			if (channel.read(data) < 0) throw new EOFException(pathToFile.toString());
+		}
+		
+		return data;
+	}
+	
+	private static long write(ByteBuffer content, long offset, long length, WritableByteChannel target) throws Exception
+	{
+		ByteBuffer range = content.duplicate();
+		int start = (int) Math.min(offset, range.remaining());
+		
+		range.position(range.position() + start);
+		range.limit(range.position() + (int) Math.min(length, range.remaining()));
+		
+		while (range.hasRemaining())
+		{
+			if (target.write(range) <= 0) break;
+		}
+		
+		return range.position() - content.position() - start;
+	}
+	
+	private ByteBuffer encode(ByteBuffer data) throws Exception
+	{
+		CompressionCodec codec = this.compressionCodec;
+		int length = data.remaining();
+		
+		if ((codec != null) && (length >= this.compressionThreshold))
+		{
+			ByteBuffer source = toHeap(data);
+			int maxLength = (int) (length * this.compressionRatio);
+			ByteBuffer content = ByteBuffer.allocate(ContentHeader.SIZE + maxLength);
+			int compressedLength = codec.compress(source.array(), source.arrayOffset() + source.position(), length, content.array(), ContentHeader.SIZE, maxLength);
+			
+			if (compressedLength >= 0)
+			{
+				new ContentHeader(codec.getCodecId(), length).write(content);
+				content.position(0);
+				content.limit(ContentHeader.SIZE + compressedLength);
+				
+				return content;
+			}
+		}
+		
+		if (!ContentHeader.startsWithMagic(data)) return data;
+		
+		// Escapes content which would be taken for a header
+		ByteBuffer content = ByteBuffer.allocate(ContentHeader.SIZE + length);
+		
+		new ContentHeader((byte) 0, length).write(content);
+		content.put(data.duplicate());
+		content.flip();
+		
+		return content;
+	}
+	
+	private ByteBuffer decode(ByteBuffer content) throws Exception
+	{
+		if (!ContentHeader.isPresent(content)) return content;
+		
+		ByteBuffer source = content.duplicate();
+		ContentHeader header = ContentHeader.read(source);
+		byte[] data = new byte[header.getLength()];
+		
+		if (header.getCodecId() == 0)
+		{
+			if (source.remaining() != data.length) throw new StreamCorruptedException(String.format("expected %d bytes, found %d", data.length, source.remaining()));
+			
+			source.get(data);
+			
+			return ByteBuffer.wrap(data);
+		}
+		
+		CompressionCodec codec = this.compressionCodecs.get(header.getCodecId());
+		
+		if (codec == null) throw new StreamCorruptedException(String.format("no compression codec registered for id %d", header.getCodecId()));
+		
+		source = toHeap(source);
+		
+		codec.decompress(source.array(), source.arrayOffset() + source.position(), source.remaining(), data, 0, data.length);
+		
+		return ByteBuffer.wrap(data);
+	}
+	
+	private static ByteBuffer toHeap(ByteBuffer buffer)
+	{
+		if (buffer.hasArray()) return buffer;
+		
+		ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+		
+		copy.put(buffer.duplicate());
+		copy.flip();
+		
+		return copy;
+	}
+	
+	private ByteBuffer deduplicate(ByteBuffer content, int fileId, BlobStore blobStore) throws Exception
+	{
+		byte[] hash = BlobStore.hash(content);
+		ByteBuffer reference = ByteBuffer.allocate(BLOB_REFERENCE_SIZE);
+		
+		blobStore.addReference(hash, fileId, content, this.durability);
+		
+		new ContentHeader(ContentHeader.BLOB_REFERENCE, hash.length).write(reference);
+		reference.put(hash);
+		reference.flip();
+		
+		return reference;
+	}
+	
+	private Path resolveBlob(Path pathToFile) throws Exception
+	{
+		BlobStore blobStore = this.blobStore;
+		byte[] hash = (blobStore == null) ? null : this.readBlobReference(pathToFile);
+		
+		return (hash == null) ? pathToFile : blobStore.getContentFile(hash);
+	}
+	
+	private byte[] readBlobReference(int id) throws Exception
+	{
+		return (this.blobStore == null) ? null : this.readBlobReference(this.findPathToFile(id));
+	}
+	
+	private byte[] readBlobReference(Path pathToFile) throws Exception
+	{
+		if (this.blobStore == null) return null;
+		
+		try
+		{
+			// Other files are told apart by their size without being opened
+			if (Files.size(pathToFile) != BLOB_REFERENCE_SIZE) return null;
+			
+			try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ))
+			{
+				ByteBuffer reference = readFully(channel, pathToFile);
+				
+				reference.flip();
+				
+				if (!ContentHeader.isPresent(reference)) return null;
+				
+				ContentHeader header = ContentHeader.read(reference);
+				
+				if ((header.getCodecId() != ContentHeader.BLOB_REFERENCE) || (header.getLength() != BlobStore.HASH_SIZE)) return null;
+				
+				byte[] hash = new byte[BlobStore.HASH_SIZE];
+				
+				reference.get(hash);
+				
+				return hash;
+			}
+		}
+		catch (NoSuchFileException | EOFException e)
+		{
+			// Deleted or replaced concurrently
+			return null;
+		}
+	}
+	
+	private void releaseBlob(int id, byte[] previousHash) throws Exception
+	{
+		if ((previousHash != null) && !Arrays.equals(previousHash, this.readBlobReference(id))) this.blobStore.removeReference(previousHash, id);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Collection<T> doReloadAll() throws Exception
+	{
+		return this.metrics.measure(DAOMetrics.Operation.RELOAD_ALL, () -> this.reloadFileObjects());
+	}
+	
+	private synchronized Collection<T> reloadFileObjects() throws Exception
+	{
+		this.latestModificationTimeStamp = 0;
+		this.manifestCursor = null;
+		this.watcherBaselineLoaded = false;
+		this.watchedTimeStamps.clear();
+		
+		return this.getAll();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Collection<T> doGet(int[] ids) throws Exception 
+	{
+		return this.metrics.measure((ids == null) ? DAOMetrics.Operation.GET_ALL : DAOMetrics.Operation.GET, () -> this.getFileObjects(ids));
+	}
+	
+	private Collection<T> getFileObjects(int[] ids) throws Exception
+	{
+		Collection<T> newDataObjects = new ArrayList<T>();
+
+		if (ids != null)
+		{
+			StripedLocks locks = this.locks;
+			ForkJoinPool bulkPool = this.bulkPool;
+			
+			// Shared read locks, so the ids are read in parallel in every locking mode
+			if (bulkPool != null) return BulkExecutor.execute(ids, bulkPool, id -> this.getFileObject(id, locks.sharedReadLock(id)));
+			
+			for (int id : ids) newDataObjects.add(this.getFileObject(id));
+
+			return newDataObjects;
+		}
+		
+		SnapshotFile snapshot = this.snapshot;
+		SegmentStore segmentStore = this.segmentStore;
+		
+		if (snapshot != null) return this.getChangedDataObjects(snapshot.getIds(this.latestModificationTimeStamp));
+		if (segmentStore != null) return this.getChangedDataObjects(segmentStore.getIds(this.latestModificationTimeStamp));
+		
+		StorageManifest manifest = this.manifest;
+		StorageManifest.Cursor manifestCursor = null;
+		DirectoryWatcher watcher = this.watcher;
+		
+		if (manifest != null)
+		{
+			StorageManifest.Changes changes = manifest.readChanges(this.manifestCursor);
+			
+			if (changes != null)
+			{
+				newDataObjects = this.getChangedDataObjects(changes.getSavedIds());
+				this.manifestCursor = changes.getCursor();
+				
+				if (changes.getCursor().getSequence() > this.manifestCompactionThreshold) this.compactManifest();
+				
+				return newDataObjects;
+			}
+			
+			manifestCursor = manifest.getCursor();
+		}
+		else if (watcher != null)
+		{
+			// Drained only if the manifest is disabled, so the ids collected meanwhile are kept until they are used
+			Collection<Integer> dirtyIds = watcher.drain();
+			
+			if ((dirtyIds != null) && this.watcherBaselineLoaded)
+			{
+				Collection<T> changedDataObjects = this.getChangedDataObjects(dirtyIds);
+				
+				// A single save may raise several events, so a data object is only returned again if it has been modified since
+				changedDataObjects.removeIf(dataObject -> Long.valueOf(dataObject.getModifiedTimeStamp()).equals(this.watchedTimeStamps.put(dataObject.getId(), dataObject.getModifiedTimeStamp())));
+				
+				return changedDataObjects;
+			}
+		}
+
+		ForkJoinPool pool = this.scanPool;
+		Collection<T> newerDataObjects = (pool == null) ? newDataObjects : new ConcurrentLinkedQueue<T>();
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SCAN, this.storagePath);
+		LongAdder scannedFiles = new LongAdder();
+		
+		try
+		{
+			DirectoryScanner.forEachDataObjectFile(this.storagePath, pool, file ->
+			{
+				scannedFiles.increment();
+				this.tryAddToCollectionIfNewer(newerDataObjects, file);
+			});
+		}
+		finally
+		{
+			trace.setFiles(scannedFiles.sum(), newerDataObjects.size());
+			trace.finish();
+		}
+		
+		if (pool != null) newDataObjects.addAll(newerDataObjects);
+
+		T latestModifiedObject = newDataObjects.stream().max(Comparator.comparing(GenericDataObject::getModifiedTimeStamp)).orElseGet(() -> null);
+		
+		if (latestModifiedObject != null) this.latestModificationTimeStamp = latestModifiedObject.getModifiedTimeStamp();
+		if (manifest != null) this.manifestCursor = manifestCursor;
+		if (watcher != null) this.watcherBaselineLoaded = true;
+		
+		return newDataObjects;
+	}
+	
+	private Collection<T> getChangedDataObjects(Collection<Integer> ids) throws Exception
+	{
+		Collection<T> changedDataObjects = new ArrayList<T>(ids.size());
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SCAN, this.storagePath);
+		
+		try
+		{
+			for (int id : ids)
+			{
+				T dataObject = this.get(id);
+				
+				if (dataObject != null) changedDataObjects.add(dataObject);
+			}
+		}
+		finally
+		{
+			trace.setFiles(ids.size(), changedDataObjects.size());
+			trace.finish();
+		}
+		
+		for (T dataObject : changedDataObjects)
+		{
+			this.latestModificationTimeStamp = Math.max(this.latestModificationTimeStamp, dataObject.getModifiedTimeStamp());
+		}
+		
+		this.metrics.addFilesScanned(ids.size());
+		this.metrics.addFilesLoaded(changedDataObjects.size());
+		
+		return changedDataObjects;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void doSave(T fileObject) throws Exception
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.SAVE, () -> this.saveFileObject(fileObject));
+	}
+	
+	private void saveFileObject(T fileObject) throws Exception
+	{
+		if (fileObject == null) throw new IllegalArgumentException("fileObject");
+		
+		this.ensureWritable();
+
+		if (fileObject.getId() > 0) this.idAllocator.observe(fileObject.getId());
+		
+		int fileId = (fileObject.getId() > 0) ? fileObject.getId() : this.getNewFileId();
+		int[] fileIds = new int[] { fileId };
+		List<Lock> locks = Collections.singletonList(this.locks.writeLock(fileId));
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SAVE, this.storagePath);
+		CompletableFuture<Void> pendingSave = null;
+		
+		trace.setId(fileId);
+		
+		if (trace.isEnabled()) trace.addBytes(fileObject.getDataSize());
+		
+		this.lock(locks.get(0), trace);
+		
+		try
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				this.storeFileObject(fileObject, fileId, segmentStore, this.durability);
+				
+				return;
+			}
+			
+			this.awaitPendingSaves(fileIds, locks, trace);
+			
+			WriteBatch batch = new WriteBatch(this.writeMode, this.durability);
+			byte[] previousHash = this.readBlobReference(fileId);
+			Path pathToFile = this.writeFileObject(fileObject, fileId, batch);
+			
+			pendingSave = this.commit(batch, fileIds, locks, trace);
+			
+			this.completeFileObject(fileObject, fileId, pathToFile);
+			this.releaseBlob(fileId, previousHash);
+			
+			if (this.manifest != null) this.manifest.append(fileId, StorageManifest.Operation.SAVE);
+		}
+		finally
+		{
+			if (pendingSave != null) this.pendingSaves.end(fileIds, pendingSave);
+			
+			locks.get(0).unlock();
+			trace.finish();
+		}
+	}
+	
+	private Path writeFileObject(T fileObject, int fileId, WriteBatch batch) throws Exception
+	{
+		StorageLayout storageLayout = this.storageLayout;
+		WriteMode writeMode = this.writeMode;
+		Path pathToFile = storageLayout.resolve(this.storagePath, fileId);
+		
+		if (!storageLayout.isFlat()) Files.createDirectories(pathToFile.getParent());
+		
+		if (fileObject.isDataStreamed())
+		{
+			this.writeFileContent(fileObject.getDataContent(), pathToFile, batch);
+		}
+		else
+		{
+			// Copies mapped content into the heap before the file, which may be the mapped one, is truncated.
+			// Atomic writes do not truncate the file, so mapped content is written without copying it.
+			ByteBuffer content = this.encode((writeMode == WriteMode.ATOMIC) ? fileObject.getDataBuffer() : ByteBuffer.wrap(fileObject.getData()));
+			BlobStore blobStore = this.blobStore;
+			ByteBuffer data = (this.deduplicationEnabled && (blobStore != null)) ? this.deduplicate(content, fileId, blobStore) : content;
+			
+			this.metrics.addBytesWritten(data.remaining());
+			
+			batch.write(pathToFile, channel ->
+			{
+				while (data.hasRemaining()) channel.write(data);
+			});
+		}
+		
+		return pathToFile;
+	}
+
+	private void writeFileContent(FileContent content, Path pathToFile, WriteBatch batch) throws Exception
+	{
+		if ((content instanceof FileSystemContent) && Files.exists(pathToFile) && Files.isSameFile(((FileSystemContent) content).getPath(), pathToFile))
+		{
+			// The content is read from the file to write, which therefore is unchanged
+			Files.setLastModifiedTime(pathToFile, FileTime.fromMillis(System.currentTimeMillis()));
+			
+			return;
+		}
+		
+		try (ReadableByteChannel source = content.openChannel())
+		{
+			batch.write(pathToFile, target ->
+			{
+				long position = 0;
+				
+				for (long transferred = target.transferFrom(source, position, TRANSFER_CHUNK_SIZE); transferred > 0; transferred = target.transferFrom(source, position, TRANSFER_CHUNK_SIZE))
+				{
+					position += transferred;
+				}
+				
+				this.metrics.addBytesWritten(position);
+			});
+		}
+	}
+	
+	private void storeFileObject(T fileObject, int fileId, SegmentStore segmentStore, Durability durability) throws Exception
+	{
+		// Streamed data are copied into the heap, as records are appended at once
+		ByteBuffer data = fileObject.getDataBuffer();
+		
+		if (data != null) data = this.encode(data);
+		
+		long createdTimeStamp = (fileObject.getCreatedTimeStamp() > 0) ? fileObject.getCreatedTimeStamp() : System.currentTimeMillis();
+		ByteBuffer payload = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + ((data == null) ? 0 : data.remaining()));
+		
+		payload.putLong(createdTimeStamp);
+		
+		if (data != null) payload.put(data);
+		
+		payload.flip();
+		
+		this.metrics.addBytesWritten(payload.remaining());
+		
+		long modifiedTimeStamp = segmentStore.put(fileId, payload, durability);
+		
+		fileObject.setId(fileId);
+		fileObject.setCreatedTimeStamp(createdTimeStamp);
+		fileObject.setModifiedTimeStamp(modifiedTimeStamp);
+	}
+	
+	private void completeFileObject(T fileObject, int fileId, Path pathToFile) throws Exception
+	{
+		// Removes the file saved before the store was sharded
+		if (!pathToFile.getParent().equals(this.storagePath)) Files.deleteIfExists(StorageLayout.FLAT.resolve(this.storagePath, fileId));
+		
+		fileObject.setId(fileId);
+		
+		this.invalidateContentCache(fileId);
+		
+		if (fileObject.isDataStreamed()) fileObject.setDataContent(new FileSystemContent(pathToFile));
+		
+		this.updateTimeStamp(fileObject, pathToFile);
+		
+		if (this.watcher != null) this.watcher.markDirty(fileId);
+	}
+	
+	private void invalidateContentCache(int id)
+	{
+		SlabCache contentCache = this.contentCache;
+		
+		if (contentCache != null) contentCache.invalidate(id);
+	}
+	
+	private CompletableFuture<Void> commit(WriteBatch batch, int[] ids, List<Lock> locks, OperationTrace trace) throws Exception
+	{
+		GroupCommitter groupCommitter = this.groupCommitter;
+		
+		if (batch.isEmpty()) return null;
+		
+		if ((groupCommitter == null) || (batch.getDurability() == Durability.NONE))
+		{
+			WriteBatch.commit(Collections.singletonList(batch), this.scanPool);
+			
+			return null;
+		}
+		
+		// Joins the group under the locks, so the files of an id are published in the order of its saves,
+		// but waits for the group without them, so saves of other ids can join it meanwhile
+		GroupCommitter.Commit commit = groupCommitter.enqueue(batch);
+		CompletableFuture<Void> save = this.pendingSaves.begin(ids);
+		boolean committed = false;
+		
+		for (int i=locks.size() -1; i>=0; i--) locks.get(i).unlock();
+		
+		try
+		{
+			commit.await(this.scanPool);
+			committed = true;
+			
+			return save;
+		}
+		finally
+		{
+			for (Lock lock : locks) this.lock(lock, trace);
+			
+			if (!committed) this.pendingSaves.end(ids, save);
+		}
+	}
+
+	private void awaitPendingSaves(int[] ids, List<Lock> locks, OperationTrace trace)
+	{
+		for (CompletableFuture<Void> save = this.pendingSaves.find(ids); save != null; save = this.pendingSaves.find(ids))
+		{
+			for (int i=locks.size() -1; i>=0; i--) locks.get(i).unlock();
+			
+			try
+			{
+				save.join();
+			}
+			finally
+			{
+				for (Lock lock : locks) this.lock(lock, trace);
+			}
+		}
+	}
+	
+	private void awaitPendingSaves()
+	{
+		for (CompletableFuture<Void> save = this.pendingSaves.findAny(); save != null; save = this.pendingSaves.findAny()) save.join();
+	}
+	
+	private void awaitPendingSaves(StripedLocks locks)
+	{
+		for (CompletableFuture<Void> save = this.pendingSaves.findAny(); save != null; save = this.pendingSaves.findAny())
+		{
+			locks.unlockAll();
+			
+			try
+			{
+				save.join();
+			}
+			finally
+			{
+				locks.lockAll();
+			}
+		}
+	}
+	
+	/**
+	 * Saves the file objects with a single commit. All files are written first, then they are made
+	 * durable together (in parallel if a scan pool is set, see {@link #setScanPool(ForkJoinPool)})
+	 * and every affected directory is synced once, as required by the {@link Durability}.
+	 * The file objects are locked until the commit completes, unless the commit waits for a group
+	 * (see {@link #setGroupCommitWindow(long)}), which other saves may join meanwhile.
+	 */
+	@Override
+	protected void doSave(Collection<T> fileObjects) throws Exception
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.SAVE, () -> this.saveFileObjects(fileObjects));
+	}
+	
+	private void saveFileObjects(Collection<T> fileObjects) throws Exception
+	{
+		this.ensureWritable();
+		
+		if (fileObjects.size() < 2)
+		{
+			for (T fileObject : fileObjects) this.saveFileObject(fileObject);
+			
+			return;
+		}
+		
+		List<T> fileObjectList = new ArrayList<T>(fileObjects);
+		int[] fileIds = new int[fileObjectList.size()];
+		
+		for (int i=0; i<fileIds.length; i++)
+		{
+			T fileObject = fileObjectList.get(i);
+			
+			if (fileObject == null) throw new IllegalArgumentException("fileObjects");
+			if (fileObject.getId() > 0) this.idAllocator.observe(fileObject.getId());
+			
+			fileIds[i] = (fileObject.getId() > 0) ? fileObject.getId() : this.getNewFileId();
+		}
+		
+		List<Lock> locks = this.locks.writeLocks(fileIds);
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SAVE, this.storagePath);
+		CompletableFuture<Void> pendingSave = null;
+		
+		if (trace.isEnabled()) for (T fileObject : fileObjectList) trace.addBytes(fileObject.getDataSize());
+		
+		for (Lock lock : locks) this.lock(lock, trace);
+		
+		try
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				for (int i=0; i<fileIds.length; i++) this.storeFileObject(fileObjectList.get(i), fileIds[i], segmentStore, Durability.NONE);
+				
+				segmentStore.sync(this.durability);
+				
+				return;
+			}
+			
+			this.awaitPendingSaves(fileIds, locks, trace);
+			
+			WriteBatch batch = new WriteBatch(this.writeMode, this.durability);
+			Path[] pathsToFiles = new Path[fileIds.length];
+			byte[][] previousHashes = new byte[fileIds.length][];
+			
+			try
+			{
+				for (int i=0; i<fileIds.length; i++)
+				{
+					previousHashes[i] = this.readBlobReference(fileIds[i]);
+					pathsToFiles[i] = this.writeFileObject(fileObjectList.get(i), fileIds[i], batch);
+				}
+			}
+			catch (Exception e)
+			{
+				batch.abort();
+				
+				throw e;
+			}
+			
+			pendingSave = this.commit(batch, fileIds, locks, trace);
+			
+			for (int i=0; i<fileIds.length; i++)
+			{
+				this.completeFileObject(fileObjectList.get(i), fileIds[i], pathsToFiles[i]);
+				this.releaseBlob(fileIds[i], previousHashes[i]);
+			}
+			
+			if (this.manifest != null) this.manifest.append(fileIds, StorageManifest.Operation.SAVE);
+		}
+		finally
+		{
+			if (pendingSave != null) this.pendingSaves.end(fileIds, pendingSave);
+			
+			for (int i=locks.size() -1; i>=0; i--) locks.get(i).unlock();
+			
+			trace.finish();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void doDelete(T dataObject) throws Exception 
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.DELETE, () -> this.deleteFileObject(dataObject));
+	}
+	
+	private void deleteFileObject(T dataObject) throws Exception
+	{
+		if (dataObject == null) throw new IllegalArgumentException("dataObject");
+		
+		this.ensureWritable();
+		
+		Lock lock = this.locks.writeLock(dataObject.getId());
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.DELETE, this.storagePath);
+		
+		trace.setId(dataObject.getId());
+		
+		this.lock(lock, trace);
+		
+		try
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				segmentStore.delete(dataObject.getId(), this.durability);
+				dataObject.setIsDeleted(true);
+				
+				return;
+			}
+			
+			this.awaitPendingSaves(new int[] { dataObject.getId() }, Collections.singletonList(lock), trace);
+			
+			Path pathToFile = this.findPathToFile(dataObject.getId());
+			byte[] hash = this.readBlobReference(pathToFile);
+			
+			if (Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS)) Files.delete(pathToFile);
+			if (hash != null) this.blobStore.removeReference(hash, dataObject.getId());
+			
+			this.invalidateContentCache(dataObject.getId());
+			
+			dataObject.setIsDeleted(!Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS));
+			
+			if ((this.manifest != null) && dataObject.getIsDeleted()) this.manifest.append(dataObject.getId(), StorageManifest.Operation.DELETE);
+		}
+		finally
+		{
+			lock.unlock();
+			trace.finish();
+		}
+	}
+
+	@Override
+	protected void doDelete(Collection<T> fileObjects) throws Exception
+	{
+		for (T fileObject : fileObjects) this.doDelete(fileObject);
+	}
+
+	@Override
+	protected void doDelete(int[] fileObjectIds) throws Exception
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.DELETE, () -> this.deleteFileObjects(fileObjectIds));
+	}
+	
+	private void deleteFileObjects(int[] fileObjectIds) throws Exception
+	{
+		this.ensureWritable();
+		
+		SegmentStore segmentStore = this.segmentStore;
+		
+		if (segmentStore != null)
+		{
+			for (int fileObjectId : fileObjectIds) segmentStore.delete(fileObjectId, Durability.NONE);
+			
+			segmentStore.sync(this.durability);
+			
+			return;
+		}
+		
+		ForkJoinPool bulkPool = this.bulkPool;
+		List<Object> removed = new ArrayList<Object>(fileObjectIds.length);
+		
+		try
+		{
+			if (bulkPool != null)
+			{
+				removed.addAll(BulkExecutor.execute(fileObjectIds, bulkPool, fileObjectId -> this.deleteFile(fileObjectId)));
+			}
+			else
+			{
+				for (int fileObjectId : fileObjectIds) removed.add(this.deleteFile(fileObjectId));
+			}
+		}
+		catch (BulkOperationException e)
+		{
+			removed.addAll(e.getResults());
+			
+			throw e;
+		}
+		finally
+		{
+			this.journalDeletes(fileObjectIds, removed);
+		}
+	}
+	
+	/**
+	 * Records the deletes of the ids whose files were removed in the manifest
+	 * 
+	 * @param ids the ids of the deletes
+	 * @param removed true for every id (in the order of the ids) whose file was removed
+	 * @throws Exception re-throws every exception
+	 */
+	private void journalDeletes(int[] ids, List<Object> removed) throws Exception
+	{
+		StorageManifest manifest = this.manifest;
+		
+		if (manifest == null) return;
+		
+		int[] removedIds = new int[removed.size()];
+		int count = 0;
+		
+		for (int i=0; i<removed.size(); i++)
+		{
+			if (Boolean.TRUE.equals(removed.get(i))) removedIds[count++] = ids[i];
+		}
+		
+		manifest.append(Arrays.copyOf(removedIds, count), StorageManifest.Operation.DELETE);
+	}
+	
+	private boolean deleteFile(int fileObjectId) throws Exception
+	{
+		Lock lock = this.locks.writeLock(fileObjectId);
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.DELETE, this.storagePath);
+		
+		trace.setId(fileObjectId);
+		
+		this.lock(lock, trace);
+		
+		try
+		{
+			this.awaitPendingSaves(new int[] { fileObjectId }, Collections.singletonList(lock), trace);
+			
+			Path pathToFile = this.findPathToFile(fileObjectId);
+			byte[] hash = this.readBlobReference(pathToFile);
+			
+			boolean removed = Files.deleteIfExists(pathToFile);
+			if (hash != null) this.blobStore.removeReference(hash, fileObjectId);
+			
+			this.invalidateContentCache(fileObjectId);
+			
+			return removed;
+		}
+		finally
+		{
+			lock.unlock();
+			trace.finish();
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	protected void doClear() throws Exception 
 	{
+		this.metrics.measureAction(DAOMetrics.Operation.CLEAR, () -> this.clearFileObjects());
+	}
+	
+	private void clearFileObjects() throws Exception
+	{
+		this.ensureWritable();
+		
+		SlabCache contentCache = this.contentCache;
+		SegmentStore segmentStore = this.segmentStore;
+		BlobStore blobStore = this.blobStore;
+		
+		this.awaitPendingSaves();
+		
+		if (this.clearMode == ClearMode.SWAP) this.swapStorageDirectory();
+		else this.deleteFiles();
+		
+		if (segmentStore != null) segmentStore.clear();
+		if (blobStore != null) blobStore.clear();
+		if (contentCache != null) contentCache.clear();
+		if (this.manifest != null) this.manifest.rebuild();
+	}
+
+	private void deleteFiles()
+	{
+		// The markers of the reserved id ranges outlive the data objects, so other DAOs do not reserve the ranges again
+		Path markerDirectory = this.storagePath.resolve(IdAllocator.DIRECTORY_NAME);
+		
 		try (Stream<Path> files = Files.walk(this.storagePath)) 
 		{
 		    files
 		        .filter(Files::isRegularFile)
-		        .forEach(file -> safeDelete(file));
+		        .filter(file -> !file.startsWith(markerDirectory))
+		        .forEach(file -> this.safeDelete(file));
 		}
 		catch (Exception e)
 		{
+			this.metrics.recordBackgroundError();
+			
 			e.printStackTrace(System.err);
-		}		
+		}
 	}
-
-	private static void safeDelete(Path file)
+	
+	private void swapStorageDirectory() throws Exception
+	{
+		Path trashDirectory;
+		
+		try
+		{
+			// The auxiliary stores are kept open and are cleared afterwards like in delete mode
+			trashDirectory = StorageTrash.moveToTrash(this.storagePath, AUXILIARY_ENTRIES);
+		}
+		catch (Exception e)
+		{
+			// E.g. files in the storage directory are open on Windows
+			this.deleteFiles();
+			
+			return;
+		}
+		
+		// The watch service keeps watching the renamed directory
+		if (this.watcher != null)
+		{
+			this.setWatchEnabled(false);
+			this.setWatchEnabled(true);
+		}
+		
+		this.deleteTrash(trashDirectory);
+	}
+	
+	private void deleteTrash(Path trashDirectory)
+	{
+		ForkJoinPool pool = this.scanPool;
+		
+		if ((pool == null) || pool.isShutdown()) pool = ForkJoinPool.commonPool();
+		
+		StorageTrash.delete(trashDirectory, pool).whenComplete((result, e) ->
+		{
+			if (e == null) return;
+			
+			this.metrics.recordBackgroundError();
+			
+			e.printStackTrace(System.err);
+		});
+	}
+	
+	private void safeDelete(Path file)
 	{
 		try
 		{
@@ -308,6 +2910,8 @@ public abstract class GenericFileSystemDAO<T extends GenericFileObject> extends
 		}
 		catch (Exception e)
 		{
+			this.metrics.recordBackgroundError();
+			
 			e.printStackTrace(System.err);
 		}
 	}
@@ -0,0 +1,315 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
+
+/**
+ * Compact binary serializer which writes the non-static, non-transient fields of a data object
+ * (including the ones of its super classes) in a fixed order without class descriptors.
+ * 
+ * The fields of a class are looked up once and cached. A file only holds the name of the class,
+ * a fingerprint of its fields and the values of the fields. Primitives, their wrappers, strings,
+ * byte arrays and enums are written directly, values of other types with Java serialization.
+ * If the fields of a class change, files written before can no longer be read by this serializer
+ * and an {@link InvalidClassException} is thrown.
+ * 
+ * Classes must provide a constructor without parameters (may be private).
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ * 
+ * @param <T> the class of the data objects to serialize
+ */
+public class BinarySerializer<T extends GenericDataObject> implements Serializer<T>
+{
+	/**
+	 * The format id of the binary serialization
+	 */
+	public static final byte FORMAT_ID = 1;
+	
+	private final ClassLoader classLoader;
+	private final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+	private final Map<String, ClassLayout> layoutsByName = new ConcurrentHashMap<>();
+	
+	/**
+	 * The fields of a class and how to instantiate it
+	 */
+	private static final class ClassLayout
+	{
+		private final Constructor<?> constructor;
+		private final Field[] fields;
+		private final long fingerprint;
+		
+		private ClassLayout(Class<?> clazz) throws InvalidClassException
+		{
+			List<Field> fields = new ArrayList<>();
+			
+			for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+			{
+				Field[] declaredFields = c.getDeclaredFields();
+				
+				Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+				
+				List<Field> classFields = new ArrayList<>();
+				
+				for (Field field : declaredFields)
+				{
+					if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) continue;
+					
+					field.setAccessible(true);
+					classFields.add(field);
+				}
+				
+				fields.addAll(0, classFields);
+			}
+			
+			long fingerprint = 1125899906842597L;
+			
+			for (Field field : fields)
+			{
+				fingerprint = 31 * fingerprint + field.getName().hashCode();
+				fingerprint = 31 * fingerprint + field.getType().getName().hashCode();
+			}
+			
+			try
+			{
+				this.constructor = clazz.getDeclaredConstructor();
+				this.constructor.setAccessible(true);
+			}
+			catch (NoSuchMethodException e)
+			{
+				throw new InvalidClassException(clazz.getName(), "no constructor without parameters");
+			}
+			
+			this.fields = fields.toArray(new Field[fields.size()]);
+			this.fingerprint = fingerprint;
+		}
+	}
+	
+	/**
+	 * Creates a binary serializer which loads the classes of data objects with
+	 * the context class loader of the current thread
+	 */
+	public BinarySerializer()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Creates a binary serializer which loads the classes of data objects with a given class loader
+	 * 
+	 * @param classLoader the class loader or null to use the context class loader of the current thread
+	 */
+	public BinarySerializer(ClassLoader classLoader)
+	{
+		this.classLoader = classLoader;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte getFormatId()
+	{
+		return FORMAT_ID;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void serialize(T dataObject, OutputStream outputStream) throws Exception
+	{
+		if (dataObject == null) throw new IllegalArgumentException("dataObject");
+		
+		ClassLayout layout = this.getLayout(dataObject.getClass());
+		DataOutputStream out = new DataOutputStream(outputStream);
+		
+		out.writeUTF(dataObject.getClass().getName());
+		out.writeLong(layout.fingerprint);
+		
+		for (Field field : layout.fields) writeField(out, field, dataObject);
+		
+		out.flush();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public T deserialize(InputStream inputStream) throws Exception
+	{
+		DataInputStream in = new DataInputStream(inputStream);
+		String className = in.readUTF();
+		ClassLayout layout = this.getLayout(className);
+		
+		if (in.readLong() != layout.fingerprint) throw new InvalidClassException(className, "fields have changed");
+		
+		Object dataObject = layout.constructor.newInstance();
+		
+		for (Field field : layout.fields) readField(in, field, dataObject);
+		
+		return (T) dataObject;
+	}
+	
+	private ClassLayout getLayout(String className) throws Exception
+	{
+		ClassLayout layout = this.layoutsByName.get(className);
+		
+		if (layout != null) return layout;
+		
+		ClassLoader classLoader = (this.classLoader != null) ? this.classLoader : Thread.currentThread().getContextClassLoader();
+		Class<?> clazz = Class.forName(className, false, (classLoader != null) ? classLoader : BinarySerializer.class.getClassLoader());
+		
+		if (!GenericDataObject.class.isAssignableFrom(clazz)) throw new InvalidClassException(className, "no data object");
+		
+		layout = this.getLayout(clazz);
+		this.layoutsByName.put(className, layout);
+		
+		return layout;
+	}
+	
+	private ClassLayout getLayout(Class<?> clazz) throws InvalidClassException
+	{
+		ClassLayout layout = this.layouts.get(clazz);
+		
+		if (layout != null) return layout;
+		
+		layout = new ClassLayout(clazz);
+		this.layouts.put(clazz, layout);
+		
+		return layout;
+	}
+	
+	private static void writeField(DataOutputStream out, Field field, Object dataObject) throws Exception
+	{
+		Class<?> type = field.getType();
+		
+		if (type.isPrimitive())
+		{
+			if (type == int.class) out.writeInt(field.getInt(dataObject));
+			else if (type == long.class) out.writeLong(field.getLong(dataObject));
+			else if (type == boolean.class) out.writeBoolean(field.getBoolean(dataObject));
+			else if (type == double.class) out.writeDouble(field.getDouble(dataObject));
+			else if (type == float.class) out.writeFloat(field.getFloat(dataObject));
+			else if (type == short.class) out.writeShort(field.getShort(dataObject));
+			else if (type == byte.class) out.writeByte(field.getByte(dataObject));
+			else out.writeChar(field.getChar(dataObject));
+			
+			return;
+		}
+		
+		Object value = field.get(dataObject);
+		
+		out.writeBoolean(value != null);
+		
+		if (value == null) return;
+		
+		if (type == String.class) writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+		else if (type == byte[].class) writeBytes(out, (byte[]) value);
+		else if (type == Integer.class) out.writeInt((Integer) value);
+		else if (type == Long.class) out.writeLong((Long) value);
+		else if (type == Boolean.class) out.writeBoolean((Boolean) value);
+		else if (type == Double.class) out.writeDouble((Double) value);
+		else if (type == Float.class) out.writeFloat((Float) value);
+		else if (type == Short.class) out.writeShort((Short) value);
+		else if (type == Byte.class) out.writeByte((Byte) value);
+		else if (type == Character.class) out.writeChar((Character) value);
+		else if (type.isEnum()) out.writeUTF(((Enum<?>) value).name());
+		else
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			
+			try (ObjectOutputStream oos = new ObjectOutputStream(bytes))
+			{
+				oos.writeObject(value);
+			}
+			
+			writeBytes(out, bytes.toByteArray());
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void readField(DataInputStream in, Field field, Object dataObject) throws Exception
+	{
+		Class<?> type = field.getType();
+		
+		if (type.isPrimitive())
+		{
+			if (type == int.class) field.setInt(dataObject, in.readInt());
+			else if (type == long.class) field.setLong(dataObject, in.readLong());
+			else if (type == boolean.class) field.setBoolean(dataObject, in.readBoolean());
+			else if (type == double.class) field.setDouble(dataObject, in.readDouble());
+			else if (type == float.class) field.setFloat(dataObject, in.readFloat());
+			else if (type == short.class) field.setShort(dataObject, in.readShort());
+			else if (type == byte.class) field.setByte(dataObject, in.readByte());
+			else field.setChar(dataObject, in.readChar());
+			
+			return;
+		}
+		
+		if (!in.readBoolean())
+		{
+			field.set(dataObject, null);
+			
+			return;
+		}
+		
+		Object value;
+		
+		if (type == String.class) value = new String(readBytes(in), StandardCharsets.UTF_8);
+		else if (type == byte[].class) value = readBytes(in);
+		else if (type == Integer.class) value = in.readInt();
+		else if (type == Long.class) value = in.readLong();
+		else if (type == Boolean.class) value = in.readBoolean();
+		else if (type == Double.class) value = in.readDouble();
+		else if (type == Float.class) value = in.readFloat();
+		else if (type == Short.class) value = in.readShort();
+		else if (type == Byte.class) value = in.readByte();
+		else if (type == Character.class) value = in.readChar();
+		else if (type.isEnum()) value = Enum.valueOf((Class<Enum>) type, in.readUTF());
+		else
+		{
+			try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in))))
+			{
+				value = ois.readObject();
+			}
+		}
+		
+		field.set(dataObject, value);
+	}
+	
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws Exception
+	{
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static byte[] readBytes(DataInputStream in) throws Exception
+	{
+		byte[] bytes = new byte[in.readInt()];
+		
+		in.readFully(bytes);
+		
+		return bytes;
+	}
+}
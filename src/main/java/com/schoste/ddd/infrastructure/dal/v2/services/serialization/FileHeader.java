@@ -0,0 +1,124 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.CompressionCodec;
+
+/**
+ * Header of the files written by {@link GenericSerializationDAO}.
+ * 
+ * The header consists of a magic number, the format id of the {@link Serializer} and a byte of flags.
+ * The lower four bits of the flags hold the id of the {@link CompressionCodec} which compressed the
+ * serialized data object, 0 if it is not compressed. Compressed data objects are preceded by their
+ * uncompressed length as int.
+ * Files written by the {@link JavaSerializer} carry no header. They are recognized by the magic
+ * number of the Java serialization stream instead.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+final class FileHeader
+{
+	private static final int MAGIC = 0xDA0B;
+	private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+	private static final int CODEC_ID_MASK = 0x0F;
+	
+	private final byte formatId;
+	private final byte flags;
+	
+	FileHeader(byte formatId, byte flags)
+	{
+		this.formatId = formatId;
+		this.flags = flags;
+	}
+	
+	/**
+	 * Gets the format id of the serializer which wrote the file
+	 * 
+	 * @return the format id
+	 */
+	byte getFormatId()
+	{
+		return this.formatId;
+	}
+	
+	/**
+	 * Gets the flags of the file
+	 * 
+	 * @return the flags
+	 */
+	byte getFlags()
+	{
+		return this.flags;
+	}
+	
+	/**
+	 * Gets the id of the codec which compressed the serialized data object
+	 * 
+	 * @return the codec id or 0 if the data object is not compressed
+	 */
+	byte getCodecId()
+	{
+		return (byte) (this.flags & CODEC_ID_MASK);
+	}
+	
+	/**
+	 * Checks if the file needs a header or can be written as plain Java serialization stream
+	 * 
+	 * @return true if the header must be written, false otherwise
+	 */
+	boolean isRequired()
+	{
+		return (this.formatId != JavaSerializer.FORMAT_ID) || (this.flags != 0);
+	}
+	
+	/**
+	 * Writes the header to a stream if required
+	 * 
+	 * @param outputStream the stream to write to
+	 * @throws IOException re-throws every exception
+	 */
+	void write(OutputStream outputStream) throws IOException
+	{
+		if (!this.isRequired()) return;
+		
+		outputStream.write(MAGIC >>> 8);
+		outputStream.write(MAGIC & 0xFF);
+		outputStream.write(this.formatId);
+		outputStream.write(this.flags);
+	}
+	
+	/**
+	 * Reads the header from a stream. The stream must support marks.
+	 * If the stream has no header, it is reset to its beginning.
+	 * 
+	 * @param inputStream the stream to read from
+	 * @return the header
+	 * @throws StreamCorruptedException if the stream neither starts with a header nor with a Java serialization stream
+	 * @throws IOException re-throws every exception
+	 */
+	static FileHeader read(InputStream inputStream) throws StreamCorruptedException, IOException
+	{
+		inputStream.mark(2);
+		
+		int magic = (inputStream.read() << 8) | inputStream.read();
+		
+		if (magic == JAVA_SERIALIZATION_MAGIC)
+		{
+			inputStream.reset();
+			
+			return new FileHeader(JavaSerializer.FORMAT_ID, (byte) 0);
+		}
+		
+		if (magic != MAGIC) throw new StreamCorruptedException(String.format("invalid header %04X", magic & 0xFFFF));
+		
+		int formatId = inputStream.read();
+		int flags = inputStream.read();
+		
+		if ((formatId < 0) || (flags < 0)) throw new StreamCorruptedException("incomplete header");
+		
+		return new FileHeader((byte) formatId, (byte) flags);
+	}
+}
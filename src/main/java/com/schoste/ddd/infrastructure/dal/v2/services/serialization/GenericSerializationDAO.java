@@ -1,35 +1,115 @@
 package com.schoste.ddd.infrastructure.dal.v2.services.serialization;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.channels.Channels;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Stream;
 
 import com.schoste.ddd.infrastructure.dal.v2.services.GenericDAO;
 import com.schoste.ddd.infrastructure.dal.v2.services.GenericDataAccessObject;
 import com.schoste.ddd.infrastructure.dal.v2.exceptions.DALException;
 import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.AsyncExecutor;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BulkExecutor;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BulkOperationException;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ClearMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.CompressionCodec;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DAOMetrics;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DeflateCodec;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DirectoryScanner;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DirectoryWatcher;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.Durability;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.GroupCommitter;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.HandleScanner;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.IdAllocator;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.LockingMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ObjectCache;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ObjectHandle;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.OperationTrace;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.OperationTracer;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.PendingSaves;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.SegmentStore;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.SnapshotFile;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageEngine;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageLayout;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageManifest;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageTrash;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StripedLocks;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteBatch;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteMode;
 
 /**
  * Version 1 implementation of the GenericDataAccessObject interface to persist data objects
  * via serialization.
  * 
  * @author Philipp Schosteritsch <s.philipp@schoste.com>
- *
+ * 
  * @param <T> the class of the data object to persist
  */
 public abstract class GenericSerializationDAO<T extends GenericDataObject> extends GenericDAO<T> implements GenericDataAccessObject<T> 
 {
+	/**
+	 * The number of records in the manifest which triggers its compaction if not set otherwise
+	 */
+	public static final long DEFAULT_MANIFEST_COMPACTION_THRESHOLD = 65536;
+	
+	/**
+	 * The smallest number of serialized bytes which are compressed if not set otherwise
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+	
+	/**
+	 * The largest ratio of compressed to serialized bytes at which the compressed data are stored if not set otherwise
+	 */
+	public static final double DEFAULT_COMPRESSION_RATIO = 0.9;
+	
+	/**
+	 * The estimated number of bytes a cached file needs in addition to its content
+	 */
+	private static final long CACHE_ENTRY_OVERHEAD = 96;
+	
+	/**
+	 * The largest number of entries the frequency sketch of the cache is sized for
+	 */
+	private static final int CACHE_MAX_EXPECTED_ENTRIES = 1 << 20;
+	
+	/**
+	 * The entries of the auxiliary stores in the storage directory, which are kept by a swap clear
+	 */
+	private static final String[] AUXILIARY_ENTRIES = { IdAllocator.DIRECTORY_NAME, SegmentStore.DIRECTORY_NAME, StorageManifest.FILE_NAME, StorageManifest.LOCK_FILE_NAME };
+	
 	/**
 	 * The directory where the files are serialized to
 	 */
@@ -40,12 +120,204 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 	 */
 	private long lastTimeStamp;
 	
-	private synchronized void tryAddToCollectionIfNewer(Collection<T> newerFiles, Path fileToAdd)
+	/**
+	 * The allocator of the ids of new data objects
+	 */
+	protected final IdAllocator idAllocator;
+	
+	/**
+	 * The locks guarding the files of the data objects
+	 */
+	protected volatile StripedLocks locks = new StripedLocks(LockingMode.SYNCHRONIZED, 1);
+	
+	/**
+	 * The number of lock stripes used in {@link LockingMode#STRIPED} mode
+	 */
+	protected volatile int lockStripes = StripedLocks.DEFAULT_STRIPES;
+	
+	/**
+	 * Whether files are overwritten in place or replaced atomically
+	 */
+	protected volatile WriteMode writeMode = WriteMode.IN_PLACE;
+	
+	/**
+	 * Whether clears delete every file or swap the storage directory with an empty one
+	 */
+	protected volatile ClearMode clearMode = ClearMode.DELETE;
+	
+	/**
+	 * How far saves wait for files to reach the storage device
+	 */
+	protected volatile Durability durability = Durability.NONE;
+	
+	/**
+	 * The committer combining the commits of concurrent saves or null if every save commits on its own
+	 */
+	protected volatile GroupCommitter groupCommitter;
+	
+	/**
+	 * The saves waiting for the group committer after releasing the locks of their data objects
+	 */
+	protected final PendingSaves pendingSaves = new PendingSaves();
+	
+	/**
+	 * The layout mapping the ids of the data objects to the paths of their files
+	 */
+	protected volatile StorageLayout storageLayout = StorageLayout.FLAT;
+	
+	/**
+	 * The store of the data objects if they are stored in segments, null if they are stored in files of their own
+	 */
+	protected volatile SegmentStore segmentStore;
+	
+	/**
+	 * The snapshot served read-only instead of the storage directory or null if the storage directory is served
+	 */
+	protected volatile SnapshotFile snapshot;
+	
+	/**
+	 * The pool scanning the directory in parallel or null if the calling thread scans it
+	 */
+	protected volatile ForkJoinPool scanPool;
+	
+	/**
+	 * True if the scan pool was created by this DAO and must be shut down when replaced
+	 */
+	private boolean ownsScanPool;
+	
+	/**
+	 * The pool processing the ids of bulk gets and deletes in parallel or null if the calling thread processes them
+	 */
+	protected volatile ForkJoinPool bulkPool;
+	
+	/**
+	 * True if the bulk pool was created by this DAO and must be shut down when replaced
+	 */
+	private boolean ownsBulkPool;
+	
+	/**
+	 * The executor running the asynchronous operations or null until the first one is started
+	 */
+	protected volatile AsyncExecutor asyncExecutor;
+	
+	/**
+	 * True if the async executor was created by this DAO and must be closed when replaced
+	 */
+	private boolean ownsAsyncExecutor;
+	
+	/**
+	 * The metrics of the operations, which are collected while enabled (see {@link #setMetricsEnabled(boolean)})
+	 */
+	protected final DAOMetrics metrics = new DAOMetrics();
+	
+	/**
+	 * The journal of saves and deletes or null if incremental loads scan the storage directory
+	 */
+	protected volatile StorageManifest manifest;
+	
+	/**
+	 * The position in the manifest up to which changes have been loaded
+	 */
+	private volatile StorageManifest.Cursor manifestCursor;
+	
+	/**
+	 * The number of records in the manifest which triggers its compaction
+	 */
+	private volatile long manifestCompactionThreshold = DEFAULT_MANIFEST_COMPACTION_THRESHOLD;
+	
+	/**
+	 * The watcher collecting the ids of created and modified files or null if incremental loads scan the storage directory
+	 */
+	protected volatile DirectoryWatcher watcher;
+	
+	/**
+	 * True if the storage directory has been scanned since the watcher was started
+	 */
+	private volatile boolean watcherBaselineLoaded;
+	
+	/**
+	 * The modification time stamps of the data objects last loaded for the ids collected by the watcher
+	 */
+	private final Map<Integer, Long> watchedTimeStamps = new ConcurrentHashMap<>();
+	
+	/**
+	 * The serializer writing the files of the data objects
+	 */
+	protected volatile Serializer<T> serializer = new JavaSerializer<T>();
+	
+	/**
+	 * The serializers reading the files of the data objects by their format id
+	 */
+	protected final Map<Byte, Serializer<T>> serializers = new ConcurrentHashMap<Byte, Serializer<T>>();
+	
+	/**
+	 * The codec compressing the files of the data objects or null if they are not compressed
+	 */
+	protected volatile CompressionCodec compressionCodec;
+	
+	/**
+	 * The codecs decompressing the files of the data objects by their codec id
+	 */
+	protected final Map<Byte, CompressionCodec> compressionCodecs = new ConcurrentHashMap<Byte, CompressionCodec>();
+	
+	/**
+	 * The smallest number of serialized bytes which are compressed
+	 */
+	private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+	
+	/**
+	 * The largest ratio of compressed to serialized bytes at which the compressed data are stored
+	 */
+	private volatile double compressionRatio = DEFAULT_COMPRESSION_RATIO;
+	
+	/**
+	 * The cache of the read files or null if every get reads the file
+	 */
+	private volatile ObjectCache<CachedFile> cache;
+	
+	/**
+	 * The maximum number of cached files or 0 if the cache is limited by bytes or disabled
+	 */
+	private long cacheMaxEntries;
+	
+	/**
+	 * The maximum estimated bytes of the cached files or 0 if the cache is limited by entries or disabled
+	 */
+	private volatile long cacheMaxBytes;
+	
+	/**
+	 * True if the cache returns the same instances to all callers instead of copies
+	 */
+	private volatile boolean cacheSharedObjects;
+	
+	/**
+	 * A cached file, holding either the data object or the content of the file
+	 */
+	private static final class CachedFile
+	{
+		private final Object dataObject;
+		private final byte[] content;
+		private final long lastModified;
+		private final long size;
+		
+		private CachedFile(Object dataObject, byte[] content, long lastModified, long size)
+		{
+			this.dataObject = dataObject;
+			this.content = content;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+	}
+	
+	private void tryAddToCollectionIfNewer(Collection<T> newerFiles, Path fileToAdd)
 	{
 		try
 		{
 			String fileName = fileToAdd.getFileName().toString();
 			int id = Integer.valueOf(fileName);
+			
+			this.metrics.addFilesScanned(1);
+			
 			BasicFileAttributes attr = Files.readAttributes(fileToAdd, BasicFileAttributes.class);
 			long lastModified = attr.lastModifiedTime().to(TimeUnit.MILLISECONDS);
 			
@@ -58,9 +330,13 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 			if (this.latestModificationTimeStamp >= dataObject.getModifiedTimeStamp()) return;
 			
 			newerFiles.add(dataObject);
+			
+			this.metrics.addFilesLoaded(1);
 		}
 		catch (Exception e)
 		{
+			this.metrics.recordBackgroundError();
+			
 			e.printStackTrace(System.err);
 		}
 	}
@@ -81,14 +357,39 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 		return this.lastTimeStamp;
 	}
 	
-	protected int getNewFileId()
+	/**
+	 * Gets a new id which is not used by any stored data object.
+	 * See {@link IdAllocator} for how ids are allocated.
+	 * 
+	 * @return the new id
+	 * @throws Exception re-throws every exception
+	 */
+	protected int getNewFileId() throws Exception
+	{
+		return this.idAllocator.allocate();
+	}
+	
+	/**
+	 * Gets the path to the file of a data object in the storage layout
+	 * 
+	 * @param id the id of the data object
+	 * @return the path to the file
+	 */
+	protected Path getPathToFile(int id)
 	{
-		int now = Math.toIntExact(System.currentTimeMillis() / 1000);
-		Path fileToCheck = Paths.get(this.storagePath.toString(), String.valueOf(now));
-		
-		while (Files.exists(fileToCheck)) fileToCheck = Paths.get(this.storagePath.toString(), String.valueOf(++now));
-		
-		return now;
+		return this.storageLayout.resolve(this.storagePath, id);
+	}
+	
+	/**
+	 * Gets the path to the existing file of a data object. Falls back to the file directly
+	 * in the storage directory if the store has not been migrated to the storage layout yet.
+	 * 
+	 * @param id the id of the data object
+	 * @return the path to the existing file or the path in the storage layout if no file exists
+	 */
+	protected Path findPathToFile(int id)
+	{
+		return this.storageLayout.find(this.storagePath, id);
 	}
 	
 	/**
@@ -122,6 +423,14 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 			Files.delete(testFile);
 
 			if (Files.exists(testFile)) throw new IllegalStateException();
+			
+			this.idAllocator = new IdAllocator(this.storagePath);
+
+			this.registerSerializer(new JavaSerializer<T>());
+			this.registerSerializer(new BinarySerializer<T>());
+			this.registerCompressionCodec(new DeflateCodec());
+			
+			for (Path trashDirectory : StorageTrash.find(this.storagePath)) this.deleteTrash(trashDirectory);
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -148,149 +457,1918 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 	}
 	
 	/**
-	 * {@inheritDoc}
+	 * Gets the locking mode applied to get, save and delete operations
+	 * 
+	 * @return the locking mode
 	 */
-	@Override
-	protected synchronized void doDelete(T dataObject) throws Exception 
+	public LockingMode getLockingMode()
 	{
-		if (dataObject == null) throw new IllegalArgumentException("dataObject");
-		
-		Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(dataObject.getId()));
-		
-		if (Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS)) Files.delete(pathToFile);
-		
-		dataObject.setIsDeleted(!Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS));
+		return this.locks.getLockingMode();
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Sets the locking mode applied to get, save and delete operations.
+	 * Defaults to {@link LockingMode#SYNCHRONIZED}. Keeps the number of stripes set by {@link #setLockStripes(int)}.
+	 * Should be set before the DAO is used by more than one thread.
+	 * 
+	 * @param lockingMode the locking mode to apply
+	 * @throws IllegalArgumentException if the locking mode is null
 	 */
-	@Override
-	protected void doDelete(Collection<T> dataObjects) throws Exception
+	public void setLockingMode(LockingMode lockingMode) throws IllegalArgumentException
 	{
-		for (T dataObject : dataObjects) this.doDelete(dataObject);
+		this.locks = new StripedLocks(lockingMode, this.lockStripes);
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Gets the number of lock stripes used in {@link LockingMode#STRIPED} mode
+	 * 
+	 * @return the number of stripes as set, which is rounded up to the next power of two by the locks
 	 */
-	@Override
-	protected void doDelete(int[] dataObjectIds) throws Exception
+	public int getLockStripes()
 	{
-		for (int dataObjectId : dataObjectIds)
-		{
-			Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(dataObjectId));
-			
-			if (Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS)) Files.delete(pathToFile);			
-		}
+		return this.lockStripes;
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Sets the number of lock stripes used in {@link LockingMode#STRIPED} mode, also if it is applied later.
+	 * Defaults to {@value StripedLocks#DEFAULT_STRIPES}.
+	 * Should be set before the DAO is used by more than one thread.
+	 * 
+	 * @param lockStripes the number of stripes
+	 * @throws IllegalArgumentException if the number of stripes is less than 1
 	 */
-	@SuppressWarnings("unchecked")
-	@Override
-	protected synchronized T doGet(int id) throws Exception 
+	public void setLockStripes(int lockStripes) throws IllegalArgumentException
 	{
-		Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(id));
-		
-		if (!Files.exists(pathToFile)) return null;
-		if (!Files.isRegularFile(pathToFile)) throw new IllegalStateException();
-		if (!Files.isReadable(pathToFile)) throw new IllegalStateException();
-		
-		try(FileInputStream fis = new FileInputStream(pathToFile.toFile());
-			ObjectInputStream ois = new ObjectInputStream(fis))
-		{
-			T dataObject = (T) ois.readObject();
-			
-			return dataObject;
-		}
-		catch (Exception ex)
-		{
-			throw ex;
-		}
+		this.locks = new StripedLocks(this.locks.getLockingMode(), lockStripes);
+		this.lockStripes = lockStripes;
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Gets whether files are overwritten in place or replaced atomically
+	 * 
+	 * @return the write mode
 	 */
-	@Override
-	protected Collection<T> doGet(int[] ids) throws Exception 
+	public WriteMode getWriteMode()
 	{
-		Collection<T> newDataObjects = new ArrayList<T>();
-
-		if (ids != null)
-		{
-			for (int id : ids) newDataObjects.add(this.doGet(id));
-
-			return newDataObjects;
-		}
-
-		try (Stream<Path> files = Files.walk(this.storagePath)) 
-		{
-		    files
-		        .filter(Files::isRegularFile)
-		        .forEach(file -> this.tryAddToCollectionIfNewer(newDataObjects, file));
-		}
-
-		T latestModifiedObject = newDataObjects.stream().max(Comparator.comparing(GenericDataObject::getModifiedTimeStamp)).orElseGet(() -> null);
-		
-		if (latestModifiedObject != null) this.latestModificationTimeStamp = latestModifiedObject.getModifiedTimeStamp();
-		
-		return newDataObjects;
+		return this.writeMode;
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Sets whether files are overwritten in place or replaced atomically. In {@link WriteMode#ATOMIC} mode
+	 * the content is written to a temporary file which replaces the file by an atomic move, so neither
+	 * concurrent readers nor a crash ever see a partly written file, and gets do not acquire any lock.
+	 * 
+	 * @param writeMode the write mode ({@link WriteMode#IN_PLACE} by default)
+	 * @throws IllegalArgumentException if the write mode is null
 	 */
-	@Override
-	protected synchronized Collection<T> doReloadAll() throws Exception
+	public void setWriteMode(WriteMode writeMode) throws IllegalArgumentException
 	{
-		this.latestModificationTimeStamp = 0;
+		if (writeMode == null) throw new IllegalArgumentException("writeMode");
 		
-		return this.getAll();
+		this.writeMode = writeMode;
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Gets whether clears delete every file or swap the storage directory with an empty one
+	 * 
+	 * @return the clear mode
 	 */
-	@Override
-	protected synchronized void doSave(T dataObject) throws Exception 
+	public ClearMode getClearMode()
 	{
-		if (dataObject == null) throw new IllegalArgumentException("dataObject");
-		if (dataObject.getId() < 1)
-		{
-			dataObject.setId(this.getNewFileId());
-			dataObject.setCreatedTimeStamp(this.getTimeStamp());
-		}
-		
-		int fileId = dataObject.getId();		
-		Path pathToFile = Paths.get(this.storagePath.toString(), String.valueOf(fileId));
-		
-		try (FileOutputStream fos = new FileOutputStream(pathToFile.toFile());
-			 ObjectOutputStream oos = new ObjectOutputStream(fos))
-		{
-			dataObject.setModifiedTimeStamp(this.getTimeStamp());
-
-			oos.writeObject(dataObject);
-		}
-		catch (Exception e)
-		{
-			throw e;
-		}
-		
-		pathToFile.toFile().setLastModified(dataObject.getModifiedTimeStamp());
-		
-		dataObject.setId(fileId);		
+		return this.clearMode;
 	}
-
+	
 	/**
-	 * {@inheritDoc}
+	 * Sets whether clears delete every file or swap the storage directory with an empty one. In {@link ClearMode#SWAP}
+	 * mode {@link #clear()} returns as soon as the storage directory has been renamed to a trash directory and
+	 * recreated. The trash directory is deleted in the background by the scan pool (see {@link #setScanPool(ForkJoinPool)})
+	 * or by the common pool. Trash directories left over by previous processes are deleted when a DAO is created.
+	 * The auxiliary stores (e.g. the id ranges and the manifest) are moved back into the recreated directory and
+	 * cleared like in {@link ClearMode#DELETE} mode. Other DAOs sharing the storage directory find them missing
+	 * meanwhile, so swap clears must only be used while a single DAO uses the storage directory.
+	 * 
+	 * @param clearMode the clear mode ({@link ClearMode#DELETE} by default)
+	 * @throws IllegalArgumentException if the clear mode is null
 	 */
-	@Override
-	protected void doSave(Collection<T> dataObjects) throws Exception
+	public void setClearMode(ClearMode clearMode) throws IllegalArgumentException
 	{
-		for (T dataObject : dataObjects) this.doSave(dataObject);
+		if (clearMode == null) throw new IllegalArgumentException("clearMode");
+		
+		this.clearMode = clearMode;
+	}
+	
+	/**
+	 * Gets how far saves wait for files to reach the storage device
+	 * 
+	 * @return the durability
+	 */
+	public Durability getDurability()
+	{
+		return this.durability;
+	}
+	
+	/**
+	 * Sets how far saves wait for files to reach the storage device. Use {@link Durability#FULL}
+	 * together with {@link WriteMode#ATOMIC} for saves which survive a crash of the system.
+	 * 
+	 * @param durability the durability ({@link Durability#NONE} by default)
+	 * @throws IllegalArgumentException if the durability is null
+	 */
+	public void setDurability(Durability durability) throws IllegalArgumentException
+	{
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		this.durability = durability;
+	}
+	
+	/**
+	 * Gets the time the commits of concurrent saves are combined
+	 * 
+	 * @return the window in milliseconds or 0 if every save commits on its own
+	 */
+	public long getGroupCommitWindow()
+	{
+		GroupCommitter groupCommitter = this.groupCommitter;
+		
+		return (groupCommitter == null) ? 0 : groupCommitter.getWindowMillis();
+	}
+	
+	/**
+	 * Sets the time the commits of concurrent saves are combined. If the {@link Durability} is not
+	 * {@link Durability#NONE}, the first of several concurrent saves waits for this time and then makes
+	 * the files of all saves arrived in the meantime durable at once, sharing the syncs of the storage device.
+	 * Saves release the locks of their data objects while they wait, so saves of other data objects can join
+	 * the group in every {@link LockingMode}.
+	 * 
+	 * @param groupCommitWindow the window in milliseconds or 0 to let every save commit on its own (default)
+	 * @throws IllegalArgumentException if the window is negative
+	 */
+	public void setGroupCommitWindow(long groupCommitWindow) throws IllegalArgumentException
+	{
+		if (groupCommitWindow < 0) throw new IllegalArgumentException("groupCommitWindow");
+		
+		this.groupCommitter = (groupCommitWindow == 0) ? null : new GroupCommitter(groupCommitWindow);
+	}
+	
+	/**
+	 * Gets the layout of the files in the storage directory
+	 * 
+	 * @return the storage layout
+	 */
+	public StorageLayout getStorageLayout()
+	{
+		return this.storageLayout;
+	}
+	
+	/**
+	 * Sets the layout of the files in the storage directory, e.g. {@link StorageLayout#SHARDED} for
+	 * stores with millions of data objects. Files are saved in the new layout from now on. Files of a
+	 * flat store remain readable, other existing files must be moved with {@link #migrateStorageLayout()}.
+	 * 
+	 * @param storageLayout the storage layout ({@link StorageLayout#FLAT} by default)
+	 * @throws IllegalArgumentException if the storage layout is null
+	 */
+	public void setStorageLayout(StorageLayout storageLayout) throws IllegalArgumentException
+	{
+		if (storageLayout == null) throw new IllegalArgumentException("storageLayout");
+		
+		this.storageLayout = storageLayout;
+	}
+	
+	/**
+	 * Sets the number of levels of sub-directories of the storage layout
+	 * 
+	 * @param storageLayoutLevels the number of levels; 0 for a flat layout (default)
+	 * @throws IllegalArgumentException if the number of levels is out of range
+	 * @see #setStorageLayout(StorageLayout)
+	 */
+	public void setStorageLayoutLevels(int storageLayoutLevels) throws IllegalArgumentException
+	{
+		this.setStorageLayout(new StorageLayout(storageLayoutLevels));
+	}
+	
+	/**
+	 * Moves the files of all data objects to their paths in the storage layout, e.g. to convert
+	 * a flat store into a sharded one. All data objects are locked while the files are moved.
+	 * 
+	 * @return the number of files moved
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public int migrateStorageLayout() throws DALException
+	{
+		StripedLocks locks = this.locks;
+		
+		locks.lockAll();
+		
+		try
+		{
+			this.awaitPendingSaves(locks);
+			
+			return this.storageLayout.migrate(this.storagePath);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+		finally
+		{
+			locks.unlockAll();
+		}
+	}
+	
+	/**
+	 * Gets how the data objects are stored
+	 * 
+	 * @return the storage engine
+	 */
+	public StorageEngine getStorageEngine()
+	{
+		return (this.segmentStore != null) ? StorageEngine.SEGMENTS : StorageEngine.FILES;
+	}
+	
+	/**
+	 * Sets how the data objects are stored. With {@link StorageEngine#SEGMENTS} the data objects are appended to
+	 * the segments of a {@link SegmentStore} in the storage directory, which is opened (and its index loaded) by this call.
+	 * The storage layout, the write mode, the manifest, the watcher and the cache only apply to {@link StorageEngine#FILES},
+	 * the durability applies to both. Data objects are not migrated between the engines, so {@link #reloadAll()} should
+	 * be called after switching.
+	 * 
+	 * The index of the segments is only held in memory, so only one DAO (in this or another process) may use the
+	 * segments of a storage directory at a time. The segments stay locked until {@link StorageEngine#FILES} is set again.
+	 * 
+	 * @param storageEngine the storage engine ({@link StorageEngine#FILES} by default)
+	 * @throws IllegalArgumentException if the storage engine is null
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. when the segments cannot be opened or are used by another DAO)
+	 */
+	public synchronized void setStorageEngine(StorageEngine storageEngine) throws IllegalArgumentException, DALException
+	{
+		if (storageEngine == null) throw new IllegalArgumentException("storageEngine");
+		
+		try
+		{
+			if ((storageEngine == StorageEngine.SEGMENTS) && (this.segmentStore == null))
+			{
+				SegmentStore segmentStore = new SegmentStore(this.storagePath);
+				
+				this.idAllocator.observe(segmentStore.getLargestId());
+				this.segmentStore = segmentStore;
+			}
+			else if ((storageEngine == StorageEngine.FILES) && (this.segmentStore != null))
+			{
+				this.segmentStore.close();
+				this.segmentStore = null;
+			}
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Packs the data objects of the storage directory (or of the segments, see {@link #setStorageEngine(StorageEngine)})
+	 * into a snapshot file (see {@link SnapshotFile}), which can be served read-only by {@link #setSnapshotFile(Path)},
+	 * e.g. to start read replicas without opening a file per data object. The snapshot replaces the file only once it
+	 * is complete. Every data object is locked for reading while it is packed.
+	 * 
+	 * @param snapshotFile the snapshot file to write, which should not be located in the storage directory
+	 * @return the number of packed data objects
+	 * @throws IllegalArgumentException if the snapshot file is null
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public int exportSnapshot(Path snapshotFile) throws IllegalArgumentException, DALException
+	{
+		if (snapshotFile == null) throw new IllegalArgumentException("snapshotFile");
+		
+		try (SnapshotFile.Writer writer = new SnapshotFile.Writer(snapshotFile))
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				for (int id : segmentStore.getIds(0))
+				{
+					SegmentStore.Record record = segmentStore.get(id);
+					
+					if (record != null) writer.add(id, record.getTimeStamp(), record.getTimeStamp(), record.getPayload());
+				}
+			}
+			else
+			{
+				Set<Integer> ids = new TreeSet<Integer>();
+				
+				DirectoryScanner.forEachDataObjectFile(this.storagePath, null, file -> ids.add(DirectoryScanner.getDataObjectId(file)));
+				
+				for (int id : ids) this.exportFile(writer, id);
+			}
+			
+			writer.commit();
+			
+			return writer.getSize();
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	private void exportFile(SnapshotFile.Writer writer, int id) throws Exception
+	{
+		Lock lock = (this.writeMode == WriteMode.ATOMIC) ? null : this.locks.readLock(id);
+		
+		if (lock != null) this.lock(lock);
+		
+		try
+		{
+			Path pathToFile = this.findPathToFile(id);
+			BasicFileAttributes attributes = Files.readAttributes(pathToFile, BasicFileAttributes.class);
+			
+			try (FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ))
+			{
+				writer.add(id, attributes.creationTime().toMillis(), attributes.lastModifiedTime().toMillis(), channel);
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted since the directory has been scanned
+			return;
+		}
+		finally
+		{
+			if (lock != null) lock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the snapshot served by the DAO
+	 * 
+	 * @return the path to the snapshot file or null if the storage directory is served
+	 */
+	public Path getSnapshotFile()
+	{
+		SnapshotFile snapshot = this.snapshot;
+		
+		return (snapshot == null) ? null : snapshot.getFile();
+	}
+	
+	/**
+	 * Serves the data objects of a snapshot written by {@link #exportSnapshot(Path)} instead of the ones of the
+	 * storage directory. The snapshot is mapped into memory and gets find the data objects by a binary search of its
+	 * index, without opening files. While a snapshot is served, the DAO is read-only: saves, deletes and clears throw
+	 * an {@link IllegalStateException}. {@link #reloadAll()} should be called after switching.
+	 * 
+	 * @param snapshotFile the snapshot file or null to serve the storage directory again (default)
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. if the file is no snapshot)
+	 */
+	public synchronized void setSnapshotFile(Path snapshotFile) throws DALException
+	{
+		try
+		{
+			SnapshotFile snapshot = this.snapshot;
+			
+			this.snapshot = (snapshotFile == null) ? null : new SnapshotFile(snapshotFile);
+			
+			if (snapshot != null) snapshot.close();
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Throws if a snapshot is served, as the DAO is read-only then
+	 * 
+	 * @throws IllegalStateException if a snapshot is served
+	 */
+	private void ensureWritable() throws IllegalStateException
+	{
+		if (this.snapshot != null) throw new IllegalStateException("snapshot");
+	}
+	
+	private void lock(Lock lock)
+	{
+		this.lock(lock, OperationTracer.DISABLED);
+	}
+	
+	private void lock(Lock lock, OperationTrace trace)
+	{
+		long startTime = this.metrics.startLockWait();
+		long traceStartTime = trace.startPhase();
+		
+		lock.lock();
+		
+		trace.endPhase(OperationTrace.Phase.LOCK, traceStartTime);
+		this.metrics.recordLockWait(startTime);
+	}
+	
+	/**
+	 * Gets the pool which scans the storage directory in {@link #getAll()} and {@link #reloadAll()}
+	 * 
+	 * @return the pool or null if the directory is scanned by the calling thread
+	 */
+	public ForkJoinPool getScanPool()
+	{
+		return this.scanPool;
+	}
+	
+	/**
+	 * Sets the pool which scans the storage directory in {@link #getAll()} and {@link #reloadAll()}.
+	 * Reading the attributes of the files and loading the data objects is spread over the threads
+	 * of the pool. Loading only runs in parallel if the locking mode is {@link LockingMode#STRIPED}.
+	 * 
+	 * @param scanPool the pool or null to scan the directory on the calling thread (default)
+	 */
+	public synchronized void setScanPool(ForkJoinPool scanPool)
+	{
+		if (this.ownsScanPool) this.scanPool.shutdown();
+		
+		this.scanPool = scanPool;
+		this.ownsScanPool = false;
+	}
+	
+	/**
+	 * Sets the number of threads which scan the storage directory in {@link #getAll()} and {@link #reloadAll()}.
+	 * A dedicated pool with the given parallelism is created for the DAO.
+	 * 
+	 * @param scanParallelism the number of threads; 1 or less scans the directory on the calling thread
+	 */
+	public synchronized void setScanParallelism(int scanParallelism)
+	{
+		this.setScanPool((scanParallelism > 1) ? new ForkJoinPool(scanParallelism) : null);
+		this.ownsScanPool = (this.scanPool != null);
+	}
+	
+	/**
+	 * Gets the pool which processes the ids of {@link #get(int[])} and {@link #delete(int[])}
+	 * 
+	 * @return the pool or null if the ids are processed one after another by the calling thread
+	 */
+	public ForkJoinPool getBulkPool()
+	{
+		return this.bulkPool;
+	}
+	
+	/**
+	 * Sets the pool which processes the ids of {@link #get(int[])} and {@link #delete(int[])} in parallel,
+	 * which keeps several I/O requests in flight on storage devices processing them concurrently (e.g. SSDs).
+	 * The ids bypass the synchronized single-id operations and only lock their own files. Gets take shared read
+	 * locks, which only exclude writes, so they run in parallel in every locking mode. Deletes take the write
+	 * locks of the ids and therefore only run in parallel if the locking mode is {@link LockingMode#STRIPED}.
+	 * Gets return the data objects in the order of the ids. Every id is processed, even if others fail,
+	 * and the failures are reported together by a {@link BulkOperationException}.
+	 * 
+	 * @param bulkPool the pool or null to process the ids one after another on the calling thread (default)
+	 */
+	public synchronized void setBulkPool(ForkJoinPool bulkPool)
+	{
+		if (this.ownsBulkPool) this.bulkPool.shutdown();
+		
+		this.bulkPool = bulkPool;
+		this.ownsBulkPool = false;
+	}
+	
+	/**
+	 * Sets the number of ids of {@link #get(int[])} and {@link #delete(int[])} processed in parallel
+	 * (see {@link #setBulkPool(ForkJoinPool)}). A dedicated pool with the given parallelism is created for the DAO.
+	 * 
+	 * @param bulkParallelism the number of threads; 1 or less processes the ids on the calling thread
+	 */
+	public synchronized void setBulkParallelism(int bulkParallelism)
+	{
+		this.setBulkPool((bulkParallelism > 1) ? new ForkJoinPool(bulkParallelism) : null);
+		this.ownsBulkPool = (this.bulkPool != null);
+	}
+	
+	/**
+	 * Gets the executor which runs the asynchronous operations (e.g. {@link #getAsync(int)})
+	 * 
+	 * @return the executor; a default one is created when first needed
+	 */
+	public AsyncExecutor getAsyncExecutor()
+	{
+		AsyncExecutor asyncExecutor = this.asyncExecutor;
+		
+		return (asyncExecutor != null) ? asyncExecutor : this.createAsyncExecutor();
+	}
+	
+	/**
+	 * Sets the executor which runs the asynchronous operations (e.g. {@link #getAsync(int)}).
+	 * An executor can be shared by several DAOs to limit the operations in flight on a storage device.
+	 * The operations call the blocking methods (e.g. {@link #get(int)}) on the threads of the executor,
+	 * as the locks of the ids belong to the thread holding them.
+	 * 
+	 * @param asyncExecutor the executor or null to create one with a thread per processor when first needed (default)
+	 */
+	public synchronized void setAsyncExecutor(AsyncExecutor asyncExecutor)
+	{
+		if (this.ownsAsyncExecutor) this.asyncExecutor.close();
+		
+		this.asyncExecutor = asyncExecutor;
+		this.ownsAsyncExecutor = false;
+	}
+	
+	/**
+	 * Sets the number of I/O threads and the maximum number of asynchronous operations in flight.
+	 * A dedicated executor is created for the DAO.
+	 * 
+	 * @param threads the number of I/O threads
+	 * @param maxInFlight the maximum number of operations started but not completed, beyond which starting an operation blocks
+	 * @throws IllegalArgumentException if a parameter is less than 1
+	 */
+	public synchronized void setAsyncParallelism(int threads, int maxInFlight) throws IllegalArgumentException
+	{
+		this.setAsyncExecutor(new AsyncExecutor(threads, maxInFlight));
+		this.ownsAsyncExecutor = true;
+	}
+	
+	private synchronized AsyncExecutor createAsyncExecutor()
+	{
+		if (this.asyncExecutor == null)
+		{
+			this.asyncExecutor = new AsyncExecutor();
+			this.ownsAsyncExecutor = true;
+		}
+		
+		return this.asyncExecutor;
+	}
+	
+	/**
+	 * Checks if saves and deletes are recorded in a manifest in the storage directory
+	 * 
+	 * @return true if the manifest is used, false otherwise
+	 */
+	public boolean isManifestEnabled()
+	{
+		return (this.manifest != null);
+	}
+	
+	/**
+	 * Enables or disables recording saves and deletes in a manifest in the storage directory.
+	 * If enabled, incremental calls of {@link #getAll()} only load the data objects recorded since the
+	 * previous call instead of reading the attributes of every file. The first call after enabling and
+	 * every call of {@link #reloadAll()} still scan the directory. A missing manifest is rebuilt from a
+	 * directory scan. Every DAO writing to the storage directory must have the manifest enabled.
+	 * 
+	 * @param manifestEnabled true to use the manifest, false to scan the directory (default)
+	 */
+	public void setManifestEnabled(boolean manifestEnabled)
+	{
+		this.manifestCursor = null;
+		this.manifest = (manifestEnabled) ? new StorageManifest(this.storagePath) : null;
+	}
+	
+	/**
+	 * Gets the number of records in the manifest which triggers its compaction
+	 * 
+	 * @return the number of records
+	 */
+	public long getManifestCompactionThreshold()
+	{
+		return this.manifestCompactionThreshold;
+	}
+	
+	/**
+	 * Sets the number of records in the manifest which triggers its compaction by {@link #getAll()}.
+	 * After a compaction the threshold is raised to twice the number of records left, so a manifest
+	 * holding mostly live data objects is not compacted again by every call.
+	 * 
+	 * @param manifestCompactionThreshold the number of records ({@value #DEFAULT_MANIFEST_COMPACTION_THRESHOLD} by default)
+	 * @throws IllegalArgumentException if the threshold is less than 1
+	 */
+	public void setManifestCompactionThreshold(long manifestCompactionThreshold) throws IllegalArgumentException
+	{
+		if (manifestCompactionThreshold < 1) throw new IllegalArgumentException("manifestCompactionThreshold");
+		
+		this.manifestCompactionThreshold = manifestCompactionThreshold;
+	}
+	
+	/**
+	 * Rewrites the manifest with one record per stored data object. Called by {@link #getAll()} once the
+	 * manifest holds more records than the compaction threshold (see {@link #setManifestCompactionThreshold(long)}).
+	 * The next call of {@link #getAll()} of every DAO reading the manifest scans the storage directory.
+	 * 
+	 * @throws IllegalStateException if the manifest is not enabled
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public void compactManifest() throws IllegalStateException, DALException
+	{
+		StorageManifest manifest = this.manifest;
+		
+		if (manifest == null) throw new IllegalStateException();
+		
+		try
+		{
+			long records = manifest.compact().getSequence();
+			
+			this.manifestCompactionThreshold = Math.max(this.manifestCompactionThreshold, 2 * records);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Checks if changes of the storage directory are tracked by a {@link java.nio.file.WatchService}
+	 * 
+	 * @return true if changes are tracked, false otherwise
+	 */
+	public boolean isWatchEnabled()
+	{
+		return (this.watcher != null);
+	}
+	
+	/**
+	 * Enables or disables tracking changes of the storage directory with a {@link java.nio.file.WatchService}.
+	 * If enabled, incremental calls of {@link #getAll()} only load the data objects whose files have been
+	 * reported as created or modified since the previous call, including the ones written by other processes.
+	 * The first call after enabling, every call of {@link #reloadAll()} and every call after the watch service
+	 * lost events still scan the directory. If the manifest is enabled too, it takes precedence
+	 * and the reported ids are kept until the manifest is disabled.
+	 * 
+	 * @param watchEnabled true to track changes, false to scan the directory (default)
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. when the directory cannot be watched)
+	 */
+	public synchronized void setWatchEnabled(boolean watchEnabled) throws DALException
+	{
+		try
+		{
+			if (watchEnabled && (this.watcher == null))
+			{
+				this.watcherBaselineLoaded = false;
+				this.watchedTimeStamps.clear();
+				this.watcher = new DirectoryWatcher(this.storagePath);
+			}
+			else if (!watchEnabled && (this.watcher != null))
+			{
+				this.watcher.close();
+				this.watcher = null;
+			}
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Gets the metrics of the operations of the DAO
+	 * 
+	 * @return the metrics
+	 */
+	public DAOMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Checks if the metrics of the operations are collected
+	 * 
+	 * @return true if the metrics are collected, false otherwise
+	 */
+	public boolean isMetricsEnabled()
+	{
+		return this.metrics.isEnabled();
+	}
+	
+	/**
+	 * Enables or disables collecting the metrics of the operations (see {@link DAOMetrics}).
+	 * While enabled, the metrics are published as an MXBean in the platform MBean server, named by the
+	 * class and the storage path of the DAO (see {@link DAOMetrics#register(String, Path)}).
+	 * 
+	 * @param metricsEnabled true to collect and publish the metrics, false to stop (default)
+	 * @throws DALException re-throws every exception as {@see DALException} (e.g. when the MXBean cannot be registered)
+	 */
+	public synchronized void setMetricsEnabled(boolean metricsEnabled) throws DALException
+	{
+		try
+		{
+			if (metricsEnabled) this.metrics.register(this.getClass().getSimpleName(), this.storagePath);
+			else this.metrics.unregister();
+			
+			this.metrics.setEnabled(metricsEnabled);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * Gets the maximum number of data objects cached by gets
+	 * 
+	 * @return the maximum number of cached data objects or 0 if the cache is limited by bytes or disabled
+	 */
+	public synchronized long getCacheMaxEntries()
+	{
+		return this.cacheMaxEntries;
+	}
+	
+	/**
+	 * Enables the cache of gets, limited by the number of data objects. Cached data objects are returned as long as
+	 * the last modification time and the size of their files are unchanged, and are removed when saved or deleted.
+	 * Entries are evicted by the W-TinyLFU policy (see {@link ObjectCache}). Replaces the current cache.
+	 * 
+	 * @param cacheMaxEntries the maximum number of cached data objects or 0 to disable the cache (default)
+	 * @throws IllegalArgumentException if the number is negative
+	 */
+	public synchronized void setCacheMaxEntries(long cacheMaxEntries) throws IllegalArgumentException
+	{
+		if (cacheMaxEntries < 0) throw new IllegalArgumentException("cacheMaxEntries");
+		
+		this.cacheMaxEntries = cacheMaxEntries;
+		this.cacheMaxBytes = 0;
+		this.cache = (cacheMaxEntries == 0) ? null : new ObjectCache<CachedFile>(cacheMaxEntries, (int) Math.min(cacheMaxEntries, CACHE_MAX_EXPECTED_ENTRIES));
+	}
+	
+	/**
+	 * Gets the maximum estimated bytes of the data objects cached by gets
+	 * 
+	 * @return the maximum bytes of the cached data objects or 0 if the cache is limited by entries or disabled
+	 */
+	public synchronized long getCacheMaxBytes()
+	{
+		return this.cacheMaxBytes;
+	}
+	
+	/**
+	 * Enables the cache of gets like {@link #setCacheMaxEntries(long)}, but limited by bytes.
+	 * The bytes of a cached data object are estimated by the size of its file.
+	 * Replaces the current cache.
+	 * 
+	 * @param cacheMaxBytes the maximum bytes of the cached data objects or 0 to disable the cache (default)
+	 * @throws IllegalArgumentException if the number of bytes is negative
+	 */
+	public synchronized void setCacheMaxBytes(long cacheMaxBytes) throws IllegalArgumentException
+	{
+		if (cacheMaxBytes < 0) throw new IllegalArgumentException("cacheMaxBytes");
+		
+		this.cacheMaxEntries = 0;
+		this.cacheMaxBytes = cacheMaxBytes;
+		this.cache = (cacheMaxBytes == 0) ? null : new ObjectCache<CachedFile>(cacheMaxBytes, (int) Math.max(1, Math.min(cacheMaxBytes / 1024, CACHE_MAX_EXPECTED_ENTRIES)));
+	}
+	
+	/**
+	 * Checks if the cache returns the same data object instances to all callers
+	 * 
+	 * @return true if cached instances are shared, false if every get returns a copy
+	 */
+	public boolean isCacheSharedObjects()
+	{
+		return this.cacheSharedObjects;
+	}
+	
+	/**
+	 * Sets if the cache returns the same data object instances to all callers.
+	 * By default the cache holds the content of the files and every get deserializes a copy, which saves reading
+	 * the file only. Shared instances also save the deserialization, but callers must not modify them.
+	 * Empties the cache.
+	 * 
+	 * @param cacheSharedObjects true to share cached instances, false to return copies (default)
+	 */
+	public void setCacheSharedObjects(boolean cacheSharedObjects)
+	{
+		ObjectCache<CachedFile> cache = this.cache;
+		
+		this.cacheSharedObjects = cacheSharedObjects;
+		
+		if (cache != null) cache.clear();
+	}
+	
+	/**
+	 * Gets the statistics of the cache of gets
+	 * 
+	 * @return the statistics or null if the cache is disabled
+	 */
+	public ObjectCache.Stats getCacheStats()
+	{
+		ObjectCache<CachedFile> cache = this.cache;
+		
+		return (cache == null) ? null : cache.getStats();
+	}
+	
+	/**
+	 * Gets the serializer which writes the files of the data objects
+	 * 
+	 * @return the serializer
+	 */
+	public Serializer<T> getSerializer()
+	{
+		return this.serializer;
+	}
+	
+	/**
+	 * Sets the serializer which writes the files of the data objects and registers it for reading.
+	 * Files written by other registered serializers remain readable, so the serializer of an existing
+	 * store can be changed without converting its files.
+	 * 
+	 * @param serializer the serializer ({@link JavaSerializer} by default)
+	 * @throws IllegalArgumentException if the serializer is null
+	 */
+	public void setSerializer(Serializer<T> serializer) throws IllegalArgumentException
+	{
+		this.registerSerializer(serializer);
+		
+		this.serializer = serializer;
+	}
+	
+	/**
+	 * Registers a serializer for reading the files written by it. The {@link JavaSerializer}
+	 * and the {@link BinarySerializer} are registered by default.
+	 * 
+	 * @param serializer the serializer to register; replaces a serializer with the same format id
+	 * @throws IllegalArgumentException if the serializer is null
+	 */
+	public void registerSerializer(Serializer<T> serializer) throws IllegalArgumentException
+	{
+		if (serializer == null) throw new IllegalArgumentException("serializer");
+		
+		this.serializers.put(serializer.getFormatId(), serializer);
+	}
+	
+	/**
+	 * Gets the codec which compresses the files of the data objects
+	 * 
+	 * @return the codec or null if the files are not compressed
+	 */
+	public CompressionCodec getCompressionCodec()
+	{
+		return this.compressionCodec;
+	}
+	
+	/**
+	 * Sets the codec which compresses the files of the data objects and registers it for reading.
+	 * Only data objects with at least {@link #getCompressionThreshold()} serialized bytes are compressed,
+	 * and only if compression saves enough (see {@link #setCompressionRatio(double)}). The header of
+	 * every file tells if and how it is compressed, so compression can be switched on and off for an
+	 * existing store without converting its files.
+	 * 
+	 * @param compressionCodec the codec (e.g. {@link DeflateCodec}) or null to not compress (default)
+	 */
+	public void setCompressionCodec(CompressionCodec compressionCodec)
+	{
+		if (compressionCodec != null) this.registerCompressionCodec(compressionCodec);
+		
+		this.compressionCodec = compressionCodec;
+	}
+	
+	/**
+	 * Registers a codec for reading the files compressed by it. The {@link DeflateCodec} is registered by default.
+	 * 
+	 * @param compressionCodec the codec to register; replaces a codec with the same codec id
+	 * @throws IllegalArgumentException if the codec is null or its codec id is not between 1 and 15
+	 */
+	public void registerCompressionCodec(CompressionCodec compressionCodec) throws IllegalArgumentException
+	{
+		if ((compressionCodec == null) || (compressionCodec.getCodecId() < 1) || (compressionCodec.getCodecId() > 15)) throw new IllegalArgumentException("compressionCodec");
+		
+		this.compressionCodecs.put(compressionCodec.getCodecId(), compressionCodec);
+	}
+	
+	/**
+	 * Gets the smallest number of serialized bytes which are compressed
+	 * 
+	 * @return the number of bytes
+	 */
+	public int getCompressionThreshold()
+	{
+		return this.compressionThreshold;
+	}
+	
+	/**
+	 * Sets the smallest number of serialized bytes which are compressed.
+	 * Smaller data objects rarely compress well and are written as they are.
+	 * 
+	 * @param compressionThreshold the number of bytes ({@value #DEFAULT_COMPRESSION_THRESHOLD} by default)
+	 * @throws IllegalArgumentException if the threshold is negative
+	 */
+	public void setCompressionThreshold(int compressionThreshold) throws IllegalArgumentException
+	{
+		if (compressionThreshold < 0) throw new IllegalArgumentException("compressionThreshold");
+		
+		this.compressionThreshold = compressionThreshold;
+	}
+	
+	/**
+	 * Gets the largest ratio of compressed to serialized bytes at which the compressed data are stored
+	 * 
+	 * @return the ratio
+	 */
+	public double getCompressionRatio()
+	{
+		return this.compressionRatio;
+	}
+	
+	/**
+	 * Sets the largest ratio of compressed to serialized bytes at which the compressed data are stored.
+	 * Data objects which do not compress below the ratio are written uncompressed, as decompressing
+	 * them would cost more than reading the saved bytes.
+	 * 
+	 * @param compressionRatio the ratio greater than 0 and at most 1 ({@value #DEFAULT_COMPRESSION_RATIO} by default)
+	 * @throws IllegalArgumentException if the ratio is out of range
+	 */
+	public void setCompressionRatio(double compressionRatio) throws IllegalArgumentException
+	{
+		if (!(compressionRatio > 0) || (compressionRatio > 1)) throw new IllegalArgumentException("compressionRatio");
+		
+		this.compressionRatio = compressionRatio;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void doDelete(T dataObject) throws Exception 
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.DELETE, () -> this.deleteDataObject(dataObject));
+	}
+	
+	private void deleteDataObject(T dataObject) throws Exception
+	{
+		if (dataObject == null) throw new IllegalArgumentException("dataObject");
+		
+		this.ensureWritable();
+		
+		Lock lock = this.locks.writeLock(dataObject.getId());
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.DELETE, this.storagePath);
+		
+		trace.setId(dataObject.getId());
+		
+		this.lock(lock, trace);
+		
+		try
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				segmentStore.delete(dataObject.getId(), this.durability);
+				dataObject.setIsDeleted(true);
+				
+				return;
+			}
+			
+			this.awaitPendingSaves(new int[] { dataObject.getId() }, Collections.singletonList(lock), trace);
+			
+			Path pathToFile = this.findPathToFile(dataObject.getId());
+			
+			if (Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS)) Files.delete(pathToFile);
+			this.invalidateCache(dataObject.getId());
+			
+			dataObject.setIsDeleted(!Files.exists(pathToFile, LinkOption.NOFOLLOW_LINKS));
+			
+			if ((this.manifest != null) && dataObject.getIsDeleted()) this.manifest.append(dataObject.getId(), StorageManifest.Operation.DELETE);
+		}
+		finally
+		{
+			lock.unlock();
+			trace.finish();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void doDelete(Collection<T> dataObjects) throws Exception
+	{
+		for (T dataObject : dataObjects) this.doDelete(dataObject);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void doDelete(int[] dataObjectIds) throws Exception
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.DELETE, () -> this.deleteDataObjects(dataObjectIds));
+	}
+	
+	private void deleteDataObjects(int[] dataObjectIds) throws Exception
+	{
+		this.ensureWritable();
+		
+		SegmentStore segmentStore = this.segmentStore;
+		
+		if (segmentStore != null)
+		{
+			for (int dataObjectId : dataObjectIds) segmentStore.delete(dataObjectId, Durability.NONE);
+			
+			segmentStore.sync(this.durability);
+			
+			return;
+		}
+		
+		ForkJoinPool bulkPool = this.bulkPool;
+		List<Object> removed = new ArrayList<Object>(dataObjectIds.length);
+		
+		try
+		{
+			if (bulkPool != null)
+			{
+				removed.addAll(BulkExecutor.execute(dataObjectIds, bulkPool, dataObjectId -> this.deleteFile(dataObjectId)));
+			}
+			else
+			{
+				for (int dataObjectId : dataObjectIds) removed.add(this.deleteFile(dataObjectId));
+			}
+		}
+		catch (BulkOperationException e)
+		{
+			removed.addAll(e.getResults());
+			
+			throw e;
+		}
+		finally
+		{
+			this.journalDeletes(dataObjectIds, removed);
+		}
+	}
+	
+	/**
+	 * Records the deletes of the ids whose files were removed in the manifest
+	 * 
+	 * @param ids the ids of the deletes
+	 * @param removed true for every id (in the order of the ids) whose file was removed
+	 * @throws Exception re-throws every exception
+	 */
+	private void journalDeletes(int[] ids, List<Object> removed) throws Exception
+	{
+		StorageManifest manifest = this.manifest;
+		
+		if (manifest == null) return;
+		
+		int[] removedIds = new int[removed.size()];
+		int count = 0;
+		
+		for (int i=0; i<removed.size(); i++)
+		{
+			if (Boolean.TRUE.equals(removed.get(i))) removedIds[count++] = ids[i];
+		}
+		
+		manifest.append(Arrays.copyOf(removedIds, count), StorageManifest.Operation.DELETE);
+	}
+	
+	private boolean deleteFile(int dataObjectId) throws Exception
+	{
+		Lock lock = this.locks.writeLock(dataObjectId);
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.DELETE, this.storagePath);
+		
+		trace.setId(dataObjectId);
+		
+		this.lock(lock, trace);
+		
+		try
+		{
+			this.awaitPendingSaves(new int[] { dataObjectId }, Collections.singletonList(lock), trace);
+			
+			Path pathToFile = this.findPathToFile(dataObjectId);
+			
+			boolean removed = Files.deleteIfExists(pathToFile);
+			this.invalidateCache(dataObjectId);
+			
+			return removed;
+		}
+		finally
+		{
+			lock.unlock();
+			trace.finish();
+		}
+	}
+
+	/**
+	 * Gets a data object by a blocking {@link #get(int)} on an I/O thread. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param id the id of the data object
+	 * @return the future completed with the data object or null if there is none with the id
+	 * @throws IllegalArgumentException if the id is less than 1
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<T> getAsync(int id) throws IllegalArgumentException
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		
+		return this.getAsyncExecutor().submit(() -> this.get(id));
+	}
+	
+	/**
+	 * Saves a data object on an I/O thread. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param dataObject the data object to save
+	 * @return the future completed with the saved data object or exceptionally with the exception {@link #save(GenericDataObject)} throws
+	 * @throws IllegalArgumentException if the data object is null
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<T> saveAsync(T dataObject) throws IllegalArgumentException
+	{
+		if (dataObject == null) throw new IllegalArgumentException("dataObject");
+		
+		return this.getAsyncExecutor().submit(() ->
+		{
+			this.save(dataObject);
+			
+			return dataObject;
+		});
+	}
+	
+	/**
+	 * Deletes a data object on an I/O thread. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param dataObject the data object to delete
+	 * @return the future completed when the data object is deleted or exceptionally with the exception {@link #delete(GenericDataObject)} throws
+	 * @throws IllegalArgumentException if the data object is null
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<Void> deleteAsync(T dataObject) throws IllegalArgumentException
+	{
+		if (dataObject == null) throw new IllegalArgumentException("dataObject");
+		
+		return this.getAsyncExecutor().submit(() ->
+		{
+			this.delete(dataObject);
+			
+			return null;
+		});
+	}
+	
+	/**
+	 * Gets the data objects modified since the previous call on an I/O thread (see {@link #getAll()}).
+	 * Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @return the future completed with the data objects or exceptionally with the exception {@link #getAll()} throws
+	 * @see #getAsyncExecutor()
+	 */
+	public CompletableFuture<Collection<T>> getAllAsync()
+	{
+		return this.getAsyncExecutor().submit(() -> this.getAll());
+	}
+	
+	/**
+	 * Gets handles of all stored data objects (see {@link #getAllHandles(long)})
+	 * 
+	 * @return the handles ordered by id
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public List<ObjectHandle<T>> getAllHandles() throws DALException
+	{
+		return this.getAllHandles(0);
+	}
+	
+	/**
+	 * Gets handles of the stored data objects modified after a time stamp. The handles hold the id, the time stamps
+	 * and the size read from the attributes of the files (or from the index of the segments or the snapshot)
+	 * and load the data object only when first accessed (see {@link ObjectHandle#get()}), so listing them takes memory
+	 * proportional to the number of data objects instead of their size. Unlike {@link #getAll()}, the call does not
+	 * change which data objects the next incremental load returns. To list the changed data objects only, pass the
+	 * largest modified time stamp of the handles returned by the previous call.
+	 * 
+	 * @param modifiedAfter the time stamp in milliseconds; 0 for all data objects
+	 * @return the handles ordered by id
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public List<ObjectHandle<T>> getAllHandles(long modifiedAfter) throws DALException
+	{
+		try
+		{
+			return HandleScanner.scan(this.snapshot, this.segmentStore, this.storagePath, this.scanPool, modifiedAfter, this::get, this.metrics);
+		}
+		catch (Exception e)
+		{
+			throw new DALException(e);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected T doGet(int id) throws Exception 
+	{
+		return this.metrics.measure(DAOMetrics.Operation.GET, () -> this.getDataObject(id));
+	}
+	
+	private T getDataObject(int id) throws Exception
+	{
+		return this.getDataObject(id, this.locks.readLock(id));
+	}
+	
+	private T getDataObject(int id, Lock readLock) throws Exception
+	{
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.GET, this.storagePath);
+		Lock lock = (this.writeMode == WriteMode.ATOMIC) ? null : readLock;
+		
+		trace.setId(id);
+		
+		if (lock != null) this.lock(lock, trace);
+		
+		try
+		{
+			return this.readDataObject(id, trace);
+		}
+		finally
+		{
+			if (lock != null) lock.unlock();
+			
+			trace.finish();
+		}
+	}
+	
+	private T readDataObject(int id, OperationTrace trace) throws Exception
+	{
+		SnapshotFile snapshot = this.snapshot;
+		SegmentStore segmentStore = this.segmentStore;
+		
+		if (snapshot != null) return this.readSnapshotDataObject(id, snapshot, trace);
+		if (segmentStore != null) return this.readStoredDataObject(id, segmentStore, trace);
+		
+		Path pathToFile = this.findPathToFile(id);
+		ObjectCache<CachedFile> cache = this.cache;
+		
+		if (cache != null) return this.readCachedDataObject(id, pathToFile, cache, trace);
+		if (!Files.exists(pathToFile)) return null;
+		if (!Files.isRegularFile(pathToFile)) throw new IllegalStateException();
+		if (!Files.isReadable(pathToFile)) throw new IllegalStateException();
+		if (trace.isEnabled()) return this.readTracedDataObject(pathToFile, trace);
+		
+		try(FileChannel channel = FileChannel.open(pathToFile, StandardOpenOption.READ);
+			BufferedInputStream bis = new BufferedInputStream(Channels.newInputStream(channel)))
+		{
+			T dataObject = this.deserialize(bis);
+			
+			if (this.metrics.isEnabled()) this.metrics.addBytesRead(channel.position());
+			
+			return dataObject;
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted concurrently, as gets do not lock in atomic write mode
+			return null;
+		}
+		catch (Exception ex)
+		{
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Reads the file completely before deserializing it, so the trace tells the I/O apart from the deserialization
+	 */
+	private T readTracedDataObject(Path pathToFile, OperationTrace trace) throws Exception
+	{
+		byte[] content;
+		
+		try
+		{
+			content = Files.readAllBytes(pathToFile);
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted concurrently, as gets do not lock in atomic write mode
+			return null;
+		}
+		
+		this.metrics.addBytesRead(content.length);
+		trace.addBytes(content.length);
+		
+		return this.deserialize(new ByteArrayInputStream(content), trace);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private T readCachedDataObject(int id, Path pathToFile, ObjectCache<CachedFile> cache, OperationTrace trace) throws Exception
+	{
+		BasicFileAttributes attributes;
+		
+		try
+		{
+			attributes = Files.readAttributes(pathToFile, BasicFileAttributes.class);
+		}
+		catch (NoSuchFileException e)
+		{
+			cache.invalidate(id);
+			
+			return null;
+		}
+		
+		if (!attributes.isRegularFile()) throw new IllegalStateException();
+		
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		long size = attributes.size();
+		boolean shared = this.cacheSharedObjects;
+		CachedFile cachedFile = cache.get(id, c -> (c.lastModified == lastModified) && (c.size == size) && ((c.dataObject != null) == shared));
+		
+		if (cachedFile != null) return shared ? (T) cachedFile.dataObject : this.deserialize(new ByteArrayInputStream(cachedFile.content), trace);
+		
+		byte[] content;
+		
+		try
+		{
+			content = Files.readAllBytes(pathToFile);
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted concurrently, as gets do not lock in atomic write mode
+			return null;
+		}
+		
+		this.metrics.addBytesRead(content.length);
+		trace.addBytes(content.length);
+		
+		// Files saved after reading the attributes are cached with the old time stamp and therefore never returned
+		T dataObject = this.deserialize(new ByteArrayInputStream(content), trace);
+		long weight = (this.cacheMaxBytes > 0) ? (content.length + CACHE_ENTRY_OVERHEAD) : 1;
+		
+		cache.put(id, shared ? new CachedFile(dataObject, null, lastModified, size) : new CachedFile(null, content, lastModified, size), weight);
+		
+		return dataObject;
+	}
+	
+	private T readStoredDataObject(int id, SegmentStore segmentStore, OperationTrace trace) throws Exception
+	{
+		SegmentStore.Record record = segmentStore.get(id);
+		
+		if (record == null) return null;
+		
+		ByteBuffer payload = record.getPayload();
+		
+		this.metrics.addBytesRead(payload.remaining());
+		trace.addBytes(payload.remaining());
+		
+		return this.deserialize(new ByteArrayInputStream(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining()), trace);
+	}
+	
+	private T readSnapshotDataObject(int id, SnapshotFile snapshot, OperationTrace trace) throws Exception
+	{
+		SnapshotFile.Entry entry = snapshot.get(id);
+		
+		if (entry == null) return null;
+		
+		ByteBuffer content = entry.getContent();
+		byte[] bytes = new byte[content.remaining()];
+		
+		content.get(bytes);
+		
+		this.metrics.addBytesRead(bytes.length);
+		trace.addBytes(bytes.length);
+		
+		return this.deserialize(new ByteArrayInputStream(bytes), trace);
+	}
+	
+	private void invalidateCache(int id)
+	{
+		ObjectCache<CachedFile> cache = this.cache;
+		
+		if (cache != null) cache.invalidate(id);
+	}
+	
+	private T deserialize(InputStream inputStream, OperationTrace trace) throws Exception
+	{
+		long startTime = trace.startPhase();
+		
+		try
+		{
+			return this.deserialize(inputStream);
+		}
+		finally
+		{
+			trace.endPhase(OperationTrace.Phase.SERIALIZATION, startTime);
+		}
+	}
+	
+	private T deserialize(InputStream inputStream) throws Exception
+	{
+		FileHeader header = FileHeader.read(inputStream);
+		Serializer<T> serializer = this.serializers.get(header.getFormatId());
+		
+		if (serializer == null) throw new StreamCorruptedException(String.format("no serializer registered for format %d", header.getFormatId()));
+		
+		if (header.getCodecId() != 0) inputStream = this.decompress(header.getCodecId(), inputStream);
+		
+		return serializer.deserialize(inputStream);
+	}
+	
+	private InputStream decompress(byte codecId, InputStream inputStream) throws Exception
+	{
+		CompressionCodec codec = this.compressionCodecs.get(codecId);
+		
+		if (codec == null) throw new StreamCorruptedException(String.format("no compression codec registered for id %d", codecId));
+		
+		DataInputStream dis = new DataInputStream(inputStream);
+		int length = dis.readInt();
+		
+		if (length < 0) throw new StreamCorruptedException(String.format("invalid length %d", length));
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		byte[] content = new byte[length];
+		
+		for (int read = dis.read(buffer); read >= 0; read = dis.read(buffer)) compressed.write(buffer, 0, read);
+		
+		codec.decompress(compressed.toByteArray(), 0, compressed.size(), content, 0, length);
+		
+		return new ByteArrayInputStream(content);
+	}
+	
+	private void writeContent(T dataObject, Serializer<T> serializer, OutputStream outputStream) throws Exception
+	{
+		CompressionCodec codec = this.compressionCodec;
+		
+		if (codec == null)
+		{
+			new FileHeader(serializer.getFormatId(), (byte) 0).write(outputStream);
+			serializer.serialize(dataObject, outputStream);
+			
+			return;
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		serializer.serialize(dataObject, bytes);
+		
+		byte[] content = bytes.toByteArray();
+		
+		if (content.length >= this.compressionThreshold)
+		{
+			byte[] compressed = new byte[(int) (content.length * this.compressionRatio)];
+			int length = codec.compress(content, 0, content.length, compressed, 0, compressed.length);
+			
+			if (length >= 0)
+			{
+				DataOutputStream dos = new DataOutputStream(outputStream);
+				
+				new FileHeader(serializer.getFormatId(), codec.getCodecId()).write(dos);
+				dos.writeInt(content.length);
+				dos.write(compressed, 0, length);
+				dos.flush();
+				
+				return;
+			}
+		}
+		
+		new FileHeader(serializer.getFormatId(), (byte) 0).write(outputStream);
+		outputStream.write(content);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Collection<T> doGet(int[] ids) throws Exception 
+	{
+		return this.metrics.measure((ids == null) ? DAOMetrics.Operation.GET_ALL : DAOMetrics.Operation.GET, () -> this.getDataObjects(ids));
+	}
+	
+	private Collection<T> getDataObjects(int[] ids) throws Exception
+	{
+		Collection<T> newDataObjects = new ArrayList<T>();
+
+		if (ids != null)
+		{
+			StripedLocks locks = this.locks;
+			ForkJoinPool bulkPool = this.bulkPool;
+			
+			// Shared read locks, so the ids are read in parallel in every locking mode
+			if (bulkPool != null) return BulkExecutor.execute(ids, bulkPool, id -> this.getDataObject(id, locks.sharedReadLock(id)));
+			
+			for (int id : ids) newDataObjects.add(this.getDataObject(id));
+
+			return newDataObjects;
+		}
+		
+		SnapshotFile snapshot = this.snapshot;
+		SegmentStore segmentStore = this.segmentStore;
+		
+		if (snapshot != null) return this.getChangedDataObjects(snapshot.getIds(this.latestModificationTimeStamp));
+		if (segmentStore != null) return this.getChangedDataObjects(segmentStore.getIds(this.latestModificationTimeStamp));
+		
+		StorageManifest manifest = this.manifest;
+		StorageManifest.Cursor manifestCursor = null;
+		DirectoryWatcher watcher = this.watcher;
+		
+		if (manifest != null)
+		{
+			StorageManifest.Changes changes = manifest.readChanges(this.manifestCursor);
+			
+			if (changes != null)
+			{
+				newDataObjects = this.getChangedDataObjects(changes.getSavedIds());
+				this.manifestCursor = changes.getCursor();
+				
+				if (changes.getCursor().getSequence() > this.manifestCompactionThreshold) this.compactManifest();
+				
+				return newDataObjects;
+			}
+			
+			manifestCursor = manifest.getCursor();
+		}
+		else if (watcher != null)
+		{
+			// Drained only if the manifest is disabled, so the ids collected meanwhile are kept until they are used
+			Collection<Integer> dirtyIds = watcher.drain();
+			
+			if ((dirtyIds != null) && this.watcherBaselineLoaded)
+			{
+				Collection<T> changedDataObjects = this.getChangedDataObjects(dirtyIds);
+				
+				// A single save may raise several events, so a data object is only returned again if it has been modified since
+				changedDataObjects.removeIf(dataObject -> Long.valueOf(dataObject.getModifiedTimeStamp()).equals(this.watchedTimeStamps.put(dataObject.getId(), dataObject.getModifiedTimeStamp())));
+				
+				return changedDataObjects;
+			}
+		}
+
+		ForkJoinPool pool = this.scanPool;
+		Collection<T> newerDataObjects = (pool == null) ? newDataObjects : new ConcurrentLinkedQueue<T>();
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SCAN, this.storagePath);
+		LongAdder scannedFiles = new LongAdder();
+		
+		try
+		{
+			DirectoryScanner.forEachDataObjectFile(this.storagePath, pool, file ->
+			{
+				scannedFiles.increment();
+				this.tryAddToCollectionIfNewer(newerDataObjects, file);
+			});
+		}
+		finally
+		{
+			trace.setFiles(scannedFiles.sum(), newerDataObjects.size());
+			trace.finish();
+		}
+		
+		if (pool != null) newDataObjects.addAll(newerDataObjects);
+
+		T latestModifiedObject = newDataObjects.stream().max(Comparator.comparing(GenericDataObject::getModifiedTimeStamp)).orElseGet(() -> null);
+		
+		if (latestModifiedObject != null) this.latestModificationTimeStamp = latestModifiedObject.getModifiedTimeStamp();
+		if (manifest != null) this.manifestCursor = manifestCursor;
+		if (watcher != null) this.watcherBaselineLoaded = true;
+		
+		return newDataObjects;
+	}
+	
+	private Collection<T> getChangedDataObjects(Collection<Integer> ids) throws Exception
+	{
+		Collection<T> changedDataObjects = new ArrayList<T>(ids.size());
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SCAN, this.storagePath);
+		
+		try
+		{
+			for (int id : ids)
+			{
+				T dataObject = this.get(id);
+				
+				if (dataObject != null) changedDataObjects.add(dataObject);
+			}
+		}
+		finally
+		{
+			trace.setFiles(ids.size(), changedDataObjects.size());
+			trace.finish();
+		}
+		
+		for (T dataObject : changedDataObjects)
+		{
+			this.latestModificationTimeStamp = Math.max(this.latestModificationTimeStamp, dataObject.getModifiedTimeStamp());
+		}
+		
+		this.metrics.addFilesScanned(ids.size());
+		this.metrics.addFilesLoaded(changedDataObjects.size());
+		
+		return changedDataObjects;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Collection<T> doReloadAll() throws Exception
+	{
+		return this.metrics.measure(DAOMetrics.Operation.RELOAD_ALL, () -> this.reloadDataObjects());
+	}
+	
+	private synchronized Collection<T> reloadDataObjects() throws Exception
+	{
+		this.latestModificationTimeStamp = 0;
+		this.manifestCursor = null;
+		this.watcherBaselineLoaded = false;
+		this.watchedTimeStamps.clear();
+		
+		return this.getAll();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void doSave(T dataObject) throws Exception 
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.SAVE, () -> this.saveDataObject(dataObject));
+	}
+	
+	private void saveDataObject(T dataObject) throws Exception
+	{
+		if (dataObject == null) throw new IllegalArgumentException("dataObject");
+		
+		this.ensureWritable();
+		
+		int fileId = this.getFileId(dataObject);
+		int[] fileIds = new int[] { fileId };
+		List<Lock> locks = Collections.singletonList(this.locks.writeLock(fileId));
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SAVE, this.storagePath);
+		CompletableFuture<Void> pendingSave = null;
+		
+		trace.setId(fileId);
+		
+		this.lock(locks.get(0), trace);
+		
+		try
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				this.storeDataObject(dataObject, fileId, segmentStore, this.durability, trace);
+				
+				return;
+			}
+			
+			this.awaitPendingSaves(fileIds, locks, trace);
+			
+			WriteBatch batch = new WriteBatch(this.writeMode, this.durability);
+			Path pathToFile = this.writeDataObject(dataObject, fileId, batch, trace);
+			
+			pendingSave = this.commit(batch, fileIds, locks, trace);
+			
+			this.completeDataObject(dataObject, fileId, pathToFile);
+			
+			if (this.manifest != null) this.manifest.append(fileId, StorageManifest.Operation.SAVE);
+		}
+		finally
+		{
+			if (pendingSave != null) this.pendingSaves.end(fileIds, pendingSave);
+			
+			locks.get(0).unlock();
+			trace.finish();
+		}
+	}
+	
+	private int getFileId(T dataObject) throws Exception
+	{
+		if (dataObject.getId() < 1)
+		{
+			dataObject.setId(this.getNewFileId());
+			dataObject.setCreatedTimeStamp(this.getTimeStamp());
+		}
+		else
+		{
+			this.idAllocator.observe(dataObject.getId());
+		}
+		
+		return dataObject.getId();
+	}
+	
+	private Path writeDataObject(T dataObject, int fileId, WriteBatch batch, OperationTrace trace) throws Exception
+	{
+		StorageLayout storageLayout = this.storageLayout;
+		Path pathToFile = storageLayout.resolve(this.storagePath, fileId);
+		Serializer<T> serializer = this.serializer;
+		
+		if (!storageLayout.isFlat()) Files.createDirectories(pathToFile.getParent());
+		
+		dataObject.setModifiedTimeStamp(this.getTimeStamp());
+		
+		if (trace.isEnabled())
+		{
+			// Serialized completely before writing, so the trace tells the serialization apart from the I/O
+			byte[] content = this.serialize(dataObject, serializer, trace);
+			
+			batch.write(pathToFile, channel ->
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				
+				while (buffer.hasRemaining()) channel.write(buffer);
+				
+				this.metrics.addBytesWritten(content.length);
+			});
+			
+			return pathToFile;
+		}
+		
+		batch.write(pathToFile, channel ->
+		{
+			// Not closed, as closing the stream closes the channel
+			OutputStream bos = new BufferedOutputStream(Channels.newOutputStream(channel));
+			
+			this.writeContent(dataObject, serializer, bos);
+			bos.flush();
+			
+			if (this.metrics.isEnabled()) this.metrics.addBytesWritten(channel.position());
+		});
+		
+		return pathToFile;
+	}
+	
+	private void storeDataObject(T dataObject, int fileId, SegmentStore segmentStore, Durability durability, OperationTrace trace) throws Exception
+	{
+		Serializer<T> serializer = this.serializer;
+		
+		dataObject.setModifiedTimeStamp(this.getTimeStamp());
+		
+		byte[] content = this.serialize(dataObject, serializer, trace);
+		
+		this.metrics.addBytesWritten(content.length);
+		
+		segmentStore.put(fileId, dataObject.getModifiedTimeStamp(), ByteBuffer.wrap(content), durability);
+		
+		dataObject.setId(fileId);
+	}
+	
+	private byte[] serialize(T dataObject, Serializer<T> serializer, OperationTrace trace) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		long startTime = trace.startPhase();
+		
+		this.writeContent(dataObject, serializer, bytes);
+		
+		trace.endPhase(OperationTrace.Phase.SERIALIZATION, startTime);
+		trace.addBytes(bytes.size());
+		
+		return bytes.toByteArray();
+	}
+	
+	private void completeDataObject(T dataObject, int fileId, Path pathToFile) throws Exception
+	{
+		pathToFile.toFile().setLastModified(dataObject.getModifiedTimeStamp());
+		
+		this.invalidateCache(fileId);
+		
+		// Removes the file saved before the store was sharded
+		if (!pathToFile.getParent().equals(this.storagePath)) Files.deleteIfExists(StorageLayout.FLAT.resolve(this.storagePath, fileId));
+		
+		dataObject.setId(fileId);
+		
+		if (this.watcher != null) this.watcher.markDirty(fileId);
+	}
+	
+	private CompletableFuture<Void> commit(WriteBatch batch, int[] ids, List<Lock> locks, OperationTrace trace) throws Exception
+	{
+		GroupCommitter groupCommitter = this.groupCommitter;
+		
+		if (batch.isEmpty()) return null;
+		
+		if ((groupCommitter == null) || (batch.getDurability() == Durability.NONE))
+		{
+			WriteBatch.commit(Collections.singletonList(batch), this.scanPool);
+			
+			return null;
+		}
+		
+		// Joins the group under the locks, so the files of an id are published in the order of its saves,
+		// but waits for the group without them, so saves of other ids can join it meanwhile
+		GroupCommitter.Commit commit = groupCommitter.enqueue(batch);
+		CompletableFuture<Void> save = this.pendingSaves.begin(ids);
+		boolean committed = false;
+		
+		for (int i=locks.size() -1; i>=0; i--) locks.get(i).unlock();
+		
+		try
+		{
+			commit.await(this.scanPool);
+			committed = true;
+			
+			return save;
+		}
+		finally
+		{
+			for (Lock lock : locks) this.lock(lock, trace);
+			
+			if (!committed) this.pendingSaves.end(ids, save);
+		}
+	}
+
+	private void awaitPendingSaves(int[] ids, List<Lock> locks, OperationTrace trace)
+	{
+		for (CompletableFuture<Void> save = this.pendingSaves.find(ids); save != null; save = this.pendingSaves.find(ids))
+		{
+			for (int i=locks.size() -1; i>=0; i--) locks.get(i).unlock();
+			
+			try
+			{
+				save.join();
+			}
+			finally
+			{
+				for (Lock lock : locks) this.lock(lock, trace);
+			}
+		}
+	}
+	
+	private void awaitPendingSaves()
+	{
+		for (CompletableFuture<Void> save = this.pendingSaves.findAny(); save != null; save = this.pendingSaves.findAny()) save.join();
+	}
+	
+	private void awaitPendingSaves(StripedLocks locks)
+	{
+		for (CompletableFuture<Void> save = this.pendingSaves.findAny(); save != null; save = this.pendingSaves.findAny())
+		{
+			locks.unlockAll();
+			
+			try
+			{
+				save.join();
+			}
+			finally
+			{
+				locks.lockAll();
+			}
+		}
+	}
+	
+	/**
+	 * Saves the data objects with a single commit. All files are written first, then they are made
+	 * durable together (in parallel if a scan pool is set, see {@link #setScanPool(ForkJoinPool)})
+	 * and every affected directory is synced once, as required by the {@link Durability}.
+	 * The data objects are locked until the commit completes, unless the commit waits for a group
+	 * (see {@link #setGroupCommitWindow(long)}), which other saves may join meanwhile.
+	 */
+	@Override
+	protected void doSave(Collection<T> dataObjects) throws Exception
+	{
+		this.metrics.measureAction(DAOMetrics.Operation.SAVE, () -> this.saveDataObjects(dataObjects));
+	}
+	
+	private void saveDataObjects(Collection<T> dataObjects) throws Exception
+	{
+		this.ensureWritable();
+		
+		if (dataObjects.size() < 2)
+		{
+			for (T dataObject : dataObjects) this.saveDataObject(dataObject);
+			
+			return;
+		}
+		
+		List<T> dataObjectList = new ArrayList<T>(dataObjects);
+		int[] fileIds = new int[dataObjectList.size()];
+		
+		for (int i=0; i<fileIds.length; i++)
+		{
+			if (dataObjectList.get(i) == null) throw new IllegalArgumentException("dataObjects");
+			
+			fileIds[i] = this.getFileId(dataObjectList.get(i));
+		}
+		
+		List<Lock> locks = this.locks.writeLocks(fileIds);
+		OperationTrace trace = OperationTracer.begin(OperationTrace.Operation.SAVE, this.storagePath);
+		CompletableFuture<Void> pendingSave = null;
+		
+		for (Lock lock : locks) this.lock(lock, trace);
+		
+		try
+		{
+			SegmentStore segmentStore = this.segmentStore;
+			
+			if (segmentStore != null)
+			{
+				for (int i=0; i<fileIds.length; i++) this.storeDataObject(dataObjectList.get(i), fileIds[i], segmentStore, Durability.NONE, trace);
+				
+				segmentStore.sync(this.durability);
+				
+				return;
+			}
+			
+			this.awaitPendingSaves(fileIds, locks, trace);
+			
+			WriteBatch batch = new WriteBatch(this.writeMode, this.durability);
+			Path[] pathsToFiles = new Path[fileIds.length];
+			
+			try
+			{
+				for (int i=0; i<fileIds.length; i++) pathsToFiles[i] = this.writeDataObject(dataObjectList.get(i), fileIds[i], batch, trace);
+			}
+			catch (Exception e)
+			{
+				batch.abort();
+				
+				throw e;
+			}
+			
+			pendingSave = this.commit(batch, fileIds, locks, trace);
+			
+			for (int i=0; i<fileIds.length; i++) this.completeDataObject(dataObjectList.get(i), fileIds[i], pathsToFiles[i]);
+			
+			if (this.manifest != null) this.manifest.append(fileIds, StorageManifest.Operation.SAVE);
+		}
+		finally
+		{
+			if (pendingSave != null) this.pendingSaves.end(fileIds, pendingSave);
+			
+			for (int i=locks.size() -1; i>=0; i--) locks.get(i).unlock();
+			
+			trace.finish();
+		}
 	}
 
 	/**
@@ -299,19 +2377,90 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 	@Override
 	protected void doClear() throws Exception 
 	{
+		this.metrics.measureAction(DAOMetrics.Operation.CLEAR, () -> this.clearDataObjects());
+	}
+	
+	private void clearDataObjects() throws Exception
+	{
+		this.ensureWritable();
+		
+		ObjectCache<CachedFile> cache = this.cache;
+		SegmentStore segmentStore = this.segmentStore;
+		
+		this.awaitPendingSaves();
+		
+		if (this.clearMode == ClearMode.SWAP) this.swapStorageDirectory();
+		else this.deleteFiles();
+		
+		if (segmentStore != null) segmentStore.clear();
+		if (cache != null) cache.clear();
+		if (this.manifest != null) this.manifest.rebuild();
+	}
+
+	private void deleteFiles()
+	{
+		// The markers of the reserved id ranges outlive the data objects, so other DAOs do not reserve the ranges again
+		Path markerDirectory = this.storagePath.resolve(IdAllocator.DIRECTORY_NAME);
+		
 		try (Stream<Path> files = Files.walk(this.storagePath)) 
 		{
 		    files
 		        .filter(Files::isRegularFile)
-		        .forEach(file -> safeDelete(file));
+		        .filter(file -> !file.startsWith(markerDirectory))
+		        .forEach(file -> this.safeDelete(file));
 		}
 		catch (Exception e)
 		{
+			this.metrics.recordBackgroundError();
+			
 			e.printStackTrace(System.err);
-		}		
+		}
 	}
-
-	private static void safeDelete(Path file)
+	
+	private void swapStorageDirectory() throws Exception
+	{
+		Path trashDirectory;
+		
+		try
+		{
+			// The auxiliary stores are kept open and are cleared afterwards like in delete mode
+			trashDirectory = StorageTrash.moveToTrash(this.storagePath, AUXILIARY_ENTRIES);
+		}
+		catch (Exception e)
+		{
+			// E.g. files in the storage directory are open on Windows
+			this.deleteFiles();
+			
+			return;
+		}
+		
+		// The watch service keeps watching the renamed directory
+		if (this.watcher != null)
+		{
+			this.setWatchEnabled(false);
+			this.setWatchEnabled(true);
+		}
+		
+		this.deleteTrash(trashDirectory);
+	}
+	
+	private void deleteTrash(Path trashDirectory)
+	{
+		ForkJoinPool pool = this.scanPool;
+		
+		if ((pool == null) || pool.isShutdown()) pool = ForkJoinPool.commonPool();
+		
+		StorageTrash.delete(trashDirectory, pool).whenComplete((result, e) ->
+		{
+			if (e == null) return;
+			
+			this.metrics.recordBackgroundError();
+			
+			e.printStackTrace(System.err);
+		});
+	}
+	
+	private void safeDelete(Path file)
 	{
 		try
 		{
@@ -319,6 +2468,8 @@ public abstract class GenericSerializationDAO<T extends GenericDataObject> exten
 		}
 		catch (Exception e)
 		{
+			this.metrics.recordBackgroundError();
+			
 			e.printStackTrace(System.err);
 		}
 	}
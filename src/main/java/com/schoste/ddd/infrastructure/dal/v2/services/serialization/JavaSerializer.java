@@ -0,0 +1,58 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.serialization;
+
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
+
+/**
+ * Serializer using the Java serialization ({@link ObjectOutputStream} and {@link ObjectInputStream}).
+ * This is the default serializer of {@link GenericSerializationDAO}. Its files carry no additional
+ * header, so they remain readable by previous versions.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ * 
+ * @param <T> the class of the data objects to serialize
+ */
+public class JavaSerializer<T extends GenericDataObject> implements Serializer<T>
+{
+	/**
+	 * The format id of the Java serialization
+	 */
+	public static final byte FORMAT_ID = 0;
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte getFormatId()
+	{
+		return FORMAT_ID;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void serialize(T dataObject, OutputStream outputStream) throws Exception
+	{
+		ObjectOutputStream oos = new ObjectOutputStream(outputStream);
+		
+		oos.writeObject(dataObject);
+		oos.flush();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public T deserialize(InputStream inputStream) throws Exception
+	{
+		ObjectInputStream ois = new ObjectInputStream(inputStream);
+		
+		return (T) ois.readObject();
+	}
+}
@@ -0,0 +1,45 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.serialization;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
+
+/**
+ * Strategy to convert data objects to and from the content of their files.
+ * 
+ * Every serializer is identified by a format id, which {@link GenericSerializationDAO} writes into
+ * the header of the files, so a store can hold files written by different serializers.
+ * The format ids 0 to 15 are reserved for the serializers provided by this library.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ * 
+ * @param <T> the class of the data objects to serialize
+ */
+public interface Serializer<T extends GenericDataObject>
+{
+	/**
+	 * Gets the id of the format written by this serializer
+	 * 
+	 * @return the format id
+	 */
+	byte getFormatId();
+	
+	/**
+	 * Writes a data object to a stream
+	 * 
+	 * @param dataObject the data object to write
+	 * @param outputStream the stream to write to; must not be closed by the serializer
+	 * @throws Exception re-throws every exception
+	 */
+	void serialize(T dataObject, OutputStream outputStream) throws Exception;
+	
+	/**
+	 * Reads a data object from a stream
+	 * 
+	 * @param inputStream the stream to read from; must not be closed by the serializer
+	 * @return the data object read
+	 * @throws Exception re-throws every exception
+	 */
+	T deserialize(InputStream inputStream) throws Exception;
+}
@@ -0,0 +1,264 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the asynchronous operations of the DAOs on a dedicated pool of I/O threads.
+ * 
+ * The number of operations in flight is limited. Once the limit is reached, starting another operation
+ * blocks the calling thread until a running one completes, so callers producing operations faster than
+ * the storage device completes them are slowed down instead of filling an unbounded queue. Operations
+ * started by the I/O threads themselves (e.g. in a continuation of another operation) do not block, as the
+ * threads completing the running operations would wait for each other. If the limit is reached, they run on
+ * the starting I/O thread instead of being queued, so the queue never holds more than the operations in flight.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class AsyncExecutor implements Closeable
+{
+	/**
+	 * The maximum number of operations in flight if not set otherwise
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	
+	private static final AtomicInteger EXECUTOR_COUNTER = new AtomicInteger();
+	
+	private final ThreadPoolExecutor executor;
+	private final Semaphore permits;
+	private final int maxInFlight;
+	private final ThreadLocal<Boolean> ioThread = new ThreadLocal<Boolean>();
+	
+	/**
+	 * Creates an executor with a thread per processor and {@value #DEFAULT_MAX_IN_FLIGHT} operations in flight
+	 */
+	public AsyncExecutor()
+	{
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_IN_FLIGHT);
+	}
+	
+	/**
+	 * Creates an executor
+	 * 
+	 * @param threads the number of I/O threads
+	 * @param maxInFlight the maximum number of operations started but not completed
+	 * @throws IllegalArgumentException if a parameter is less than 1
+	 */
+	public AsyncExecutor(int threads, int maxInFlight) throws IllegalArgumentException
+	{
+		if (threads < 1) throw new IllegalArgumentException("threads");
+		if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight");
+		
+		String namePrefix = String.format("dao-io-%d-", EXECUTOR_COUNTER.incrementAndGet());
+		AtomicInteger threadCounter = new AtomicInteger();
+		
+		// The queue holds a task per operation in flight. Tasks beyond (e.g. reads of channels opened on the pool by
+		// operations started by I/O threads) run on the submitting thread, unless the executor has been closed.
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxInFlight), runnable ->
+		{
+			Thread thread = new Thread(() ->
+			{
+				this.ioThread.set(Boolean.TRUE);
+				runnable.run();
+			}, namePrefix + threadCounter.incrementAndGet());
+			
+			thread.setDaemon(true);
+			
+			return thread;
+		}, (runnable, executor) ->
+		{
+			if (executor.isShutdown()) throw new RejectedExecutionException();
+			
+			runnable.run();
+		});
+		this.permits = new Semaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * Gets the pool of I/O threads, e.g. to open an {@link java.nio.channels.AsynchronousFileChannel} on it
+	 * 
+	 * @return the pool
+	 */
+	public ExecutorService getExecutorService()
+	{
+		return this.executor;
+	}
+	
+	/**
+	 * Gets the number of I/O threads
+	 * 
+	 * @return the number of threads
+	 */
+	public int getThreads()
+	{
+		return this.executor.getCorePoolSize();
+	}
+	
+	/**
+	 * Gets the maximum number of operations started but not completed
+	 * 
+	 * @return the maximum number of operations
+	 */
+	public int getMaxInFlight()
+	{
+		return this.maxInFlight;
+	}
+	
+	/**
+	 * Gets the number of operations started but not completed
+	 * 
+	 * @return the number of operations
+	 */
+	public int getInFlight()
+	{
+		return this.maxInFlight - this.permits.availablePermits();
+	}
+	
+	/**
+	 * Runs a blocking operation on an I/O thread. Blocks while the maximum number of operations is in flight.
+	 * 
+	 * @param <R> the class of the result
+	 * @param operation the operation
+	 * @return the future completed with the result of the operation
+	 * @throws IllegalArgumentException if the operation is null
+	 */
+	public <R> CompletableFuture<R> submit(Callable<R> operation) throws IllegalArgumentException
+	{
+		if (operation == null) throw new IllegalArgumentException("operation");
+		
+		return this.submitAsync(() -> CompletableFuture.completedFuture(operation.call()));
+	}
+	
+	/**
+	 * Starts an asynchronous operation on an I/O thread. The operation counts as in flight until the future
+	 * returned by it completes. Blocks while the maximum number of operations is in flight, unless called by
+	 * an I/O thread, which then starts the operation itself.
+	 * 
+	 * @param <R> the class of the result
+	 * @param operation the operation starting the work and returning its future
+	 * @return the future completed with the result of the operation
+	 * @throws IllegalArgumentException if the operation is null
+	 */
+	public <R> CompletableFuture<R> submitAsync(Callable<CompletableFuture<R>> operation) throws IllegalArgumentException
+	{
+		if (operation == null) throw new IllegalArgumentException("operation");
+		
+		CompletableFuture<R> result = new CompletableFuture<R>();
+		Runnable task = () ->
+		{
+			try
+			{
+				operation.call().whenComplete((value, e) ->
+				{
+					if (e != null) result.completeExceptionally(e);
+					else result.complete(value);
+				});
+			}
+			catch (Throwable e)
+			{
+				result.completeExceptionally(e);
+			}
+		};
+		
+		if (this.ioThread.get() != null)
+		{
+			if (!this.permits.tryAcquire())
+			{
+				task.run();
+				
+				return result;
+			}
+		}
+		else
+		{
+			try
+			{
+				this.permits.acquire();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				result.completeExceptionally(e);
+				
+				return result;
+			}
+		}
+		
+		result.whenComplete((value, e) -> this.permits.release());
+		
+		try
+		{
+			this.executor.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			result.completeExceptionally(e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads a file from its start until a buffer is full
+	 * 
+	 * @param channel the channel of the file
+	 * @param target the buffer to read into from its position to its limit
+	 * @return the future completed with the flipped buffer or exceptionally with an {@link EOFException} if the file ends before
+	 */
+	public static CompletableFuture<ByteBuffer> readFully(AsynchronousFileChannel channel, ByteBuffer target)
+	{
+		CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+		long start = target.position();
+		
+		channel.read(target, 0, result, new CompletionHandler<Integer, CompletableFuture<ByteBuffer>>()
+		{
+			@Override
+			public void completed(Integer read, CompletableFuture<ByteBuffer> result)
+			{
+				if (read < 0)
+				{
+					result.completeExceptionally(new EOFException());
+				}
+				else if (target.hasRemaining())
+				{
+					channel.read(target, target.position() - start, result, this);
+				}
+				else
+				{
+					target.flip();
+					result.complete(target);
+				}
+			}
+			
+			@Override
+			public void failed(Throwable e, CompletableFuture<ByteBuffer> result)
+			{
+				result.completeExceptionally(e);
+			}
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * Stops the I/O threads once the operations in flight completed
+	 */
+	@Override
+	public void close()
+	{
+		this.executor.shutdown();
+	}
+}
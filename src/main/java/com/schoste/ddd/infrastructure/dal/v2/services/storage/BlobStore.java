@@ -0,0 +1,280 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store keeping every distinct content once in the directory {@value #DIRECTORY_NAME}
+ * of a storage directory.
+ * 
+ * A blob is a directory named by the SHA-256 hash of its content. It holds the content in a file named
+ * {@value #CONTENT_FILE_NAME} and an empty file for every data object referencing it, named by the prefix
+ * {@value #REFERENCE_FILE_PREFIX} and the id of the data object. The reference files count the references
+ * of the blob without a separate counter, which could get out of step with the references in a crash.
+ * A blob is removed with its last reference. The content and the reference files are written atomically,
+ * so a crash leaves at most an unused reference file, which keeps the blob until the id is saved or
+ * deleted again.
+ * 
+ * All methods are thread safe. Changes of the same blob are serialized.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class BlobStore
+{
+	/**
+	 * The name of the directory holding the blobs
+	 */
+	public static final String DIRECTORY_NAME = ".blobs";
+	
+	/**
+	 * The name of the file holding the content of a blob
+	 */
+	public static final String CONTENT_FILE_NAME = "content";
+	
+	/**
+	 * The prefix of the names of the files referencing a blob
+	 */
+	public static final String REFERENCE_FILE_PREFIX = "ref-";
+	
+	/**
+	 * The size of the hashes naming the blobs in bytes
+	 */
+	public static final int HASH_SIZE = 32;
+	
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private final Path directory;
+	private final Object[] monitors = new Object[StripedLocks.DEFAULT_STRIPES];
+	
+	/**
+	 * Opens the blobs of a storage directory
+	 * 
+	 * @param storageDirectory the storage directory of the DAO
+	 * @throws IllegalArgumentException if the storage directory is null
+	 * @throws IOException if the directory of the blobs cannot be created
+	 */
+	public BlobStore(Path storageDirectory) throws IllegalArgumentException, IOException
+	{
+		if (storageDirectory == null) throw new IllegalArgumentException("storageDirectory");
+		
+		this.directory = storageDirectory.resolve(DIRECTORY_NAME);
+		
+		for (int i=0; i<this.monitors.length; i++) this.monitors[i] = new Object();
+		
+		Files.createDirectories(this.directory);
+	}
+	
+	/**
+	 * Computes the hash naming the blob of a content
+	 * 
+	 * @param content the content from its position to its limit, which are not changed
+	 * @return the hash of {@value #HASH_SIZE} bytes
+	 */
+	public static byte[] hash(ByteBuffer content)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			
+			digest.update(content.duplicate());
+			
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Gets the directory holding the blobs
+	 * 
+	 * @return the directory
+	 */
+	public Path getDirectory()
+	{
+		return this.directory;
+	}
+	
+	/**
+	 * Gets the file holding the content of a blob
+	 * 
+	 * @param hash the hash of the content
+	 * @return the path to the file, which does not exist if the blob is not stored
+	 * @throws IllegalArgumentException if the hash is null or does not have {@value #HASH_SIZE} bytes
+	 */
+	public Path getContentFile(byte[] hash) throws IllegalArgumentException
+	{
+		return this.getBlobDirectory(hash).resolve(CONTENT_FILE_NAME);
+	}
+	
+	/**
+	 * Adds a reference of a data object to a blob. The content is only written if the blob is not stored yet.
+	 * 
+	 * @param hash the hash of the content
+	 * @param id the id of the data object referencing the blob
+	 * @param content the content from its position to its limit, which are not changed
+	 * @param durability how far the content and the reference are forced to the storage device
+	 * @return true if the content has been written, false if the blob was stored already
+	 * @throws IllegalArgumentException if the hash is invalid, the id is less than 1 or a parameter is null
+	 * @throws Exception re-throws every exception
+	 */
+	public boolean addReference(byte[] hash, int id, ByteBuffer content, Durability durability) throws IllegalArgumentException, Exception
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		if (content == null) throw new IllegalArgumentException("content");
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		Path blobDirectory = this.getBlobDirectory(hash);
+		
+		synchronized (this.getMonitor(hash))
+		{
+			Path contentFile = blobDirectory.resolve(CONTENT_FILE_NAME);
+			Path referenceFile = blobDirectory.resolve(REFERENCE_FILE_PREFIX + id);
+			boolean stored = Files.exists(contentFile);
+			
+			if (stored && Files.exists(referenceFile)) return false;
+			
+			boolean created = !Files.isDirectory(blobDirectory);
+			WriteBatch batch = new WriteBatch(WriteMode.ATOMIC, durability);
+			
+			Files.createDirectories(blobDirectory);
+			
+			if (!stored)
+			{
+				batch.write(contentFile, channel ->
+				{
+					ByteBuffer data = content.duplicate();
+					
+					while (data.hasRemaining()) channel.write(data);
+				});
+			}
+			
+			batch.write(referenceFile, channel -> { });
+			batch.commit();
+			
+			if (created && (durability == Durability.FULL)) WriteBatch.syncDirectory(this.directory);
+			
+			return !stored;
+		}
+	}
+	
+	/**
+	 * Removes the reference of a data object from a blob and the blob if it was its last reference
+	 * 
+	 * @param hash the hash of the content
+	 * @param id the id of the data object referencing the blob
+	 * @return true if the blob has been removed, false otherwise
+	 * @throws IllegalArgumentException if the hash is invalid
+	 * @throws IOException re-throws every exception
+	 */
+	public boolean removeReference(byte[] hash, int id) throws IllegalArgumentException, IOException
+	{
+		Path blobDirectory = this.getBlobDirectory(hash);
+		
+		synchronized (this.getMonitor(hash))
+		{
+			Files.deleteIfExists(blobDirectory.resolve(REFERENCE_FILE_PREFIX + id));
+			
+			if (this.getReferenceCount(hash) > 0) return false;
+			
+			Files.deleteIfExists(blobDirectory.resolve(CONTENT_FILE_NAME));
+			
+			try
+			{
+				Files.deleteIfExists(blobDirectory);
+			}
+			catch (DirectoryNotEmptyException e)
+			{
+				// Holds a temporary file left by a crash, which is removed by clear()
+			}
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * Gets the number of data objects referencing a blob
+	 * 
+	 * @param hash the hash of the content
+	 * @return the number of references or 0 if the blob is not stored
+	 * @throws IllegalArgumentException if the hash is invalid
+	 * @throws IOException re-throws every exception
+	 */
+	public int getReferenceCount(byte[] hash) throws IllegalArgumentException, IOException
+	{
+		int references = 0;
+		
+		try (DirectoryStream<Path> referenceFiles = Files.newDirectoryStream(this.getBlobDirectory(hash), REFERENCE_FILE_PREFIX + "*"))
+		{
+			for (@SuppressWarnings("unused") Path referenceFile : referenceFiles) references++;
+		}
+		catch (NoSuchFileException e)
+		{
+			return 0;
+		}
+		
+		return references;
+	}
+	
+	/**
+	 * Gets the number of stored blobs
+	 * 
+	 * @return the number of blobs
+	 * @throws IOException re-throws every exception
+	 */
+	public int getBlobCount() throws IOException
+	{
+		try (Stream<Path> blobDirectories = Files.list(this.directory))
+		{
+			return (int) blobDirectories.filter(Files::isDirectory).count();
+		}
+	}
+	
+	/**
+	 * Removes all blobs
+	 * 
+	 * @throws IOException re-throws every exception
+	 */
+	public void clear() throws IOException
+	{
+		try (Stream<Path> files = Files.walk(this.directory))
+		{
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+			{
+				if (!file.equals(this.directory)) Files.deleteIfExists(file);
+			}
+		}
+	}
+	
+	private Path getBlobDirectory(byte[] hash) throws IllegalArgumentException
+	{
+		if ((hash == null) || (hash.length != HASH_SIZE)) throw new IllegalArgumentException("hash");
+		
+		char[] name = new char[2 * hash.length];
+		
+		for (int i=0; i<hash.length; i++)
+		{
+			name[2 * i] = HEX_DIGITS[(hash[i] >>> 4) & 0x0F];
+			name[2 * i + 1] = HEX_DIGITS[hash[i] & 0x0F];
+		}
+		
+		return this.directory.resolve(new String(name));
+	}
+	
+	private Object getMonitor(byte[] hash)
+	{
+		return this.monitors[(hash[0] & 0xFF) % this.monitors.length];
+	}
+}
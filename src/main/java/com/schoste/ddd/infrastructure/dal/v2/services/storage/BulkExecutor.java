@@ -0,0 +1,89 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs an operation for several ids in parallel on the threads of a pool, which keeps several I/O requests
+ * in flight on storage devices processing them concurrently (e.g. SSDs). Every id is processed, even if the
+ * operation fails for others; the failures are reported together by a {@link BulkOperationException}.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class BulkExecutor
+{
+	/**
+	 * An operation on a single id returning a result
+	 * 
+	 * @param <R> the type of the result
+	 */
+	@FunctionalInterface
+	public interface Task<R>
+	{
+		/**
+		 * Runs the operation
+		 * 
+		 * @param id the id
+		 * @return the result
+		 * @throws Exception if the operation fails
+		 */
+		R run(int id) throws Exception;
+	}
+	
+	private BulkExecutor()
+	{
+	}
+	
+	/**
+	 * Runs an operation for every id and returns the results in the order of the ids
+	 * 
+	 * @param <R> the type of the results
+	 * @param ids the ids
+	 * @param pool the pool running the operation
+	 * @param task the operation
+	 * @return the result of every id
+	 * @throws BulkOperationException if the operation failed for some ids
+	 * @throws Exception re-throws every other exception (e.g. when interrupted)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <R> List<R> execute(int[] ids, ForkJoinPool pool, Task<R> task) throws BulkOperationException, Exception
+	{
+		Object[] results = new Object[ids.length];
+		Exception[] failures = new Exception[ids.length];
+		boolean failed = false;
+		
+		try
+		{
+			pool.submit(() -> IntStream.range(0, ids.length).parallel().forEach(i ->
+			{
+				try
+				{
+					results[i] = task.run(ids[i]);
+				}
+				catch (Exception e)
+				{
+					failures[i] = e;
+				}
+			})).get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			
+			throw e;
+		}
+		
+		for (Exception failure : failures) failed |= (failure != null);
+		
+		if (failed) throw new BulkOperationException(ids, results, failures);
+		
+		List<R> resultList = new ArrayList<R>(ids.length);
+		
+		for (Object result : results) resultList.add((R) result);
+		
+		return resultList;
+	}
+}
@@ -0,0 +1,102 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.schoste.ddd.infrastructure.dal.v2.exceptions.DALException;
+
+/**
+ * Thrown by an operation on several ids (see {@link BulkExecutor}) if it failed for some of them.
+ * The ids which did not fail have been processed and their results are kept in the order of the ids.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class BulkOperationException extends DALException
+{
+	private static final long serialVersionUID = 1L;
+	
+	private final int[] ids;
+	
+	private final Object[] results;
+	
+	private final Exception[] failures;
+	
+	/**
+	 * Creates the exception of an operation on several ids
+	 * 
+	 * @param ids the ids of the operation
+	 * @param results the result of every id, null for the failed ones
+	 * @param failures the exception of every id, null for the ones which did not fail
+	 */
+	public BulkOperationException(int[] ids, Object[] results, Exception[] failures)
+	{
+		super(String.format("%d of %d ids failed", Arrays.stream(failures).filter(failure -> failure != null).count(), ids.length));
+		
+		this.ids = ids;
+		this.results = results;
+		this.failures = failures;
+		
+		for (Exception failure : failures)
+		{
+			if (failure != null) this.addSuppressed(failure);
+		}
+	}
+	
+	/**
+	 * Gets the ids of the operation
+	 * 
+	 * @return the ids in the order given by the caller
+	 */
+	public int[] getIds()
+	{
+		return this.ids.clone();
+	}
+	
+	/**
+	 * Gets the results of the operation
+	 * 
+	 * @return the result of every id in the order of the ids, null for the failed ones and for operations without results
+	 */
+	public List<Object> getResults()
+	{
+		return Collections.unmodifiableList(Arrays.asList(this.results));
+	}
+	
+	/**
+	 * Gets the exceptions of the failed ids
+	 * 
+	 * @return the exception of every failed id in the order of the ids
+	 */
+	public Map<Integer, Exception> getFailures()
+	{
+		Map<Integer, Exception> failures = new LinkedHashMap<Integer, Exception>();
+		
+		for (int i=0; i<this.ids.length; i++)
+		{
+			if (this.failures[i] != null) failures.put(this.ids[i], this.failures[i]);
+		}
+		
+		return failures;
+	}
+	
+	/**
+	 * Gets the ids which did not fail
+	 * 
+	 * @return the ids in the order of the ids of the operation
+	 */
+	public int[] getSucceededIds()
+	{
+		int[] succeededIds = new int[this.ids.length];
+		int count = 0;
+		
+		for (int i=0; i<this.ids.length; i++)
+		{
+			if (this.failures[i] == null) succeededIds[count++] = this.ids[i];
+		}
+		
+		return Arrays.copyOf(succeededIds, count);
+	}
+}
@@ -0,0 +1,25 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+/**
+ * Defines how the DAOs remove the files of their data objects when cleared.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public enum ClearMode
+{
+	/**
+	 * Every file is deleted by the calling thread, which therefore blocks for a time proportional to the
+	 * number of files. This is the behavior of previous versions.
+	 */
+	DELETE,
+	
+	/**
+	 * The storage directory is renamed to a trash directory and recreated empty, so the store is empty as
+	 * soon as the rename completed. The trash directory is deleted in the background (see {@link StorageTrash}).
+	 * Falls back to {@link #DELETE} if the storage directory cannot be renamed, e.g. while files in it are
+	 * open on Windows.
+	 * The auxiliary stores of the DAO are moved back into the recreated directory, so this mode must only be
+	 * used while a single DAO uses the storage directory.
+	 */
+	SWAP
+}
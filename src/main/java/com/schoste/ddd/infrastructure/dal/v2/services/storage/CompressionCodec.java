@@ -0,0 +1,49 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+
+/**
+ * Strategy to compress the content of the files of data objects.
+ * 
+ * Every codec is identified by a codec id, which the DAOs write into the header of compressed files,
+ * so a store can hold files compressed by different codecs next to uncompressed ones.
+ * The codec ids 1 to 7 are reserved for the codecs provided by this library, 8 to 15 are free.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public interface CompressionCodec
+{
+	/**
+	 * Gets the id written into the header of the files compressed by this codec
+	 * 
+	 * @return the codec id between 1 and 15
+	 */
+	byte getCodecId();
+	
+	/**
+	 * Compresses data into a target array, giving up once the target is full
+	 * 
+	 * @param source the array holding the data
+	 * @param sourceOffset the position of the data in the source
+	 * @param sourceLength the length of the data
+	 * @param target the array to write the compressed data to
+	 * @param targetOffset the position in the target to start at
+	 * @param maxLength the maximum length of the compressed data
+	 * @return the length of the compressed data or -1 if they exceed the maximum length
+	 * @throws IOException re-throws every exception
+	 */
+	int compress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetOffset, int maxLength) throws IOException;
+	
+	/**
+	 * Decompresses data into a target array
+	 * 
+	 * @param source the array holding the compressed data
+	 * @param sourceOffset the position of the compressed data in the source
+	 * @param sourceLength the length of the compressed data
+	 * @param target the array to write the data to
+	 * @param targetOffset the position in the target to start at
+	 * @param length the length of the data
+	 * @throws IOException if the compressed data are corrupt or do not hold the given length
+	 */
+	void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetOffset, int length) throws IOException;
+}
@@ -0,0 +1,588 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the operations of a DAO: counts, errors and latency histograms of every {@link Operation},
+ * the bytes read and written, the files scanned and loaded by incremental loads and the time spent
+ * waiting for the locks of ids.
+ * 
+ * The metrics are only collected while enabled. Counters are {@link LongAdder}s and latencies are
+ * recorded into {@link LatencyHistogram}s, so collecting adds two reads of {@link System#nanoTime()}
+ * and a few uncontended increments to an operation, but never a lock. A disabled instance costs a
+ * volatile read per operation.
+ * 
+ * The metrics can be published as an MXBean (see {@link DAOMetricsMXBean}) by {@link #register(String, Path)}.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class DAOMetrics implements DAOMetricsMXBean
+{
+	/**
+	 * The JMX domain of the published metrics
+	 */
+	public static final String DOMAIN = "com.schoste.ddd.infrastructure.dal.v2";
+	
+	/**
+	 * The operations of a DAO
+	 */
+	public enum Operation
+	{
+		/**
+		 * Get of a single data object by its id
+		 */
+		GET,
+		
+		/**
+		 * Incremental load of the modified data objects
+		 */
+		GET_ALL,
+		
+		/**
+		 * Load of all data objects, which includes an incremental load
+		 */
+		RELOAD_ALL,
+		
+		/**
+		 * Save of a single data object or of several ones at once
+		 */
+		SAVE,
+		
+		/**
+		 * Delete of a single data object or of several ones by their ids
+		 */
+		DELETE,
+		
+		/**
+		 * Removal of all data objects
+		 */
+		CLEAR
+	}
+	
+	/**
+	 * An operation which does not return a result
+	 */
+	@FunctionalInterface
+	public interface Action
+	{
+		/**
+		 * Runs the operation
+		 * 
+		 * @throws Exception re-throws every exception
+		 */
+		void run() throws Exception;
+	}
+	
+	/**
+	 * Statistics of an operation at the time they were read
+	 */
+	public static class OperationStats
+	{
+		private final String name;
+		private final long count;
+		private final long errors;
+		private final long totalNanos;
+		private final long meanNanos;
+		private final long p50Nanos;
+		private final long p90Nanos;
+		private final long p99Nanos;
+		private final long p999Nanos;
+		private final long maxNanos;
+		
+		private OperationStats(String name, long errors, LatencyHistogram histogram)
+		{
+			this.name = name;
+			this.count = histogram.getCount();
+			this.errors = errors;
+			this.totalNanos = histogram.getTotal();
+			this.meanNanos = histogram.getMean();
+			this.p50Nanos = histogram.getPercentile(50);
+			this.p90Nanos = histogram.getPercentile(90);
+			this.p99Nanos = histogram.getPercentile(99);
+			this.p999Nanos = histogram.getPercentile(99.9);
+			this.maxNanos = histogram.getMax();
+		}
+		
+		/**
+		 * Gets the name of the operation
+		 * 
+		 * @return the name
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+		
+		/**
+		 * Gets the number of completed operations, including the failed ones
+		 * 
+		 * @return the number of operations
+		 */
+		public long getCount()
+		{
+			return this.count;
+		}
+		
+		/**
+		 * Gets the number of operations which threw an exception
+		 * 
+		 * @return the number of failed operations
+		 */
+		public long getErrors()
+		{
+			return this.errors;
+		}
+		
+		/**
+		 * Gets the time spent in the operations
+		 * 
+		 * @return the time in nanoseconds
+		 */
+		public long getTotalNanos()
+		{
+			return this.totalNanos;
+		}
+		
+		/**
+		 * Gets the mean latency
+		 * 
+		 * @return the latency in nanoseconds
+		 */
+		public long getMeanNanos()
+		{
+			return this.meanNanos;
+		}
+		
+		/**
+		 * Gets the median latency
+		 * 
+		 * @return the latency in nanoseconds
+		 */
+		public long getP50Nanos()
+		{
+			return this.p50Nanos;
+		}
+		
+		/**
+		 * Gets the 90th percentile of the latencies
+		 * 
+		 * @return the latency in nanoseconds
+		 */
+		public long getP90Nanos()
+		{
+			return this.p90Nanos;
+		}
+		
+		/**
+		 * Gets the 99th percentile of the latencies
+		 * 
+		 * @return the latency in nanoseconds
+		 */
+		public long getP99Nanos()
+		{
+			return this.p99Nanos;
+		}
+		
+		/**
+		 * Gets the 99.9th percentile of the latencies
+		 * 
+		 * @return the latency in nanoseconds
+		 */
+		public long getP999Nanos()
+		{
+			return this.p999Nanos;
+		}
+		
+		/**
+		 * Gets the largest latency
+		 * 
+		 * @return the latency in nanoseconds
+		 */
+		public long getMaxNanos()
+		{
+			return this.maxNanos;
+		}
+	}
+	
+	private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+	
+	private volatile boolean enabled;
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+	private final LongAdder[] errors = new LongAdder[Operation.values().length];
+	private final LatencyHistogram lockWaits = new LatencyHistogram();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder filesScanned = new LongAdder();
+	private final LongAdder filesLoaded = new LongAdder();
+	private final LongAdder backgroundErrors = new LongAdder();
+	private ObjectName objectName;
+	
+	/**
+	 * Creates disabled metrics
+	 */
+	public DAOMetrics()
+	{
+		for (int i=0; i<this.latencies.length; i++)
+		{
+			this.latencies[i] = new LatencyHistogram();
+			this.errors[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isEnabled()
+	{
+		return this.enabled;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Runs an operation and records its latency and whether it failed
+	 * 
+	 * @param <R> the class of the result
+	 * @param operation the operation
+	 * @param action the code of the operation
+	 * @return the result of the operation
+	 * @throws Exception re-throws every exception of the operation
+	 */
+	public <R> R measure(Operation operation, Callable<R> action) throws Exception
+	{
+		if (!this.enabled) return action.call();
+		
+		long startTime = System.nanoTime();
+		
+		try
+		{
+			return action.call();
+		}
+		catch (Exception e)
+		{
+			this.errors[operation.ordinal()].increment();
+			
+			throw e;
+		}
+		finally
+		{
+			this.latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+		}
+	}
+	
+	/**
+	 * Runs an operation without a result and records its latency and whether it failed
+	 * 
+	 * @param operation the operation
+	 * @param action the code of the operation
+	 * @throws Exception re-throws every exception of the operation
+	 */
+	public void measureAction(Operation operation, Action action) throws Exception
+	{
+		if (!this.enabled)
+		{
+			action.run();
+			
+			return;
+		}
+		
+		long startTime = System.nanoTime();
+		
+		try
+		{
+			action.run();
+		}
+		catch (Exception e)
+		{
+			this.errors[operation.ordinal()].increment();
+			
+			throw e;
+		}
+		finally
+		{
+			this.latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+		}
+	}
+	
+	/**
+	 * Starts an asynchronous operation and records its latency until the future completes and whether it failed
+	 * 
+	 * @param <R> the class of the result
+	 * @param operation the operation
+	 * @param action the code starting the operation and returning its future
+	 * @return the future completed with the result of the operation after its latency has been recorded
+	 * @throws Exception re-throws every exception of the operation thrown before it returns the future
+	 */
+	public <R> CompletableFuture<R> measureAsync(Operation operation, Callable<CompletableFuture<R>> action) throws Exception
+	{
+		if (!this.enabled) return action.call();
+		
+		long startTime = System.nanoTime();
+		CompletableFuture<R> future;
+		CompletableFuture<R> result = new CompletableFuture<R>();
+		
+		try
+		{
+			future = action.call();
+		}
+		catch (Exception e)
+		{
+			this.errors[operation.ordinal()].increment();
+			this.latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+			
+			throw e;
+		}
+		
+		future.whenComplete((value, e) ->
+		{
+			if (e != null) this.errors[operation.ordinal()].increment();
+			
+			this.latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+			
+			if (e != null) result.completeExceptionally(e);
+			else result.complete(value);
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * Gets the start time of waiting for a lock
+	 * 
+	 * @return the start time to pass to {@link #recordLockWait(long)} or 0 if the metrics are disabled
+	 */
+	public long startLockWait()
+	{
+		return this.enabled ? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * Records the time spent waiting for a lock, which has been acquired
+	 * 
+	 * @param startTime the time returned by {@link #startLockWait()}
+	 */
+	public void recordLockWait(long startTime)
+	{
+		if (startTime != 0) this.lockWaits.record(System.nanoTime() - startTime);
+	}
+	
+	/**
+	 * Adds to the number of bytes read from the storage
+	 * 
+	 * @param bytes the number of bytes
+	 */
+	public void addBytesRead(long bytes)
+	{
+		if (this.enabled) this.bytesRead.add(bytes);
+	}
+	
+	/**
+	 * Adds to the number of bytes written to the storage
+	 * 
+	 * @param bytes the number of bytes
+	 */
+	public void addBytesWritten(long bytes)
+	{
+		if (this.enabled) this.bytesWritten.add(bytes);
+	}
+	
+	/**
+	 * Adds to the number of files checked for modifications by incremental loads
+	 * 
+	 * @param files the number of files
+	 */
+	public void addFilesScanned(long files)
+	{
+		if (this.enabled) this.filesScanned.add(files);
+	}
+	
+	/**
+	 * Adds to the number of data objects loaded by incremental loads
+	 * 
+	 * @param files the number of data objects
+	 */
+	public void addFilesLoaded(long files)
+	{
+		if (this.enabled) this.filesLoaded.add(files);
+	}
+	
+	/**
+	 * Counts an error which did not fail an operation
+	 */
+	public void recordBackgroundError()
+	{
+		if (this.enabled) this.backgroundErrors.increment();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<OperationStats> getOperations()
+	{
+		List<OperationStats> operations = new ArrayList<OperationStats>(this.latencies.length);
+		
+		for (Operation operation : Operation.values())
+		{
+			operations.add(this.getOperation(operation));
+		}
+		
+		return operations;
+	}
+	
+	/**
+	 * Gets the statistics of an operation
+	 * 
+	 * @param operation the operation
+	 * @return the statistics
+	 */
+	public OperationStats getOperation(Operation operation)
+	{
+		return new OperationStats(operation.name(), this.errors[operation.ordinal()].sum(), this.latencies[operation.ordinal()]);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getBytesRead()
+	{
+		return this.bytesRead.sum();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getBytesWritten()
+	{
+		return this.bytesWritten.sum();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getFilesScanned()
+	{
+		return this.filesScanned.sum();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getFilesLoaded()
+	{
+		return this.filesLoaded.sum();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public OperationStats getLockWaits()
+	{
+		return new OperationStats("LOCK_WAIT", 0, this.lockWaits);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getBackgroundErrors()
+	{
+		return this.backgroundErrors.sum();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset()
+	{
+		for (int i=0; i<this.latencies.length; i++)
+		{
+			this.latencies[i].reset();
+			this.errors[i].reset();
+		}
+		
+		this.lockWaits.reset();
+		this.bytesRead.reset();
+		this.bytesWritten.reset();
+		this.filesScanned.reset();
+		this.filesLoaded.reset();
+		this.backgroundErrors.reset();
+	}
+	
+	/**
+	 * Publishes the metrics as an MXBean in the platform MBean server. The name consists of the
+	 * {@value #DOMAIN} domain, the type of the DAO, its storage path and a number telling apart DAOs of
+	 * the same storage path.
+	 * 
+	 * @param type the type of the DAO, usually the simple name of its class
+	 * @param storagePath the storage path of the DAO
+	 * @return the name the metrics are published by
+	 * @throws IllegalArgumentException if a parameter is null
+	 * @throws JMException if the metrics cannot be published
+	 */
+	public synchronized ObjectName register(String type, Path storagePath) throws IllegalArgumentException, JMException
+	{
+		if (type == null) throw new IllegalArgumentException("type");
+		if (storagePath == null) throw new IllegalArgumentException("storagePath");
+		
+		if (this.objectName != null) return this.objectName;
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(String.format("%s:type=%s,path=%s,instance=%d", DOMAIN, ObjectName.quote(type), ObjectName.quote(storagePath.toString()), INSTANCE_COUNTER.incrementAndGet()));
+		
+		server.registerMBean(this, objectName);
+		
+		this.objectName = objectName;
+		
+		return objectName;
+	}
+	
+	/**
+	 * Removes the published metrics from the platform MBean server, if they are published
+	 * 
+	 * @throws JMException if the metrics cannot be removed
+	 */
+	public synchronized void unregister() throws JMException
+	{
+		if (this.objectName == null) return;
+		
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+		
+		this.objectName = null;
+	}
+	
+	/**
+	 * Gets the name the metrics are published by
+	 * 
+	 * @return the name or null if the metrics are not published
+	 */
+	public synchronized ObjectName getObjectName()
+	{
+		return this.objectName;
+	}
+}
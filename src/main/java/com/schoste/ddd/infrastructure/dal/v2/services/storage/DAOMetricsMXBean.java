@@ -0,0 +1,81 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.List;
+
+/**
+ * Management interface of the {@link DAOMetrics} of a DAO, published by JMX.
+ * Latencies are given in nanoseconds.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public interface DAOMetricsMXBean
+{
+	/**
+	 * Checks if the metrics are collected
+	 * 
+	 * @return true if the metrics are collected, false otherwise
+	 */
+	boolean isEnabled();
+	
+	/**
+	 * Starts or stops collecting the metrics
+	 * 
+	 * @param enabled true to collect the metrics
+	 */
+	void setEnabled(boolean enabled);
+	
+	/**
+	 * Gets the counts and latencies of the operations of the DAO
+	 * 
+	 * @return the statistics of every operation
+	 */
+	List<DAOMetrics.OperationStats> getOperations();
+	
+	/**
+	 * Gets the number of bytes read from the storage
+	 * 
+	 * @return the number of bytes
+	 */
+	long getBytesRead();
+	
+	/**
+	 * Gets the number of bytes written to the storage
+	 * 
+	 * @return the number of bytes
+	 */
+	long getBytesWritten();
+	
+	/**
+	 * Gets the number of files checked for modifications by incremental loads
+	 * 
+	 * @return the number of files
+	 */
+	long getFilesScanned();
+	
+	/**
+	 * Gets the number of data objects loaded by incremental loads
+	 * 
+	 * @return the number of data objects
+	 */
+	long getFilesLoaded();
+	
+	/**
+	 * Gets the count and the latencies of waiting for the locks of ids
+	 * 
+	 * @return the statistics of the lock acquisitions
+	 */
+	DAOMetrics.OperationStats getLockWaits();
+	
+	/**
+	 * Gets the number of errors which did not fail an operation, e.g. files which could not be loaded by an
+	 * incremental load or deleted by a clear
+	 * 
+	 * @return the number of errors
+	 */
+	long getBackgroundErrors();
+	
+	/**
+	 * Resets all metrics to 0
+	 */
+	void reset();
+}
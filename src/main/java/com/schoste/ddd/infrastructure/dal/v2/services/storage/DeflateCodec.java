@@ -0,0 +1,148 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec compressing with the DEFLATE algorithm of the JDK ({@link Deflater} and {@link Inflater}),
+ * without the zlib header and checksum.
+ * 
+ * Deflaters and inflaters hold native memory until they are ended. The codec therefore keeps a pool of
+ * them, which are reset and reused instead of being created for every file. Instances exceeding the
+ * size of the pool are ended right away.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class DeflateCodec implements CompressionCodec
+{
+	/**
+	 * The codec id of the DEFLATE compression
+	 */
+	public static final byte CODEC_ID = 1;
+	
+	private final int level;
+	private final BlockingQueue<Deflater> deflaters;
+	private final BlockingQueue<Inflater> inflaters;
+	
+	/**
+	 * Creates a codec with the {@link Deflater#BEST_SPEED} level and a pool sized by the number of processors
+	 */
+	public DeflateCodec()
+	{
+		this(Deflater.BEST_SPEED, 2 * Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a codec
+	 * 
+	 * @param level the compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param poolSize the maximum number of idle deflaters and inflaters kept each
+	 * @throws IllegalArgumentException if the level is invalid or the pool size is less than 1
+	 */
+	public DeflateCodec(int level, int poolSize) throws IllegalArgumentException
+	{
+		if (((level < 0) || (level > 9)) && (level != Deflater.DEFAULT_COMPRESSION)) throw new IllegalArgumentException("level");
+		if (poolSize < 1) throw new IllegalArgumentException("poolSize");
+		
+		this.level = level;
+		this.deflaters = new ArrayBlockingQueue<>(poolSize);
+		this.inflaters = new ArrayBlockingQueue<>(poolSize);
+	}
+	
+	/**
+	 * Gets the compression level
+	 * 
+	 * @return the level
+	 */
+	public int getLevel()
+	{
+		return this.level;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte getCodecId()
+	{
+		return CODEC_ID;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int compress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetOffset, int maxLength) throws IOException
+	{
+		Deflater deflater = this.deflaters.poll();
+		
+		if (deflater == null) deflater = new Deflater(this.level, true);
+		
+		try
+		{
+			int length = 0;
+			
+			deflater.setInput(source, sourceOffset, sourceLength);
+			deflater.finish();
+			
+			while (!deflater.finished())
+			{
+				if (length == maxLength) return -1;
+				
+				length += deflater.deflate(target, targetOffset + length, maxLength - length);
+			}
+			
+			return length;
+		}
+		finally
+		{
+			deflater.reset();
+			
+			if (!this.deflaters.offer(deflater)) deflater.end();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetOffset, int length) throws IOException
+	{
+		Inflater inflater = this.inflaters.poll();
+		
+		if (inflater == null) inflater = new Inflater(true);
+		
+		try
+		{
+			int inflatedLength = 0;
+			
+			inflater.setInput(source, sourceOffset, sourceLength);
+			
+			while (!inflater.finished() && (inflatedLength < length))
+			{
+				int inflated = inflater.inflate(target, targetOffset + inflatedLength, length - inflatedLength);
+				
+				if ((inflated == 0) && (inflater.needsInput() || inflater.needsDictionary())) break;
+				
+				inflatedLength += inflated;
+			}
+			
+			if ((inflatedLength != length) || (inflater.getRemaining() > 0)) throw new StreamCorruptedException(String.format("expected %d bytes, inflated %d", length, inflatedLength));
+		}
+		catch (DataFormatException e)
+		{
+			throw new StreamCorruptedException(e.getMessage());
+		}
+		finally
+		{
+			inflater.reset();
+			
+			if (!this.inflaters.offer(inflater)) inflater.end();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Walks the storage directory of a DAO and visits the files of the stored data objects.
+ * Files of data objects are named by the id of the data object. All other files are skipped.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class DirectoryScanner
+{
+	private DirectoryScanner()
+	{
+	}
+	
+	/**
+	 * Checks if the name of a file is the id of a data object
+	 * 
+	 * @param file the file to check
+	 * @return true if the file is named by the id of a data object, false otherwise
+	 */
+	public static boolean isDataObjectFile(Path file)
+	{
+		return (getDataObjectId(file) > 0);
+	}
+	
+	/**
+	 * Gets the id of the data object stored in a file
+	 * 
+	 * @param file the file of the data object
+	 * @return the id of the data object or 0 if the file is not named by an id
+	 */
+	public static int getDataObjectId(Path file)
+	{
+		Path fileName = file.getFileName();
+		
+		if (fileName == null) return 0;
+		
+		String name = fileName.toString();
+		
+		if (name.isEmpty() || (name.length() > 10)) return 0;
+		
+		for (int i=0; i<name.length(); i++)
+		{
+			if (!Character.isDigit(name.charAt(i))) return 0;
+		}
+		
+		long id = Long.parseLong(name);
+		
+		return (id <= Integer.MAX_VALUE) ? (int) id : 0;
+	}
+	
+	/**
+	 * Calls an action for every regular file of a data object in a directory and its sub-directories.
+	 * If a pool is provided, the action is called from the threads of the pool in parallel and the
+	 * method returns when all calls completed. Otherwise the action is called by the calling thread.
+	 * 
+	 * @param directory the directory to walk
+	 * @param pool the pool to run the action in or null to run it on the calling thread
+	 * @param action the action to call for every file
+	 * @throws Exception re-throws every exception, including the ones thrown by the action
+	 */
+	public static void forEachDataObjectFile(Path directory, ForkJoinPool pool, Consumer<Path> action) throws Exception
+	{
+		if (pool == null)
+		{
+			try (Stream<Path> files = Files.walk(directory))
+			{
+			    files
+			        .filter(DirectoryScanner::isDataObjectFile)
+			        .filter(Files::isRegularFile)
+			        .forEach(action);
+			}
+			
+			return;
+		}
+		
+		List<Path> candidates;
+		
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			candidates = files.filter(DirectoryScanner::isDataObjectFile).collect(Collectors.toList());
+		}
+		
+		try
+		{
+			pool.submit(() -> candidates.parallelStream().filter(Files::isRegularFile).forEach(action)).get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Watches a storage directory and its sub-directories for created and modified files of data objects
+ * using a {@link WatchService}. The ids of these data objects are collected in a set of dirty ids,
+ * which is drained by incremental loads.
+ * 
+ * If the watch service drops events ({@link StandardWatchEventKinds#OVERFLOW}) or a watched directory
+ * becomes inaccessible, the dirty ids are incomplete and {@link #drain()} requests a directory scan
+ * instead. Events are delivered asynchronously and with a platform dependent delay.
+ * 
+ * Directories whose names start with a dot (e.g. {@value SegmentStore#DIRECTORY_NAME} and
+ * {@value BlobStore#DIRECTORY_NAME}) hold no files of data objects and are not watched.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class DirectoryWatcher implements Closeable
+{
+	private final Path directory;
+	private final WatchService watchService;
+	private final Set<Integer> dirtyIds = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean overflow = new AtomicBoolean();
+	private final Thread thread;
+	
+	/**
+	 * Starts watching a directory and its sub-directories
+	 * 
+	 * @param directory the directory to watch
+	 * @throws IllegalArgumentException if the directory is null
+	 * @throws IOException if the directory cannot be watched
+	 */
+	public DirectoryWatcher(Path directory) throws IllegalArgumentException, IOException
+	{
+		if (directory == null) throw new IllegalArgumentException("directory");
+		
+		this.directory = directory;
+		this.watchService = directory.getFileSystem().newWatchService();
+		
+		try
+		{
+			this.registerAll(directory);
+		}
+		catch (IOException e)
+		{
+			this.watchService.close();
+			
+			throw e;
+		}
+		
+		this.thread = new Thread(this::processEvents, String.format("%s-%s", this.getClass().getSimpleName(), directory.getFileName()));
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Gets the watched directory
+	 * 
+	 * @return the watched directory
+	 */
+	public Path getDirectory()
+	{
+		return this.directory;
+	}
+	
+	/**
+	 * Marks a data object as dirty without waiting for the event of the watch service
+	 * 
+	 * @param id the id of the data object
+	 */
+	public void markDirty(int id)
+	{
+		this.dirtyIds.add(id);
+	}
+	
+	/**
+	 * Gets and removes the ids of the data objects created or modified since the previous call
+	 * 
+	 * @return the ids of the dirty data objects or null if events have been lost and the directory must be scanned
+	 */
+	public Set<Integer> drain()
+	{
+		Set<Integer> drainedIds = new HashSet<>();
+		
+		for (Iterator<Integer> ids = this.dirtyIds.iterator(); ids.hasNext(); )
+		{
+			drainedIds.add(ids.next());
+			ids.remove();
+		}
+		
+		return this.overflow.getAndSet(false) ? null : drainedIds;
+	}
+	
+	/**
+	 * Stops watching the directory
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.watchService.close();
+		this.thread.interrupt();
+	}
+	
+	private void registerAll(Path root) throws IOException
+	{
+		try (Stream<Path> directories = Files.walk(root))
+		{
+			for (Iterator<Path> paths = directories.filter(path -> Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && !isHidden(root.relativize(path))).iterator(); paths.hasNext(); )
+			{
+				paths.next().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			}
+		}
+	}
+	
+	private static boolean isHidden(Path relativePath)
+	{
+		for (Path name : relativePath)
+		{
+			if (name.toString().startsWith(".")) return true;
+		}
+		
+		return false;
+	}
+	
+	private void processEvents()
+	{
+		try
+		{
+			while (true)
+			{
+				WatchKey key = this.watchService.take();
+				Path watchedDirectory = (Path) key.watchable();
+				
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+					{
+						this.overflow.set(true);
+						
+						continue;
+					}
+					
+					Path file = watchedDirectory.resolve((Path) event.context());
+					int id = DirectoryScanner.getDataObjectId(file);
+					
+					if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+					{
+						if (id > 0) this.dirtyIds.remove(id);
+					}
+					else if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
+					{
+						if (!isHidden(file.getFileName())) this.registerCreatedDirectory(file);
+					}
+					else if (id > 0)
+					{
+						this.dirtyIds.add(id);
+					}
+				}
+				
+				if (!key.reset()) this.overflow.set(true);
+			}
+		}
+		catch (ClosedWatchServiceException | InterruptedException e)
+		{
+			return;
+		}
+	}
+	
+	private void registerCreatedDirectory(Path createdDirectory)
+	{
+		try
+		{
+			this.registerAll(createdDirectory);
+			
+			DirectoryScanner.forEachDataObjectFile(createdDirectory, null, file -> this.dirtyIds.add(DirectoryScanner.getDataObjectId(file)));
+		}
+		catch (Exception e)
+		{
+			this.overflow.set(true);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+/**
+ * Defines how far the DAOs wait for saved files to reach the storage device.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public enum Durability
+{
+	/**
+	 * Files are left to the operating system to be written eventually.
+	 * A crash of the system may lose saves. This is the behavior of previous versions.
+	 */
+	NONE,
+	
+	/**
+	 * The content of files is forced to the storage device before a save returns
+	 * ({@link java.nio.channels.FileChannel#force(boolean)} without meta data).
+	 */
+	DATA,
+	
+	/**
+	 * The content and meta data of files as well as the directory holding them are forced to the
+	 * storage device before a save returns, so the saved file survives a crash of the system.
+	 */
+	FULL
+}
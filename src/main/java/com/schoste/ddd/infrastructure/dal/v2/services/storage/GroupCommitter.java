@@ -0,0 +1,218 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Combines the commits of {@link WriteBatch}es arriving from different threads within a time window.
+ * 
+ * The first thread to commit becomes the leader of a group. It waits for the window to pass, closes
+ * the group and commits the batches of all threads which joined it at once. The other threads wait
+ * for the leader and receive the same result. Saves therefore take up to the window longer, but share
+ * the syncs of the storage device.
+ * 
+ * Callers holding locks should join a group with {@link #enqueue(WriteBatch)} while holding them and
+ * release them before they {@link Commit#await(ForkJoinPool)} the commit, so other threads can join
+ * the group meanwhile. The groups are committed in the order they are opened, so batches writing the
+ * same file are published in the order they were enqueued.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class GroupCommitter
+{
+	private final long windowNanos;
+	private final AtomicLong committedGroups = new AtomicLong();
+	private final AtomicLong committedBatches = new AtomicLong();
+	private Group openGroup;
+	private Group lastGroup;
+	
+	/**
+	 * The batches committed together
+	 */
+	private static final class Group
+	{
+		private final List<WriteBatch> batches = new ArrayList<>();
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+		private Group previous;
+		
+		private Group(Group previous)
+		{
+			this.previous = previous;
+		}
+		
+		private void awaitDone() throws InterruptedException
+		{
+			try
+			{
+				this.result.get();
+			}
+			catch (ExecutionException e)
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * A batch which joined a group and waits for its commit
+	 */
+	public final class Commit
+	{
+		private final Group group;
+		private final boolean leader;
+		
+		private Commit(Group group, boolean leader)
+		{
+			this.group = group;
+			this.leader = leader;
+		}
+		
+		/**
+		 * Waits for the group of the batch to be committed. The leader of the group waits for the window
+		 * to pass and for the previous group to be committed, then commits all batches of the group.
+		 * 
+		 * @param pool the pool forcing the files in parallel or null to force them on the leading thread
+		 * @throws Exception re-throws every exception of the commit of the group
+		 */
+		public void await(ForkJoinPool pool) throws Exception
+		{
+			if (this.leader) GroupCommitter.this.lead(this.group, pool);
+			
+			try
+			{
+				this.group.result.get();
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+				if (e.getCause() instanceof Error) throw (Error) e.getCause();
+				
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a committer with a given window
+	 * 
+	 * @param windowMillis the time in milliseconds the leader of a group waits for other commits to join
+	 * @throws IllegalArgumentException if the window is not positive
+	 */
+	public GroupCommitter(long windowMillis) throws IllegalArgumentException
+	{
+		if (windowMillis < 1) throw new IllegalArgumentException("windowMillis");
+		
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+	}
+	
+	/**
+	 * Gets the time the leader of a group waits for other commits to join
+	 * 
+	 * @return the window in milliseconds
+	 */
+	public long getWindowMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(this.windowNanos);
+	}
+	
+	/**
+	 * Gets the number of groups committed so far, i.e. the number of times the storage device was synced
+	 * 
+	 * @return the number of committed groups
+	 */
+	public long getCommittedGroups()
+	{
+		return this.committedGroups.get();
+	}
+	
+	/**
+	 * Gets the number of batches committed so far by all groups
+	 * 
+	 * @return the number of committed batches
+	 */
+	public long getCommittedBatches()
+	{
+		return this.committedBatches.get();
+	}
+	
+	/**
+	 * Commits a batch together with the ones of other threads and returns when it is committed
+	 * 
+	 * @param batch the batch to commit
+	 * @param pool the pool forcing the files in parallel or null to force them on the leading thread
+	 * @throws IllegalArgumentException if the batch is null
+	 * @throws Exception re-throws every exception of the commit of the group
+	 */
+	public void commit(WriteBatch batch, ForkJoinPool pool) throws IllegalArgumentException, Exception
+	{
+		this.enqueue(batch).await(pool);
+	}
+	
+	/**
+	 * Adds a batch to the open group or opens a new one. The batch is committed once the returned
+	 * commit is awaited, which every caller of this method must do.
+	 * 
+	 * @param batch the batch to commit
+	 * @return the commit to await
+	 * @throws IllegalArgumentException if the batch is null
+	 */
+	public Commit enqueue(WriteBatch batch) throws IllegalArgumentException
+	{
+		if (batch == null) throw new IllegalArgumentException("batch");
+		
+		synchronized (this)
+		{
+			boolean leader = (this.openGroup == null);
+			
+			if (leader)
+			{
+				this.openGroup = new Group(this.lastGroup);
+				this.lastGroup = this.openGroup;
+			}
+			
+			this.openGroup.batches.add(batch);
+			
+			return new Commit(this.openGroup, leader);
+		}
+	}
+	
+	private void lead(Group group, ForkJoinPool pool)
+	{
+		for (long deadline = System.nanoTime() + this.windowNanos, remaining = this.windowNanos; remaining > 0; remaining = deadline - System.nanoTime())
+		{
+			LockSupport.parkNanos(remaining);
+		}
+		
+		synchronized (this)
+		{
+			this.openGroup = null;
+		}
+		
+		try
+		{
+			// Publishes the files in the order the batches were enqueued, even across groups
+			if (group.previous != null) group.previous.awaitDone();
+			
+			group.previous = null;
+			
+			WriteBatch.commit(group.batches, pool);
+			
+			this.committedGroups.incrementAndGet();
+			this.committedBatches.addAndGet(group.batches.size());
+			
+			group.result.complete(null);
+		}
+		catch (Throwable e)
+		{
+			for (WriteBatch batch : group.batches) batch.abort();
+			
+			group.result.completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Lists the {@link ObjectHandle}s of the data objects of a DAO, read from the snapshot it serves, from
+ * the index of its segments or from the attributes of the files in its storage directory.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class HandleScanner
+{
+	private HandleScanner()
+	{
+	}
+	
+	/**
+	 * Lists the handles of the data objects modified after a time stamp. The snapshot takes precedence over
+	 * the segments, which take precedence over the storage directory.
+	 * 
+	 * @param <T> the type of the data objects
+	 * @param snapshot the snapshot served by the DAO or null
+	 * @param segmentStore the segments of the DAO or null
+	 * @param directory the storage directory of the DAO
+	 * @param pool the pool to read the attributes of the files in or null to read them on the calling thread
+	 * @param modifiedAfter the time stamp in milliseconds; 0 for all data objects
+	 * @param loader the loader of the data objects
+	 * @param metrics the metrics to record errors reading the attributes of a file in
+	 * @return the handles ordered by id
+	 * @throws Exception re-throws every exception but the ones reading the attributes of a file, which are skipped
+	 */
+	public static <T> List<ObjectHandle<T>> scan(SnapshotFile snapshot, SegmentStore segmentStore, Path directory, ForkJoinPool pool, long modifiedAfter, ObjectHandle.Loader<T> loader, DAOMetrics metrics) throws Exception
+	{
+		List<ObjectHandle<T>> handles = new ArrayList<ObjectHandle<T>>();
+		
+		if (snapshot != null)
+		{
+			for (int id : snapshot.getIds(modifiedAfter))
+			{
+				SnapshotFile.Entry entry = snapshot.get(id);
+				
+				handles.add(new ObjectHandle<T>(id, entry.getCreatedTimeStamp(), entry.getModifiedTimeStamp(), entry.getContent().remaining(), loader));
+			}
+		}
+		else if (segmentStore != null)
+		{
+			for (int id : segmentStore.getIds(modifiedAfter))
+			{
+				long timeStamp = segmentStore.getTimeStamp(id);
+				int size = segmentStore.getSize(id);
+				
+				// Segments do not keep the created time stamp
+				if (size >= 0) handles.add(new ObjectHandle<T>(id, 0, timeStamp, size, loader));
+			}
+		}
+		else
+		{
+			Collection<ObjectHandle<T>> scannedHandles = new ConcurrentLinkedQueue<ObjectHandle<T>>();
+			
+			DirectoryScanner.forEachDataObjectFile(directory, pool, file -> tryAddHandleIfNewer(scannedHandles, file, modifiedAfter, loader, metrics));
+			
+			handles.addAll(scannedHandles);
+		}
+		
+		handles.sort(Comparator.comparingInt(ObjectHandle::getId));
+		
+		return handles;
+	}
+	
+	private static <T> void tryAddHandleIfNewer(Collection<ObjectHandle<T>> handles, Path file, long modifiedAfter, ObjectHandle.Loader<T> loader, DAOMetrics metrics)
+	{
+		try
+		{
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			
+			if (lastModified <= modifiedAfter) return;
+			
+			handles.add(new ObjectHandle<T>(DirectoryScanner.getDataObjectId(file), attributes.creationTime().toMillis(), lastModified, attributes.size(), loader));
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted concurrently
+		}
+		catch (Exception e)
+		{
+			metrics.recordBackgroundError();
+			
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Allocates the ids of new data objects without probing the storage directory for existing files.
+ * 
+ * Ids are handed out from a range of {@value #RANGE_SIZE} ids held in memory, using a lock-free counter.
+ * A range is reserved by creating a marker file named by its first id in the directory {@value #DIRECTORY_NAME}
+ * of the storage directory with {@link java.nio.file.StandardOpenOption#CREATE_NEW}. As creating the marker
+ * fails if it already exists, several DAOs and processes sharing a storage directory never reserve the
+ * same range. Ranges start at multiples of {@value #RANGE_SIZE}.
+ * 
+ * The first range is reserved after the largest id found in the storage directory and the largest range
+ * reserved before, every further range after the largest range reserved so far. Ids of a range which are
+ * not used are skipped, so the ids are unique and increasing, but not contiguous.
+ * 
+ * The marker of a range is removed once all its ids are handed out and the next range is reserved, so only
+ * the markers of the ranges in use and of the largest range remain. The markers must outlive the data
+ * objects (e.g. when the storage directory is cleared), as their ranges would be reserved again otherwise.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class IdAllocator
+{
+	/**
+	 * The name of the directory holding the markers of the reserved ranges
+	 */
+	public static final String DIRECTORY_NAME = ".ids";
+	
+	/**
+	 * The number of ids reserved at once
+	 */
+	public static final int RANGE_SIZE = 1024;
+	
+	private static final String MARKER_PREFIX = "range-";
+	
+	private final Path storageDirectory;
+	private final Path markerDirectory;
+	private final AtomicReference<Range> range = new AtomicReference<>();
+	private final AtomicInteger lowestId = new AtomicInteger(1);
+	private boolean seeded;
+	
+	/**
+	 * A reserved range of ids
+	 */
+	private static final class Range
+	{
+		private final int start;
+		private final int end;
+		private final AtomicInteger next;
+		
+		private Range(int start, int end)
+		{
+			this.start = start;
+			this.end = end;
+			this.next = new AtomicInteger(start);
+		}
+	}
+	
+	/**
+	 * Creates an allocator for the ids of the data objects stored in a directory
+	 * 
+	 * @param storageDirectory the storage directory
+	 * @throws IllegalArgumentException if the directory is null
+	 */
+	public IdAllocator(Path storageDirectory) throws IllegalArgumentException
+	{
+		if (storageDirectory == null) throw new IllegalArgumentException("storageDirectory");
+		
+		this.storageDirectory = storageDirectory;
+		this.markerDirectory = storageDirectory.resolve(DIRECTORY_NAME);
+	}
+	
+	/**
+	 * Allocates a new id. Only reserving a new range accesses the file system.
+	 * 
+	 * @return the new id
+	 * @throws IllegalStateException if all ids are used
+	 * @throws IOException if a range cannot be reserved
+	 */
+	public int allocate() throws IllegalStateException, IOException
+	{
+		while (true)
+		{
+			Range range = this.range.get();
+			
+			if (range != null)
+			{
+				int id = range.next.getAndIncrement();
+				
+				if (id < range.end) return id;
+			}
+			
+			this.reserve(range);
+		}
+	}
+	
+	/**
+	 * Notifies the allocator of an id which has been chosen by the caller,
+	 * so the id is not allocated later by this allocator.
+	 * 
+	 * @param id the id used
+	 */
+	public void observe(int id)
+	{
+		if ((id < 1) || (id == Integer.MAX_VALUE)) return;
+		
+		this.lowestId.accumulateAndGet(id +1, Math::max);
+		
+		Range range = this.range.get();
+		
+		if ((range != null) && (id >= range.start) && (id < range.end)) range.next.accumulateAndGet(id +1, Math::max);
+	}
+	
+	/**
+	 * Forgets the reserved range. The next allocation scans the storage directory again
+	 * and reserves a range after the largest range reserved so far.
+	 */
+	public synchronized void reset()
+	{
+		this.range.set(null);
+		this.lowestId.set(1);
+		this.seeded = false;
+	}
+	
+	private synchronized void reserve(Range exhaustedRange) throws IllegalStateException, IOException
+	{
+		if (this.range.get() != exhaustedRange) return;
+		
+		Files.createDirectories(this.markerDirectory);
+		
+		// Ranges below the largest one may be released, so they are not reserved again
+		long start = Math.max(this.lowestId.get(), this.getLargestReservedId() +1);
+		
+		if (!this.seeded)
+		{
+			start = Math.max(start, this.getLargestStoredId() +1);
+			this.seeded = true;
+		}
+		
+		while (true)
+		{
+			start = ((start + RANGE_SIZE -1) / RANGE_SIZE) * RANGE_SIZE;
+			
+			if (start + RANGE_SIZE > Integer.MAX_VALUE) throw new IllegalStateException("all ids are used");
+			
+			Path marker = this.getMarker(start);
+			
+			try
+			{
+				Files.createFile(marker);
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				start = Math.max(start + RANGE_SIZE, this.getLargestReservedId() +1);
+				
+				continue;
+			}
+			
+			long largestReservedId = this.getLargestReservedId();
+			
+			if (largestReservedId < start + RANGE_SIZE) break;
+			
+			// A larger range was reserved while the markers were listed, so the range may have been
+			// reserved and released by another allocator in the meantime
+			Files.deleteIfExists(marker);
+			
+			start = largestReservedId +1;
+		}
+		
+		this.lowestId.accumulateAndGet((int) start + RANGE_SIZE, Math::max);
+		this.range.set(new Range((int) start, (int) start + RANGE_SIZE));
+		
+		if (exhaustedRange != null) Files.deleteIfExists(this.getMarker(exhaustedRange.start));
+	}
+	
+	private Path getMarker(long start)
+	{
+		return this.markerDirectory.resolve(MARKER_PREFIX + start);
+	}
+	
+	private int getLargestStoredId() throws IOException
+	{
+		AtomicInteger largestId = new AtomicInteger();
+		
+		try
+		{
+			DirectoryScanner.forEachDataObjectFile(this.storageDirectory, null, file -> largestId.accumulateAndGet(DirectoryScanner.getDataObjectId(file), Math::max));
+		}
+		catch (IOException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IOException(e);
+		}
+		
+		return largestId.get();
+	}
+	
+	private long getLargestReservedId() throws IOException
+	{
+		long largestId = 0;
+		
+		try (DirectoryStream<Path> markers = Files.newDirectoryStream(this.markerDirectory, MARKER_PREFIX + "*"))
+		{
+			for (Path marker : markers)
+			{
+				try
+				{
+					largestId = Math.max(largestId, Long.parseLong(marker.getFileName().toString().substring(MARKER_PREFIX.length())) + RANGE_SIZE -1);
+				}
+				catch (NumberFormatException e)
+				{
+					continue;
+				}
+			}
+		}
+		
+		return largestId;
+	}
+}
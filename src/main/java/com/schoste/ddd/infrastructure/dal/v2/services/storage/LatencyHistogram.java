@@ -0,0 +1,152 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with a logarithmic bucket layout similar to HdrHistogram.
+ * 
+ * Every power of two is divided into {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value is
+ * off by at most 12.5% whatever its magnitude, while the whole range of a long fits into a fixed array of
+ * a few hundred counters. Recording a value increments a single counter without allocating or locking.
+ * Percentiles are computed from the counters when read and are therefore approximate while values are
+ * recorded concurrently.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class LatencyHistogram
+{
+	/**
+	 * The number of linear sub-buckets of every power of two
+	 */
+	public static final int SUB_BUCKETS = 8;
+	
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	/**
+	 * Records a value
+	 * 
+	 * @param value the value in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long value)
+	{
+		if (value < 0) value = 0;
+		
+		this.counts.incrementAndGet(getBucket(value));
+		this.count.increment();
+		this.total.add(value);
+		this.max.accumulate(value);
+	}
+	
+	/**
+	 * Gets the number of recorded values
+	 * 
+	 * @return the number of values
+	 */
+	public long getCount()
+	{
+		return this.count.sum();
+	}
+	
+	/**
+	 * Gets the sum of the recorded values
+	 * 
+	 * @return the sum in nanoseconds
+	 */
+	public long getTotal()
+	{
+		return this.total.sum();
+	}
+	
+	/**
+	 * Gets the largest recorded value
+	 * 
+	 * @return the value in nanoseconds or 0 if none has been recorded
+	 */
+	public long getMax()
+	{
+		return this.max.get();
+	}
+	
+	/**
+	 * Gets the mean of the recorded values
+	 * 
+	 * @return the mean in nanoseconds or 0 if none has been recorded
+	 */
+	public long getMean()
+	{
+		long count = this.count.sum();
+		
+		return (count > 0) ? this.total.sum() / count : 0;
+	}
+	
+	/**
+	 * Gets the value below which a percentage of the recorded values lie
+	 * 
+	 * @param percentile the percentage between 0 and 100
+	 * @return the upper bound of the bucket holding the percentile in nanoseconds or 0 if no value has been recorded
+	 * @throws IllegalArgumentException if the percentage is not between 0 and 100
+	 */
+	public long getPercentile(double percentile) throws IllegalArgumentException
+	{
+		if ((percentile < 0) || (percentile > 100)) throw new IllegalArgumentException("percentile");
+		
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		
+		for (int i=0; i<BUCKETS; i++) count += counts[i] = this.counts.get(i);
+		
+		if (count == 0) return 0;
+		
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		
+		for (int i=0; i<BUCKETS; i++)
+		{
+			rank -= counts[i];
+			
+			if (rank <= 0) return Math.min(getUpperBound(i), this.getMax());
+		}
+		
+		return this.getMax();
+	}
+	
+	/**
+	 * Removes all recorded values. Values recorded concurrently may be kept partly.
+	 */
+	public void reset()
+	{
+		for (int i=0; i<BUCKETS; i++) this.counts.set(i, 0);
+		
+		this.count.reset();
+		this.total.reset();
+		this.max.reset();
+	}
+	
+	private static int getBucket(long value)
+	{
+		if (value < SUB_BUCKETS) return (int) value;
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	private static long getUpperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS) return bucket;
+		
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
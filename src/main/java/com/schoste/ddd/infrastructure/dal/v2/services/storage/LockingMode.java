@@ -0,0 +1,22 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+/**
+ * Defines how the DAOs guard concurrent access to the files of their data objects.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public enum LockingMode
+{
+	/**
+	 * One exclusive lock for the whole DAO instance. Every get, save and delete waits for
+	 * every other one, regardless of the id. This is the behavior of previous versions.
+	 */
+	SYNCHRONIZED,
+	
+	/**
+	 * Read/write locks striped by the id of the data object. Operations on different ids
+	 * run in parallel, readers of the same id share a lock and only writers to the same id
+	 * exclude each other.
+	 */
+	STRIPED
+}
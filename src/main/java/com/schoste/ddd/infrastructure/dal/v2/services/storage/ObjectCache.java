@@ -0,0 +1,478 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache of the values read for data objects, keyed by the ids of the data objects.
+ * 
+ * The cache is limited by the total weight of its entries, which is either their number or their
+ * estimated size in bytes. It evicts with the W-TinyLFU policy: new entries enter a small LRU window
+ * (1% of the weight). Entries leaving the window are only admitted to the main area if they have been
+ * requested more often than the entry they would evict, as estimated by a count-min sketch of the
+ * recent requests. The main area is a segmented LRU, which protects entries requested repeatedly
+ * from entries requested once. This keeps frequently read entries cached while scans pass through.
+ * 
+ * All methods are thread safe. They only update the bookkeeping of the cache under its monitor,
+ * values are read and validated by the caller.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ * 
+ * @param <V> the class of the cached values
+ */
+public class ObjectCache<V>
+{
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	
+	private final long maxWeight;
+	private final long maxWindowWeight;
+	private final long maxProtectedWeight;
+	private final Map<Integer, Node<V>> nodes = new HashMap<>();
+	private final NodeList<V> window = new NodeList<>();
+	private final NodeList<V> probation = new NodeList<>();
+	private final NodeList<V> protectedNodes = new NodeList<>();
+	private final FrequencySketch sketch;
+	private long windowWeight;
+	private long mainWeight;
+	private long protectedWeight;
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * The statistics of a cache at a point in time
+	 */
+	public static final class Stats
+	{
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final int size;
+		private final long weight;
+		
+		Stats(long hits, long misses, long evictions, int size, long weight)
+		{
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+			this.weight = weight;
+		}
+		
+		/**
+		 * Gets the number of requests answered by the cache
+		 * 
+		 * @return the number of hits
+		 */
+		public long getHits()
+		{
+			return this.hits;
+		}
+		
+		/**
+		 * Gets the number of requests not answered by the cache, including the ones finding an outdated entry
+		 * 
+		 * @return the number of misses
+		 */
+		public long getMisses()
+		{
+			return this.misses;
+		}
+		
+		/**
+		 * Gets the number of entries removed (or not admitted) to keep the weight of the cache below its limit
+		 * 
+		 * @return the number of evictions
+		 */
+		public long getEvictions()
+		{
+			return this.evictions;
+		}
+		
+		/**
+		 * Gets the number of cached entries
+		 * 
+		 * @return the number of entries
+		 */
+		public int getSize()
+		{
+			return this.size;
+		}
+		
+		/**
+		 * Gets the total weight of the cached entries
+		 * 
+		 * @return the weight
+		 */
+		public long getWeight()
+		{
+			return this.weight;
+		}
+		
+		/**
+		 * Gets the share of the requests answered by the cache
+		 * 
+		 * @return the hit rate between 0 and 1
+		 */
+		public double getHitRate()
+		{
+			long requests = this.hits + this.misses;
+			
+			return (requests == 0) ? 0 : ((double) this.hits / requests);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("hits=%d, misses=%d, evictions=%d, size=%d, weight=%d", this.hits, this.misses, this.evictions, this.size, this.weight);
+		}
+	}
+	
+	private static final class Node<V>
+	{
+		private final int key;
+		private final V value;
+		private final long weight;
+		private int region;
+		private Node<V> previous;
+		private Node<V> next;
+		
+		private Node(int key, V value, long weight)
+		{
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+	
+	/**
+	 * Doubly linked list of nodes from the least to the most recently used one
+	 */
+	private static final class NodeList<V>
+	{
+		private Node<V> first;
+		private Node<V> last;
+		
+		private void addLast(Node<V> node)
+		{
+			node.previous = this.last;
+			node.next = null;
+			
+			if (this.last == null) this.first = node;
+			else this.last.next = node;
+			
+			this.last = node;
+		}
+		
+		private void remove(Node<V> node)
+		{
+			if (node.previous == null) this.first = node.next;
+			else node.previous.next = node.next;
+			
+			if (node.next == null) this.last = node.previous;
+			else node.next.previous = node.previous;
+			
+			node.previous = null;
+			node.next = null;
+		}
+		
+		private void clear()
+		{
+			this.first = null;
+			this.last = null;
+		}
+	}
+	
+	/**
+	 * Count-min sketch of 4 bit counters estimating how often keys have been requested recently.
+	 * All counters are halved once the number of recorded requests reaches ten times the width,
+	 * so that the frequencies age.
+	 */
+	private static final class FrequencySketch
+	{
+		private static final int DEPTH = 4;
+		private static final int[] SEEDS = { 0x97CB3127, 0xB3D6F3A5, 0x3C6EF372, 0x7F4A7C15 };
+		
+		private final long[] table;
+		private final int counterMask;
+		private final int rowLength;
+		private final int sampleSize;
+		private int size;
+		
+		private FrequencySketch(int expectedEntries)
+		{
+			int width = Integer.highestOneBit(Math.max(16, expectedEntries));
+			
+			if (width < expectedEntries) width <<= 1;
+			
+			this.counterMask = width -1;
+			this.rowLength = width / 16;
+			this.table = new long[DEPTH * this.rowLength];
+			this.sampleSize = 10 * width;
+		}
+		
+		private int indexOf(int key, int row)
+		{
+			int hash = (key ^ SEEDS[row]) * 0x9E3779B9;
+			
+			return (hash ^ (hash >>> 16)) & this.counterMask;
+		}
+		
+		private int frequency(int key)
+		{
+			int frequency = 15;
+			
+			for (int row=0; row<DEPTH; row++)
+			{
+				int index = this.indexOf(key, row);
+				long word = this.table[row * this.rowLength + (index >>> 4)];
+				
+				frequency = Math.min(frequency, (int) ((word >>> ((index & 15) << 2)) & 0xF));
+			}
+			
+			return frequency;
+		}
+		
+		private void increment(int key)
+		{
+			for (int row=0; row<DEPTH; row++)
+			{
+				int index = this.indexOf(key, row);
+				int position = row * this.rowLength + (index >>> 4);
+				int shift = (index & 15) << 2;
+				
+				if (((this.table[position] >>> shift) & 0xF) < 15) this.table[position] += (1L << shift);
+			}
+			
+			if (++this.size < this.sampleSize) return;
+			
+			for (int i=0; i<this.table.length; i++) this.table[i] = (this.table[i] >>> 1) & 0x7777777777777777L;
+			
+			this.size /= 2;
+		}
+	}
+	
+	/**
+	 * Creates a cache
+	 * 
+	 * @param maxWeight the maximum total weight of the entries
+	 * @param expectedEntries the number of entries expected to fit into the cache, which sizes the frequency sketch
+	 * @throws IllegalArgumentException if the maximum weight or the number of expected entries is less than 1
+	 */
+	public ObjectCache(long maxWeight, int expectedEntries) throws IllegalArgumentException
+	{
+		if (maxWeight < 1) throw new IllegalArgumentException("maxWeight");
+		if (expectedEntries < 1) throw new IllegalArgumentException("expectedEntries");
+		
+		this.maxWeight = maxWeight;
+		this.maxWindowWeight = Math.max(1, maxWeight / 100);
+		this.maxProtectedWeight = (maxWeight - this.maxWindowWeight) * 4 / 5;
+		this.sketch = new FrequencySketch(expectedEntries);
+	}
+	
+	/**
+	 * Gets the maximum total weight of the entries
+	 * 
+	 * @return the maximum weight
+	 */
+	public long getMaxWeight()
+	{
+		return this.maxWeight;
+	}
+	
+	/**
+	 * Gets a cached value. Values which are no longer valid are removed.
+	 * 
+	 * @param key the id of the data object
+	 * @param valid checks if the cached value is still valid; called under the monitor of the cache
+	 * @return the cached value or null if none is cached or it is no longer valid
+	 */
+	public synchronized V get(int key, Predicate<V> valid)
+	{
+		Node<V> node = this.nodes.get(key);
+		
+		this.sketch.increment(key);
+		
+		if ((node != null) && !valid.test(node.value))
+		{
+			this.remove(node);
+			
+			node = null;
+		}
+		
+		if (node == null)
+		{
+			this.misses++;
+			
+			return null;
+		}
+		
+		this.hits++;
+		
+		switch (node.region)
+		{
+			case WINDOW:
+				this.window.remove(node);
+				this.window.addLast(node);
+				break;
+				
+			case PROBATION:
+				this.probation.remove(node);
+				this.protectedNodes.addLast(node);
+				this.protectedWeight += node.weight;
+				node.region = PROTECTED;
+				
+				while (this.protectedWeight > this.maxProtectedWeight)
+				{
+					Node<V> demoted = this.protectedNodes.first;
+					
+					this.protectedNodes.remove(demoted);
+					this.protectedWeight -= demoted.weight;
+					this.probation.addLast(demoted);
+					demoted.region = PROBATION;
+				}
+				break;
+				
+			default:
+				this.protectedNodes.remove(node);
+				this.protectedNodes.addLast(node);
+				break;
+		}
+		
+		return node.value;
+	}
+	
+	/**
+	 * Caches a value, replacing the one cached before. Values heavier than the cache are not cached.
+	 * 
+	 * @param key the id of the data object
+	 * @param value the value to cache
+	 * @param weight the weight of the value; 1 if the cache is limited by the number of entries
+	 * @throws IllegalArgumentException if the value is null or the weight is less than 1
+	 */
+	public synchronized void put(int key, V value, long weight) throws IllegalArgumentException
+	{
+		if (value == null) throw new IllegalArgumentException("value");
+		if (weight < 1) throw new IllegalArgumentException("weight");
+		
+		Node<V> replaced = this.nodes.remove(key);
+		
+		if (replaced != null) this.unlink(replaced);
+		
+		if (weight > this.maxWeight)
+		{
+			this.evictions++;
+			
+			return;
+		}
+		
+		Node<V> node = new Node<V>(key, value, weight);
+		
+		node.region = WINDOW;
+		this.nodes.put(key, node);
+		this.window.addLast(node);
+		this.windowWeight += weight;
+		
+		while (this.windowWeight > this.maxWindowWeight)
+		{
+			Node<V> candidate = this.window.first;
+			
+			this.window.remove(candidate);
+			this.windowWeight -= candidate.weight;
+			this.admit(candidate);
+		}
+	}
+	
+	private void admit(Node<V> candidate)
+	{
+		long maxMainWeight = this.maxWeight - this.maxWindowWeight;
+		int candidateFrequency = this.sketch.frequency(candidate.key);
+		
+		while (this.mainWeight + candidate.weight > maxMainWeight)
+		{
+			Node<V> victim = (this.probation.first != null) ? this.probation.first : this.protectedNodes.first;
+			
+			if ((victim == null) || (candidateFrequency <= this.sketch.frequency(victim.key)))
+			{
+				this.nodes.remove(candidate.key);
+				this.evictions++;
+				
+				return;
+			}
+			
+			this.remove(victim);
+			this.evictions++;
+		}
+		
+		candidate.region = PROBATION;
+		this.probation.addLast(candidate);
+		this.mainWeight += candidate.weight;
+	}
+	
+	/**
+	 * Removes the cached value of a data object
+	 * 
+	 * @param key the id of the data object
+	 */
+	public synchronized void invalidate(int key)
+	{
+		Node<V> node = this.nodes.get(key);
+		
+		if (node != null) this.remove(node);
+	}
+	
+	/**
+	 * Removes all cached values. The statistics and the request frequencies are kept.
+	 */
+	public synchronized void clear()
+	{
+		this.nodes.clear();
+		this.window.clear();
+		this.probation.clear();
+		this.protectedNodes.clear();
+		this.windowWeight = 0;
+		this.mainWeight = 0;
+		this.protectedWeight = 0;
+	}
+	
+	/**
+	 * Gets the statistics of the cache
+	 * 
+	 * @return the current statistics
+	 */
+	public synchronized Stats getStats()
+	{
+		return new Stats(this.hits, this.misses, this.evictions, this.nodes.size(), this.windowWeight + this.mainWeight);
+	}
+	
+	private void remove(Node<V> node)
+	{
+		this.nodes.remove(node.key);
+		this.unlink(node);
+	}
+	
+	private void unlink(Node<V> node)
+	{
+		switch (node.region)
+		{
+			case WINDOW:
+				this.window.remove(node);
+				this.windowWeight -= node.weight;
+				break;
+				
+			case PROBATION:
+				this.probation.remove(node);
+				this.mainWeight -= node.weight;
+				break;
+				
+			default:
+				this.protectedNodes.remove(node);
+				this.mainWeight -= node.weight;
+				this.protectedWeight -= node.weight;
+				break;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import com.schoste.ddd.infrastructure.dal.v2.exceptions.DALException;
+
+/**
+ * Lightweight handle of a stored data object, which holds the id, the time stamps and the size read from the
+ * storage and loads the data object only when first accessed by {@link #get()}. A listing of handles therefore
+ * takes memory proportional to the number of data objects instead of their size.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ * 
+ * @param <T> the type of the data object
+ */
+public class ObjectHandle<T>
+{
+	/**
+	 * Loads the data object of a handle
+	 * 
+	 * @param <T> the type of the data object
+	 */
+	@FunctionalInterface
+	public interface Loader<T>
+	{
+		/**
+		 * Loads a data object
+		 * 
+		 * @param id the id of the data object
+		 * @return the data object or null if it does not exist anymore
+		 * @throws Exception if the data object cannot be loaded
+		 */
+		T load(int id) throws Exception;
+	}
+	
+	private final int id;
+	private final long createdTimeStamp;
+	private final long modifiedTimeStamp;
+	private final long size;
+	private final Loader<T> loader;
+	private volatile T dataObject;
+	private volatile boolean loaded;
+	
+	/**
+	 * Creates a handle of a stored data object
+	 * 
+	 * @param id the id of the data object
+	 * @param createdTimeStamp the time the data object was stored first in milliseconds or 0 if unknown
+	 * @param modifiedTimeStamp the time the data object was stored last in milliseconds
+	 * @param size the size of the stored data object in bytes
+	 * @param loader the loader of the data object
+	 * @throws IllegalArgumentException if the id is less than 1 or the loader is null
+	 */
+	public ObjectHandle(int id, long createdTimeStamp, long modifiedTimeStamp, long size, Loader<T> loader) throws IllegalArgumentException
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		if (loader == null) throw new IllegalArgumentException("loader");
+		
+		this.id = id;
+		this.createdTimeStamp = createdTimeStamp;
+		this.modifiedTimeStamp = modifiedTimeStamp;
+		this.size = size;
+		this.loader = loader;
+	}
+	
+	/**
+	 * Gets the id of the data object
+	 * 
+	 * @return the id
+	 */
+	public int getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * Gets the time the data object was stored first
+	 * 
+	 * @return the time in milliseconds or 0 if the storage does not keep it
+	 */
+	public long getCreatedTimeStamp()
+	{
+		return this.createdTimeStamp;
+	}
+	
+	/**
+	 * Gets the time the data object was stored last when the handle was created
+	 * 
+	 * @return the time in milliseconds
+	 */
+	public long getModifiedTimeStamp()
+	{
+		return this.modifiedTimeStamp;
+	}
+	
+	/**
+	 * Gets the size of the stored data object, which is the size of its serialized, compressed or
+	 * deduplicated form as kept by the storage
+	 * 
+	 * @return the size in bytes
+	 */
+	public long getSize()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Checks if the data object has been loaded
+	 * 
+	 * @return true if the data object has been loaded, false otherwise
+	 */
+	public boolean isLoaded()
+	{
+		return this.loaded;
+	}
+	
+	/**
+	 * Gets the data object and loads it on the first call. The data object is loaded in its current
+	 * state, which may be newer than the time stamps of the handle.
+	 * 
+	 * @return the data object or null if it has been deleted since the handle was created
+	 * @throws DALException re-throws every exception as {@see DALException}
+	 */
+	public T get() throws DALException
+	{
+		if (this.loaded) return this.dataObject;
+		
+		synchronized (this)
+		{
+			if (this.loaded) return this.dataObject;
+			
+			try
+			{
+				this.dataObject = this.loader.load(this.id);
+				this.loaded = true;
+			}
+			catch (Exception e)
+			{
+				throw new DALException(e);
+			}
+			
+			return this.dataObject;
+		}
+	}
+	
+	/**
+	 * Releases the loaded data object, so it can be garbage collected. The next call of {@link #get()} loads it again.
+	 */
+	public synchronized void release()
+	{
+		this.loaded = false;
+		this.dataObject = null;
+	}
+}
@@ -0,0 +1,106 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+/**
+ * Trace of a single operation of a DAO, which is emitted as a JDK Flight Recorder event when it finishes
+ * (see {@link OperationTracer}).
+ * 
+ * The time of an operation is split into the time spent waiting for locks, the time spent serializing
+ * or deserializing and the remaining time, which is spent on I/O. Traces begun while no recording is
+ * enabled ignore every call, so callers do not check {@link #isEnabled()} unless collecting a value
+ * costs more than passing it.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public interface OperationTrace
+{
+	/**
+	 * The traced operations
+	 */
+	enum Operation
+	{
+		/**
+		 * Get of a data object
+		 */
+		GET,
+		
+		/**
+		 * Save of a data object or of several ones at once
+		 */
+		SAVE,
+		
+		/**
+		 * Delete of a data object
+		 */
+		DELETE,
+		
+		/**
+		 * Search of an incremental load for modified data objects, including loading them
+		 */
+		SCAN
+	}
+	
+	/**
+	 * The phases of an operation whose durations are traced
+	 */
+	enum Phase
+	{
+		/**
+		 * Waiting for the locks of ids
+		 */
+		LOCK,
+		
+		/**
+		 * Serializing or deserializing data objects
+		 */
+		SERIALIZATION
+	}
+	
+	/**
+	 * Checks if the trace is recorded
+	 * 
+	 * @return true if the trace is recorded, false if it ignores every call
+	 */
+	boolean isEnabled();
+	
+	/**
+	 * Gets the start time of a phase
+	 * 
+	 * @return the start time to pass to {@link #endPhase(Phase, long)}
+	 */
+	long startPhase();
+	
+	/**
+	 * Adds the time since the start of a phase to its duration
+	 * 
+	 * @param phase the phase
+	 * @param startTime the time returned by {@link #startPhase()}
+	 */
+	void endPhase(Phase phase, long startTime);
+	
+	/**
+	 * Sets the id of the data object of the operation
+	 * 
+	 * @param id the id
+	 */
+	void setId(int id);
+	
+	/**
+	 * Adds to the number of bytes read or written by the operation
+	 * 
+	 * @param bytes the number of bytes
+	 */
+	void addBytes(long bytes);
+	
+	/**
+	 * Sets the number of files of a scan
+	 * 
+	 * @param scanned the number of files checked for modifications
+	 * @param loaded the number of data objects loaded
+	 */
+	void setFiles(long scanned, long loaded);
+	
+	/**
+	 * Ends the operation and emits the trace, whose I/O duration is the time not spent in any phase
+	 */
+	void finish();
+}
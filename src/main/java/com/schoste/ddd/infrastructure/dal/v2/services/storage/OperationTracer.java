@@ -0,0 +1,130 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.file.Path;
+
+/**
+ * Begins the {@link OperationTrace}s of the DAOs, which are emitted as JDK Flight Recorder events of the
+ * type {@value #EVENT_NAME}.
+ * 
+ * The library targets Java 8, which does not provide the {@code jdk.jfr} API in all updates. The event class
+ * is therefore compiled for Java 11 into the versioned part of the multi-release jar ({@code META-INF/versions/11})
+ * and only loaded, by reflection, on Java 11 or later. Otherwise, and while no recording enables the event,
+ * {@link #begin(OperationTrace.Operation, Path)} returns {@link #DISABLED}, so tracing costs a check of the
+ * event settings per operation.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public final class OperationTracer
+{
+	/**
+	 * The name of the JDK Flight Recorder event type of the traces
+	 */
+	public static final String EVENT_NAME = "com.schoste.ddd.infrastructure.dal.v2.Operation";
+	
+	/**
+	 * The trace which ignores every call
+	 */
+	public static final OperationTrace DISABLED = new DisabledTrace();
+	
+	private static final String FACTORY_CLASS_NAME = OperationTracer.class.getPackage().getName() + ".FlightRecorderTrace$TraceFactory";
+	
+	private static final Factory FACTORY = createFactory();
+	
+	/**
+	 * Begins traces recorded by the JDK Flight Recorder
+	 */
+	interface Factory
+	{
+		/**
+		 * Begins a trace
+		 * 
+		 * @param operation the operation
+		 * @param storagePath the storage path of the DAO
+		 * @return the trace or {@link OperationTracer#DISABLED} if the event is not enabled
+		 */
+		OperationTrace begin(OperationTrace.Operation operation, Path storagePath);
+	}
+	
+	private OperationTracer()
+	{
+	}
+	
+	/**
+	 * Checks if the JDK Flight Recorder API is present, so operations can be traced
+	 * 
+	 * @return true if operations can be traced, false otherwise
+	 */
+	public static boolean isAvailable()
+	{
+		return (FACTORY != null);
+	}
+	
+	/**
+	 * Begins the trace of an operation
+	 * 
+	 * @param operation the operation
+	 * @param storagePath the storage path of the DAO
+	 * @return the trace, which is {@link #DISABLED} if the operation is not recorded
+	 */
+	public static OperationTrace begin(OperationTrace.Operation operation, Path storagePath)
+	{
+		Factory factory = FACTORY;
+		
+		return (factory == null) ? DISABLED : factory.begin(operation, storagePath);
+	}
+	
+	private static Factory createFactory()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+			
+			return (Factory) Class.forName(FACTORY_CLASS_NAME).getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			// No JDK Flight Recorder on this JVM or no event class for it
+			return null;
+		}
+	}
+	
+	private static final class DisabledTrace implements OperationTrace
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return false;
+		}
+		
+		@Override
+		public long startPhase()
+		{
+			return 0;
+		}
+		
+		@Override
+		public void endPhase(Phase phase, long startTime)
+		{
+		}
+		
+		@Override
+		public void setId(int id)
+		{
+		}
+		
+		@Override
+		public void addBytes(long bytes)
+		{
+		}
+		
+		@Override
+		public void setFiles(long scanned, long loaded)
+		{
+		}
+		
+		@Override
+		public void finish()
+		{
+		}
+	}
+}
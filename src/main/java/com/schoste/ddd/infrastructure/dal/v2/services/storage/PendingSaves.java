@@ -0,0 +1,79 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the saves which released the locks of their data objects while they wait for a {@link GroupCommitter}.
+ * 
+ * Until such a save completes, its files are not published, so the files of its data objects are still the ones
+ * of the previous save. Other writes of the same data objects therefore wait for the save to complete first,
+ * e.g. with {@link #find(int[])} and {@link CompletableFuture#join()} after releasing their locks.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class PendingSaves
+{
+	private final Map<Integer, CompletableFuture<Void>> saves = new ConcurrentHashMap<>();
+	
+	/**
+	 * Registers a save of data objects
+	 * 
+	 * @param ids the ids of the data objects
+	 * @return the save to pass to {@link #end(int[], CompletableFuture)} once it completes
+	 */
+	public CompletableFuture<Void> begin(int[] ids)
+	{
+		CompletableFuture<Void> save = new CompletableFuture<>();
+		
+		for (int id : ids) this.saves.put(id, save);
+		
+		return save;
+	}
+	
+	/**
+	 * Removes a save registered by {@link #begin(int[])} and completes it, successful or not
+	 * 
+	 * @param ids the ids of the data objects
+	 * @param save the save
+	 */
+	public void end(int[] ids, CompletableFuture<Void> save)
+	{
+		for (int id : ids) this.saves.remove(id, save);
+		
+		save.complete(null);
+	}
+	
+	/**
+	 * Finds a pending save of one of the given data objects
+	 * 
+	 * @param ids the ids of the data objects
+	 * @return the save, which completes normally, or null if none of the data objects is saved
+	 */
+	public CompletableFuture<Void> find(int[] ids)
+	{
+		if (this.saves.isEmpty()) return null;
+		
+		for (int id : ids)
+		{
+			CompletableFuture<Void> save = this.saves.get(id);
+			
+			if (save != null) return save;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Finds a pending save of any data object
+	 * 
+	 * @return the save, which completes normally, or null if no data object is saved
+	 */
+	public CompletableFuture<Void> findAny()
+	{
+		for (CompletableFuture<Void> save : this.saves.values()) return save;
+		
+		return null;
+	}
+}
@@ -0,0 +1,1065 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured store appending the data objects as records to segment files in the directory
+ * {@value #DIRECTORY_NAME} of a storage directory.
+ * 
+ * A record consists of a header (magic number, id, type, time stamp, length and CRC-32) and the payload.
+ * Saves append a data record to the active segment, deletes append a tombstone. An index held in memory
+ * maps the ids to the position of their latest record. Once the active segment reaches its maximum size,
+ * it is sealed and a new one is started. Sealed segments whose share of outdated records reaches the
+ * compaction ratio are compacted in the background: their live records are appended again and the
+ * segment is deleted.
+ * 
+ * When opened, the index is loaded from the checkpoint written when the store was closed, a segment was
+ * sealed or compacted, and only the records appended after the checkpoint are scanned. Without a valid
+ * checkpoint all segments are scanned. Scans only read the headers of the records and check the CRC-32
+ * of the records in the last segment, where a crash may have left a torn record, which is truncated.
+ * 
+ * All methods are thread safe. Appends are serialized, reads run concurrently.
+ * Only one store may open the segments of a storage directory at a time, within this and other processes,
+ * as the index is only held in memory. The store holds an exclusive file lock on {@value #LOCK_FILE_NAME}
+ * until it is closed and fails to open while another store holds it.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class SegmentStore implements Closeable
+{
+	/**
+	 * The name of the directory holding the segments
+	 */
+	public static final String DIRECTORY_NAME = ".segments";
+	
+	/**
+	 * The name of the file in the directory of the segments locked while a store has them opened
+	 */
+	public static final String LOCK_FILE_NAME = "store.lock";
+	
+	/**
+	 * The size in bytes from which the active segment is sealed if none is given
+	 */
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+	
+	/**
+	 * The share of outdated records from which sealed segments are compacted if none is given
+	 */
+	public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+	
+	private static final String SEGMENT_FILE_PREFIX = "segment-";
+	private static final String CHECKPOINT_FILE_NAME = "index.checkpoint";
+	private static final int RECORD_MAGIC = 0x53454731;
+	private static final long CHECKPOINT_MAGIC = 0x5345474944583031L;
+	private static final int HEADER_SIZE = 25;
+	private static final byte DATA = 0;
+	private static final byte TOMBSTONE = 1;
+	
+	private final Path directory;
+	private final long maxSegmentSize;
+	private final FileChannel lockChannel;
+	private final Map<Integer, Location> index = new ConcurrentHashMap<>();
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	private final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+	private final Object writeMonitor = new Object();
+	private final Object compactionMonitor = new Object();
+	private final ExecutorService compactor;
+	private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+	private volatile double compactionRatio = DEFAULT_COMPACTION_RATIO;
+	private Segment activeSegment;
+	private long lastTimeStamp;
+	
+	/**
+	 * A record read from the store
+	 */
+	public static final class Record
+	{
+		private final long timeStamp;
+		private final ByteBuffer payload;
+		
+		private Record(long timeStamp, ByteBuffer payload)
+		{
+			this.timeStamp = timeStamp;
+			this.payload = payload;
+		}
+		
+		/**
+		 * Gets the time stamp the record was appended with
+		 * 
+		 * @return the time stamp
+		 */
+		public long getTimeStamp()
+		{
+			return this.timeStamp;
+		}
+		
+		/**
+		 * Gets the payload of the record
+		 * 
+		 * @return a heap buffer holding the payload from its position to its limit
+		 */
+		public ByteBuffer getPayload()
+		{
+			return this.payload;
+		}
+	}
+	
+	/**
+	 * The position of the latest record of an id
+	 */
+	private static final class Location
+	{
+		private final int segment;
+		private final long offset;
+		private final int length;
+		private final long timeStamp;
+		
+		private Location(int segment, long offset, int length, long timeStamp)
+		{
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.timeStamp = timeStamp;
+		}
+		
+		private long getRecordSize()
+		{
+			return HEADER_SIZE + (long) this.length;
+		}
+	}
+	
+	private static final class Segment
+	{
+		private final int number;
+		private final Path file;
+		private final FileChannel channel;
+		private final AtomicLong liveBytes = new AtomicLong();
+		private volatile long size;
+		
+		private Segment(int number, Path file, FileChannel channel) throws IOException
+		{
+			this.number = number;
+			this.file = file;
+			this.channel = channel;
+			this.size = channel.size();
+		}
+		
+		private double getGarbageRatio()
+		{
+			long size = this.size;
+			
+			return (size == 0) ? 0 : (1.0 - ((double) this.liveBytes.get() / size));
+		}
+	}
+	
+	/**
+	 * Opens the store of a storage directory with segments of {@link #DEFAULT_MAX_SEGMENT_SIZE} bytes
+	 * 
+	 * @param storageDirectory the storage directory
+	 * @throws IllegalArgumentException if the directory is null
+	 * @throws IOException if the segments cannot be opened or are opened by another store
+	 */
+	public SegmentStore(Path storageDirectory) throws IllegalArgumentException, IOException
+	{
+		this(storageDirectory, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * Opens the store of a storage directory
+	 * 
+	 * @param storageDirectory the storage directory
+	 * @param maxSegmentSize the size in bytes from which the active segment is sealed; larger records get a segment of their own
+	 * @throws IllegalArgumentException if the directory is null or the maximum size is less than 1
+	 * @throws IOException if the segments cannot be opened or are opened by another store
+	 */
+	public SegmentStore(Path storageDirectory, long maxSegmentSize) throws IllegalArgumentException, IOException
+	{
+		if (storageDirectory == null) throw new IllegalArgumentException("storageDirectory");
+		if (maxSegmentSize < 1) throw new IllegalArgumentException("maxSegmentSize");
+		
+		this.directory = storageDirectory.resolve(DIRECTORY_NAME);
+		this.maxSegmentSize = maxSegmentSize;
+		
+		Files.createDirectories(this.directory);
+		
+		this.lockChannel = lock(this.directory);
+		
+		try
+		{
+			this.open();
+		}
+		catch (IOException e)
+		{
+			this.closeSegments();
+			this.lockChannel.close();
+			
+			throw e;
+		}
+		
+		this.compactor = Executors.newSingleThreadExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, String.format("%s-%s", this.getClass().getSimpleName(), storageDirectory.getFileName()));
+			
+			thread.setDaemon(true);
+			
+			return thread;
+		});
+	}
+	
+	/**
+	 * Gets the share of outdated records from which sealed segments are compacted
+	 * 
+	 * @return the ratio between 0 and 1
+	 */
+	public double getCompactionRatio()
+	{
+		return this.compactionRatio;
+	}
+	
+	/**
+	 * Sets the share of outdated records from which sealed segments are compacted
+	 * 
+	 * @param compactionRatio the ratio greater than 0 and at most 1 ({@link #DEFAULT_COMPACTION_RATIO} by default)
+	 * @throws IllegalArgumentException if the ratio is out of range
+	 */
+	public void setCompactionRatio(double compactionRatio) throws IllegalArgumentException
+	{
+		if ((compactionRatio <= 0) || (compactionRatio > 1)) throw new IllegalArgumentException("compactionRatio");
+		
+		this.compactionRatio = compactionRatio;
+	}
+	
+	/**
+	 * Gets the number of segment files
+	 * 
+	 * @return the number of segments
+	 */
+	public int getSegmentCount()
+	{
+		return this.segments.size();
+	}
+	
+	/**
+	 * Reads the latest record of an id
+	 * 
+	 * @param id the id of the data object
+	 * @return the record or null if the id is not stored
+	 * @throws IOException if the segment cannot be read
+	 */
+	public Record get(int id) throws IOException
+	{
+		this.segmentsLock.readLock().lock();
+		
+		try
+		{
+			Location location = this.index.get(id);
+			
+			if (location == null) return null;
+			
+			ByteBuffer payload = ByteBuffer.allocate(location.length);
+			
+			readFully(this.segments.get(location.segment).channel, payload, location.offset + HEADER_SIZE);
+			payload.flip();
+			
+			return new Record(location.timeStamp, payload);
+		}
+		finally
+		{
+			this.segmentsLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Reads a range of the payload of the latest record of an id into a buffer, without reading the whole payload
+	 * 
+	 * @param id the id of the data object
+	 * @param offset the position in the payload to start at
+	 * @param target the buffer to read into up to its limit; the read stops at the end of the payload
+	 * @return the number of bytes read or -1 if the id is not stored
+	 * @throws IOException if the segment cannot be read
+	 */
+	public int read(int id, long offset, ByteBuffer target) throws IOException
+	{
+		this.segmentsLock.readLock().lock();
+		
+		try
+		{
+			Location location = this.index.get(id);
+			
+			if (location == null) return -1;
+			
+			long start = Math.max(0, Math.min(offset, location.length));
+			int length = (int) Math.min(target.remaining(), location.length - start);
+			ByteBuffer range = target.duplicate();
+			
+			range.limit(range.position() + length);
+			
+			readFully(this.segments.get(location.segment).channel, range, location.offset + HEADER_SIZE + start);
+			target.position(range.position());
+			
+			return length;
+		}
+		finally
+		{
+			this.segmentsLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Writes a range of the payload of the latest record of an id to a channel with
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, without passing it through the heap
+	 * 
+	 * @param id the id of the data object
+	 * @param offset the position in the payload to start at
+	 * @param length the maximum number of bytes to write; the transfer stops at the end of the payload
+	 * @param target the channel to write to
+	 * @return the number of bytes written or -1 if the id is not stored
+	 * @throws IOException if the segment cannot be read or the target cannot be written
+	 */
+	public long transferTo(int id, long offset, long length, WritableByteChannel target) throws IOException
+	{
+		this.segmentsLock.readLock().lock();
+		
+		try
+		{
+			Location location = this.index.get(id);
+			
+			if (location == null) return -1;
+			
+			FileChannel channel = this.segments.get(location.segment).channel;
+			long payloadOffset = location.offset + HEADER_SIZE;
+			long start = Math.max(0, Math.min(offset, location.length));
+			long end = start + Math.min(Math.max(0, length), location.length - start);
+			long position = start;
+			
+			while (position < end)
+			{
+				long transferred = channel.transferTo(payloadOffset + position, end - position, target);
+				
+				if (transferred <= 0) break;
+				
+				position += transferred;
+			}
+			
+			return position - start;
+		}
+		finally
+		{
+			this.segmentsLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Gets the time stamp of the latest record of an id
+	 * 
+	 * @param id the id of the data object
+	 * @return the time stamp or 0 if the id is not stored
+	 */
+	public long getTimeStamp(int id)
+	{
+		Location location = this.index.get(id);
+		
+		return (location == null) ? 0 : location.timeStamp;
+	}
+	
+	/**
+	 * Gets the size of the payload of the latest record of an id
+	 * 
+	 * @param id the id of the data object
+	 * @return the size in bytes or -1 if the id is not stored
+	 */
+	public int getSize(int id)
+	{
+		Location location = this.index.get(id);
+		
+		return (location == null) ? -1 : location.length;
+	}
+	
+	/**
+	 * Gets the ids whose latest record has been appended after a time stamp
+	 * 
+	 * @param timeStamp the time stamp
+	 * @return the ids of the records appended after the time stamp
+	 */
+	public Collection<Integer> getIds(long timeStamp)
+	{
+		List<Integer> ids = new ArrayList<>();
+		
+		this.index.forEach((id, location) ->
+		{
+			if (location.timeStamp > timeStamp) ids.add(id);
+		});
+		
+		return ids;
+	}
+	
+	/**
+	 * Gets the largest stored id
+	 * 
+	 * @return the largest id or 0 if the store is empty
+	 */
+	public int getLargestId()
+	{
+		return this.index.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+	}
+	
+	/**
+	 * Appends a data record with a time stamp greater than the one of every record appended before
+	 * 
+	 * @param id the id of the data object
+	 * @param payload the payload from its position to its limit; the position is not changed
+	 * @param durability how far the record is forced to the storage device
+	 * @return the time stamp of the record
+	 * @throws IllegalArgumentException if the id is less than 1, the payload is null or the durability is null
+	 * @throws IOException if the record cannot be appended
+	 */
+	public long put(int id, ByteBuffer payload, Durability durability) throws IllegalArgumentException, IOException
+	{
+		return this.put(id, 0, payload, durability);
+	}
+	
+	/**
+	 * Appends a data record
+	 * 
+	 * @param id the id of the data object
+	 * @param timeStamp the time stamp of the record or 0 to use one greater than the one of every record appended before
+	 * @param payload the payload from its position to its limit; the position is not changed
+	 * @param durability how far the record is forced to the storage device
+	 * @return the time stamp of the record
+	 * @throws IllegalArgumentException if the id is less than 1, the payload is null or the durability is null
+	 * @throws IOException if the record cannot be appended
+	 */
+	public long put(int id, long timeStamp, ByteBuffer payload, Durability durability) throws IllegalArgumentException, IOException
+	{
+		if (id < 1) throw new IllegalArgumentException("id");
+		if (payload == null) throw new IllegalArgumentException("payload");
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		synchronized (this.writeMonitor)
+		{
+			if (timeStamp == 0) timeStamp = Math.max(System.currentTimeMillis(), this.lastTimeStamp +1);
+			
+			this.append(id, DATA, timeStamp, payload.duplicate());
+			this.force(durability);
+			
+			return timeStamp;
+		}
+	}
+	
+	/**
+	 * Appends a tombstone for an id
+	 * 
+	 * @param id the id of the data object
+	 * @param durability how far the tombstone is forced to the storage device
+	 * @return true if the id was stored, false otherwise
+	 * @throws IllegalArgumentException if the durability is null
+	 * @throws IOException if the tombstone cannot be appended
+	 */
+	public boolean delete(int id, Durability durability) throws IllegalArgumentException, IOException
+	{
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		synchronized (this.writeMonitor)
+		{
+			if (!this.index.containsKey(id)) return false;
+			
+			this.append(id, TOMBSTONE, Math.max(System.currentTimeMillis(), this.lastTimeStamp +1), ByteBuffer.allocate(0));
+			this.force(durability);
+			
+			return true;
+		}
+	}
+	
+	/**
+	 * Forces the records appended before to the storage device, e.g. after a batch of records
+	 * has been appended with {@link Durability#NONE}
+	 * 
+	 * @param durability how far the records are forced to the storage device
+	 * @throws IllegalArgumentException if the durability is null
+	 * @throws IOException if the records cannot be forced
+	 */
+	public void sync(Durability durability) throws IllegalArgumentException, IOException
+	{
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		synchronized (this.writeMonitor)
+		{
+			this.force(durability);
+		}
+	}
+	
+	/**
+	 * Removes all records and segments
+	 * 
+	 * @throws IOException if the segments cannot be deleted
+	 */
+	public void clear() throws IOException
+	{
+		synchronized (this.compactionMonitor)
+		{
+			synchronized (this.writeMonitor)
+			{
+				this.segmentsLock.writeLock().lock();
+				
+				try
+				{
+					this.closeSegments();
+					this.index.clear();
+					this.segments.clear();
+					
+					try (Stream<Path> files = Files.list(this.directory))
+					{
+						for (Path file : (Iterable<Path>) files::iterator)
+						{
+							if (!LOCK_FILE_NAME.equals(file.getFileName().toString())) Files.deleteIfExists(file);
+						}
+					}
+					
+					this.activeSegment = this.createSegment(1);
+				}
+				finally
+				{
+					this.segmentsLock.writeLock().unlock();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compacts the sealed segments whose share of outdated records reaches the compaction ratio.
+	 * Compactions are also run in the background when segments are sealed or records become outdated.
+	 * 
+	 * @return the number of compacted segments
+	 * @throws IOException if a segment cannot be compacted
+	 */
+	public int compact() throws IOException
+	{
+		int compactedSegments = 0;
+		
+		synchronized (this.compactionMonitor)
+		{
+			for (Segment segment : new ArrayList<>(this.segments.values()))
+			{
+				if (segment == this.getActiveSegment()) continue;
+				if (segment.getGarbageRatio() < this.compactionRatio) continue;
+				
+				this.compact(segment);
+				compactedSegments++;
+			}
+			
+			if (compactedSegments > 0) this.checkpoint();
+		}
+		
+		return compactedSegments;
+	}
+	
+	/**
+	 * Writes the index to the checkpoint, so the store is opened without scanning the segments written before
+	 * 
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public void checkpoint() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		// Held until the checkpoint has been moved, so concurrent checkpoints are written in the order of their content
+		synchronized (this.writeMonitor)
+		{
+			out.writeLong(CHECKPOINT_MAGIC);
+			out.writeInt(this.activeSegment.number);
+			out.writeLong(this.activeSegment.size);
+			out.writeLong(this.lastTimeStamp);
+			out.writeInt(this.index.size());
+			
+			for (Map.Entry<Integer, Location> entry : this.index.entrySet())
+			{
+				Location location = entry.getValue();
+				
+				out.writeInt(entry.getKey());
+				out.writeInt(location.segment);
+				out.writeLong(location.offset);
+				out.writeInt(location.length);
+				out.writeLong(location.timeStamp);
+			}
+			
+			CRC32 crc = new CRC32();
+			
+			crc.update(bytes.toByteArray());
+			out.writeLong(crc.getValue());
+			
+			Path checkpoint = this.directory.resolve(CHECKPOINT_FILE_NAME);
+			Path tempFile = this.directory.resolve(WriteBatch.TEMP_FILE_PREFIX + CHECKPOINT_FILE_NAME);
+			
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+			{
+				ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+				
+				while (content.hasRemaining()) channel.write(content);
+				
+				channel.force(false);
+			}
+			
+			Files.move(tempFile, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Stops the background compaction, writes the checkpoint, closes the segments and releases the lock on them
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		// Lets a running compaction finish, as interrupting it would close the channels
+		this.compactor.shutdown();
+		
+		try
+		{
+			this.compactor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		synchronized (this.compactionMonitor)
+		{
+			try
+			{
+				this.checkpoint();
+			}
+			finally
+			{
+				this.closeSegments();
+				this.lockChannel.close();
+			}
+		}
+	}
+	
+	private Segment getActiveSegment()
+	{
+		synchronized (this.writeMonitor)
+		{
+			return this.activeSegment;
+		}
+	}
+	
+	private void open() throws IOException
+	{
+		List<Integer> numbers = new ArrayList<>();
+		
+		try (Stream<Path> files = Files.list(this.directory))
+		{
+			for (Path file : (Iterable<Path>) files::iterator)
+			{
+				String name = file.getFileName().toString();
+				
+				if (name.startsWith(WriteBatch.TEMP_FILE_PREFIX)) Files.deleteIfExists(file);
+				else if (name.startsWith(SEGMENT_FILE_PREFIX)) numbers.add(Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length())));
+			}
+		}
+		
+		numbers.sort(null);
+		
+		for (int number : numbers)
+		{
+			Path file = this.getSegmentFile(number);
+			
+			this.segments.put(number, new Segment(number, file, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)));
+		}
+		
+		if (!this.loadCheckpoint())
+		{
+			this.index.clear();
+			
+			for (Segment segment : this.segments.values()) this.replay(segment, 0);
+		}
+		
+		for (Location location : this.index.values())
+		{
+			this.segments.get(location.segment).liveBytes.addAndGet(location.getRecordSize());
+			this.lastTimeStamp = Math.max(this.lastTimeStamp, location.timeStamp);
+		}
+		
+		this.activeSegment = this.segments.isEmpty() ? this.createSegment(1) : this.segments.lastEntry().getValue();
+		this.activeSegment.channel.position(this.activeSegment.size);
+	}
+	
+	private boolean loadCheckpoint() throws IOException
+	{
+		byte[] bytes;
+		
+		try
+		{
+			bytes = Files.readAllBytes(this.directory.resolve(CHECKPOINT_FILE_NAME));
+		}
+		catch (NoSuchFileException e)
+		{
+			return false;
+		}
+		
+		if (bytes.length < 8) return false;
+		
+		CRC32 crc = new CRC32();
+		
+		crc.update(bytes, 0, bytes.length - 8);
+		
+		if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) return false;
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+		
+		if (in.readLong() != CHECKPOINT_MAGIC) return false;
+		
+		int activeNumber = in.readInt();
+		long activeSize = in.readLong();
+		Segment checkpointedSegment = this.segments.get(activeNumber);
+		
+		if ((checkpointedSegment == null) || (checkpointedSegment.size < activeSize)) return false;
+		
+		this.lastTimeStamp = in.readLong();
+		
+		for (int i=in.readInt(); i>0; i--)
+		{
+			int id = in.readInt();
+			Location location = new Location(in.readInt(), in.readLong(), in.readInt(), in.readLong());
+			Segment segment = this.segments.get(location.segment);
+			
+			// Segments compacted after the checkpoint
+			if ((segment == null) || (location.offset + location.getRecordSize() > segment.size)) return false;
+			
+			this.index.put(id, location);
+		}
+		
+		this.replay(checkpointedSegment, activeSize);
+		
+		for (Segment segment : this.segments.tailMap(activeNumber, false).values()) this.replay(segment, 0);
+		
+		return true;
+	}
+	
+	private void replay(Segment segment, long offset) throws IOException
+	{
+		boolean lastSegment = (segment == this.segments.lastEntry().getValue());
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		
+		while (offset + HEADER_SIZE <= segment.size)
+		{
+			header.clear();
+			readFully(segment.channel, header, offset);
+			header.flip();
+			
+			int magic = header.getInt();
+			int id = header.getInt();
+			byte type = header.get();
+			long timeStamp = header.getLong();
+			int length = header.getInt();
+			int crc = header.getInt();
+			
+			if ((magic != RECORD_MAGIC) || (length < 0) || (offset + HEADER_SIZE + length > segment.size)) break;
+			
+			// Torn records are only expected at the end of the last segment
+			if (lastSegment && (crc != this.readCrc(segment, header, offset, length))) break;
+			
+			if (type == DATA) this.index.put(id, new Location(segment.number, offset, length, timeStamp));
+			else this.index.remove(id);
+			
+			offset += HEADER_SIZE + length;
+		}
+		
+		if (lastSegment && (offset < segment.size))
+		{
+			segment.channel.truncate(offset);
+			segment.size = offset;
+		}
+	}
+	
+	private int readCrc(Segment segment, ByteBuffer header, long offset, int length) throws IOException
+	{
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		
+		readFully(segment.channel, payload, offset + HEADER_SIZE);
+		payload.flip();
+		
+		return computeCrc(header, payload);
+	}
+	
+	private static int computeCrc(ByteBuffer header, ByteBuffer payload)
+	{
+		CRC32 crc = new CRC32();
+		
+		// The id, type, time stamp and length
+		crc.update(header.array(), 4, HEADER_SIZE - 8);
+		crc.update(payload.duplicate());
+		
+		return (int) crc.getValue();
+	}
+	
+	private Location append(int id, byte type, long timeStamp, ByteBuffer payload) throws IOException
+	{
+		long recordSize = HEADER_SIZE + (long) payload.remaining();
+		
+		if ((this.activeSegment.size > 0) && (this.activeSegment.size + recordSize > this.maxSegmentSize)) this.roll();
+		
+		Segment segment = this.activeSegment;
+		long offset = segment.size;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		
+		header.putInt(RECORD_MAGIC).putInt(id).put(type).putLong(timeStamp).putInt(payload.remaining());
+		header.putInt(computeCrc(header, payload));
+		header.flip();
+		
+		ByteBuffer[] record = { header, payload };
+		
+		try
+		{
+			while (payload.hasRemaining() || header.hasRemaining()) segment.channel.write(record);
+		}
+		catch (IOException e)
+		{
+			// Removes the partly written record, so later records can be read
+			segment.channel.truncate(offset);
+			segment.channel.position(offset);
+			
+			throw e;
+		}
+		
+		Location location = new Location(segment.number, offset, (int) (recordSize - HEADER_SIZE), timeStamp);
+		Location outdatedLocation;
+		
+		segment.size = offset + recordSize;
+		this.lastTimeStamp = Math.max(this.lastTimeStamp, timeStamp);
+		
+		if (type == DATA)
+		{
+			segment.liveBytes.addAndGet(recordSize);
+			outdatedLocation = this.index.put(id, location);
+		}
+		else
+		{
+			outdatedLocation = this.index.remove(id);
+		}
+		
+		if (outdatedLocation != null)
+		{
+			Segment outdatedSegment = this.segments.get(outdatedLocation.segment);
+			
+			outdatedSegment.liveBytes.addAndGet(-outdatedLocation.getRecordSize());
+			
+			if ((outdatedSegment != segment) && (outdatedSegment.getGarbageRatio() >= this.compactionRatio)) this.scheduleCompaction();
+		}
+		
+		return location;
+	}
+	
+	private void force(Durability durability) throws IOException
+	{
+		if (durability != Durability.NONE) this.activeSegment.channel.force(durability == Durability.FULL);
+	}
+	
+	private void roll() throws IOException
+	{
+		this.activeSegment.channel.force(true);
+		this.activeSegment = this.createSegment(this.activeSegment.number +1);
+		this.checkpoint();
+		this.scheduleCompaction();
+	}
+	
+	private Segment createSegment(int number) throws IOException
+	{
+		Path file = this.getSegmentFile(number);
+		Segment segment = new Segment(number, file, FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		
+		this.segments.put(number, segment);
+		
+		WriteBatch.syncDirectory(this.directory);
+		
+		return segment;
+	}
+	
+	private Path getSegmentFile(int number)
+	{
+		return this.directory.resolve(String.format("%s%010d", SEGMENT_FILE_PREFIX, number));
+	}
+	
+	private void scheduleCompaction()
+	{
+		if (this.compactor == null) return;
+		if (!this.compactionScheduled.compareAndSet(false, true)) return;
+		
+		try
+		{
+			this.compactor.execute(() ->
+			{
+				this.compactionScheduled.set(false);
+				
+				try
+				{
+					this.compact();
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace(System.err);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			// The store has been closed
+			this.compactionScheduled.set(false);
+		}
+	}
+	
+	private void compact(Segment segment) throws IOException
+	{
+		boolean oldestSegment = (this.segments.firstKey() == segment.number);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long offset = 0;
+		
+		while (offset + HEADER_SIZE <= segment.size)
+		{
+			header.clear();
+			readFully(segment.channel, header, offset);
+			header.flip();
+			
+			int magic = header.getInt();
+			int id = header.getInt();
+			byte type = header.get();
+			long timeStamp = header.getLong();
+			int length = header.getInt();
+			
+			if ((magic != RECORD_MAGIC) || (length < 0)) throw new IOException(String.format("corrupt record at %d in %s", offset, segment.file));
+			
+			Location location = this.index.get(id);
+			
+			if ((type == DATA) && (location != null) && (location.segment == segment.number) && (location.offset == offset))
+			{
+				ByteBuffer payload = ByteBuffer.allocate(length);
+				
+				readFully(segment.channel, payload, offset + HEADER_SIZE);
+				payload.flip();
+				
+				synchronized (this.writeMonitor)
+				{
+					// Skips records saved again while the payload was read
+					if (this.index.get(id) == location) this.append(id, DATA, timeStamp, payload);
+				}
+			}
+			else if ((type == TOMBSTONE) && !oldestSegment)
+			{
+				synchronized (this.writeMonitor)
+				{
+					// Older segments may still hold a data record of the id
+					if (!this.index.containsKey(id)) this.append(id, TOMBSTONE, timeStamp, ByteBuffer.allocate(0));
+				}
+			}
+			
+			offset += HEADER_SIZE + (long) length;
+		}
+		
+		synchronized (this.writeMonitor)
+		{
+			this.activeSegment.channel.force(true);
+		}
+		
+		this.segmentsLock.writeLock().lock();
+		
+		try
+		{
+			this.segments.remove(segment.number);
+			segment.channel.close();
+			Files.deleteIfExists(segment.file);
+		}
+		finally
+		{
+			this.segmentsLock.writeLock().unlock();
+		}
+	}
+	
+	private static FileChannel lock(Path directory) throws IOException
+	{
+		FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+		
+		try
+		{
+			lock = channel.tryLock();
+		}
+		catch (OverlappingFileLockException e)
+		{
+			lock = null;
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			
+			throw e;
+		}
+		
+		if (lock == null)
+		{
+			channel.close();
+			
+			throw new IOException(String.format("The segments in %s are opened by another store", directory));
+		}
+		
+		return channel;
+	}
+	
+	private void closeSegments()
+	{
+		for (Segment segment : this.segments.values())
+		{
+			try
+			{
+				segment.channel.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+	
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			
+			if (read < 0) throw new EOFException();
+			
+			position += read;
+		}
+	}
+}
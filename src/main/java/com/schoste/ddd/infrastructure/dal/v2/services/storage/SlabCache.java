@@ -0,0 +1,418 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the content of files held outside of the heap, keyed by the ids of the data objects.
+ * 
+ * The memory of the cache is allocated in slabs of direct {@link ByteBuffer}s, which are split into
+ * chunks of a size class (powers of two from 1 KB up to the size of a slab). A content is stored in
+ * a single chunk of the smallest class it fits into, so it can be read as one buffer without copying it.
+ * Slabs are assigned to a size class when needed and returned once all of their chunks are free.
+ * If the cache is full, the least recently used content of the same size class is evicted. If the size
+ * class holds no content, contents of the class holding most slabs are evicted until a slab is returned.
+ * 
+ * The slabs are allocated once and reused, so the cache does not add to the heap nor to the collected
+ * garbage. Contents larger than a slab are not cached.
+ * 
+ * All methods are thread safe. Contents are copied into and out of the chunks outside of the monitor of the
+ * cache. A read content is pinned until its {@link Handle} is closed and its chunk is not reused before.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class SlabCache
+{
+	/**
+	 * The size of a slab and therefore of the largest cached content if none is given
+	 */
+	public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+	
+	private static final int MIN_CHUNK_SIZE = 1 << 10;
+	
+	private final int slabSize;
+	private final int minChunkSize;
+	private final ByteBuffer[] slabs;
+	private final int[] slabUsedChunks;
+	private final int[] classSlabs;
+	private final ArrayDeque<Integer> freeSlabs = new ArrayDeque<>();
+	private final ArrayDeque<Long>[] freeChunks;
+	private final LinkedHashMap<Integer, Entry>[] lruEntries;
+	private final Map<Integer, Entry> entries = new HashMap<>();
+	private long usedBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	private static final class Entry
+	{
+		private final int key;
+		private final long lastModified;
+		private final int size;
+		private final int sizeClass;
+		private final int slab;
+		private final int offset;
+		private int pins;
+		private boolean removed;
+		
+		private Entry(int key, long lastModified, int size, int sizeClass, int slab, int offset)
+		{
+			this.key = key;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.sizeClass = sizeClass;
+			this.slab = slab;
+			this.offset = offset;
+		}
+	}
+	
+	/**
+	 * A cached content, which stays valid until the handle is closed
+	 */
+	public final class Handle implements AutoCloseable
+	{
+		private final Entry entry;
+		private final ByteBuffer content;
+		private boolean closed;
+		
+		private Handle(Entry entry, ByteBuffer content)
+		{
+			this.entry = entry;
+			this.content = content;
+		}
+		
+		/**
+		 * Gets the cached content. The buffer must not be used after the handle is closed.
+		 * 
+		 * @return a read-only buffer holding the content from its position to its limit
+		 */
+		public ByteBuffer getContent()
+		{
+			return this.content;
+		}
+		
+		/**
+		 * Releases the content
+		 */
+		@Override
+		public void close()
+		{
+			synchronized (SlabCache.this)
+			{
+				if (this.closed) return;
+				
+				this.closed = true;
+				
+				SlabCache.this.release(this.entry);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a cache with slabs of {@link #DEFAULT_SLAB_SIZE} bytes or less if the capacity is smaller
+	 * 
+	 * @param capacity the maximum number of bytes to allocate outside of the heap
+	 * @throws IllegalArgumentException if the capacity is less than 1
+	 */
+	public SlabCache(long capacity) throws IllegalArgumentException
+	{
+		this(capacity, (int) Math.min(DEFAULT_SLAB_SIZE, Math.max(1, capacity)));
+	}
+	
+	/**
+	 * Creates a cache
+	 * 
+	 * @param capacity the maximum number of bytes to allocate outside of the heap; rounded down to whole slabs
+	 * @param slabSize the size of a slab and therefore of the largest cached content
+	 * @throws IllegalArgumentException if the slab size is less than 1 or the capacity is less than a slab
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SlabCache(long capacity, int slabSize) throws IllegalArgumentException
+	{
+		if (slabSize < 1) throw new IllegalArgumentException("slabSize");
+		if (capacity < slabSize) throw new IllegalArgumentException("capacity");
+		if (capacity / slabSize > Integer.MAX_VALUE) throw new IllegalArgumentException("capacity");
+		
+		int numOfSlabs = (int) (capacity / slabSize);
+		int numOfClasses = 1;
+		
+		this.slabSize = slabSize;
+		this.minChunkSize = Math.min(MIN_CHUNK_SIZE, slabSize);
+		
+		for (long chunkSize = this.minChunkSize; chunkSize < slabSize; chunkSize <<= 1) numOfClasses++;
+		
+		this.slabs = new ByteBuffer[numOfSlabs];
+		this.slabUsedChunks = new int[numOfSlabs];
+		this.classSlabs = new int[numOfClasses];
+		this.freeChunks = new ArrayDeque[numOfClasses];
+		this.lruEntries = new LinkedHashMap[numOfClasses];
+		
+		for (int i=0; i<numOfSlabs; i++) this.freeSlabs.add(i);
+		
+		for (int i=0; i<numOfClasses; i++)
+		{
+			this.freeChunks[i] = new ArrayDeque<>();
+			this.lruEntries[i] = new LinkedHashMap<>(16, 0.75f, true);
+		}
+	}
+	
+	/**
+	 * Gets the size of the largest content which can be cached
+	 * 
+	 * @return the size in bytes
+	 */
+	public int getMaxContentSize()
+	{
+		return this.slabSize;
+	}
+	
+	/**
+	 * Gets the maximum number of bytes allocated outside of the heap
+	 * 
+	 * @return the capacity in bytes
+	 */
+	public long getCapacity()
+	{
+		return (long) this.slabs.length * this.slabSize;
+	}
+	
+	/**
+	 * Gets a cached content. A content which was cached for another version of the file is removed.
+	 * The content must be released by closing the handle.
+	 * 
+	 * @param key the id of the data object
+	 * @param lastModified the last modification time of the file
+	 * @param size the size of the file
+	 * @return the handle of the content or null if none is cached for the file
+	 */
+	public synchronized Handle acquire(int key, long lastModified, long size)
+	{
+		Entry entry = this.entries.get(key);
+		
+		if ((entry != null) && ((entry.lastModified != lastModified) || (entry.size != size)))
+		{
+			this.remove(entry);
+			
+			entry = null;
+		}
+		
+		if (entry == null)
+		{
+			this.misses++;
+			
+			return null;
+		}
+		
+		this.hits++;
+		this.lruEntries[entry.sizeClass].get(key);
+		entry.pins++;
+		
+		ByteBuffer content = this.slabs[entry.slab].asReadOnlyBuffer();
+		
+		content.limit(entry.offset + entry.size).position(entry.offset);
+		
+		return new Handle(entry, content.slice());
+	}
+	
+	/**
+	 * Copies a content into the cache, replacing the one cached before
+	 * 
+	 * @param key the id of the data object
+	 * @param lastModified the last modification time of the file
+	 * @param content the content from its position to its limit; the position is not changed
+	 * @return true if the content has been cached, false if it is too large or all memory is pinned
+	 * @throws IllegalArgumentException if the content is null
+	 */
+	public boolean put(int key, long lastModified, ByteBuffer content) throws IllegalArgumentException
+	{
+		if (content == null) throw new IllegalArgumentException("content");
+		
+		int size = content.remaining();
+		Entry entry;
+		
+		synchronized (this)
+		{
+			Entry replaced = this.entries.get(key);
+			
+			if (replaced != null) this.remove(replaced);
+			if (size > this.slabSize) return false;
+			
+			entry = this.allocate(key, lastModified, size);
+			
+			if (entry == null) return false;
+			
+			// Pinned and unpublished while the content is copied
+			entry.pins++;
+		}
+		
+		ByteBuffer chunk = this.slabs[entry.slab].duplicate();
+		
+		chunk.position(entry.offset);
+		chunk.put(content.duplicate());
+		
+		synchronized (this)
+		{
+			Entry replaced = this.entries.get(key);
+			
+			if (replaced != null) this.remove(replaced);
+			
+			this.entries.put(key, entry);
+			this.lruEntries[entry.sizeClass].put(key, entry);
+			this.release(entry);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Removes the cached content of a data object
+	 * 
+	 * @param key the id of the data object
+	 */
+	public synchronized void invalidate(int key)
+	{
+		Entry entry = this.entries.get(key);
+		
+		if (entry != null) this.remove(entry);
+	}
+	
+	/**
+	 * Removes all cached contents. The slabs are kept for reuse.
+	 */
+	public synchronized void clear()
+	{
+		for (Entry entry : this.entries.values().toArray(new Entry[this.entries.size()])) this.remove(entry);
+	}
+	
+	/**
+	 * Gets the statistics of the cache. The weight is the number of bytes of the used chunks.
+	 * 
+	 * @return the current statistics
+	 */
+	public synchronized ObjectCache.Stats getStats()
+	{
+		return new ObjectCache.Stats(this.hits, this.misses, this.evictions, this.entries.size(), this.usedBytes);
+	}
+	
+	private int getSizeClass(int size)
+	{
+		int sizeClass = 0;
+		
+		for (long chunkSize = this.minChunkSize; chunkSize < size; chunkSize <<= 1) sizeClass++;
+		
+		return sizeClass;
+	}
+	
+	private int getChunkSize(int sizeClass)
+	{
+		return (int) Math.min(this.slabSize, (long) this.minChunkSize << sizeClass);
+	}
+	
+	private Entry allocate(int key, long lastModified, int size)
+	{
+		int sizeClass = this.getSizeClass(size);
+		int chunkSize = this.getChunkSize(sizeClass);
+		
+		while (this.freeChunks[sizeClass].isEmpty())
+		{
+			if (!this.freeSlabs.isEmpty())
+			{
+				this.assignSlab(this.freeSlabs.poll(), sizeClass);
+				
+				break;
+			}
+			
+			int evictedClass = this.lruEntries[sizeClass].isEmpty() ? this.getLargestClass() : sizeClass;
+			
+			if ((evictedClass < 0) || !this.evict(evictedClass)) return null;
+		}
+		
+		long chunk = this.freeChunks[sizeClass].poll();
+		int slab = (int) (chunk >>> 32);
+		
+		this.slabUsedChunks[slab]++;
+		this.usedBytes += chunkSize;
+		
+		return new Entry(key, lastModified, size, sizeClass, slab, (int) chunk);
+	}
+	
+	private void assignSlab(int slab, int sizeClass)
+	{
+		int chunkSize = this.getChunkSize(sizeClass);
+		
+		if (this.slabs[slab] == null) this.slabs[slab] = ByteBuffer.allocateDirect(this.slabSize);
+		
+		this.classSlabs[sizeClass]++;
+		
+		for (int offset=0; offset + chunkSize <= this.slabSize; offset += chunkSize)
+		{
+			this.freeChunks[sizeClass].add(((long) slab << 32) | offset);
+		}
+	}
+	
+	private int getLargestClass()
+	{
+		int largestClass = -1;
+		
+		for (int i=0; i<this.classSlabs.length; i++)
+		{
+			if (this.lruEntries[i].isEmpty()) continue;
+			if ((largestClass < 0) || (this.classSlabs[i] > this.classSlabs[largestClass])) largestClass = i;
+		}
+		
+		return largestClass;
+	}
+	
+	private boolean evict(int sizeClass)
+	{
+		for (Iterator<Entry> lruEntries = this.lruEntries[sizeClass].values().iterator(); lruEntries.hasNext(); )
+		{
+			Entry entry = lruEntries.next();
+			
+			if (entry.pins > 0) continue;
+			
+			this.remove(entry);
+			this.evictions++;
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	private void remove(Entry entry)
+	{
+		this.entries.remove(entry.key);
+		this.lruEntries[entry.sizeClass].remove(entry.key);
+		
+		entry.removed = true;
+		
+		if (entry.pins == 0) this.free(entry);
+	}
+	
+	private void release(Entry entry)
+	{
+		entry.pins--;
+		
+		if ((entry.pins == 0) && entry.removed) this.free(entry);
+	}
+	
+	private void free(Entry entry)
+	{
+		int slab = entry.slab;
+		
+		this.usedBytes -= this.getChunkSize(entry.sizeClass);
+		this.freeChunks[entry.sizeClass].add(((long) slab << 32) | entry.offset);
+		
+		if (--this.slabUsedChunks[slab] > 0) return;
+		
+		// Returns the empty slab, so it can be assigned to another size class
+		this.freeChunks[entry.sizeClass].removeIf(chunk -> (chunk >>> 32) == slab);
+		this.classSlabs[entry.sizeClass]--;
+		this.freeSlabs.add(slab);
+	}
+}
@@ -0,0 +1,499 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable file packing the content of all data objects of a store, e.g. to start read replicas
+ * without opening a file per data object.
+ * 
+ * The file starts with a magic number, followed by the contents of the data objects and an index of
+ * fixed-width entries sorted by id (id, length, offset, created and modified time stamp). A trailer at the
+ * end holds the position and number of the entries. Snapshots are written by a {@link Writer} and opened
+ * with {@link #SnapshotFile(Path)}, which maps the file into memory. Contents are then found by a binary
+ * search of the index and returned as buffers of the mapping, without copying them.
+ * 
+ * All methods of opened snapshots are thread safe.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class SnapshotFile implements Closeable
+{
+	private static final long MAGIC = 0x44414F534E415031L;
+	private static final int ENTRY_SIZE = 32;
+	private static final int TRAILER_SIZE = 24;
+	private static final int REGION_SIZE = 1 << 30;
+	
+	private final Path file;
+	private final FileChannel channel;
+	private final MappedByteBuffer[] regions;
+	private final ByteBuffer index;
+	private final int size;
+	
+	/**
+	 * A data object of a snapshot
+	 */
+	public static final class Entry
+	{
+		private final int id;
+		private final long createdTimeStamp;
+		private final long modifiedTimeStamp;
+		private final ByteBuffer content;
+		
+		private Entry(int id, long createdTimeStamp, long modifiedTimeStamp, ByteBuffer content)
+		{
+			this.id = id;
+			this.createdTimeStamp = createdTimeStamp;
+			this.modifiedTimeStamp = modifiedTimeStamp;
+			this.content = content;
+		}
+		
+		/**
+		 * Gets the id of the data object
+		 * 
+		 * @return the id
+		 */
+		public int getId()
+		{
+			return this.id;
+		}
+		
+		/**
+		 * Gets the time stamp the data object has been created at
+		 * 
+		 * @return the time stamp in milliseconds
+		 */
+		public long getCreatedTimeStamp()
+		{
+			return this.createdTimeStamp;
+		}
+		
+		/**
+		 * Gets the time stamp the data object has been modified at
+		 * 
+		 * @return the time stamp in milliseconds
+		 */
+		public long getModifiedTimeStamp()
+		{
+			return this.modifiedTimeStamp;
+		}
+		
+		/**
+		 * Gets the content of the data object
+		 * 
+		 * @return a read-only buffer of the mapped snapshot; a copy in the heap if the content crosses the border of two mapped regions
+		 */
+		public ByteBuffer getContent()
+		{
+			return this.content.duplicate();
+		}
+	}
+	
+	/**
+	 * Writes a snapshot into a temporary file, which replaces the snapshot file when committed.
+	 * Contents are written as they are added, the index is kept in memory until the commit.
+	 * Writers are not thread safe.
+	 */
+	public static final class Writer implements Closeable
+	{
+		private final Path file;
+		private final Path tempFile;
+		private final FileChannel channel;
+		private final List<long[]> entries = new ArrayList<>();
+		private boolean committed;
+		
+		/**
+		 * Starts a snapshot
+		 * 
+		 * @param file the snapshot file to write
+		 * @throws IllegalArgumentException if the file is null
+		 * @throws IOException if the temporary file cannot be created
+		 */
+		public Writer(Path file) throws IllegalArgumentException, IOException
+		{
+			if (file == null) throw new IllegalArgumentException("file");
+			
+			this.file = file.toAbsolutePath();
+			this.tempFile = this.file.resolveSibling(WriteBatch.TEMP_FILE_PREFIX + this.file.getFileName());
+			this.channel = FileChannel.open(this.tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			
+			ByteBuffer magic = ByteBuffer.allocate(8).putLong(0, MAGIC);
+			
+			writeFully(this.channel, magic);
+		}
+		
+		/**
+		 * Adds the content of a data object
+		 * 
+		 * @param id the id of the data object
+		 * @param createdTimeStamp the time stamp the data object has been created at
+		 * @param modifiedTimeStamp the time stamp the data object has been modified at
+		 * @param content the content from its position to its limit; the position is not changed
+		 * @throws IllegalArgumentException if the id is less than 1 or the content is null
+		 * @throws IOException if the content cannot be written
+		 */
+		public void add(int id, long createdTimeStamp, long modifiedTimeStamp, ByteBuffer content) throws IllegalArgumentException, IOException
+		{
+			if (id < 1) throw new IllegalArgumentException("id");
+			if (content == null) throw new IllegalArgumentException("content");
+			
+			long offset = this.channel.position();
+			
+			writeFully(this.channel, content.duplicate());
+			
+			this.entries.add(new long[] { id, content.remaining(), offset, createdTimeStamp, modifiedTimeStamp });
+		}
+		
+		/**
+		 * Adds the content of a data object read from a file with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+		 * 
+		 * @param id the id of the data object
+		 * @param createdTimeStamp the time stamp the data object has been created at
+		 * @param modifiedTimeStamp the time stamp the data object has been modified at
+		 * @param source the channel of the file holding the content
+		 * @throws IllegalArgumentException if the id is less than 1, the source is null or larger than Integer.MAX_VALUE bytes
+		 * @throws IOException if the content cannot be read or written
+		 */
+		public void add(int id, long createdTimeStamp, long modifiedTimeStamp, FileChannel source) throws IllegalArgumentException, IOException
+		{
+			if (id < 1) throw new IllegalArgumentException("id");
+			if ((source == null) || (source.size() > Integer.MAX_VALUE)) throw new IllegalArgumentException("source");
+			
+			long offset = this.channel.position();
+			long length = source.size();
+			
+			for (long position = 0; position < length; )
+			{
+				long transferred = source.transferTo(position, length - position, this.channel);
+				
+				if (transferred <= 0) throw new IOException("source truncated");
+				
+				position += transferred;
+			}
+			
+			this.entries.add(new long[] { id, length, offset, createdTimeStamp, modifiedTimeStamp });
+		}
+		
+		/**
+		 * Gets the number of data objects added
+		 * 
+		 * @return the number of data objects
+		 */
+		public int getSize()
+		{
+			return this.entries.size();
+		}
+		
+		/**
+		 * Writes the index, forces the snapshot to the storage device and moves it over the snapshot file
+		 * 
+		 * @throws IllegalStateException if an id has been added twice
+		 * @throws IOException if the snapshot cannot be written
+		 */
+		public void commit() throws IllegalStateException, IOException
+		{
+			long indexOffset = this.channel.position();
+			ByteBuffer buffer = ByteBuffer.allocate(64 * ENTRY_SIZE);
+			
+			this.entries.sort((a, b) -> Long.compare(a[0], b[0]));
+			
+			for (int i=0; i<this.entries.size(); i++)
+			{
+				long[] entry = this.entries.get(i);
+				
+				if ((i > 0) && (this.entries.get(i -1)[0] == entry[0])) throw new IllegalStateException(String.format("id %d added twice", entry[0]));
+				if (!buffer.hasRemaining())
+				{
+					buffer.flip();
+					writeFully(this.channel, buffer);
+					buffer.clear();
+				}
+				
+				buffer.putInt((int) entry[0]).putInt((int) entry[1]).putLong(entry[2]).putLong(entry[3]).putLong(entry[4]);
+			}
+			
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			
+			trailer.putLong(indexOffset).putInt(this.entries.size()).putInt(ENTRY_SIZE).putLong(MAGIC);
+			buffer.flip();
+			trailer.flip();
+			writeFully(this.channel, buffer);
+			writeFully(this.channel, trailer);
+			
+			this.channel.force(true);
+			this.channel.close();
+			
+			Files.move(this.tempFile, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			WriteBatch.syncDirectory(this.file.getParent());
+			
+			this.committed = true;
+		}
+		
+		/**
+		 * Deletes the temporary file if the snapshot has not been committed
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if (this.committed) return;
+			
+			this.channel.close();
+			
+			Files.deleteIfExists(this.tempFile);
+		}
+		
+		private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+		{
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Opens a snapshot and maps it into memory
+	 * 
+	 * @param file the snapshot file
+	 * @throws IllegalArgumentException if the file is null
+	 * @throws IOException if the file cannot be mapped or is no snapshot
+	 */
+	public SnapshotFile(Path file) throws IllegalArgumentException, IOException
+	{
+		if (file == null) throw new IllegalArgumentException("file");
+		
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		
+		try
+		{
+			long fileSize = this.channel.size();
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			
+			if (fileSize < 8 + TRAILER_SIZE) throw new StreamCorruptedException(file.toString());
+			
+			while (trailer.hasRemaining())
+			{
+				if (this.channel.read(trailer, fileSize - TRAILER_SIZE + trailer.position()) < 0) throw new StreamCorruptedException(file.toString());
+			}
+			
+			trailer.flip();
+			
+			long indexOffset = trailer.getLong();
+			int size = trailer.getInt();
+			int entrySize = trailer.getInt();
+			
+			if ((trailer.getLong() != MAGIC) || (entrySize != ENTRY_SIZE) || (size < 0) || (indexOffset + (long) size * ENTRY_SIZE != fileSize - TRAILER_SIZE))
+			{
+				throw new StreamCorruptedException(file.toString());
+			}
+			
+			this.regions = new MappedByteBuffer[(int) ((indexOffset + REGION_SIZE -1) / REGION_SIZE)];
+			
+			for (int i=0; i<this.regions.length; i++)
+			{
+				long position = (long) i * REGION_SIZE;
+				
+				this.regions[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, indexOffset - position));
+			}
+			
+			this.index = this.channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) size * ENTRY_SIZE);
+			this.size = size;
+		}
+		catch (IOException e)
+		{
+			this.channel.close();
+			
+			throw e;
+		}
+	}
+	
+	/**
+	 * Gets the snapshot file
+	 * 
+	 * @return the path to the file
+	 */
+	public Path getFile()
+	{
+		return this.file;
+	}
+	
+	/**
+	 * Gets the number of data objects in the snapshot
+	 * 
+	 * @return the number of data objects
+	 */
+	public int getSize()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Gets a data object of the snapshot
+	 * 
+	 * @param id the id of the data object
+	 * @return the data object or null if the snapshot does not hold the id
+	 */
+	public Entry get(int id)
+	{
+		int position = this.find(id);
+		
+		return (position < 0) ? null : this.getEntry(position);
+	}
+	
+	/**
+	 * Gets the ids of the data objects modified after a time stamp
+	 * 
+	 * @param timeStamp the time stamp
+	 * @return the ids in ascending order
+	 */
+	public Collection<Integer> getIds(long timeStamp)
+	{
+		List<Integer> ids = new ArrayList<>();
+		
+		for (int i=0; i<this.size; i++)
+		{
+			int offset = i * ENTRY_SIZE;
+			
+			if (this.index.getLong(offset + 24) > timeStamp) ids.add(this.index.getInt(offset));
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * Gets the largest id of the snapshot
+	 * 
+	 * @return the largest id or 0 if the snapshot is empty
+	 */
+	public int getLargestId()
+	{
+		return (this.size == 0) ? 0 : this.index.getInt((this.size -1) * ENTRY_SIZE);
+	}
+	
+	/**
+	 * Writes a range of the content of a data object to a channel with
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+	 * 
+	 * @param id the id of the data object
+	 * @param offset the position in the content to start at
+	 * @param length the maximum number of bytes to write; the transfer stops at the end of the content
+	 * @param target the channel to write to
+	 * @return the number of bytes written or -1 if the snapshot does not hold the id
+	 * @throws IOException if the snapshot cannot be read or the target cannot be written
+	 */
+	public long transferTo(int id, long offset, long length, WritableByteChannel target) throws IOException
+	{
+		int position = this.find(id);
+		
+		if (position < 0) return -1;
+		
+		int entryOffset = position * ENTRY_SIZE;
+		int contentLength = this.index.getInt(entryOffset + 4);
+		long contentOffset = this.index.getLong(entryOffset + 8);
+		long start = Math.max(0, Math.min(offset, contentLength));
+		long end = start + Math.min(Math.max(0, length), contentLength - start);
+		long transferPosition = start;
+		
+		while (transferPosition < end)
+		{
+			long transferred = this.channel.transferTo(contentOffset + transferPosition, end - transferPosition, target);
+			
+			if (transferred <= 0) break;
+			
+			transferPosition += transferred;
+		}
+		
+		return transferPosition - start;
+	}
+	
+	/**
+	 * Closes the file. Buffers returned before remain valid until they are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		this.channel.close();
+	}
+	
+	/**
+	 * Searches the index for an id
+	 * 
+	 * @param id the id
+	 * @return the position of its entry or -1 if the snapshot does not hold the id
+	 */
+	private int find(int id)
+	{
+		int low = 0;
+		int high = this.size -1;
+		
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int middleId = this.index.getInt(middle * ENTRY_SIZE);
+			
+			if (middleId < id) low = middle +1;
+			else if (middleId > id) high = middle -1;
+			else return middle;
+		}
+		
+		return -1;
+	}
+	
+	private Entry getEntry(int position)
+	{
+		int offset = position * ENTRY_SIZE;
+		int id = this.index.getInt(offset);
+		int length = this.index.getInt(offset + 4);
+		long contentOffset = this.index.getLong(offset + 8);
+		
+		return new Entry(id, this.index.getLong(offset + 16), this.index.getLong(offset + 24), this.getContent(contentOffset, length));
+	}
+	
+	private ByteBuffer getContent(long offset, int length)
+	{
+		int region = (int) (offset / REGION_SIZE);
+		int regionOffset = (int) (offset % REGION_SIZE);
+		
+		if (length == 0) return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		
+		if (regionOffset + (long) length <= REGION_SIZE)
+		{
+			ByteBuffer content = this.regions[region].duplicate();
+			
+			content.position(regionOffset);
+			content.limit(regionOffset + length);
+			
+			return content.slice().asReadOnlyBuffer();
+		}
+		
+		// Contents crossing the border of two regions are copied
+		ByteBuffer content = ByteBuffer.allocate(length);
+		
+		for (long position = offset; content.hasRemaining(); )
+		{
+			ByteBuffer regionContent = this.regions[(int) (position / REGION_SIZE)].duplicate();
+			int start = (int) (position % REGION_SIZE);
+			int chunkLength = Math.min(content.remaining(), regionContent.capacity() - start);
+			
+			regionContent.position(start);
+			regionContent.limit(start + chunkLength);
+			content.put(regionContent);
+			
+			position += chunkLength;
+		}
+		
+		content.flip();
+		
+		return content.asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,21 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+/**
+ * Defines how the DAOs store their data objects.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public enum StorageEngine
+{
+	/**
+	 * Every data object is stored in a file of its own, named by its id.
+	 * This is the behavior of previous versions.
+	 */
+	FILES,
+	
+	/**
+	 * The data objects are appended as records to large segment files (see {@link SegmentStore}).
+	 * Saves do not create files and small data objects do not occupy a block of the file system each.
+	 */
+	SEGMENTS
+}
@@ -0,0 +1,202 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Maps the ids of data objects to the paths of their files in a storage directory.
+ * 
+ * A flat layout places all files directly in the storage directory. A sharded layout places them
+ * in a fixed number of levels of sub-directories, each level holding at most 256 sub-directories
+ * named by one byte of the id (lowest byte first), e.g. {@code dp/gj/1497000255}. The bytes are written
+ * as two hexadecimal digits using the letters a-p instead of 0-9a-f, so the name of a sub-directory
+ * never equals the name of a file, which is a number.
+ * This keeps the directories small for stores with millions of data objects.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class StorageLayout
+{
+	/**
+	 * The maximum number of levels of sub-directories
+	 */
+	public static final int MAX_LEVELS = 3;
+	
+	/**
+	 * The layout placing all files directly in the storage directory
+	 */
+	public static final StorageLayout FLAT = new StorageLayout(0);
+	
+	/**
+	 * The layout placing the files in two levels of sub-directories (up to 65536 directories)
+	 */
+	public static final StorageLayout SHARDED = new StorageLayout(2);
+	
+	private static final char[] SHARD_DIGITS = "abcdefghijklmnop".toCharArray();
+	
+	private final int levels;
+	
+	/**
+	 * Creates a layout with a given number of levels of sub-directories
+	 * 
+	 * @param levels the number of levels; 0 for a flat layout
+	 * @throws IllegalArgumentException if the number of levels is negative or greater than {@value #MAX_LEVELS}
+	 */
+	public StorageLayout(int levels) throws IllegalArgumentException
+	{
+		if ((levels < 0) || (levels > MAX_LEVELS)) throw new IllegalArgumentException("levels");
+		
+		this.levels = levels;
+	}
+	
+	/**
+	 * Gets the number of levels of sub-directories
+	 * 
+	 * @return the number of levels
+	 */
+	public int getLevels()
+	{
+		return this.levels;
+	}
+	
+	/**
+	 * Checks if all files are placed directly in the storage directory
+	 * 
+	 * @return true if the layout is flat, false otherwise
+	 */
+	public boolean isFlat()
+	{
+		return (this.levels == 0);
+	}
+	
+	/**
+	 * Gets the path to the file of a data object in this layout
+	 * 
+	 * @param directory the storage directory
+	 * @param id the id of the data object
+	 * @return the path to the file
+	 */
+	public Path resolve(Path directory, int id)
+	{
+		Path path = directory;
+		
+		for (int level=0; level<this.levels; level++)
+		{
+			int shard = (id >>> (8 * level)) & 0xFF;
+			
+			path = path.resolve(new String(new char[] { SHARD_DIGITS[shard >>> 4], SHARD_DIGITS[shard & 0xF] }));
+		}
+		
+		return path.resolve(String.valueOf(id));
+	}
+	
+	/**
+	 * Gets the path to the existing file of a data object. If the file does not exist in this layout,
+	 * the file placed directly in the storage directory (i.e. in a flat store not migrated yet) is used.
+	 * 
+	 * @param directory the storage directory
+	 * @param id the id of the data object
+	 * @return the path to the existing file or the path in this layout if no file exists
+	 */
+	public Path find(Path directory, int id)
+	{
+		Path path = this.resolve(directory, id);
+		
+		if (this.isFlat() || Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return path;
+		
+		Path flatPath = directory.resolve(String.valueOf(id));
+		
+		return Files.exists(flatPath, LinkOption.NOFOLLOW_LINKS) ? flatPath : path;
+	}
+	
+	/**
+	 * Moves the files of all data objects in a storage directory to their paths in this layout
+	 * and removes the sub-directories left empty. Must not run concurrently with writes to the directory.
+	 * 
+	 * @param directory the storage directory
+	 * @return the number of files moved
+	 * @throws IOException re-throws every exception
+	 */
+	public int migrate(Path directory) throws IOException
+	{
+		List<Path> files;
+		int movedFiles = 0;
+		
+		try (Stream<Path> paths = Files.walk(directory))
+		{
+			files = paths.filter(DirectoryScanner::isDataObjectFile).filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)).collect(Collectors.toList());
+		}
+		
+		for (Path file : files)
+		{
+			Path target = this.resolve(directory, DirectoryScanner.getDataObjectId(file));
+			
+			if (target.equals(file)) continue;
+			
+			Files.createDirectories(target.getParent());
+			Files.move(file, target);
+			
+			movedFiles++;
+		}
+		
+		this.removeEmptyShards(directory);
+		
+		return movedFiles;
+	}
+	
+	private void removeEmptyShards(Path directory) throws IOException
+	{
+		List<Path> shards = new ArrayList<>();
+		
+		try (Stream<Path> paths = Files.walk(directory, MAX_LEVELS))
+		{
+			paths
+				.filter(path -> !path.equals(directory))
+				.filter(path -> isShardName(path.getFileName().toString()))
+				.filter(path -> Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+				.sorted(Comparator.comparing(Path::getNameCount).reversed())
+				.forEach(shards::add);
+		}
+		
+		for (Path shard : shards)
+		{
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(shard))
+			{
+				if (entries.iterator().hasNext()) continue;
+			}
+			
+			Files.delete(shard);
+		}
+	}
+	
+	private static boolean isShardName(String name)
+	{
+		return (name.length() == 2) && (name.charAt(0) >= 'a') && (name.charAt(0) <= 'p') && (name.charAt(1) >= 'a') && (name.charAt(1) <= 'p');
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		return (obj instanceof StorageLayout) && (((StorageLayout) obj).levels == this.levels);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return this.levels;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("%s[levels=%d]", this.getClass().getSimpleName(), this.levels);
+	}
+}
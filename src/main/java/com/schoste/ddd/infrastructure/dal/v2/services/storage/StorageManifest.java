@@ -0,0 +1,563 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Append-only journal of the saves and deletes in a storage directory.
+ * 
+ * The manifest is the file {@value #FILE_NAME} in the storage directory. It starts with a header holding
+ * a generation number followed by fixed size records of the id of the data object, a sequence number and
+ * the operation. Readers remember a {@link Cursor} and only read the records appended since then, so
+ * loading the changes costs O(changes) instead of O(objects in the store).
+ * 
+ * Whenever the manifest is compacted or rebuilt, it gets a new generation and cursors of the previous
+ * generation become stale. {@link #readChanges(Cursor)} returns null for stale cursors, in which case
+ * the reader has to fall back to a directory scan.
+ * 
+ * Several processes may append to the same manifest. Appends are serialized by a file lock on
+ * {@value #LOCK_FILE_NAME}. All writers of a storage directory must use the manifest, otherwise their
+ * changes are not seen by readers relying on it.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class StorageManifest
+{
+	/**
+	 * The name of the manifest file in the storage directory
+	 */
+	public static final String FILE_NAME = ".manifest";
+	
+	/**
+	 * The name of the file locked while the manifest is written
+	 */
+	public static final String LOCK_FILE_NAME = ".manifest.lock";
+	
+	private static final int MAGIC = 0x44414F4D;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 13;
+	
+	/**
+	 * Monitors serializing the writers of a manifest within this JVM, as file locks are held per process.
+	 * The monitors are only referenced weakly, so the entry of a directory is removed once no manifest of it is left.
+	 */
+	private static final Map<Path, MonitorReference> MONITORS = new HashMap<>();
+	
+	/**
+	 * The references to the monitors which have been garbage collected
+	 */
+	private static final ReferenceQueue<Object> RELEASED_MONITORS = new ReferenceQueue<>();
+	
+	/**
+	 * The operations recorded in the manifest
+	 */
+	public enum Operation
+	{
+		/**
+		 * The data object was created or modified
+		 */
+		SAVE,
+		
+		/**
+		 * The data object was deleted
+		 */
+		DELETE
+	}
+	
+	/**
+	 * Position of a reader in the manifest
+	 */
+	public static final class Cursor
+	{
+		private final long generation;
+		private final long offset;
+		
+		private Cursor(long generation, long offset)
+		{
+			this.generation = generation;
+			this.offset = offset;
+		}
+		
+		/**
+		 * Gets the generation of the manifest the cursor belongs to
+		 * 
+		 * @return the generation
+		 */
+		public long getGeneration()
+		{
+			return this.generation;
+		}
+		
+		/**
+		 * Gets the number of records before the cursor
+		 * 
+		 * @return the sequence number of the next record
+		 */
+		public long getSequence()
+		{
+			return (this.offset - HEADER_SIZE) / RECORD_SIZE;
+		}
+	}
+	
+	/**
+	 * The changes read from the manifest
+	 */
+	public static final class Changes
+	{
+		private final Collection<Integer> savedIds;
+		private final Collection<Integer> deletedIds;
+		private final Cursor cursor;
+		
+		private Changes(Collection<Integer> savedIds, Collection<Integer> deletedIds, Cursor cursor)
+		{
+			this.savedIds = savedIds;
+			this.deletedIds = deletedIds;
+			this.cursor = cursor;
+		}
+		
+		/**
+		 * Gets the ids of the data objects whose last recorded operation is a save
+		 * 
+		 * @return the ids in the order of their last save
+		 */
+		public Collection<Integer> getSavedIds()
+		{
+			return this.savedIds;
+		}
+		
+		/**
+		 * Gets the ids of the data objects whose last recorded operation is a delete
+		 * 
+		 * @return the ids in the order of their deletion
+		 */
+		public Collection<Integer> getDeletedIds()
+		{
+			return this.deletedIds;
+		}
+		
+		/**
+		 * Gets the cursor pointing behind the last record read
+		 * 
+		 * @return the cursor to continue reading from
+		 */
+		public Cursor getCursor()
+		{
+			return this.cursor;
+		}
+	}
+	
+	/**
+	 * Weak reference to the monitor of a directory
+	 */
+	private static final class MonitorReference extends WeakReference<Object>
+	{
+		private final Path directory;
+		
+		private MonitorReference(Path directory, Object monitor)
+		{
+			super(monitor, RELEASED_MONITORS);
+			
+			this.directory = directory;
+		}
+	}
+	
+	private final Path directory;
+	private final Path manifestPath;
+	private final Path lockPath;
+	private final Object monitor;
+	
+	/**
+	 * Creates a manifest for a storage directory. The manifest file is not created until
+	 * it is written for the first time.
+	 * 
+	 * @param directory the storage directory
+	 * @throws IllegalArgumentException if the directory is null
+	 */
+	public StorageManifest(Path directory) throws IllegalArgumentException
+	{
+		if (directory == null) throw new IllegalArgumentException("directory");
+		
+		this.directory = directory;
+		this.manifestPath = directory.resolve(FILE_NAME);
+		this.lockPath = directory.resolve(LOCK_FILE_NAME);
+		this.monitor = getMonitor(directory.toAbsolutePath().normalize());
+	}
+	
+	/**
+	 * Gets the path of the manifest file
+	 * 
+	 * @return the path of the manifest file
+	 */
+	public Path getPath()
+	{
+		return this.manifestPath;
+	}
+	
+	/**
+	 * Checks if the manifest file exists
+	 * 
+	 * @return true if the manifest file exists, false otherwise
+	 */
+	public boolean exists()
+	{
+		return Files.exists(this.manifestPath);
+	}
+	
+	/**
+	 * Records an operation on a data object. If the manifest does not exist,
+	 * it is rebuilt from a scan of the storage directory first.
+	 * 
+	 * @param id the id of the data object
+	 * @param operation the operation
+	 * @throws IOException if the manifest cannot be written
+	 */
+	public void append(int id, Operation operation) throws IOException
+	{
+		this.append(new int[] { id }, operation);
+	}
+	
+	/**
+	 * Records the same operation on several data objects. If the manifest does not exist,
+	 * it is rebuilt from a scan of the storage directory first.
+	 * 
+	 * @param ids the ids of the data objects
+	 * @param operation the operation
+	 * @throws IOException if the manifest cannot be written
+	 */
+	public void append(int[] ids, Operation operation) throws IOException
+	{
+		if (ids == null) throw new IllegalArgumentException("ids");
+		if (operation == null) throw new IllegalArgumentException("operation");
+		if (ids.length < 1) return;
+		
+		synchronized (this.monitor)
+		{
+			FileChannel lockChannel = this.lock();
+			
+			try
+			{
+				if (this.readCursor() == null) this.write(this.scanDirectory());
+				
+				try (FileChannel channel = FileChannel.open(this.manifestPath, StandardOpenOption.WRITE))
+				{
+					long end = alignToRecord(channel.size());
+					long sequence = (end - HEADER_SIZE) / RECORD_SIZE;
+					ByteBuffer records = ByteBuffer.allocate(ids.length * RECORD_SIZE);
+					
+					for (int id : ids)
+					{
+						records.putInt(id);
+						records.putLong(sequence++);
+						records.put((byte) operation.ordinal());
+					}
+					
+					records.flip();
+					
+					while (records.hasRemaining()) end += channel.write(records, end);
+				}
+			}
+			finally
+			{
+				lockChannel.close();
+			}
+		}
+	}
+	
+	/**
+	 * Gets a cursor pointing behind the last record of the manifest. If the manifest does not exist,
+	 * it is rebuilt from a scan of the storage directory first.
+	 * 
+	 * @return the cursor
+	 * @throws IOException if the manifest cannot be read or rebuilt
+	 */
+	public Cursor getCursor() throws IOException
+	{
+		Cursor cursor = this.readCursor();
+		
+		return (cursor != null) ? cursor : this.rebuild();
+	}
+	
+	/**
+	 * Reads the changes recorded since a cursor. If a data object has been recorded more than
+	 * once, only its last operation is returned.
+	 * 
+	 * @param since the cursor to read from
+	 * @return the changes or null if the cursor is null or stale, or the manifest does not exist
+	 * @throws IOException if the manifest cannot be read
+	 */
+	public Changes readChanges(Cursor since) throws IOException
+	{
+		if (since == null) return null;
+		
+		try (FileChannel channel = FileChannel.open(this.manifestPath, StandardOpenOption.READ))
+		{
+			Long generation = this.readGeneration(channel);
+			long end = alignToRecord(channel.size());
+			
+			if ((generation == null) || (generation != since.generation) || (end < since.offset)) return null;
+			
+			Map<Integer, Operation> lastOperations = new LinkedHashMap<>();
+			ByteBuffer records = ByteBuffer.allocate((int) Math.min(end - since.offset, RECORD_SIZE * 4096L));
+			long position = since.offset;
+			
+			while (position < end)
+			{
+				records.clear();
+				records.limit((int) Math.min(records.capacity(), end - position));
+				
+				while (records.hasRemaining())
+				{
+					int read = channel.read(records, position + records.position());
+					
+					if (read < 0) throw new IOException(this.manifestPath.toString());
+				}
+				
+				records.flip();
+				
+				while (records.remaining() >= RECORD_SIZE)
+				{
+					int id = records.getInt();
+					
+					records.getLong();
+					
+					Operation operation = Operation.values()[records.get()];
+					
+					lastOperations.remove(id);
+					lastOperations.put(id, operation);
+				}
+				
+				position += records.limit();
+			}
+			
+			Collection<Integer> savedIds = new ArrayList<>();
+			Collection<Integer> deletedIds = new ArrayList<>();
+			
+			for (Map.Entry<Integer, Operation> lastOperation : lastOperations.entrySet())
+			{
+				if (lastOperation.getValue() == Operation.SAVE) savedIds.add(lastOperation.getKey());
+				else deletedIds.add(lastOperation.getKey());
+			}
+			
+			return new Changes(savedIds, deletedIds, new Cursor(generation, end));
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the number of records in the manifest
+	 * 
+	 * @return the number of records or 0 if the manifest does not exist
+	 * @throws IOException if the size of the manifest cannot be read
+	 */
+	public long getRecordCount() throws IOException
+	{
+		Cursor cursor = this.readCursor();
+		
+		return (cursor != null) ? cursor.getSequence() : 0;
+	}
+	
+	/**
+	 * Rewrites the manifest with one record per data object whose last operation is a save.
+	 * Cursors of the previous generation become stale.
+	 * 
+	 * @return the cursor pointing behind the last record of the compacted manifest
+	 * @throws IOException if the manifest cannot be read or written
+	 */
+	public Cursor compact() throws IOException
+	{
+		synchronized (this.monitor)
+		{
+			FileChannel lockChannel = this.lock();
+			
+			try
+			{
+				Cursor cursor = this.readCursor();
+				Changes changes = (cursor != null) ? this.readChanges(new Cursor(cursor.generation, HEADER_SIZE)) : null;
+				
+				return this.write((changes != null) ? changes.getSavedIds() : this.scanDirectory());
+			}
+			finally
+			{
+				lockChannel.close();
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the manifest from a scan of the storage directory.
+	 * Cursors of the previous generation become stale.
+	 * 
+	 * @return the cursor pointing behind the last record of the rebuilt manifest
+	 * @throws IOException if the directory cannot be scanned or the manifest cannot be written
+	 */
+	public Cursor rebuild() throws IOException
+	{
+		synchronized (this.monitor)
+		{
+			FileChannel lockChannel = this.lock();
+			
+			try
+			{
+				return this.write(this.scanDirectory());
+			}
+			finally
+			{
+				lockChannel.close();
+			}
+		}
+	}
+	
+	private static Object getMonitor(Path directory)
+	{
+		synchronized (MONITORS)
+		{
+			Reference<?> released;
+			
+			while ((released = RELEASED_MONITORS.poll()) != null) MONITORS.remove(((MonitorReference) released).directory, released);
+			
+			MonitorReference reference = MONITORS.get(directory);
+			Object monitor = (reference != null) ? reference.get() : null;
+			
+			if (monitor == null)
+			{
+				monitor = new Object();
+				MONITORS.put(directory, new MonitorReference(directory, monitor));
+			}
+			
+			return monitor;
+		}
+	}
+	
+	private FileChannel lock() throws IOException
+	{
+		FileChannel lockChannel = FileChannel.open(this.lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		
+		try
+		{
+			// Released by closing the channel
+			lockChannel.lock();
+			
+			return lockChannel;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			lockChannel.close();
+			
+			throw e;
+		}
+	}
+	
+	private Cursor readCursor() throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(this.manifestPath, StandardOpenOption.READ))
+		{
+			Long generation = this.readGeneration(channel);
+			
+			return (generation != null) ? new Cursor(generation, alignToRecord(channel.size())) : null;
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+	}
+	
+	private Collection<Integer> scanDirectory() throws IOException
+	{
+		Collection<Integer> ids = new ArrayList<>();
+		
+		try
+		{
+			DirectoryScanner.forEachDataObjectFile(this.directory, null, file -> ids.add(DirectoryScanner.getDataObjectId(file)));
+		}
+		catch (IOException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IOException(e);
+		}
+		
+		return ids;
+	}
+	
+	private Cursor write(Collection<Integer> savedIds) throws IOException
+	{
+		long generation = ThreadLocalRandom.current().nextLong();
+		Path tempPath = this.directory.resolve(FILE_NAME + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + savedIds.size() * RECORD_SIZE);
+		long sequence = 0;
+		
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(generation);
+		
+		for (int id : savedIds)
+		{
+			buffer.putInt(id);
+			buffer.putLong(sequence++);
+			buffer.put((byte) Operation.SAVE.ordinal());
+		}
+		
+		buffer.flip();
+		
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+		
+		Files.move(tempPath, this.manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		return new Cursor(generation, buffer.limit());
+	}
+	
+	/**
+	 * Reads the generation from the header of the manifest
+	 * 
+	 * @param channel the channel to the manifest
+	 * @return the generation or null if the header is incomplete or invalid
+	 * @throws IOException if the manifest cannot be read
+	 */
+	private Long readGeneration(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		
+		while (header.hasRemaining())
+		{
+			if (channel.read(header, header.position()) < 0) return null;
+		}
+		
+		header.flip();
+		
+		if (header.getInt() != MAGIC) return null;
+		if (header.getInt() != VERSION) return null;
+		
+		return header.getLong();
+	}
+	
+	private static long alignToRecord(long size)
+	{
+		if (size < HEADER_SIZE) return HEADER_SIZE;
+		
+		return HEADER_SIZE + ((size - HEADER_SIZE) / RECORD_SIZE) * RECORD_SIZE;
+	}
+}
@@ -0,0 +1,166 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Clears a storage directory in constant time by renaming it to a sibling trash directory named
+ * {@code <name>.trash-<nanos>} and recreating it empty. The trash directory is deleted in the background.
+ * Trash directories left over by a process which ended before deleting them are found by {@link #find(Path)}.
+ * 
+ * Entries which must survive the clear, e.g. the files of auxiliary stores kept open by the DAO, are moved
+ * back into the recreated directory. Other processes using the storage directory meanwhile find them missing,
+ * so the storage directory must only be cleared this way while a single DAO uses it.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class StorageTrash
+{
+	/**
+	 * The infix between the name of the storage directory and the time stamp in the name of a trash directory
+	 */
+	public static final String INFIX = ".trash-";
+	
+	private StorageTrash()
+	{
+	}
+	
+	/**
+	 * Renames a storage directory to a new trash directory and recreates it with the kept entries only.
+	 * 
+	 * @param storageDirectory the storage directory
+	 * @param keptEntries the names of the entries to move back into the recreated directory if they existed
+	 * @return the trash directory
+	 * @throws IOException if the storage directory cannot be renamed atomically or recreated
+	 */
+	public static Path moveToTrash(Path storageDirectory, String... keptEntries) throws IOException
+	{
+		Path trashDirectory = storageDirectory.resolveSibling(storageDirectory.getFileName() + INFIX + System.nanoTime());
+		
+		Files.move(storageDirectory, trashDirectory, StandardCopyOption.ATOMIC_MOVE);
+		
+		try
+		{
+			Files.createDirectory(storageDirectory);
+		}
+		catch (IOException e)
+		{
+			Files.move(trashDirectory, storageDirectory, StandardCopyOption.ATOMIC_MOVE);
+			
+			throw e;
+		}
+		
+		for (String entryName : keptEntries)
+		{
+			Path entry = trashDirectory.resolve(entryName);
+			
+			if (Files.exists(entry)) Files.move(entry, storageDirectory.resolve(entryName), StandardCopyOption.ATOMIC_MOVE);
+		}
+		
+		return trashDirectory;
+	}
+	
+	/**
+	 * Finds the trash directories of a storage directory
+	 * 
+	 * @param storageDirectory the storage directory
+	 * @return the trash directories, which may be empty
+	 * @throws IOException if the parent directory cannot be listed
+	 */
+	public static List<Path> find(Path storageDirectory) throws IOException
+	{
+		Path parentDirectory = storageDirectory.toAbsolutePath().getParent();
+		String prefix = storageDirectory.getFileName() + INFIX;
+		
+		try (Stream<Path> siblings = Files.list(parentDirectory))
+		{
+			return siblings
+				.filter(sibling -> sibling.getFileName().toString().startsWith(prefix))
+				.filter(Files::isDirectory)
+				.collect(Collectors.toList());
+		}
+	}
+	
+	/**
+	 * Deletes a trash directory on the threads of a pool. The entries of the trash directory are deleted
+	 * in parallel, each with all its sub-directories. A trash directory which could not be deleted completely
+	 * is found again by {@link #find(Path)}.
+	 * 
+	 * @param trashDirectory the trash directory
+	 * @param pool the pool deleting the trash directory
+	 * @return the future completed when the trash directory has been deleted or completed exceptionally with the first error
+	 */
+	public static CompletableFuture<Void> delete(Path trashDirectory, ForkJoinPool pool)
+	{
+		return CompletableFuture.runAsync(() ->
+		{
+			List<Path> entries;
+			
+			try (Stream<Path> files = Files.list(trashDirectory))
+			{
+				entries = files.collect(Collectors.toList());
+			}
+			catch (NoSuchFileException e)
+			{
+				// Deleted concurrently, e.g. by a DAO created while a previous one deletes it
+				return;
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			
+			// Runs in the pool, as it is called by a task of the pool
+			entries.parallelStream().forEach(entry -> deleteRecursively(entry));
+			
+			deleteRecursively(trashDirectory);
+		}, pool);
+	}
+	
+	private static void deleteRecursively(Path path)
+	{
+		try
+		{
+			Files.walkFileTree(path, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException
+				{
+					Files.deleteIfExists(file);
+					
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException
+				{
+					if (e != null) throw e;
+					
+					Files.deleteIfExists(directory);
+					
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (NoSuchFileException e)
+		{
+			// Deleted concurrently
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Provides the locks guarding the files of data objects, depending on a {@link LockingMode}.
+ * 
+ * In {@link LockingMode#STRIPED} mode the ids are spread over a fixed number of read/write locks.
+ * Two ids may share a stripe, so the number of stripes should be well above the number of threads
+ * accessing the DAO concurrently.
+ * In {@link LockingMode#SYNCHRONIZED} mode read and write locks of all ids are the same exclusive lock.
+ * Only the shared read locks of concurrent reads (see {@link #sharedReadLock(int)}) are shared in this mode.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class StripedLocks
+{
+	/**
+	 * The number of stripes used if none is given
+	 */
+	public static final int DEFAULT_STRIPES = 64;
+	
+	private final LockingMode lockingMode;
+	private final ReentrantReadWriteLock[] stripes;
+	private final int mask;
+	
+	/**
+	 * Creates a new set of locks
+	 * 
+	 * @param lockingMode the locking mode to apply
+	 * @param stripes the number of stripes; rounded up to the next power of two and ignored in {@link LockingMode#SYNCHRONIZED} mode
+	 * @throws IllegalArgumentException if the locking mode is null or the number of stripes is less than 1
+	 */
+	public StripedLocks(LockingMode lockingMode, int stripes) throws IllegalArgumentException
+	{
+		if (lockingMode == null) throw new IllegalArgumentException("lockingMode");
+		if (stripes < 1) throw new IllegalArgumentException("stripes");
+		
+		int size = Integer.highestOneBit(stripes);
+		
+		if (size < stripes) size <<= 1;
+		if (lockingMode == LockingMode.SYNCHRONIZED) size = 1;
+		
+		this.lockingMode = lockingMode;
+		this.stripes = new ReentrantReadWriteLock[size];
+		this.mask = size -1;
+		
+		for (int i=0; i<size; i++) this.stripes[i] = new ReentrantReadWriteLock();
+	}
+	
+	private int getStripeIndex(int id)
+	{
+		int hash = id * 0x9E3779B9;
+		
+		return (hash ^ (hash >>> 16)) & this.mask;
+	}
+	
+	private ReentrantReadWriteLock getStripe(int id)
+	{
+		return this.stripes[this.getStripeIndex(id)];
+	}
+	
+	/**
+	 * Gets the locking mode of this set of locks
+	 * 
+	 * @return the locking mode
+	 */
+	public LockingMode getLockingMode()
+	{
+		return this.lockingMode;
+	}
+	
+	/**
+	 * Gets the number of stripes
+	 * 
+	 * @return the number of stripes
+	 */
+	public int getStripes()
+	{
+		return this.stripes.length;
+	}
+	
+	/**
+	 * Gets the lock to hold while reading the data object with the given id
+	 * 
+	 * @param id the id of the data object
+	 * @return the (unlocked) lock
+	 */
+	public Lock readLock(int id)
+	{
+		if (this.lockingMode == LockingMode.SYNCHRONIZED) return this.stripes[0].writeLock();
+		
+		return this.getStripe(id).readLock();
+	}
+	
+	/**
+	 * Gets the lock to hold while reading the data object with the given id concurrently with other reads,
+	 * e.g. the reads of a bulk get. Unlike {@link #readLock(int)}, the lock is shared in every locking mode,
+	 * so it only excludes writes.
+	 * 
+	 * @param id the id of the data object
+	 * @return the (unlocked) lock
+	 */
+	public Lock sharedReadLock(int id)
+	{
+		return this.getStripe(id).readLock();
+	}
+	
+	/**
+	 * Gets the lock to hold while writing or deleting the data object with the given id
+	 * 
+	 * @param id the id of the data object
+	 * @return the (unlocked) lock
+	 */
+	public Lock writeLock(int id)
+	{
+		return this.getStripe(id).writeLock();
+	}
+	
+	/**
+	 * Gets the locks to hold while writing or deleting several data objects at once.
+	 * Each lock is returned once and the locks are ordered by their stripes, so callers
+	 * acquiring them in the returned order cannot dead lock each other.
+	 * 
+	 * @param ids the ids of the data objects
+	 * @return the (unlocked) locks
+	 */
+	public List<Lock> writeLocks(int[] ids)
+	{
+		boolean[] usedStripes = new boolean[this.stripes.length];
+		List<Lock> locks = new ArrayList<>();
+		
+		for (int id : ids) usedStripes[this.getStripeIndex(id)] = true;
+		
+		for (int i=0; i<usedStripes.length; i++)
+		{
+			if (usedStripes[i]) locks.add(this.stripes[i].writeLock());
+		}
+		
+		return locks;
+	}
+	
+	/**
+	 * Acquires the write locks of all stripes, e.g. to modify the whole storage directory.
+	 * The stripes are locked in a fixed order to avoid dead locks between callers.
+	 */
+	public void lockAll()
+	{
+		for (ReentrantReadWriteLock stripe : this.stripes) stripe.writeLock().lock();
+	}
+	
+	/**
+	 * Releases the write locks acquired by {@link #lockAll()}
+	 */
+	public void unlockAll()
+	{
+		for (int i=this.stripes.length -1; i>=0; i--) this.stripes[i].writeLock().unlock();
+	}
+}
@@ -0,0 +1,293 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Writes the files of several data objects and makes them durable with a single commit.
+ * 
+ * {@link #write(Path, ContentWriter)} only writes the content: in {@link WriteMode#ATOMIC} mode into a
+ * temporary sibling file, otherwise into the file itself. {@link #commit()} then forces all written files
+ * to the storage device as required by the {@link Durability}, moves the temporary files over their targets
+ * and syncs every affected directory once. Committing several batches together
+ * ({@link #commit(Collection, ForkJoinPool)}) shares the directory syncs among them and lets the forces
+ * of the files run in parallel, so the file system can combine them.
+ * 
+ * Temporary files are named {@value #TEMP_FILE_PREFIX} followed by the name of the file and a unique suffix.
+ * Temporary files left behind by a crash are not named by an id and therefore ignored by the DAOs.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class WriteBatch
+{
+	/**
+	 * The prefix of the names of temporary files
+	 */
+	public static final String TEMP_FILE_PREFIX = ".tmp-";
+	
+	private static final long PROCESS_TOKEN = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+	private static final AtomicLong TEMP_FILE_COUNTER = new AtomicLong();
+	
+	private final WriteMode writeMode;
+	private final Durability durability;
+	private final List<Path> files = new ArrayList<>();
+	private final List<Path> writtenFiles = new ArrayList<>();
+	
+	/**
+	 * Writes the content of a file to a channel
+	 */
+	@FunctionalInterface
+	public interface ContentWriter
+	{
+		/**
+		 * Writes the content
+		 * 
+		 * @param channel the channel to write to; must not be closed by the writer
+		 * @throws Exception re-throws every exception
+		 */
+		void write(FileChannel channel) throws Exception;
+	}
+	
+	/**
+	 * Creates an empty batch
+	 * 
+	 * @param writeMode whether the files are overwritten in place or replaced atomically
+	 * @param durability how far the commit waits for the files to reach the storage device
+	 * @throws IllegalArgumentException if a parameter is null
+	 */
+	public WriteBatch(WriteMode writeMode, Durability durability) throws IllegalArgumentException
+	{
+		if (writeMode == null) throw new IllegalArgumentException("writeMode");
+		if (durability == null) throw new IllegalArgumentException("durability");
+		
+		this.writeMode = writeMode;
+		this.durability = durability;
+	}
+	
+	/**
+	 * Gets the durability the commit of this batch waits for
+	 * 
+	 * @return the durability
+	 */
+	public Durability getDurability()
+	{
+		return this.durability;
+	}
+	
+	/**
+	 * Checks if the batch holds no files
+	 * 
+	 * @return true if no file has been written, false otherwise
+	 */
+	public boolean isEmpty()
+	{
+		return this.files.isEmpty();
+	}
+	
+	/**
+	 * Writes the content of a file. The file is published (in atomic write mode) and made durable by the commit.
+	 * 
+	 * @param file the file to write
+	 * @param writer the writer of the content
+	 * @throws IllegalArgumentException if a parameter is null
+	 * @throws Exception re-throws every exception; a temporary file is removed
+	 */
+	public void write(Path file, ContentWriter writer) throws IllegalArgumentException, Exception
+	{
+		if (file == null) throw new IllegalArgumentException("file");
+		if (writer == null) throw new IllegalArgumentException("writer");
+		
+		Path writtenFile = file;
+		StandardOpenOption createOption = StandardOpenOption.CREATE;
+		StandardOpenOption truncateOption = StandardOpenOption.TRUNCATE_EXISTING;
+		
+		if (this.writeMode == WriteMode.ATOMIC)
+		{
+			writtenFile = file.resolveSibling(String.format("%s%s-%x-%x", TEMP_FILE_PREFIX, file.getFileName(), PROCESS_TOKEN, TEMP_FILE_COUNTER.incrementAndGet()));
+			createOption = StandardOpenOption.CREATE_NEW;
+		}
+		
+		try (FileChannel channel = FileChannel.open(writtenFile, StandardOpenOption.WRITE, createOption, truncateOption))
+		{
+			writer.write(channel);
+		}
+		catch (Exception e)
+		{
+			if (this.writeMode == WriteMode.ATOMIC) Files.deleteIfExists(writtenFile);
+			
+			throw e;
+		}
+		
+		this.files.add(file);
+		this.writtenFiles.add(writtenFile);
+	}
+	
+	/**
+	 * Makes the written files durable and publishes them
+	 * 
+	 * @throws Exception re-throws every exception; the temporary files not yet published are removed
+	 */
+	public void commit() throws Exception
+	{
+		commit(Collections.singletonList(this), null);
+	}
+	
+	/**
+	 * Removes the temporary files of a batch which is not committed
+	 */
+	public void abort()
+	{
+		if (this.writeMode != WriteMode.ATOMIC) return;
+		
+		for (Path writtenFile : this.writtenFiles)
+		{
+			try
+			{
+				Files.deleteIfExists(writtenFile);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+	
+	/**
+	 * Makes the written files of several batches durable and publishes them. The files are forced first,
+	 * then moved over their targets, then the affected directories are synced once each.
+	 * 
+	 * @param batches the batches to commit
+	 * @param pool the pool forcing the files in parallel or null to force them on the calling thread
+	 * @throws Exception re-throws every exception; the temporary files not yet published are removed
+	 */
+	public static void commit(Collection<WriteBatch> batches, ForkJoinPool pool) throws Exception
+	{
+		List<Path> forcedFiles = new ArrayList<>();
+		List<Durability> forcedDurabilities = new ArrayList<>();
+		Set<Path> directories = new LinkedHashSet<>();
+		
+		for (WriteBatch batch : batches)
+		{
+			if (batch.durability == Durability.NONE) continue;
+			
+			for (int i=0; i<batch.files.size(); i++)
+			{
+				forcedFiles.add(batch.writtenFiles.get(i));
+				forcedDurabilities.add(batch.durability);
+				
+				if (batch.durability == Durability.FULL) directories.add(batch.files.get(i).toAbsolutePath().getParent());
+			}
+		}
+		
+		try
+		{
+			forceAll(forcedFiles, forcedDurabilities, pool);
+			
+			for (WriteBatch batch : batches)
+			{
+				if (batch.writeMode != WriteMode.ATOMIC) continue;
+				
+				for (int i=0; i<batch.files.size(); i++)
+				{
+					Files.move(batch.writtenFiles.get(i), batch.files.get(i), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			for (WriteBatch batch : batches) batch.abort();
+			
+			throw e;
+		}
+		
+		for (Path directory : directories) syncDirectory(directory);
+	}
+	
+	/**
+	 * Forces the entries of a directory to the storage device, so created, moved and deleted files
+	 * survive a crash of the system. Does nothing on platforms which cannot open directories (e.g. Windows).
+	 * 
+	 * @param directory the directory to sync
+	 * @throws IOException re-throws every exception but the one of opening the directory
+	 */
+	public static void syncDirectory(Path directory) throws IOException
+	{
+		FileChannel channel;
+		
+		try
+		{
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+		
+		try
+		{
+			channel.force(true);
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+	
+	private static void forceAll(List<Path> files, List<Durability> durabilities, ForkJoinPool pool) throws Exception
+	{
+		if ((pool == null) || (files.size() < 2))
+		{
+			for (int i=0; i<files.size(); i++) force(files.get(i), durabilities.get(i));
+			
+			return;
+		}
+		
+		try
+		{
+			pool.submit(() -> IntStream.range(0, files.size()).parallel().forEach(i ->
+			{
+				try
+				{
+					force(files.get(i), durabilities.get(i));
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			})).get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = (e.getCause() instanceof UncheckedIOException) ? e.getCause().getCause() : e.getCause();
+			
+			if (cause instanceof Exception) throw (Exception) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			
+			throw e;
+		}
+	}
+	
+	private static void force(Path file, Durability durability) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			channel.force(durability == Durability.FULL);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+/**
+ * Defines how the DAOs write the files of their data objects.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public enum WriteMode
+{
+	/**
+	 * The file is truncated and overwritten. Readers must be locked out while the file is written,
+	 * and a crash may leave a truncated file. This is the behavior of previous versions.
+	 */
+	IN_PLACE,
+	
+	/**
+	 * The content is written to a temporary sibling file, which then replaces the file by an atomic move.
+	 * Readers see either the previous or the new content and do not need to be locked out.
+	 */
+	ATOMIC
+}
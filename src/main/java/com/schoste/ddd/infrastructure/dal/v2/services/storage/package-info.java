@@ -0,0 +1,6 @@
+/**
+ * Package for the storage building blocks shared by the file system and serialization DAOs
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
@@ -0,0 +1,146 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.file.Path;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event of an operation of a DAO. Compiled for Java 11 into the versioned part of the
+ * multi-release jar and only loaded by {@link OperationTracer} if the {@code jdk.jfr} API is present.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@Name(OperationTracer.EVENT_NAME)
+@Label("DAO Operation")
+@Description("Get, save, delete or scan of a DAO with the durations of its phases")
+@Category({ "DAO" })
+@StackTrace(false)
+final class FlightRecorderTrace extends Event implements OperationTrace
+{
+	@Label("Storage Path")
+	private String storagePath;
+	
+	@Label("Operation")
+	private String operation;
+	
+	@Label("Id")
+	@Description("The id of the data object or 0 if the operation affects several ones")
+	private int id;
+	
+	@Label("Bytes")
+	@DataAmount
+	private long bytes;
+	
+	@Label("Lock Wait")
+	@Timespan
+	private long lockWait;
+	
+	@Label("Serialization")
+	@Timespan
+	private long serialization;
+	
+	@Label("I/O")
+	@Description("The duration not spent waiting for locks or serializing")
+	@Timespan
+	private long io;
+	
+	@Label("Files Scanned")
+	private long filesScanned;
+	
+	@Label("Files Loaded")
+	private long filesLoaded;
+	
+	private transient long beginTime;
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long startPhase()
+	{
+		return System.nanoTime();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void endPhase(Phase phase, long startTime)
+	{
+		long duration = System.nanoTime() - startTime;
+		
+		if (phase == Phase.LOCK) this.lockWait += duration;
+		else this.serialization += duration;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setId(int id)
+	{
+		this.id = id;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addBytes(long bytes)
+	{
+		this.bytes += bytes;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setFiles(long scanned, long loaded)
+	{
+		this.filesScanned = scanned;
+		this.filesLoaded = loaded;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void finish()
+	{
+		this.io = Math.max(0, System.nanoTime() - this.beginTime - this.lockWait - this.serialization);
+		
+		this.end();
+		this.commit();
+	}
+	
+	/**
+	 * Begins the events, instantiated by reflection
+	 */
+	static final class TraceFactory implements OperationTracer.Factory
+	{
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public OperationTrace begin(Operation operation, Path storagePath)
+		{
+			FlightRecorderTrace trace = new FlightRecorderTrace();
+			
+			if (!trace.isEnabled()) return OperationTracer.DISABLED;
+			
+			trace.operation = operation.name();
+			trace.storagePath = storagePath.toString();
+			trace.beginTime = System.nanoTime();
+			trace.begin();
+			
+			return trace;
+		}
+	}
+}
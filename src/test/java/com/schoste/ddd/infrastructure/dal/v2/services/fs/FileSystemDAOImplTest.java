@@ -1,7 +1,42 @@
 package com.schoste.ddd.infrastructure.dal.v2.services.fs;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,6 +46,22 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.util.Assert;
 
 import com.schoste.ddd.infrastructure.dal.v2.models.FileSystemDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BlobStore;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BulkOperationException;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ClearMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DAOMetrics;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DeflateCodec;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.Durability;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.IdAllocator;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.LockingMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ObjectHandle;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageEngine;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageLayout;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageManifest;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageTrash;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StripedLocks;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteBatch;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteMode;
 
 /**
  * Test class of the FileSystemDAOImpl implementation
@@ -82,6 +133,1397 @@ public class FileSystemDAOImplTest extends GenericFileSystemDAOTest<FileSystemDO
 		Assert.notNull(dao, "");
 	}
 
+	/**
+	 * Asserts that incremental calls of getAll() only load the data objects recorded in the manifest
+	 * and that a deleted manifest is rebuilt.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testManifestIncrementalGetAll() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setManifestEnabled(true);
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must load every data object");
+			
+			this.deployDataObjects(this.getDefaultResourceName(), Arrays.asList(new String[] {"77"}));
+			
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not scan the directory");
+			
+			FileSystemDO dataObject = this.getExistingDataObject(2);
+			
+			dao.save(dataObject);
+			
+			Collection<FileSystemDO> changed = dao.getAll();
+			
+			Assert.isTrue((changed.size() == 1) && (changed.iterator().next().getId() == dataObject.getId()), "getAll() must load the saved data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load the saved data object twice");
+			
+			Files.delete(dao.getStoragePath().resolve(StorageManifest.FILE_NAME));
+			
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must rebuild the manifest");
+			
+			dao.delete(dataObject);
+			
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load deleted data objects");
+			
+			// The deployed data object replaces the deleted one
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must scan the directory");
+		}
+		finally
+		{
+			dao.setManifestEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that getAll() compacts the manifest once it holds more records than the threshold,
+	 * raises the threshold to twice the records left and still loads the changes afterwards.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testManifestCompaction() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		StorageManifest manifest = new StorageManifest(dao.getStoragePath());
+		
+		try
+		{
+			dao.setManifestEnabled(true);
+			
+			int numOfDataObjects = dao.reloadAll().size();
+			FileSystemDO dataObject = this.getExistingDataObject(2);
+			
+			dao.setManifestCompactionThreshold(numOfDataObjects + 4);
+			
+			for (int i=0; i<8; i++)
+			{
+				dao.save(dataObject);
+			}
+			
+			Assert.isTrue(manifest.getRecordCount() == numOfDataObjects + 8, "saves must be recorded in the manifest");
+			Assert.isTrue(dao.getAll().size() == 1, "getAll() must load the saved data object");
+			Assert.isTrue(manifest.getRecordCount() == numOfDataObjects, "getAll() must compact the manifest above the threshold");
+			Assert.isTrue(dao.getManifestCompactionThreshold() == Math.max(numOfDataObjects + 4, 2 * numOfDataObjects), "the threshold must be raised to twice the records left");
+			
+			dao.save(dataObject);
+			
+			Assert.isTrue(dao.getAll().stream().anyMatch(changed -> changed.getId() == dataObject.getId()), "getAll() must load the changes after a compaction");
+		}
+		finally
+		{
+			dao.setManifestCompactionThreshold(FileSystemDAOImpl.DEFAULT_MANIFEST_COMPACTION_THRESHOLD);
+			dao.setManifestEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that incremental calls of getAll() load the data objects written by others
+	 * when changes of the storage directory are watched, including the ones written while
+	 * the manifest took precedence.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testWatchIncrementalGetAll() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setWatchEnabled(true);
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must load every data object");
+			
+			this.deployDataObjects(this.getDefaultResourceName(), Arrays.asList(new String[] {"77"}));
+			
+			Collection<FileSystemDO> changed = dao.getAll();
+			
+			for (long deadline = System.currentTimeMillis() + 15000; changed.isEmpty() && (System.currentTimeMillis() < deadline); changed = dao.getAll())
+			{
+				Thread.sleep(50);
+			}
+			
+			Assert.isTrue((changed.size() == 1) && (changed.iterator().next().getId() == 77), "getAll() must load the watched data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load the watched data object twice");
+			
+			dao.setManifestEnabled(true);
+			dao.getAll();
+			
+			this.deployDataObjects(this.getDefaultResourceName(), Arrays.asList(new String[] {"78"}));
+			
+			for (long end = System.currentTimeMillis() + 500; System.currentTimeMillis() < end; Thread.sleep(50))
+			{
+				Assert.isTrue(dao.getAll().isEmpty(), "getAll() must only load the data objects in the manifest if it is enabled");
+			}
+			
+			dao.setManifestEnabled(false);
+			
+			boolean loaded = dao.getAll().stream().anyMatch(dataObject -> dataObject.getId() == 78);
+			
+			for (long deadline = System.currentTimeMillis() + 15000; !loaded && (System.currentTimeMillis() < deadline); loaded = dao.getAll().stream().anyMatch(dataObject -> dataObject.getId() == 78))
+			{
+				Thread.sleep(50);
+			}
+			
+			Assert.isTrue(loaded, "getAll() must load the data objects watched while the manifest was enabled");
+		}
+		finally
+		{
+			dao.setManifestEnabled(false);
+			dao.setWatchEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that a flat store remains readable with a sharded layout, that new data objects
+	 * are saved in the sharded layout and that the store is migrated in both directions.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testShardedStorageLayout() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		String existingId = String.valueOf(this.getExistingDataObject(1).getId());
+		
+		try
+		{
+			dao.setStorageLayout(StorageLayout.SHARDED);
+			
+			Assert.notNull(dao.get(this.getExistingDataObject(1).getId()), "data objects of a flat store must remain readable");
+			
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dao.save(dataObject);
+			
+			Assert.isTrue(Files.isRegularFile(StorageLayout.SHARDED.resolve(dao.getStoragePath(), dataObject.getId())), "new data objects must be saved in the sharded layout");
+			Assert.isTrue(dao.migrateStorageLayout() == this.cachedDataObjects.size(), "the migration must move every file of the flat store");
+			Assert.isTrue(!Files.exists(dao.getStoragePath().resolve(existingId)), "the migration must remove the flat files");
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() +1, "reloadAll() must load every data object of the sharded store");
+			Assert.notNull(dao.get(this.getExistingDataObject(1).getId()), "get() must load data objects of the sharded store");
+		}
+		finally
+		{
+			dao.setStorageLayout(StorageLayout.FLAT);
+			dao.migrateStorageLayout();
+		}
+		
+		Assert.isTrue(Files.isRegularFile(dao.getStoragePath().resolve(existingId)), "the migration must move the files back into the flat store");
+	}
+	
+	/**
+	 * Asserts that two DAOs sharing a storage directory save new data objects
+	 * concurrently without allocating the same id twice.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testIdAllocationAcrossInstances() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		FileSystemDAOImpl otherDao = new FileSystemDAOImpl(dao.getStoragePath().toString());
+		Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		int numOfSaves = 300;
+		
+		try
+		{
+			List<Future<?>> savers = new ArrayList<>();
+			
+			for (FileSystemDAOImpl saver : Arrays.asList(dao, otherDao))
+			{
+				savers.add(executor.submit(() ->
+				{
+					for (int i=0; i<numOfSaves; i++)
+					{
+						FileSystemDO dataObject = this.createDataObject();
+						
+						saver.save(dataObject);
+						ids.add(dataObject.getId());
+					}
+					
+					return null;
+				}));
+			}
+			
+			for (Future<?> saver : savers) saver.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		Assert.isTrue(ids.size() == 2 * numOfSaves, "every saved data object must get a different id");
+		Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() + 2 * numOfSaves, "reloadAll() must load every saved data object");
+	}
+	
+	/**
+	 * Asserts that gets never see a partly written file while a data object is saved
+	 * repeatedly in atomic write mode and that no temporary files are left behind.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testAtomicWrites() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		FileSystemDO dataObject = this.getExistingDataObject(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AtomicBoolean saving = new AtomicBoolean(true);
+		
+		try
+		{
+			dao.setWriteMode(WriteMode.ATOMIC);
+			dao.setDurability(Durability.DATA);
+			dataObject.setData(new byte[] { 2 });
+			dao.save(dataObject);
+			
+			Future<?> saver = executor.submit(() ->
+			{
+				try
+				{
+					for (int i=0; i<200; i++)
+					{
+						byte[] data = new byte[64 * 1024];
+						
+						Arrays.fill(data, (byte) 1);
+						dataObject.setData(data);
+						dao.save(dataObject);
+						dataObject.setData(new byte[] { 2 });
+						dao.save(dataObject);
+					}
+				}
+				finally
+				{
+					saving.set(false);
+				}
+				
+				return null;
+			});
+			
+			while (saving.get())
+			{
+				FileSystemDO readDataObject = dao.get(dataObject.getId());
+				
+				Assert.isTrue((readDataObject.getData().length == 1) || ((readDataObject.getData().length == 64 * 1024) && (readDataObject.getData()[64 * 1024 -1] == 1)), "gets must not see partly written files");
+			}
+			
+			saver.get();
+			
+			try (Stream<Path> files = Files.list(dao.getStoragePath()))
+			{
+				Assert.isTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(WriteBatch.TEMP_FILE_PREFIX)), "atomic writes must not leave temporary files");
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setWriteMode(WriteMode.IN_PLACE);
+			dao.setDurability(Durability.NONE);
+		}
+	}
+	
+	/**
+	 * Asserts that data objects saved together with a single commit and saves combined by
+	 * a group commit window are all stored durably, sharing the commits of the groups even though the
+	 * synchronized locking mode locks the data objects exclusively.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testGroupCommit() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<FileSystemDO> dataObjects = new ArrayList<>();
+		int numOfSaves = 50;
+		
+		try
+		{
+			dao.setWriteMode(WriteMode.ATOMIC);
+			dao.setDurability(Durability.FULL);
+			
+			for (int i=0; i<numOfSaves; i++) dataObjects.add(this.createDataObject());
+			
+			dao.save(dataObjects);
+			
+			for (FileSystemDO dataObject : dataObjects) Assert.isTrue(dataObject.getId() > 0, "save(Collection) must set the ids of all data objects");
+			
+			dao.setGroupCommitWindow(20);
+			
+			Assert.isTrue(dao.getGroupCommitWindow() == 20, "the group commit window must be set");
+			Assert.isTrue(dao.getLockingMode() == LockingMode.SYNCHRONIZED, "the locking mode must be synchronized by default");
+			
+			List<Future<?>> savers = new ArrayList<>();
+			
+			for (int i=0; i<numOfSaves; i++)
+			{
+				savers.add(executor.submit(() ->
+				{
+					FileSystemDO dataObject = this.createDataObject();
+					
+					dao.save(dataObject);
+					
+					return null;
+				}));
+			}
+			
+			for (Future<?> saver : savers) saver.get();
+			
+			Assert.isTrue(dao.groupCommitter.getCommittedBatches() == numOfSaves, "the group commits must commit every save");
+			Assert.isTrue(dao.groupCommitter.getCommittedGroups() <= numOfSaves / 2, "concurrent saves must share group commits");
+			
+			try (Stream<Path> files = Files.list(dao.getStoragePath()))
+			{
+				Assert.isTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(WriteBatch.TEMP_FILE_PREFIX)), "group commits must not leave temporary files");
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setGroupCommitWindow(0);
+			dao.setWriteMode(WriteMode.IN_PLACE);
+			dao.setDurability(Durability.NONE);
+		}
+		
+		Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() + 2 * numOfSaves, "reloadAll() must load every saved data object");
+	}
+	
+	/**
+	 * Asserts that a parallel directory scan loads every data object once and
+	 * advances the modification time stamp like a sequential scan.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testParallelScan() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setLockingMode(LockingMode.STRIPED);
+			dao.setScanParallelism(4);
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must load every data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load unchanged data objects");
+		}
+		finally
+		{
+			dao.setScanParallelism(1);
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+		}
+	}
+	
+	/**
+	 * Asserts that files from the mapped read threshold on are mapped into memory,
+	 * that their content equals the saved one and that they can be saved again.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testMappedRead() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		byte[] data = new byte[64 * 1024];
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) i;
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dataObject.setData(data);
+			dao.save(dataObject);
+			dao.setMappedReadThreshold(data.length);
+			
+			FileSystemDO mappedDataObject = dao.get(dataObject.getId());
+			
+			Assert.isTrue(mappedDataObject.isDataMapped(), "the file must be mapped");
+			Assert.isTrue(mappedDataObject.getDataBuffer().equals(ByteBuffer.wrap(data)), "the mapped content must equal the saved one");
+			
+			dao.save(mappedDataObject);
+			
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "saving a mapped file object must keep its content");
+			
+			dao.setMappedReadThreshold(data.length +1);
+			
+			Assert.isTrue(!dao.get(dataObject.getId()).isDataMapped(), "files below the threshold must be read into the heap");
+		}
+		finally
+		{
+			dao.setMappedReadThreshold(Long.MAX_VALUE);
+		}
+	}
+	
+	/**
+	 * Asserts that the content cache serves gets and buffer reads with the saved content
+	 * and does not return outdated content (see SlabCacheTest for the eviction).
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testContentCache() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		byte[] data = new byte[4 * 1024];
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) i;
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dao.setContentCacheMaxBytes(64 * 1024);
+			dataObject.setData(data);
+			dao.save(dataObject);
+			
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "a cached get must return the saved content");
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "a cached get must return the saved content");
+			Assert.isTrue(dao.readContent(dataObject.getId(), content -> content.isDirect() && content.equals(ByteBuffer.wrap(data))), "buffer reads must be served from the cache");
+			Assert.isTrue(dao.getContentCacheStats().getHits() == 2, "repeated gets must be answered by the cache");
+			
+			data[0] = 42;
+			dataObject.setData(data);
+			dao.save(dataObject);
+			
+			Assert.isTrue(dao.get(dataObject.getId()).getData()[0] == 42, "the cache must not return outdated content");
+			
+			dao.delete(dataObject);
+			
+			Assert.isNull(dao.get(dataObject.getId()), "the cache must not return deleted content");
+			Assert.isNull(dao.readContent(dataObject.getId(), content -> content), "buffer reads of deleted file objects must return null");
+		}
+		finally
+		{
+			dao.setContentCacheMaxBytes(0);
+		}
+	}
+	
+	/**
+	 * Asserts that compressible content is stored compressed and read like uncompressed content,
+	 * that small content and content looking like a compressed file are stored as they are and
+	 * that compressed files remain readable when compression is disabled.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testCompression() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		byte[] data = new byte[64 * 1024];
+		byte[] smallData = Arrays.copyOf(data, 100);
+		byte[] headerData = Arrays.copyOf(new byte[] { (byte) 0x89, 'D', 'A', 'O', 'Z', '\r', '\n', 0x1A }, 32);
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) (i % 16);
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			FileSystemDO smallDataObject = this.createDataObject();
+			FileSystemDO headerDataObject = this.createDataObject();
+			ByteArrayOutputStream transferredData = new ByteArrayOutputStream();
+			
+			dao.setCompressionCodec(new DeflateCodec());
+			dataObject.setData(data);
+			smallDataObject.setData(smallData);
+			headerDataObject.setData(headerData);
+			dao.save(Arrays.asList(dataObject, smallDataObject, headerDataObject));
+			
+			Assert.isTrue(Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), dataObject.getId())) < data.length / 4, "compressible content must be stored compressed");
+			Assert.isTrue(Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), smallDataObject.getId())) == smallData.length, "content below the threshold must be stored as it is");
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "gets must return the uncompressed content");
+			Assert.isTrue(Arrays.equals(dao.get(smallDataObject.getId()).getData(), smallData), "gets must return content stored as it is");
+			Assert.isTrue(Arrays.equals(dao.get(headerDataObject.getId()).getData(), headerData), "gets must return content looking like a compressed file");
+			Assert.isTrue(dao.readContent(dataObject.getId(), content -> content.equals(ByteBuffer.wrap(data))), "buffer reads must return the uncompressed content");
+			Assert.isTrue(dao.transferTo(dataObject.getId(), 16, data.length, Channels.newChannel(transferredData)) == data.length - 16, "transfers must write the uncompressed content");
+			Assert.isTrue(Arrays.equals(transferredData.toByteArray(), Arrays.copyOfRange(data, 16, data.length)), "transfers must write the requested range of the uncompressed content");
+			
+			dao.setMappedReadThreshold(1);
+			
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "compressed files must not be mapped");
+			
+			dao.setMappedReadThreshold(Long.MAX_VALUE);
+			dao.setCompressionCodec(null);
+			
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "compressed files must remain readable when compression is disabled");
+			
+			dao.setCompressionCodec(new DeflateCodec());
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			dao.save(dataObject);
+			transferredData.reset();
+			
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "gets must return the uncompressed content stored in segments");
+			Assert.isTrue(dao.transferTo(dataObject.getId(), Channels.newChannel(transferredData)) == data.length, "transfers must write the uncompressed content stored in segments");
+		}
+		finally
+		{
+			dao.setStorageEngine(StorageEngine.FILES);
+			dao.setMappedReadThreshold(Long.MAX_VALUE);
+			dao.setCompressionCodec(null);
+		}
+	}
+	
+	/**
+	 * Asserts that identical content is stored once, that saving it again does not write it,
+	 * that its files keep their own time stamps and that its blob is removed with its last reference.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testDeduplication() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		Path blobDirectory = dao.getStoragePath().resolve(BlobStore.DIRECTORY_NAME);
+		byte[] data = new byte[64 * 1024];
+		byte[] otherData = Arrays.copyOf(data, 1024);
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) i;
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			FileSystemDO copyDataObject = this.createDataObject();
+			
+			dao.setDeduplicationEnabled(true);
+			dataObject.setData(data);
+			copyDataObject.setData(data);
+			dao.save(dataObject);
+			
+			Path contentFile = new BlobStore(dao.getStoragePath()).getContentFile(BlobStore.hash(ByteBuffer.wrap(data)));
+			FileTime contentWritten = Files.getLastModifiedTime(contentFile);
+			
+			Thread.sleep(20);
+			dao.save(copyDataObject);
+			Thread.sleep(20);
+			dao.save(dataObject);
+			
+			Assert.isTrue(blobCount(blobDirectory) == 1, "identical content must be stored once");
+			Assert.isTrue(Files.getLastModifiedTime(contentFile).equals(contentWritten), "saving stored content must not write it again");
+			Assert.isTrue(Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), copyDataObject.getId())) < 64, "the files of the ids must only reference the content");
+			Assert.isTrue(dao.get(copyDataObject.getId()).getModifiedTimeStamp() < dao.get(dataObject.getId()).getModifiedTimeStamp(), "the files must keep their own time stamps");
+			Assert.isTrue(Arrays.equals(dao.get(copyDataObject.getId()).getData(), data), "gets must return the deduplicated content");
+			Assert.isTrue(dao.readContent(copyDataObject.getId(), content -> content.equals(ByteBuffer.wrap(data))), "buffer reads must return the deduplicated content");
+			
+			dao.delete(dataObject);
+			
+			Assert.isTrue(Files.exists(contentFile), "the content must be kept while it is referenced");
+			Assert.isTrue(Arrays.equals(dao.get(copyDataObject.getId()).getData(), data), "the remaining reference must return the content");
+			
+			dao.setDeduplicationEnabled(false);
+			
+			Assert.isTrue(Arrays.equals(dao.get(copyDataObject.getId()).getData(), data), "deduplicated content must remain readable when deduplication is disabled");
+			
+			copyDataObject.setData(otherData);
+			dao.save(copyDataObject);
+			
+			Assert.isTrue(!Files.exists(contentFile), "the content must be removed with its last reference");
+			Assert.isTrue(blobCount(blobDirectory) == 0, "no blob must be left");
+			Assert.isTrue(Arrays.equals(dao.get(copyDataObject.getId()).getData(), otherData), "gets must return the content saved over a reference");
+		}
+		finally
+		{
+			dao.setDeduplicationEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that gets in the atomic write mode, which do not lock, return deduplicated content saved
+	 * concurrently instead of reporting the data object as missing when the blob they resolved is released
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testAtomicGetsOfReplacedBlobs() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		FileSystemDO dataObject = this.createDataObject();
+		byte[][] contents = { new byte[8 * 1024], new byte[8 * 1024] };
+		
+		Arrays.fill(contents[1], (byte) 1);
+		
+		try
+		{
+			dao.setWriteMode(WriteMode.ATOMIC);
+			dao.setDeduplicationEnabled(true);
+			dataObject.setData(contents[0]);
+			dao.save(dataObject);
+			
+			int id = dataObject.getId();
+			
+			// Every save releases the blob of the previous content
+			Future<?> saves = executor.submit(() ->
+			{
+				for (int i=1; i<=500; i++)
+				{
+					dataObject.setData(contents[i % 2]);
+					dao.save(dataObject);
+				}
+				
+				return null;
+			});
+			
+			while (!saves.isDone())
+			{
+				FileSystemDO loadedObject = dao.get(id);
+				
+				Assert.notNull(loadedObject, "gets must not miss data objects whose blob is replaced concurrently");
+				Assert.isTrue(Arrays.equals(loadedObject.getData(), contents[0]) || Arrays.equals(loadedObject.getData(), contents[1]), "gets must return a saved content");
+			}
+			
+			saves.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setDeduplicationEnabled(false);
+			dao.setWriteMode(WriteMode.IN_PLACE);
+		}
+	}
+	
+	/**
+	 * Asserts that the asynchronous operations return the results of the blocking ones, limit the operations in flight
+	 * and that gets reading with asynchronous channels are measured
+	 */
+	@Test
+	public void testAsyncOperations() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		List<FileSystemDO> dataObjects = new ArrayList<>();
+		List<CompletableFuture<FileSystemDO>> futures = new ArrayList<>();
+		
+		for (int i=0; i<16; i++) dataObjects.add(this.createDataObject());
+		
+		try
+		{
+			// Reads of atomically published files do not lock and are done by asynchronous channels
+			dao.setWriteMode(WriteMode.ATOMIC);
+			
+			for (int i=0; i<dataObjects.size(); i++) dataObjects.get(i).setData(new byte[] { (byte) i, 1, 2, 3 });
+			
+			dao.setAsyncParallelism(1, 2);
+			
+			for (FileSystemDO dataObject : dataObjects)
+			{
+				futures.add(dao.saveAsync(dataObject));
+				
+				Assert.isTrue(dao.getAsyncExecutor().getInFlight() <= 2, "the operations in flight must be limited");
+			}
+			
+			for (CompletableFuture<FileSystemDO> future : futures) Assert.isTrue(future.join().getId() > 0, "saves must complete with the saved data object");
+			
+			for (FileSystemDO dataObject : dataObjects)
+			{
+				FileSystemDO loadedObject = dao.getAsync(dataObject.getId()).join();
+				
+				Assert.isTrue(Arrays.equals(loadedObject.getData(), dataObject.getData()), "gets must return the saved data");
+				Assert.isTrue(loadedObject.getModifiedTimeStamp() == dao.get(dataObject.getId()).getModifiedTimeStamp(), "gets must return the time stamp of the file");
+			}
+			
+			dao.getMetrics().reset();
+			dao.setMetricsEnabled(true);
+			dao.getAsync(dataObjects.get(1).getId()).join();
+			
+			Assert.isTrue(dao.getMetrics().getOperation(DAOMetrics.Operation.GET).getCount() == 1, "asynchronous gets must be measured");
+			
+			dao.setMetricsEnabled(false);
+			dao.deleteAsync(dataObjects.get(0)).join();
+			
+			Assert.isTrue(dao.getAsync(dataObjects.get(0).getId()).join() == null, "gets of deleted ids must complete with null");
+			Assert.isTrue(dao.getAllAsync().join() != null, "getAll() must complete with a collection");
+			
+			try
+			{
+				dao.saveAsync(null);
+				Assert.isTrue(false, "null must be rejected");
+			}
+			catch (IllegalArgumentException e)
+			{
+				// Expected
+			}
+		}
+		finally
+		{
+			dao.setMetricsEnabled(false);
+			dao.setWriteMode(WriteMode.IN_PLACE);
+			dao.setAsyncExecutor(null);
+		}
+	}
+	
+	/**
+	 * Asserts that handles list the stored data objects without loading them and load them when first accessed
+	 */
+	@Test
+	public void testObjectHandles() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		FileSystemDO dataObject = this.createDataObject();
+		
+		dataObject.setData(new byte[] { 1, 2, 3, 4 });
+		
+		dao.save(dataObject);
+		
+		List<ObjectHandle<FileSystemDO>> handles = dao.getAllHandles();
+		ObjectHandle<FileSystemDO> handle = null;
+		long latestModified = 0;
+		
+		for (int i=0; i<handles.size(); i++)
+		{
+			if (i > 0) Assert.isTrue(handles.get(i -1).getId() < handles.get(i).getId(), "the handles must be ordered by id");
+			if (handles.get(i).getId() == dataObject.getId()) handle = handles.get(i);
+			
+			Assert.isTrue(!handles.get(i).isLoaded(), "listed data objects must not be loaded");
+			
+			latestModified = Math.max(latestModified, handles.get(i).getModifiedTimeStamp());
+		}
+		
+		Assert.notNull(handle, "the saved data object must be listed");
+		Assert.isTrue(handle.getSize() == 4, "the size of the stored data object must be listed");
+		Assert.isTrue(handle.get().getId() == dataObject.getId(), "the handle must load the data object");
+		Assert.isTrue(handle.isLoaded(), "the data object must be kept after loading it");
+		Assert.isTrue(dao.getAllHandles(latestModified).isEmpty(), "data objects modified before the time stamp must not be listed");
+	}
+	
+	/**
+	 * Asserts that bulk gets and deletes processed in parallel keep the order of the ids and report
+	 * the failed ids without aborting the other ones, and that bulk gets read in parallel in the
+	 * default synchronized locking mode
+	 */
+	@Test
+	public void testParallelBulkOperations() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		AtomicInteger reads = new AtomicInteger();
+		AtomicInteger peakReads = new AtomicInteger();
+		
+		// Named, as the DAO probes the storage directory with a file named by the class
+		class SlowFileSystemDAOImpl extends FileSystemDAOImpl
+		{
+			SlowFileSystemDAOImpl(String storagePath) throws Exception
+			{
+				super(storagePath);
+			}
+			
+			@Override
+			public FileSystemDO createDataObject()
+			{
+				peakReads.accumulateAndGet(reads.incrementAndGet(), Math::max);
+				
+				try
+				{
+					Thread.sleep(50);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally
+				{
+					reads.decrementAndGet();
+				}
+				
+				return new FileSystemDO();
+			}
+		}
+		
+		FileSystemDAOImpl slowDao = new SlowFileSystemDAOImpl(dao.getStoragePath().toString());
+		int[] ids = new int[20];
+		Path invalidFile = null;
+		
+		try
+		{
+			dao.setBulkParallelism(4);
+			
+			for (int i=ids.length -1; i>=0; i--)
+			{
+				FileSystemDO dataObject = this.createDataObject();
+				
+				dao.save(dataObject);
+				ids[i] = dataObject.getId();
+			}
+			
+			List<FileSystemDO> dataObjects = new ArrayList<FileSystemDO>(dao.get(ids));
+			
+			for (int i=0; i<ids.length; i++) Assert.isTrue(dataObjects.get(i).getId() == ids[i], "the data objects must keep the order of the ids");
+			
+			slowDao.setBulkParallelism(4);
+			slowDao.get(Arrays.copyOf(ids, 8));
+			
+			Assert.isTrue(slowDao.getLockingMode() == LockingMode.SYNCHRONIZED, "the locking mode must be the default one");
+			Assert.isTrue(peakReads.get() == 4, "bulk gets must read as many ids in parallel as the pool has threads");
+			
+			int invalidId = ids[0] + ids.length + 1;
+			BulkOperationException failure = null;
+			
+			// A directory named by an id cannot be read
+			invalidFile = Files.createDirectory(dao.getStoragePath().resolve(Integer.toString(invalidId)));
+			
+			try
+			{
+				dao.get(new int[] { ids[1], invalidId, ids[2] });
+			}
+			catch (Exception e)
+			{
+				Throwable cause = e;
+				
+				while (!(cause instanceof BulkOperationException) && (cause.getCause() != null)) cause = cause.getCause();
+				
+				failure = (BulkOperationException) cause;
+			}
+			
+			Assert.notNull(failure, "the failed id must be reported");
+			Assert.isTrue(failure.getFailures().keySet().equals(Collections.singleton(invalidId)), "only the failed id must be reported");
+			Assert.isTrue(((FileSystemDO) failure.getResults().get(2)).getId() == ids[2], "the ids after the failed one must be processed");
+			
+			StorageManifest manifest = new StorageManifest(dao.getStoragePath());
+			int[] idsAndMissingId = Arrays.copyOf(ids, ids.length + 1);
+			
+			idsAndMissingId[ids.length] = invalidId + 1;
+			dao.setManifestEnabled(true);
+			
+			StorageManifest.Cursor cursor = manifest.getCursor();
+			
+			dao.delete(idsAndMissingId);
+			
+			Collection<Integer> journaledIds = manifest.readChanges(cursor).getDeletedIds();
+			
+			for (int id : ids) Assert.isNull(dao.get(id), "the data objects must be deleted");
+			
+			Assert.isTrue(journaledIds.size() == ids.length, "the deletes of the removed files must be journaled");
+			Assert.isTrue(!journaledIds.contains(invalidId + 1), "the deletes of missing ids must not be journaled");
+		}
+		finally
+		{
+			dao.setBulkParallelism(1);
+			dao.setManifestEnabled(false);
+			slowDao.setBulkParallelism(1);
+			
+			if (invalidFile != null) Files.deleteIfExists(invalidFile);
+		}
+	}
+	
+	/**
+	 * Asserts that clears in every mode keep the markers of the reserved id ranges,
+	 * so neither the ids allocated before nor the ranges of other DAOs are allocated again
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testClearKeepsReservedIds() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		FileSystemDAOImpl otherDao = new FileSystemDAOImpl(dao.getStoragePath().toString());
+		
+		try
+		{
+			for (ClearMode clearMode : ClearMode.values())
+			{
+				FileSystemDO dataObject = this.createDataObject();
+				FileSystemDO otherDataObject = this.createDataObject();
+				FileSystemDO newDataObject = this.createDataObject();
+				
+				dao.setClearMode(clearMode);
+				dao.save(dataObject);
+				otherDao.save(otherDataObject);
+				dao.clear();
+				
+				Assert.isTrue(Files.isDirectory(dao.getStoragePath().resolve(IdAllocator.DIRECTORY_NAME)), "a clear must keep the markers of the reserved ranges");
+				
+				dao.save(newDataObject);
+				
+				Assert.isTrue(newDataObject.getId() > dataObject.getId(), "the ids allocated before a clear must not be allocated again");
+				Assert.isTrue(newDataObject.getId() / IdAllocator.RANGE_SIZE != otherDataObject.getId() / IdAllocator.RANGE_SIZE, "the ranges of other DAOs must not be reserved again after a clear");
+			}
+		}
+		finally
+		{
+			dao.setClearMode(ClearMode.DELETE);
+		}
+	}
+	
+	/**
+	 * Asserts that a clear in swap mode empties the store at once and that the trash directories,
+	 * including the ones left over by previous processes, are deleted in the background
+	 */
+	@Test
+	public void testSwapClear() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		Path storagePath = dao.getStoragePath();
+		Path leftoverTrash = storagePath.resolveSibling(storagePath.getFileName() + StorageTrash.INFIX + "1");
+		
+		try
+		{
+			dao.setClearMode(ClearMode.SWAP);
+			
+			for (int i=0; i<10; i++) dao.save(this.createDataObject());
+			
+			dao.clear();
+			
+			Assert.isTrue(dao.reloadAll().isEmpty(), "the store must be empty after the clear");
+			
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dao.save(dataObject);
+			
+			Assert.notNull(dao.get(dataObject.getId()), "the recreated storage directory must be writable");
+			
+			Files.createDirectories(leftoverTrash.resolve("1"));
+			Files.write(leftoverTrash.resolve("1").resolve("2"), new byte[] { 1, 2, 3, 4 });
+			
+			new FileSystemDAOImpl(storagePath.toString());
+			
+			for (int i=0; (i<100) && !StorageTrash.find(storagePath).isEmpty(); i++) Thread.sleep(100);
+			
+			Assert.isTrue(StorageTrash.find(storagePath).isEmpty(), "the trash must be deleted in the background");
+		}
+		finally
+		{
+			dao.setClearMode(ClearMode.DELETE);
+		}
+	}
+	
+	/**
+	 * Asserts that a clear in swap mode keeps the auxiliary stores in the storage directory,
+	 * so the ranges, the manifest and the segments written after the clear are found there
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSwapClearKeepsAuxiliaryStores() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		Path storagePath = dao.getStoragePath();
+		
+		try
+		{
+			dao.setClearMode(ClearMode.SWAP);
+			dao.setManifestEnabled(true);
+			dao.save(this.createDataObject());
+			dao.clear();
+			dao.save(this.createDataObject());
+			
+			Assert.isTrue(Files.isDirectory(storagePath.resolve(IdAllocator.DIRECTORY_NAME)), "a swap clear must keep the markers of the reserved ranges");
+			Assert.isTrue(Files.exists(storagePath.resolve(StorageManifest.FILE_NAME)), "the saves after a swap clear must be journaled in the storage directory");
+			
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			dao.save(this.createDataObject());
+			dao.clear();
+			dao.save(dataObject);
+			dao.setStorageEngine(StorageEngine.FILES);
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			
+			Assert.notNull(dao.get(dataObject.getId()), "the segments written after a swap clear must be found when they are opened again");
+		}
+		finally
+		{
+			dao.setStorageEngine(StorageEngine.FILES);
+			dao.setManifestEnabled(false);
+			dao.setClearMode(ClearMode.DELETE);
+		}
+	}
+	
+	/**
+	 * Asserts that the operations are measured while the metrics are enabled and published as an MXBean
+	 */
+	@Test
+	public void testMetrics() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		FileSystemDO dataObject = this.createDataObject();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		
+		dataObject.setData(new byte[] { 1, 2, 3, 4 });
+		
+		try
+		{
+			dao.getMetrics().reset();
+			dao.save(dataObject);
+			
+			Assert.isTrue(dao.getMetrics().getOperation(DAOMetrics.Operation.SAVE).getCount() == 0, "disabled metrics must not be collected");
+			
+			dao.setMetricsEnabled(true);
+			
+			DAOMetrics metrics = dao.getMetrics();
+			ObjectName objectName = metrics.getObjectName();
+			
+			dao.save(dataObject);
+			dao.get(dataObject.getId());
+			dao.getAll();
+			dao.delete(dataObject);
+			
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.SAVE).getCount() == 1, "saves must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.GET).getCount() >= 1, "gets must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.GET_ALL).getCount() == 1, "incremental loads must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.DELETE).getCount() == 1, "deletes must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.SAVE).getMaxNanos() > 0, "latencies must be recorded");
+			Assert.isTrue(metrics.getBytesWritten() > 0, "written bytes must be counted");
+			Assert.isTrue(metrics.getBytesRead() > 0, "read bytes must be counted");
+			Assert.isTrue(metrics.getLockWaits().getCount() > 0, "lock acquisitions must be counted");
+			Assert.isTrue(server.isRegistered(objectName), "the metrics must be published");
+			
+			long publishedSaves = 0;
+			
+			for (CompositeData operation : (CompositeData[]) server.getAttribute(objectName, "Operations"))
+			{
+				if ("SAVE".equals(operation.get("name"))) publishedSaves = (Long) operation.get("count");
+			}
+			
+			Assert.isTrue(publishedSaves == 1, "the published metrics must hold the counts");
+			
+			dao.setMetricsEnabled(false);
+			
+			Assert.isTrue(!server.isRegistered(objectName), "disabled metrics must not be published");
+		}
+		finally
+		{
+			dao.setMetricsEnabled(false);
+		}
+	}
+	
+	private static long blobCount(Path blobDirectory) throws Exception
+	{
+		try (Stream<Path> blobs = Files.list(blobDirectory))
+		{
+			return blobs.count();
+		}
+	}
+	
+	/**
+	 * Asserts that file objects stored in segments are saved, read and deleted like the ones
+	 * stored in files (see SegmentStoreTest for reopening the segments).
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSegmentStorageEngine() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		byte[] data = new byte[4 * 1024];
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) i;
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			FileSystemDO deletedDataObject = this.createDataObject();
+			
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			dataObject.setData(data);
+			deletedDataObject.setData(data);
+			dao.save(Arrays.asList(dataObject, deletedDataObject));
+			
+			Assert.isTrue(dao.reloadAll().size() == 2, "reloadAll() must load the file objects stored in segments only");
+			
+			data[0] = 42;
+			dataObject.setData(data);
+			dao.save(dataObject);
+			dao.delete(deletedDataObject);
+			
+			FileSystemDO storedDataObject = dao.get(dataObject.getId());
+			ByteArrayOutputStream transferredData = new ByteArrayOutputStream();
+			
+			Assert.isTrue(Arrays.equals(storedDataObject.getData(), data), "a get must return the latest saved content");
+			Assert.isTrue(storedDataObject.getModifiedTimeStamp() == dataObject.getModifiedTimeStamp(), "a get must return the modification time stamp of the save");
+			Assert.isTrue(storedDataObject.getCreatedTimeStamp() <= storedDataObject.getModifiedTimeStamp(), "the creation time stamp must be kept");
+			Assert.isNull(dao.get(deletedDataObject.getId()), "deleted file objects must not be returned");
+			Assert.isTrue(dao.readContent(dataObject.getId(), content -> content.equals(ByteBuffer.wrap(data))), "buffer reads must return the saved content");
+			Assert.isTrue(dao.transferTo(dataObject.getId(), 1, Long.MAX_VALUE, Channels.newChannel(transferredData)) == data.length -1, "transfers must stop at the end of the content");
+			Assert.isTrue(Arrays.equals(transferredData.toByteArray(), Arrays.copyOfRange(data, 1, data.length)), "transfers must write the saved content");
+			
+			dao.setStorageEngine(StorageEngine.FILES);
+			
+			Assert.isNull(dao.get(dataObject.getId()), "file objects stored in segments must not be read from files");
+		}
+		finally
+		{
+			dao.setStorageEngine(StorageEngine.FILES);
+		}
+	}
+	
+	/**
+	 * Asserts that an exported snapshot serves the file objects of the storage directory and
+	 * that the DAO is read-only while it serves the snapshot.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSnapshot() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		Path snapshotFile = Files.createTempFile("fs-dao", ".snapshot");
+		byte[] data = new byte[4 * 1024];
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) i;
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dataObject.setData(data);
+			dao.save(dataObject);
+			
+			int numOfDataObjects = dao.reloadAll().size();
+			
+			Assert.isTrue(dao.exportSnapshot(snapshotFile) == numOfDataObjects, "the snapshot must hold every file object");
+			
+			dao.setSnapshotFile(snapshotFile);
+			
+			FileSystemDO snapshotDataObject = dao.get(dataObject.getId());
+			ByteArrayOutputStream transferredData = new ByteArrayOutputStream();
+			
+			Assert.isTrue(dao.reloadAll().size() == numOfDataObjects, "reloadAll() must load every file object of the snapshot");
+			Assert.isTrue(snapshotDataObject.isDataMapped(), "gets must return the content of the mapped snapshot");
+			Assert.isTrue(Arrays.equals(snapshotDataObject.getData(), data), "gets must return the exported content");
+			Assert.isTrue(snapshotDataObject.getModifiedTimeStamp() == dataObject.getModifiedTimeStamp(), "gets must return the exported modification time stamp");
+			Assert.isTrue(dao.readContent(dataObject.getId(), content -> content.equals(ByteBuffer.wrap(data))), "buffer reads must return the exported content");
+			Assert.isTrue(dao.transferTo(dataObject.getId(), Channels.newChannel(transferredData)) == data.length, "transfers must write the exported content");
+			Assert.isNull(dao.get(Integer.MAX_VALUE), "gets of ids missing in the snapshot must return null");
+			
+			boolean saveRejected = false;
+			
+			try
+			{
+				dao.save(dataObject);
+			}
+			catch (Exception e)
+			{
+				saveRejected = true;
+			}
+			
+			Assert.isTrue(saveRejected, "saves must be rejected while a snapshot is served");
+		}
+		finally
+		{
+			dao.setSnapshotFile(null);
+			Files.deleteIfExists(snapshotFile);
+		}
+	}
+	
+	/**
+	 * Asserts that file objects are saved from streams and that files from the streaming
+	 * read threshold on are read through a channel without being loaded.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testStreamedContent() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		byte[] data = new byte[1024 * 1024];
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) (i % 251);
+		
+		try
+		{
+			FileSystemDO dataObject = this.createDataObject();
+			
+			dataObject.setDataStream(new ByteArrayInputStream(data));
+			dao.save(dataObject);
+			dao.setStreamingReadThreshold(data.length);
+			
+			FileSystemDO streamedDataObject = dao.get(dataObject.getId());
+			
+			Assert.isTrue(streamedDataObject.isDataStreamed(), "the file must be streamed");
+			Assert.isTrue(streamedDataObject.getDataSize() == data.length, "the size of the streamed content must equal the saved one");
+			
+			ByteArrayOutputStream streamedData = new ByteArrayOutputStream();
+			
+			try (InputStream inputStream = Channels.newInputStream(streamedDataObject.openDataChannel()))
+			{
+				byte[] buffer = new byte[4096];
+				
+				for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer)) streamedData.write(buffer, 0, read);
+			}
+			
+			Assert.isTrue(Arrays.equals(streamedData.toByteArray(), data), "the streamed content must equal the saved one");
+			
+			dao.save(streamedDataObject);
+			
+			Assert.isTrue(Arrays.equals(dao.get(dataObject.getId()).getData(), data), "saving a streamed file object onto its own file must keep its content");
+		}
+		finally
+		{
+			dao.setStreamingReadThreshold(Long.MAX_VALUE);
+		}
+	}
+	
+	/**
+	 * Asserts that stored files and ranges of them are transferred to a socket unchanged
+	 * by {@link FileSystemDAOImpl#transferTo(int, WritableByteChannel)}.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testTransferTo() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		FileSystemDO dataObject = this.createDataObject();
+		byte[] data = new byte[4 * 1024 * 1024];
+		
+		for (int i=0; i<data.length; i++) data[i] = (byte) (i % 253);
+		
+		dataObject.setData(data);
+		dao.save(dataObject);
+		
+		Assert.isTrue(dao.transferTo(Integer.MAX_VALUE, Channels.newChannel(new ByteArrayOutputStream())) == -1, "transferTo() must return -1 for missing file objects");
+		
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			 SocketChannel client = SocketChannel.open(server.getLocalAddress());
+			 SocketChannel peer = server.accept())
+		{
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			Future<?> receiver = executor.submit(() -> this.receive(peer, received, 1000));
+			
+			Assert.isTrue(dao.transferTo(dataObject.getId(), 24, 1000, client) == 1000, "transferTo() must transfer the requested range");
+			
+			receiver.get();
+			
+			Assert.isTrue(Arrays.equals(received.toByteArray(), Arrays.copyOfRange(data, 24, 1024)), "the transferred range must equal the stored one");
+			
+			ByteArrayOutputStream receivedFile = new ByteArrayOutputStream();
+			
+			receiver = executor.submit(() -> this.receive(peer, receivedFile, data.length));
+			
+			Assert.isTrue(dao.transferTo(dataObject.getId(), client) == data.length, "transferTo() must transfer the whole file");
+			
+			receiver.get();
+			
+			Assert.isTrue(Arrays.equals(receivedFile.toByteArray(), data), "the transferred file must equal the stored one");
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	private Void receive(SocketChannel channel, ByteArrayOutputStream received, long length) throws Exception
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		
+		for (long remaining = length; remaining > 0; buffer.clear())
+		{
+			if (buffer.remaining() > remaining) buffer.limit((int) remaining);
+			
+			int read = channel.read(buffer);
+			
+			if (read < 0) throw new EOFException();
+			if (received != null) received.write(buffer.array(), 0, read);
+			
+			remaining -= read;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Asserts that the number of lock stripes is kept when the locking mode is changed,
+	 * also if it is set while the stripes are not used
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testLockStripesKeptAcrossLockingModes() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setLockStripes(8);
+			
+			Assert.isTrue(dao.locks.getStripes() == 1, "the synchronized locking mode must use a single lock");
+			
+			dao.setLockingMode(LockingMode.STRIPED);
+			
+			Assert.isTrue(dao.locks.getStripes() == 8, "the striped locking mode must use the number of stripes set before");
+			
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+			dao.setLockingMode(LockingMode.STRIPED);
+			
+			Assert.isTrue(dao.locks.getStripes() == 8, "the number of stripes must be kept across locking modes");
+		}
+		finally
+		{
+			dao.setLockStripes(StripedLocks.DEFAULT_STRIPES);
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+		}
+	}
+	
+	/**
+	 * Asserts that a get is only blocked by the lock of its own id's stripe when striped locking is used:
+	 * while the write lock of one id is held, a get of an id on another stripe completes and a get of the
+	 * locked id waits until the lock is released.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testStripedLockingBlocksOnlyTheStripeOfAnId() throws Exception
+	{
+		FileSystemDAOImpl dao = this.getDataAccessObject();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		
+		try
+		{
+			dao.setLockingMode(LockingMode.STRIPED);
+			
+			FileSystemDO lockedDataObject = this.createDataObject();
+			FileSystemDO otherDataObject = this.createDataObject();
+			
+			dao.save(lockedDataObject);
+			dao.save(otherDataObject);
+			
+			while (dao.locks.writeLock(otherDataObject.getId()) == dao.locks.writeLock(lockedDataObject.getId()))
+			{
+				otherDataObject = this.createDataObject();
+				dao.save(otherDataObject);
+			}
+			
+			int lockedId = lockedDataObject.getId();
+			int otherId = otherDataObject.getId();
+			CountDownLatch lockedGetStarted = new CountDownLatch(1);
+			Lock lock = dao.locks.writeLock(lockedId);
+			Future<FileSystemDO> lockedGet;
+			
+			lock.lock();
+			
+			try
+			{
+				lockedGet = executor.submit(() ->
+				{
+					lockedGetStarted.countDown();
+					
+					return dao.get(lockedId);
+				});
+				
+				Assert.isTrue(lockedGetStarted.await(10, TimeUnit.SECONDS), "the get of the locked id must start");
+				Assert.isTrue(executor.submit(() -> dao.get(otherId)).get(10, TimeUnit.SECONDS).getId() == otherId, "gets of ids on other stripes must not wait for the lock");
+				Assert.isTrue(!lockedGet.isDone(), "gets of the locked id must wait for the lock");
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			
+			Assert.isTrue(lockedGet.get(10, TimeUnit.SECONDS).getId() == lockedId, "gets of the locked id must complete once the lock is released");
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+		}
+	}
+
 	@Override
 	protected void modifyDataObject(FileSystemDO dataObject, Object... parameters) 
 	{
@@ -1,6 +1,30 @@
 package com.schoste.ddd.infrastructure.dal.v2.services.serialization;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +35,21 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.util.Assert;
 
 import com.schoste.ddd.infrastructure.dal.v2.models.SerializationDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.BulkOperationException;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ClearMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DAOMetrics;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.DeflateCodec;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.Durability;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.IdAllocator;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.LockingMode;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.ObjectHandle;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageEngine;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageLayout;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageManifest;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StorageTrash;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.StripedLocks;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteBatch;
+import com.schoste.ddd.infrastructure.dal.v2.services.storage.WriteMode;
 import com.schoste.ddd.infrastructure.dal.v2.services.serialization.SerializationDAOImpl;
 
 /**
@@ -89,6 +128,1020 @@ public class SerializationDAOImplTest extends GenericSerializationDAOTest<Serial
 		Assert.notNull(dao, "");
 	}
 
+	/**
+	 * Asserts that incremental calls of getAll() only load the data objects recorded in the manifest
+	 * and that a deleted manifest is rebuilt.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testManifestIncrementalGetAll() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setManifestEnabled(true);
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must load every data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load unchanged data objects");
+			
+			SerializationDO dataObject = this.getExistingDataObject(2);
+			
+			this.modifyDataObject(dataObject, "testManifestIncrementalGetAll");
+			dao.save(dataObject);
+			
+			Collection<SerializationDO> changed = dao.getAll();
+			
+			Assert.isTrue((changed.size() == 1) && (changed.iterator().next().getId() == dataObject.getId()), "getAll() must load the saved data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load the saved data object twice");
+			
+			Files.delete(dao.getStoragePath().resolve(StorageManifest.FILE_NAME));
+			
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must rebuild the manifest");
+			
+			dao.delete(dataObject);
+			
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load deleted data objects");
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() -1, "reloadAll() must scan the directory");
+		}
+		finally
+		{
+			dao.setManifestEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that getAll() compacts the manifest once it holds more records than the threshold,
+	 * raises the threshold to twice the records left and still loads the changes afterwards.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testManifestCompaction() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		StorageManifest manifest = new StorageManifest(dao.getStoragePath());
+		
+		try
+		{
+			dao.setManifestEnabled(true);
+			
+			int numOfDataObjects = dao.reloadAll().size();
+			SerializationDO dataObject = this.getExistingDataObject(2);
+			
+			dao.setManifestCompactionThreshold(numOfDataObjects + 4);
+			
+			for (int i=0; i<8; i++)
+			{
+				this.modifyDataObject(dataObject, "testManifestCompaction");
+				dao.save(dataObject);
+			}
+			
+			Assert.isTrue(manifest.getRecordCount() == numOfDataObjects + 8, "saves must be recorded in the manifest");
+			Assert.isTrue(dao.getAll().size() == 1, "getAll() must load the saved data object");
+			Assert.isTrue(manifest.getRecordCount() == numOfDataObjects, "getAll() must compact the manifest above the threshold");
+			Assert.isTrue(dao.getManifestCompactionThreshold() == Math.max(numOfDataObjects + 4, 2 * numOfDataObjects), "the threshold must be raised to twice the records left");
+			
+			this.modifyDataObject(dataObject, "testManifestCompaction");
+			dao.save(dataObject);
+			
+			Assert.isTrue(dao.getAll().stream().anyMatch(changed -> changed.getId() == dataObject.getId()), "getAll() must load the changes after a compaction");
+		}
+		finally
+		{
+			dao.setManifestCompactionThreshold(SerializationDAOImpl.DEFAULT_MANIFEST_COMPACTION_THRESHOLD);
+			dao.setManifestEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that incremental calls of getAll() load the data objects written by others
+	 * when changes of the storage directory are watched.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testWatchIncrementalGetAll() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDAOImpl otherDao = new SerializationDAOImpl(dao.getStoragePath().toString());
+		
+		try
+		{
+			dao.setWatchEnabled(true);
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must load every data object");
+			
+			SerializationDO dataObject = this.createDataObject(0, "testWatchIncrementalGetAll");
+			
+			otherDao.save(dataObject);
+			
+			Collection<SerializationDO> changed = dao.getAll();
+			
+			for (long deadline = System.currentTimeMillis() + 15000; changed.isEmpty() && (System.currentTimeMillis() < deadline); changed = dao.getAll())
+			{
+				Thread.sleep(50);
+			}
+			
+			Assert.isTrue((changed.size() == 1) && (changed.iterator().next().getId() == dataObject.getId()), "getAll() must load the watched data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load the watched data object twice");
+		}
+		finally
+		{
+			dao.setWatchEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that data objects written by the binary serializer are read back equally
+	 * and that a store holding files of both formats remains readable.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testBinarySerializer() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setSerializer(new BinarySerializer<SerializationDO>());
+			
+			SerializationDO dataObject = this.createDataObject(0, "testBinarySerializer");
+			
+			dao.save(dataObject);
+			
+			SerializationDO readDataObject = dao.reloadAll().stream().filter(o -> o.getId() == dataObject.getId()).findFirst().orElse(null);
+			
+			Assert.notNull(readDataObject, "reloadAll() must load the binary data object");
+			Assert.isTrue(readDataObject.equals(dataObject), "the binary data object must equal the saved one");
+			Assert.isTrue("testBinarySerializer".equals(readDataObject.getExampleStringProperty()), "the properties of the binary data object must be read");
+			
+			dao.setSerializer(new JavaSerializer<SerializationDO>());
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() +1, "reloadAll() must load the data objects of both formats");
+		}
+		finally
+		{
+			dao.setSerializer(new JavaSerializer<SerializationDO>());
+		}
+	}
+	
+	/**
+	 * Asserts that a flat store remains readable with a sharded layout, that new data objects
+	 * are saved in the sharded layout and that the store is migrated in both directions.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testShardedStorageLayout() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		String existingId = String.valueOf(this.getExistingDataObject(1).getId());
+		
+		try
+		{
+			dao.setStorageLayout(StorageLayout.SHARDED);
+			
+			Assert.notNull(dao.get(this.getExistingDataObject(1).getId()), "data objects of a flat store must remain readable");
+			
+			SerializationDO dataObject = this.createDataObject(0, "testShardedStorageLayout");
+			
+			dao.save(dataObject);
+			
+			Assert.isTrue(Files.isRegularFile(StorageLayout.SHARDED.resolve(dao.getStoragePath(), dataObject.getId())), "new data objects must be saved in the sharded layout");
+			Assert.isTrue(dao.migrateStorageLayout() == this.cachedDataObjects.size(), "the migration must move every file of the flat store");
+			Assert.isTrue(!Files.exists(dao.getStoragePath().resolve(existingId)), "the migration must remove the flat files");
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() +1, "reloadAll() must load every data object of the sharded store");
+			Assert.notNull(dao.get(this.getExistingDataObject(1).getId()), "get() must load data objects of the sharded store");
+		}
+		finally
+		{
+			dao.setStorageLayout(StorageLayout.FLAT);
+			dao.migrateStorageLayout();
+		}
+		
+		Assert.isTrue(Files.isRegularFile(dao.getStoragePath().resolve(existingId)), "the migration must move the files back into the flat store");
+	}
+	
+	/**
+	 * Asserts that gets never see a partly written file while a data object is saved
+	 * repeatedly in atomic write mode and that no temporary files are left behind.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testAtomicWrites() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDO dataObject = this.getExistingDataObject(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		AtomicBoolean saving = new AtomicBoolean(true);
+		
+		try
+		{
+			dao.setWriteMode(WriteMode.ATOMIC);
+			dao.setDurability(Durability.DATA);
+			dataObject.setExampleStringProperty("b");
+			dao.save(dataObject);
+			
+			Future<?> saver = executor.submit(() ->
+			{
+				try
+				{
+					for (int i=0; i<200; i++)
+					{
+						dataObject.setExampleStringProperty(new String(new char[64 * 1024]).replace('\0', 'a'));
+						dao.save(dataObject);
+						dataObject.setExampleStringProperty("b");
+						dao.save(dataObject);
+					}
+				}
+				finally
+				{
+					saving.set(false);
+				}
+				
+				return null;
+			});
+			
+			while (saving.get())
+			{
+				SerializationDO readDataObject = dao.get(dataObject.getId());
+				
+				Assert.isTrue((readDataObject != null) && ("b".equals(readDataObject.getExampleStringProperty()) || (readDataObject.getExampleStringProperty().length() == 64 * 1024)), "gets must not see partly written files");
+			}
+			
+			saver.get();
+			
+			try (Stream<Path> files = Files.list(dao.getStoragePath()))
+			{
+				Assert.isTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(WriteBatch.TEMP_FILE_PREFIX)), "atomic writes must not leave temporary files");
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setWriteMode(WriteMode.IN_PLACE);
+			dao.setDurability(Durability.NONE);
+		}
+	}
+	
+	/**
+	 * Asserts that data objects saved together with a single commit and saves combined by
+	 * a group commit window are all stored durably, sharing the commits of the groups even though the
+	 * synchronized locking mode locks the data objects exclusively.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testGroupCommit() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<SerializationDO> dataObjects = new ArrayList<>();
+		int numOfSaves = 50;
+		
+		try
+		{
+			dao.setWriteMode(WriteMode.ATOMIC);
+			dao.setDurability(Durability.FULL);
+			
+			for (int i=0; i<numOfSaves; i++) dataObjects.add(this.createDataObject(0, "testGroupCommit"));
+			
+			dao.save(dataObjects);
+			
+			for (SerializationDO dataObject : dataObjects) Assert.isTrue(dataObject.getId() > 0, "save(Collection) must set the ids of all data objects");
+			
+			dao.setGroupCommitWindow(20);
+			
+			Assert.isTrue(dao.getGroupCommitWindow() == 20, "the group commit window must be set");
+			Assert.isTrue(dao.getLockingMode() == LockingMode.SYNCHRONIZED, "the locking mode must be synchronized by default");
+			
+			List<Future<?>> savers = new ArrayList<>();
+			
+			for (int i=0; i<numOfSaves; i++)
+			{
+				savers.add(executor.submit(() ->
+				{
+					SerializationDO dataObject = this.createDataObject(0, "testGroupCommit");
+					
+					dao.save(dataObject);
+					
+					return null;
+				}));
+			}
+			
+			for (Future<?> saver : savers) saver.get();
+			
+			Assert.isTrue(dao.groupCommitter.getCommittedBatches() == numOfSaves, "the group commits must commit every save");
+			Assert.isTrue(dao.groupCommitter.getCommittedGroups() <= numOfSaves / 2, "concurrent saves must share group commits");
+			
+			try (Stream<Path> files = Files.list(dao.getStoragePath()))
+			{
+				Assert.isTrue(files.noneMatch(file -> file.getFileName().toString().startsWith(WriteBatch.TEMP_FILE_PREFIX)), "group commits must not leave temporary files");
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setGroupCommitWindow(0);
+			dao.setWriteMode(WriteMode.IN_PLACE);
+			dao.setDurability(Durability.NONE);
+		}
+		
+		Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size() + 2 * numOfSaves, "reloadAll() must load every saved data object");
+	}
+	
+	/**
+	 * Asserts that the cache of gets returns copies unless shared instances are enabled
+	 * and does not return outdated data objects (see ObjectCacheTest for the eviction).
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testObjectCache() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDO dataObject = this.createDataObject(0, "testObjectCache");
+		
+		try
+		{
+			dao.setCacheMaxEntries(16);
+			dao.save(dataObject);
+			
+			SerializationDO firstCopy = dao.get(dataObject.getId());
+			SerializationDO secondCopy = dao.get(dataObject.getId());
+			
+			Assert.isTrue(dao.getCacheStats().getHits() == 1, "the second get must be answered by the cache");
+			Assert.isTrue(firstCopy != secondCopy, "the cache must return copies by default");
+			Assert.isTrue("testObjectCache".equals(secondCopy.getExampleStringProperty()), "the cache must return the saved data object");
+			
+			dao.setCacheSharedObjects(true);
+			
+			Assert.isTrue(dao.get(dataObject.getId()) == dao.get(dataObject.getId()), "the cache must return shared instances if enabled");
+			
+			dataObject.setExampleStringProperty("modified");
+			dao.save(dataObject);
+			
+			Assert.isTrue("modified".equals(dao.get(dataObject.getId()).getExampleStringProperty()), "the cache must not return outdated data objects");
+			
+			dao.delete(dataObject);
+			
+			Assert.isNull(dao.get(dataObject.getId()), "the cache must not return deleted data objects");
+		}
+		finally
+		{
+			dao.setCacheMaxEntries(0);
+			dao.setCacheSharedObjects(false);
+		}
+	}
+	
+	/**
+	 * Asserts that large data objects are stored compressed and small ones as they are
+	 * and that compressed files remain readable when compression is disabled.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testCompression() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		StringBuilder text = new StringBuilder();
+		
+		for (int i=0; i<1000; i++) text.append("testCompression ");
+		
+		SerializationDO dataObject = this.createDataObject(0, text.toString());
+		SerializationDO smallDataObject = this.createDataObject(0, "testCompression");
+		
+		try
+		{
+			dao.save(Arrays.asList(dataObject, smallDataObject));
+			
+			long uncompressedSize = Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), dataObject.getId()));
+			long smallSize = Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), smallDataObject.getId()));
+			
+			dao.setCompressionCodec(new DeflateCodec());
+			dao.save(Arrays.asList(dataObject, smallDataObject));
+			
+			Assert.isTrue(Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), dataObject.getId())) < uncompressedSize / 4, "large data objects must be stored compressed");
+			Assert.isTrue(Files.size(dao.getStorageLayout().resolve(dao.getStoragePath(), smallDataObject.getId())) == smallSize, "data objects below the threshold must be stored as they are");
+			Assert.isTrue(text.toString().equals(dao.get(dataObject.getId()).getExampleStringProperty()), "gets must return the decompressed data object");
+			Assert.isTrue("testCompression".equals(dao.get(smallDataObject.getId()).getExampleStringProperty()), "gets must return data objects stored as they are");
+			
+			dao.setCompressionCodec(null);
+			
+			Assert.isTrue(text.toString().equals(dao.get(dataObject.getId()).getExampleStringProperty()), "compressed files must remain readable when compression is disabled");
+		}
+		finally
+		{
+			dao.setCompressionCodec(null);
+		}
+	}
+	
+	/**
+	 * Asserts that the asynchronous operations return the results of the blocking ones and limit the operations in flight
+	 */
+	@Test
+	public void testAsyncOperations() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		List<SerializationDO> dataObjects = new ArrayList<>();
+		List<CompletableFuture<SerializationDO>> futures = new ArrayList<>();
+		
+		for (int i=0; i<16; i++) dataObjects.add(this.createDataObject(0, "testAsyncOperations"));
+		
+		try
+		{
+			dao.setAsyncParallelism(1, 2);
+			
+			for (SerializationDO dataObject : dataObjects)
+			{
+				futures.add(dao.saveAsync(dataObject));
+				
+				Assert.isTrue(dao.getAsyncExecutor().getInFlight() <= 2, "the operations in flight must be limited");
+			}
+			
+			for (CompletableFuture<SerializationDO> future : futures) Assert.isTrue(future.join().getId() > 0, "saves must complete with the saved data object");
+			
+			for (SerializationDO dataObject : dataObjects)
+			{
+				SerializationDO loadedObject = dao.getAsync(dataObject.getId()).join();
+				
+				Assert.isTrue("testAsyncOperations".equals(loadedObject.getExampleStringProperty()), "gets must return the saved data object");
+			}
+			
+			dao.deleteAsync(dataObjects.get(0)).join();
+			
+			Assert.isTrue(dao.getAsync(dataObjects.get(0).getId()).join() == null, "gets of deleted ids must complete with null");
+			Assert.isTrue(dao.getAllAsync().join() != null, "getAll() must complete with a collection");
+			
+			try
+			{
+				dao.saveAsync(null);
+				Assert.isTrue(false, "null must be rejected");
+			}
+			catch (IllegalArgumentException e)
+			{
+				// Expected
+			}
+		}
+		finally
+		{
+			dao.setAsyncExecutor(null);
+		}
+	}
+	
+	/**
+	 * Asserts that handles list the stored data objects without loading them and load them when first accessed
+	 */
+	@Test
+	public void testObjectHandles() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDO dataObject = this.createDataObject(0, "testObjectHandles");
+		
+		dao.save(dataObject);
+		
+		List<ObjectHandle<SerializationDO>> handles = dao.getAllHandles();
+		ObjectHandle<SerializationDO> handle = null;
+		long latestModified = 0;
+		
+		for (int i=0; i<handles.size(); i++)
+		{
+			if (i > 0) Assert.isTrue(handles.get(i -1).getId() < handles.get(i).getId(), "the handles must be ordered by id");
+			if (handles.get(i).getId() == dataObject.getId()) handle = handles.get(i);
+			
+			Assert.isTrue(!handles.get(i).isLoaded(), "listed data objects must not be loaded");
+			
+			latestModified = Math.max(latestModified, handles.get(i).getModifiedTimeStamp());
+		}
+		
+		Assert.notNull(handle, "the saved data object must be listed");
+		Assert.isTrue(handle.getSize() > 0, "the size of the stored data object must be listed");
+		Assert.isTrue(handle.get().getId() == dataObject.getId(), "the handle must load the data object");
+		Assert.isTrue(handle.isLoaded(), "the data object must be kept after loading it");
+		Assert.isTrue(dao.getAllHandles(latestModified).isEmpty(), "data objects modified before the time stamp must not be listed");
+	}
+	
+	/**
+	 * Asserts that bulk gets and deletes processed in parallel keep the order of the ids and report
+	 * the failed ids without aborting the other ones, and that bulk gets read in parallel in the
+	 * default synchronized locking mode
+	 */
+	@Test
+	public void testParallelBulkOperations() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		JavaSerializer<SerializationDO> serializer = new JavaSerializer<SerializationDO>();
+		AtomicInteger reads = new AtomicInteger();
+		AtomicInteger peakReads = new AtomicInteger();
+		int[] ids = new int[20];
+		Path invalidFile = null;
+		
+		try
+		{
+			dao.setBulkParallelism(4);
+			
+			for (int i=ids.length -1; i>=0; i--)
+			{
+				SerializationDO dataObject = this.createDataObject(0, "testParallelBulkOperations");
+				
+				dao.save(dataObject);
+				ids[i] = dataObject.getId();
+			}
+			
+			List<SerializationDO> dataObjects = new ArrayList<SerializationDO>(dao.get(ids));
+			
+			for (int i=0; i<ids.length; i++) Assert.isTrue(dataObjects.get(i).getId() == ids[i], "the data objects must keep the order of the ids");
+			
+			dao.registerSerializer(new Serializer<SerializationDO>()
+			{
+				@Override
+				public byte getFormatId()
+				{
+					return serializer.getFormatId();
+				}
+				
+				@Override
+				public void serialize(SerializationDO dataObject, OutputStream outputStream) throws Exception
+				{
+					serializer.serialize(dataObject, outputStream);
+				}
+				
+				@Override
+				public SerializationDO deserialize(InputStream inputStream) throws Exception
+				{
+					peakReads.accumulateAndGet(reads.incrementAndGet(), Math::max);
+					
+					try
+					{
+						Thread.sleep(50);
+						
+						return serializer.deserialize(inputStream);
+					}
+					finally
+					{
+						reads.decrementAndGet();
+					}
+				}
+			});
+			
+			try
+			{
+				dao.get(Arrays.copyOf(ids, 8));
+			}
+			finally
+			{
+				dao.registerSerializer(serializer);
+			}
+			
+			Assert.isTrue(dao.getLockingMode() == LockingMode.SYNCHRONIZED, "the locking mode must be the default one");
+			Assert.isTrue(peakReads.get() == 4, "bulk gets must read as many ids in parallel as the pool has threads");
+			
+			int invalidId = ids[0] + ids.length + 1;
+			BulkOperationException failure = null;
+			
+			// A directory named by an id cannot be read
+			invalidFile = Files.createDirectory(dao.getStoragePath().resolve(Integer.toString(invalidId)));
+			
+			try
+			{
+				dao.get(new int[] { ids[1], invalidId, ids[2] });
+			}
+			catch (Exception e)
+			{
+				Throwable cause = e;
+				
+				while (!(cause instanceof BulkOperationException) && (cause.getCause() != null)) cause = cause.getCause();
+				
+				failure = (BulkOperationException) cause;
+			}
+			
+			Assert.notNull(failure, "the failed id must be reported");
+			Assert.isTrue(failure.getFailures().keySet().equals(Collections.singleton(invalidId)), "only the failed id must be reported");
+			Assert.isTrue(((SerializationDO) failure.getResults().get(2)).getId() == ids[2], "the ids after the failed one must be processed");
+			
+			StorageManifest manifest = new StorageManifest(dao.getStoragePath());
+			int[] idsAndMissingId = Arrays.copyOf(ids, ids.length + 1);
+			
+			idsAndMissingId[ids.length] = invalidId + 1;
+			dao.setManifestEnabled(true);
+			
+			StorageManifest.Cursor cursor = manifest.getCursor();
+			
+			dao.delete(idsAndMissingId);
+			
+			Collection<Integer> journaledIds = manifest.readChanges(cursor).getDeletedIds();
+			
+			for (int id : ids) Assert.isNull(dao.get(id), "the data objects must be deleted");
+			
+			Assert.isTrue(journaledIds.size() == ids.length, "the deletes of the removed files must be journaled");
+			Assert.isTrue(!journaledIds.contains(invalidId + 1), "the deletes of missing ids must not be journaled");
+		}
+		finally
+		{
+			dao.setBulkParallelism(1);
+			dao.setManifestEnabled(false);
+			
+			if (invalidFile != null) Files.deleteIfExists(invalidFile);
+		}
+	}
+	
+	/**
+	 * Asserts that clears in every mode keep the markers of the reserved id ranges,
+	 * so neither the ids allocated before nor the ranges of other DAOs are allocated again
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testClearKeepsReservedIds() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDAOImpl otherDao = new SerializationDAOImpl(dao.getStoragePath().toString());
+		
+		try
+		{
+			for (ClearMode clearMode : ClearMode.values())
+			{
+				SerializationDO dataObject = this.createDataObject(0, "testClearKeepsReservedIds");
+				SerializationDO otherDataObject = this.createDataObject(0, "testClearKeepsReservedIds");
+				SerializationDO newDataObject = this.createDataObject(0, "testClearKeepsReservedIds");
+				
+				dao.setClearMode(clearMode);
+				dao.save(dataObject);
+				otherDao.save(otherDataObject);
+				dao.clear();
+				
+				Assert.isTrue(Files.isDirectory(dao.getStoragePath().resolve(IdAllocator.DIRECTORY_NAME)), "a clear must keep the markers of the reserved ranges");
+				
+				dao.save(newDataObject);
+				
+				Assert.isTrue(newDataObject.getId() > dataObject.getId(), "the ids allocated before a clear must not be allocated again");
+				Assert.isTrue(newDataObject.getId() / IdAllocator.RANGE_SIZE != otherDataObject.getId() / IdAllocator.RANGE_SIZE, "the ranges of other DAOs must not be reserved again after a clear");
+			}
+		}
+		finally
+		{
+			dao.setClearMode(ClearMode.DELETE);
+		}
+	}
+	
+	/**
+	 * Asserts that a clear in swap mode empties the store at once and that the trash directories,
+	 * including the ones left over by previous processes, are deleted in the background
+	 */
+	@Test
+	public void testSwapClear() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		Path storagePath = dao.getStoragePath();
+		Path leftoverTrash = storagePath.resolveSibling(storagePath.getFileName() + StorageTrash.INFIX + "1");
+		
+		try
+		{
+			dao.setClearMode(ClearMode.SWAP);
+			
+			for (int i=0; i<10; i++) dao.save(this.createDataObject(0, "testSwapClear"));
+			
+			dao.clear();
+			
+			Assert.isTrue(dao.reloadAll().isEmpty(), "the store must be empty after the clear");
+			
+			SerializationDO dataObject = this.createDataObject(0, "testSwapClear");
+			
+			dao.save(dataObject);
+			
+			Assert.notNull(dao.get(dataObject.getId()), "the recreated storage directory must be writable");
+			
+			Files.createDirectories(leftoverTrash.resolve("1"));
+			Files.write(leftoverTrash.resolve("1").resolve("2"), new byte[] { 1, 2, 3, 4 });
+			
+			new SerializationDAOImpl(storagePath.toString());
+			
+			for (int i=0; (i<100) && !StorageTrash.find(storagePath).isEmpty(); i++) Thread.sleep(100);
+			
+			Assert.isTrue(StorageTrash.find(storagePath).isEmpty(), "the trash must be deleted in the background");
+		}
+		finally
+		{
+			dao.setClearMode(ClearMode.DELETE);
+		}
+	}
+	
+	/**
+	 * Asserts that a clear in swap mode keeps the auxiliary stores in the storage directory,
+	 * so the ranges, the manifest and the segments written after the clear are found there
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSwapClearKeepsAuxiliaryStores() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		Path storagePath = dao.getStoragePath();
+		
+		try
+		{
+			dao.setClearMode(ClearMode.SWAP);
+			dao.setManifestEnabled(true);
+			dao.save(this.createDataObject(0, "testSwapClearKeepsAuxiliaryStores"));
+			dao.clear();
+			dao.save(this.createDataObject(0, "testSwapClearKeepsAuxiliaryStores"));
+			
+			Assert.isTrue(Files.isDirectory(storagePath.resolve(IdAllocator.DIRECTORY_NAME)), "a swap clear must keep the markers of the reserved ranges");
+			Assert.isTrue(Files.exists(storagePath.resolve(StorageManifest.FILE_NAME)), "the saves after a swap clear must be journaled in the storage directory");
+			
+			SerializationDO dataObject = this.createDataObject(0, "testSwapClearKeepsAuxiliaryStores");
+			
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			dao.save(this.createDataObject(0, "testSwapClearKeepsAuxiliaryStores"));
+			dao.clear();
+			dao.save(dataObject);
+			dao.setStorageEngine(StorageEngine.FILES);
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			
+			Assert.notNull(dao.get(dataObject.getId()), "the segments written after a swap clear must be found when they are opened again");
+		}
+		finally
+		{
+			dao.setStorageEngine(StorageEngine.FILES);
+			dao.setManifestEnabled(false);
+			dao.setClearMode(ClearMode.DELETE);
+		}
+	}
+	
+	/**
+	 * Asserts that the operations are measured while the metrics are enabled and published as an MXBean
+	 */
+	@Test
+	public void testMetrics() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDO dataObject = this.createDataObject(0, "testMetrics");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		
+		try
+		{
+			dao.getMetrics().reset();
+			dao.save(dataObject);
+			
+			Assert.isTrue(dao.getMetrics().getOperation(DAOMetrics.Operation.SAVE).getCount() == 0, "disabled metrics must not be collected");
+			
+			dao.setMetricsEnabled(true);
+			
+			DAOMetrics metrics = dao.getMetrics();
+			ObjectName objectName = metrics.getObjectName();
+			
+			dao.save(dataObject);
+			dao.get(dataObject.getId());
+			dao.getAll();
+			dao.delete(dataObject);
+			
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.SAVE).getCount() == 1, "saves must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.GET).getCount() >= 1, "gets must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.GET_ALL).getCount() == 1, "incremental loads must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.DELETE).getCount() == 1, "deletes must be counted");
+			Assert.isTrue(metrics.getOperation(DAOMetrics.Operation.SAVE).getMaxNanos() > 0, "latencies must be recorded");
+			Assert.isTrue(metrics.getBytesWritten() > 0, "written bytes must be counted");
+			Assert.isTrue(metrics.getBytesRead() > 0, "read bytes must be counted");
+			Assert.isTrue(metrics.getLockWaits().getCount() > 0, "lock acquisitions must be counted");
+			Assert.isTrue(server.isRegistered(objectName), "the metrics must be published");
+			
+			long publishedSaves = 0;
+			
+			for (CompositeData operation : (CompositeData[]) server.getAttribute(objectName, "Operations"))
+			{
+				if ("SAVE".equals(operation.get("name"))) publishedSaves = (Long) operation.get("count");
+			}
+			
+			Assert.isTrue(publishedSaves == 1, "the published metrics must hold the counts");
+			
+			dao.setMetricsEnabled(false);
+			
+			Assert.isTrue(!server.isRegistered(objectName), "disabled metrics must not be published");
+		}
+		finally
+		{
+			dao.setMetricsEnabled(false);
+		}
+	}
+	
+	/**
+	 * Asserts that data objects stored in segments are saved, read and deleted like the ones
+	 * stored in files (see SegmentStoreTest for reopening the segments).
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSegmentStorageEngine() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDO dataObject = this.createDataObject(0, "testSegmentStorageEngine");
+		SerializationDO deletedDataObject = this.createDataObject(0, "testSegmentStorageEngine");
+		
+		try
+		{
+			dao.setStorageEngine(StorageEngine.SEGMENTS);
+			dao.save(Arrays.asList(dataObject, deletedDataObject));
+			
+			Assert.isTrue(dao.reloadAll().size() == 2, "reloadAll() must load the data objects stored in segments only");
+			
+			dataObject.setExampleStringProperty("modified");
+			dao.save(dataObject);
+			dao.delete(deletedDataObject);
+			
+			Assert.isTrue("modified".equals(dao.get(dataObject.getId()).getExampleStringProperty()), "a get must return the latest saved data object");
+			Assert.isTrue(dao.get(dataObject.getId()).getModifiedTimeStamp() == dataObject.getModifiedTimeStamp(), "a get must return the modification time stamp of the save");
+			Assert.isNull(dao.get(deletedDataObject.getId()), "deleted data objects must not be returned");
+			Assert.isTrue(dao.getAll().size() == 1, "getAll() must only load the data objects modified since the previous call");
+			
+			dao.setStorageEngine(StorageEngine.FILES);
+			
+			Assert.isNull(dao.get(dataObject.getId()), "data objects stored in segments must not be read from files");
+		}
+		finally
+		{
+			dao.setStorageEngine(StorageEngine.FILES);
+		}
+	}
+	
+	/**
+	 * Asserts that an exported snapshot serves the data objects of the storage directory and
+	 * that the DAO is read-only while it serves the snapshot.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSnapshot() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		SerializationDO dataObject = this.createDataObject(0, "testSnapshot");
+		Path snapshotFile = Files.createTempFile("serialization-dao", ".snapshot");
+		
+		try
+		{
+			dao.save(dataObject);
+			
+			int numOfDataObjects = dao.reloadAll().size();
+			
+			Assert.isTrue(dao.exportSnapshot(snapshotFile) == numOfDataObjects, "the snapshot must hold every data object");
+			
+			dao.setSnapshotFile(snapshotFile);
+			
+			Assert.isTrue(dao.reloadAll().size() == numOfDataObjects, "reloadAll() must load every data object of the snapshot");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load data objects again");
+			Assert.isTrue("testSnapshot".equals(dao.get(dataObject.getId()).getExampleStringProperty()), "gets must return the exported data object");
+			Assert.isNull(dao.get(Integer.MAX_VALUE), "gets of ids missing in the snapshot must return null");
+			
+			boolean deleteRejected = false;
+			
+			try
+			{
+				dao.delete(dataObject);
+			}
+			catch (Exception e)
+			{
+				deleteRejected = true;
+			}
+			
+			Assert.isTrue(deleteRejected, "deletes must be rejected while a snapshot is served");
+			
+			dao.setSnapshotFile(null);
+			
+			Assert.isTrue(dao.get(dataObject.getId()) != null, "the storage directory must be served again");
+		}
+		finally
+		{
+			dao.setSnapshotFile(null);
+			Files.deleteIfExists(snapshotFile);
+		}
+	}
+	
+	/**
+	 * Asserts that a parallel directory scan loads every data object once and
+	 * advances the modification time stamp like a sequential scan.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testParallelScan() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setLockingMode(LockingMode.STRIPED);
+			dao.setScanParallelism(4);
+			
+			Assert.isTrue(dao.reloadAll().size() == this.cachedDataObjects.size(), "reloadAll() must load every data object");
+			Assert.isTrue(dao.getAll().isEmpty(), "getAll() must not load unchanged data objects");
+		}
+		finally
+		{
+			dao.setScanParallelism(1);
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+		}
+	}
+	
+	/**
+	 * Asserts that the number of lock stripes is kept when the locking mode is changed,
+	 * also if it is set while the stripes are not used
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testLockStripesKeptAcrossLockingModes() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		
+		try
+		{
+			dao.setLockStripes(8);
+			
+			Assert.isTrue(dao.locks.getStripes() == 1, "the synchronized locking mode must use a single lock");
+			
+			dao.setLockingMode(LockingMode.STRIPED);
+			
+			Assert.isTrue(dao.locks.getStripes() == 8, "the striped locking mode must use the number of stripes set before");
+			
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+			dao.setLockingMode(LockingMode.STRIPED);
+			
+			Assert.isTrue(dao.locks.getStripes() == 8, "the number of stripes must be kept across locking modes");
+		}
+		finally
+		{
+			dao.setLockStripes(StripedLocks.DEFAULT_STRIPES);
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+		}
+	}
+	
+	/**
+	 * Asserts that a get is only blocked by the lock of its own id's stripe when striped locking is used:
+	 * while the write lock of one id is held, a get of an id on another stripe completes and a get of the
+	 * locked id waits until the lock is released.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testStripedLockingBlocksOnlyTheStripeOfAnId() throws Exception
+	{
+		SerializationDAOImpl dao = this.getDataAccessObject();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		
+		try
+		{
+			dao.setLockingMode(LockingMode.STRIPED);
+			
+			SerializationDO lockedDataObject = this.createDataObject();
+			SerializationDO otherDataObject = this.createDataObject();
+			
+			dao.save(lockedDataObject);
+			dao.save(otherDataObject);
+			
+			while (dao.locks.writeLock(otherDataObject.getId()) == dao.locks.writeLock(lockedDataObject.getId()))
+			{
+				otherDataObject = this.createDataObject();
+				dao.save(otherDataObject);
+			}
+			
+			int lockedId = lockedDataObject.getId();
+			int otherId = otherDataObject.getId();
+			CountDownLatch lockedGetStarted = new CountDownLatch(1);
+			Lock lock = dao.locks.writeLock(lockedId);
+			Future<SerializationDO> lockedGet;
+			
+			lock.lock();
+			
+			try
+			{
+				lockedGet = executor.submit(() ->
+				{
+					lockedGetStarted.countDown();
+					
+					return dao.get(lockedId);
+				});
+				
+				Assert.isTrue(lockedGetStarted.await(10, TimeUnit.SECONDS), "the get of the locked id must start");
+				Assert.isTrue(executor.submit(() -> dao.get(otherId)).get(10, TimeUnit.SECONDS).getId() == otherId, "gets of ids on other stripes must not wait for the lock");
+				Assert.isTrue(!lockedGet.isDone(), "gets of the locked id must wait for the lock");
+			}
+			finally
+			{
+				lock.unlock();
+			}
+			
+			Assert.isTrue(lockedGet.get(10, TimeUnit.SECONDS).getId() == lockedId, "gets of the locked id must complete once the lock is released");
+		}
+		finally
+		{
+			executor.shutdownNow();
+			dao.setLockingMode(LockingMode.SYNCHRONIZED);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,159 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.Assert;
+
+/**
+ * Test class of the IdAllocator class
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class IdAllocatorTest
+{
+	/**
+	 * The storage directory of the tests
+	 */
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private Path storageDirectory;
+	
+	/**
+	 * Creates an empty storage directory
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = this.temporaryFolder.newFolder().toPath();
+	}
+	
+	/**
+	 * Asserts that an allocator whose next range has been reserved by another allocator
+	 * skips it instead of handing out the ids of the other allocator.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testRangeCollision() throws Exception
+	{
+		IdAllocator allocator = new IdAllocator(this.storageDirectory);
+		IdAllocator otherAllocator = new IdAllocator(this.storageDirectory);
+		int firstId = allocator.allocate();
+		int otherFirstId = otherAllocator.allocate();
+		
+		Assert.isTrue(firstId % IdAllocator.RANGE_SIZE == 0, "ranges must start at multiples of the range size");
+		Assert.isTrue(otherFirstId == firstId + IdAllocator.RANGE_SIZE, "a new allocator must reserve the range after the reserved ones");
+		
+		for (int i=1; i<IdAllocator.RANGE_SIZE; i++) Assert.isTrue(allocator.allocate() == firstId + i, "the ids of a range must be handed out in order");
+		
+		Assert.isTrue(allocator.allocate() == otherFirstId + IdAllocator.RANGE_SIZE, "a range reserved by another allocator must be skipped");
+		Assert.isTrue(otherAllocator.allocate() == otherFirstId + 1, "the range of the other allocator must not be affected");
+	}
+	
+	/**
+	 * Asserts that allocators sharing a storage directory never allocate the same id
+	 * while reserving several ranges concurrently.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testConcurrentAllocation() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		List<Future<?>> allocations = new ArrayList<>();
+		int numOfIds = 3 * IdAllocator.RANGE_SIZE;
+		
+		try
+		{
+			for (int i=0; i<2; i++)
+			{
+				IdAllocator allocator = new IdAllocator(this.storageDirectory);
+				
+				for (int j=0; j<2; j++)
+				{
+					allocations.add(executor.submit(() ->
+					{
+						for (int k=0; k<numOfIds; k++) Assert.isTrue(ids.add(allocator.allocate()), "every id must be allocated once");
+						
+						return null;
+					}));
+				}
+			}
+			
+			for (Future<?> allocation : allocations) allocation.get();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		Assert.isTrue(ids.size() == 4 * numOfIds, "every allocation must return a new id");
+	}
+	
+	/**
+	 * Asserts that ids of stored files and observed ids are not allocated again, also after a reset
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testStoredAndObservedIds() throws Exception
+	{
+		IdAllocator allocator = new IdAllocator(this.storageDirectory);
+		
+		Files.createFile(this.storageDirectory.resolve("5000"));
+		
+		int firstId = allocator.allocate();
+		
+		Assert.isTrue(firstId > 5000, "the ids of stored files must not be allocated");
+		
+		allocator.observe(firstId + 10);
+		
+		Assert.isTrue(allocator.allocate() == firstId + 11, "observed ids must not be allocated");
+		
+		allocator.reset();
+		
+		Assert.isTrue(allocator.allocate() >= firstId + IdAllocator.RANGE_SIZE, "a reset must not allocate the ids of reserved ranges");
+	}
+	
+	/**
+	 * Asserts that the marker of an exhausted range is removed once the next range is reserved
+	 * and that the released range is not reserved again by other allocators
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testReleasedRanges() throws Exception
+	{
+		IdAllocator allocator = new IdAllocator(this.storageDirectory);
+		int firstId = allocator.allocate();
+		
+		for (int i=1; i<IdAllocator.RANGE_SIZE; i++) allocator.allocate();
+		
+		int nextId = allocator.allocate();
+		
+		try (Stream<Path> markers = Files.list(this.storageDirectory.resolve(IdAllocator.DIRECTORY_NAME)))
+		{
+			Assert.isTrue(markers.count() == 1, "the marker of an exhausted range must be removed");
+		}
+		
+		Assert.isTrue(nextId == firstId + IdAllocator.RANGE_SIZE, "the next range must be reserved after the exhausted one");
+		Assert.isTrue(new IdAllocator(this.storageDirectory).allocate() == nextId + IdAllocator.RANGE_SIZE, "a released range must not be reserved again");
+	}
+}
@@ -0,0 +1,110 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import org.junit.Test;
+import org.springframework.util.Assert;
+
+/**
+ * Test class of the LatencyHistogram class
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class LatencyHistogramTest
+{
+	/**
+	 * Asserts that values below the number of sub-buckets are kept exactly
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSmallValuesAreExact() throws Exception
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		for (int i=0; i<LatencyHistogram.SUB_BUCKETS; i++) histogram.record(i);
+		
+		Assert.isTrue(histogram.getPercentile(50) == 3, "the median of 0 to 7 must be 3");
+		Assert.isTrue(histogram.getPercentile(100) == 7, "the maximum of 0 to 7 must be 7");
+		Assert.isTrue(histogram.getPercentile(0) == 0, "the minimum of 0 to 7 must be 0");
+	}
+	
+	/**
+	 * Asserts that the bucket of a value is bounded by the value and 12.5% above it for every power of two
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testBucketBounds() throws Exception
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		for (int exponent=3; exponent<62; exponent++)
+		{
+			for (long value : new long[] { 1L << exponent, (1L << exponent) + 1, (3L << (exponent -1)) - 1, (1L << (exponent +1)) - 1 })
+			{
+				histogram.reset();
+				histogram.record(value);
+				histogram.record(Long.MAX_VALUE);
+				
+				long upperBound = histogram.getPercentile(50);
+				
+				Assert.isTrue(upperBound >= value, "the bucket of " + value + " must not end below it");
+				Assert.isTrue(upperBound - value < value / LatencyHistogram.SUB_BUCKETS, "the bucket of " + value + " must not end 12.5% above it");
+			}
+		}
+	}
+	
+	/**
+	 * Asserts that the percentiles are read from the buckets, but never exceed the largest value
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testPercentiles() throws Exception
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		Assert.isTrue(histogram.getPercentile(99) == 0, "the percentiles of an empty histogram must be 0");
+		
+		for (int i=1; i<=100; i++) histogram.record(i * 1000L);
+		
+		Assert.isTrue(histogram.getCount() == 100, "every value must be counted");
+		Assert.isTrue(histogram.getTotal() == 5050000, "every value must be summed");
+		Assert.isTrue(histogram.getMean() == 50500, "the mean must be the exact mean");
+		Assert.isTrue(histogram.getMax() == 100000, "the maximum must be the exact maximum");
+		Assert.isTrue((histogram.getPercentile(50) >= 50000) && (histogram.getPercentile(50) < 50000 * 9 / 8), "the median must be in the bucket of the 50th value");
+		Assert.isTrue((histogram.getPercentile(99) >= 99000) && (histogram.getPercentile(99) <= 100000), "the 99th percentile must be in the bucket of the 99th value");
+		Assert.isTrue(histogram.getPercentile(100) == 100000, "the percentiles must not exceed the maximum");
+	}
+	
+	/**
+	 * Asserts that negative values are recorded as 0, the largest long is recorded and a reset removes every value
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testExtremeValuesAndReset() throws Exception
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		histogram.record(-1);
+		histogram.record(Long.MAX_VALUE);
+		
+		Assert.isTrue(histogram.getPercentile(50) == 0, "negative values must be recorded as 0");
+		Assert.isTrue(histogram.getPercentile(100) == Long.MAX_VALUE, "the largest long must be recorded");
+		
+		histogram.reset();
+		
+		Assert.isTrue((histogram.getCount() == 0) && (histogram.getMax() == 0) && (histogram.getPercentile(100) == 0), "a reset must remove every value");
+	}
+	
+	/**
+	 * Asserts that percentages out of range are rejected
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testPercentileOutOfRange() throws Exception
+	{
+		new LatencyHistogram().getPercentile(100.5);
+	}
+}
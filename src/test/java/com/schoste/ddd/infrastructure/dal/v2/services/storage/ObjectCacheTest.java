@@ -0,0 +1,93 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import org.junit.Test;
+import org.springframework.util.Assert;
+
+/**
+ * Test class of the ObjectCache class
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class ObjectCacheTest
+{
+	private static final int MAX_ENTRIES = 100;
+	private static final int EXPECTED_ENTRIES = 4096;
+	
+	/**
+	 * Asserts that entries requested once, as by a scan, are not admitted in place of entries requested repeatedly
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testScanDoesNotEvictFrequentEntries() throws Exception
+	{
+		ObjectCache<Integer> cache = new ObjectCache<>(MAX_ENTRIES, EXPECTED_ENTRIES);
+		int numOfFrequentKeys = MAX_ENTRIES / 2;
+		
+		for (int key=1; key<=numOfFrequentKeys; key++)
+		{
+			this.getOrPut(cache, key);
+			
+			for (int i=0; i<4; i++) cache.get(key, value -> true);
+		}
+		
+		for (int key=1000; key<3000; key++) this.getOrPut(cache, key);
+		
+		for (int key=1; key<=numOfFrequentKeys; key++) Assert.notNull(cache.get(key, value -> true), "the scan must not evict the frequently requested entry " + key);
+		
+		Assert.isTrue(cache.getStats().getSize() <= MAX_ENTRIES, "the cache must not exceed its weight");
+	}
+	
+	/**
+	 * Asserts that an entry leaving the window is admitted if it has been requested more often than the entry it evicts
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testFrequentCandidateIsAdmitted() throws Exception
+	{
+		ObjectCache<Integer> cache = new ObjectCache<>(MAX_ENTRIES, EXPECTED_ENTRIES);
+		
+		for (int key=1; key<=MAX_ENTRIES; key++) this.getOrPut(cache, key);
+		
+		for (int i=0; i<8; i++) cache.get(5000, value -> true);
+		
+		this.getOrPut(cache, 5000);
+		this.getOrPut(cache, 5001);
+		this.getOrPut(cache, 5002);
+		
+		Assert.notNull(cache.get(5000, value -> true), "a frequently requested entry must be admitted");
+		Assert.isNull(cache.get(5001, value -> true), "an entry requested once must not be admitted in place of one requested as often");
+		Assert.isTrue(cache.getStats().getSize() <= MAX_ENTRIES, "the cache must not exceed its weight");
+	}
+	
+	/**
+	 * Asserts that invalid and invalidated entries are removed and entries heavier than the cache are not cached
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testRemovedEntries() throws Exception
+	{
+		ObjectCache<Integer> cache = new ObjectCache<>(MAX_ENTRIES, EXPECTED_ENTRIES);
+		
+		cache.put(1, 1, 1);
+		cache.put(2, 2, 1);
+		cache.put(3, 3, MAX_ENTRIES +1);
+		
+		Assert.isNull(cache.get(1, value -> false), "invalid entries must not be returned");
+		Assert.isNull(cache.get(1, value -> true), "invalid entries must be removed");
+		
+		cache.invalidate(2);
+		
+		Assert.isNull(cache.get(2, value -> true), "invalidated entries must be removed");
+		Assert.isNull(cache.get(3, value -> true), "entries heavier than the cache must not be cached");
+		Assert.isTrue((cache.getStats().getSize() == 0) && (cache.getStats().getWeight() == 0), "removed entries must not be weighed");
+		Assert.isTrue((cache.getStats().getHits() == 0) && (cache.getStats().getMisses() == 4), "every get must be counted");
+	}
+	
+	private void getOrPut(ObjectCache<Integer> cache, int key)
+	{
+		if (cache.get(key, value -> true) == null) cache.put(key, key, 1);
+	}
+}
@@ -0,0 +1,273 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.Assert;
+
+/**
+ * Test class of the SegmentStore class
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class SegmentStoreTest
+{
+	private static final int PAYLOAD_SIZE = 100;
+	private static final int RECORDS_PER_SEGMENT = 8;
+	
+	// Records have a header of 25 bytes
+	private static final long MAX_SEGMENT_SIZE = RECORDS_PER_SEGMENT * (25 + PAYLOAD_SIZE);
+	
+	/**
+	 * The storage directory of the tests
+	 */
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private Path storageDirectory;
+	
+	/**
+	 * Creates an empty storage directory
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		this.storageDirectory = this.temporaryFolder.newFolder().toPath();
+	}
+	
+	/**
+	 * Asserts that the records appended after the checkpoint are replayed when a store is opened
+	 * which has not been closed (its segments are copied while it is open, as it keeps them locked),
+	 * and that all records are replayed without a checkpoint.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testReplay() throws Exception
+	{
+		SegmentStore crashedStore = new SegmentStore(this.storageDirectory, MAX_SEGMENT_SIZE);
+		
+		try
+		{
+			for (int id=1; id<=20; id++) crashedStore.put(id, this.createPayload(id, 1), Durability.NONE);
+			
+			crashedStore.checkpoint();
+			crashedStore.put(1, this.createPayload(1, 2), Durability.NONE);
+			crashedStore.delete(2, Durability.NONE);
+			crashedStore.put(21, this.createPayload(21, 1), Durability.NONE);
+			
+			Path crashedDirectory = this.copySegments();
+			
+			try (SegmentStore store = new SegmentStore(crashedDirectory, MAX_SEGMENT_SIZE))
+			{
+				this.assertReplayed(store);
+			}
+		}
+		finally
+		{
+			crashedStore.close();
+		}
+		
+		Files.delete(this.storageDirectory.resolve(SegmentStore.DIRECTORY_NAME).resolve("index.checkpoint"));
+		
+		try (SegmentStore store = new SegmentStore(this.storageDirectory, MAX_SEGMENT_SIZE))
+		{
+			this.assertReplayed(store);
+		}
+	}
+	
+	/**
+	 * Asserts that a torn record at the end of the last segment is truncated when the store is opened
+	 * and that records are appended after the last complete one.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testTornRecord() throws Exception
+	{
+		try (SegmentStore store = new SegmentStore(this.storageDirectory))
+		{
+			store.put(1, this.createPayload(1, 1), Durability.NONE);
+			store.put(2, this.createPayload(2, 1), Durability.NONE);
+		}
+		
+		Path segment = this.getLastSegment();
+		
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE))
+		{
+			channel.truncate(channel.size() - PAYLOAD_SIZE / 2);
+		}
+		
+		try (SegmentStore store = new SegmentStore(this.storageDirectory))
+		{
+			Assert.isTrue(this.readPayload(store, 1).equals(this.getPayload(1, 1)), "the records before a torn record must be replayed");
+			Assert.isNull(store.get(2), "a torn record must not be replayed");
+			
+			store.put(3, this.createPayload(3, 1), Durability.NONE);
+		}
+		
+		try (SegmentStore store = new SegmentStore(this.storageDirectory))
+		{
+			Assert.isTrue(this.readPayload(store, 3).equals(this.getPayload(3, 1)), "records appended after a truncated torn record must be replayed");
+		}
+	}
+	
+	/**
+	 * Asserts that sealed segments holding outdated records only are compacted away, that the live
+	 * records are kept and that deleted records are not revived after the store has been reopened.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testCompaction() throws Exception
+	{
+		int numOfIds = 2 * RECORDS_PER_SEGMENT;
+		
+		try (SegmentStore store = new SegmentStore(this.storageDirectory, MAX_SEGMENT_SIZE))
+		{
+			// Background compactions of partly outdated segments would move live records and change the number of segments
+			store.setCompactionRatio(1);
+			
+			for (int id=1; id<=numOfIds; id++) store.put(id, this.createPayload(id, 1), Durability.NONE);
+			for (int id=1; id<=numOfIds; id++) store.put(id, this.createPayload(id, 2), Durability.NONE);
+			
+			store.delete(1, Durability.NONE);
+			store.compact();
+			
+			// The second versions fill two segments, the tombstone starts the active one
+			Assert.isTrue(store.getSegmentCount() == 3, "segments holding outdated records only must be compacted");
+			Assert.isTrue(this.countSegmentFiles() == 3, "compacted segments must be deleted");
+			Assert.isNull(store.get(1), "deleted records must not be revived by a compaction");
+			
+			for (int id=2; id<=numOfIds; id++) Assert.isTrue(this.readPayload(store, id).equals(this.getPayload(id, 2)), "live records must be kept by a compaction");
+		}
+		
+		try (SegmentStore store = new SegmentStore(this.storageDirectory, MAX_SEGMENT_SIZE))
+		{
+			Assert.isNull(store.get(1), "deleted records must not be revived after reopening the store");
+			
+			for (int id=2; id<=numOfIds; id++) Assert.isTrue(this.readPayload(store, id).equals(this.getPayload(id, 2)), "live records must be kept after reopening the store");
+		}
+	}
+	
+	/**
+	 * Asserts that the segments of a storage directory cannot be opened by a second store,
+	 * also after they have been cleared, and that they can be opened once the first store is closed.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testExclusiveOpen() throws Exception
+	{
+		try (SegmentStore store = new SegmentStore(this.storageDirectory))
+		{
+			store.put(1, this.createPayload(1, 1), Durability.NONE);
+			
+			this.assertLocked();
+			
+			store.clear();
+			store.put(2, this.createPayload(2, 1), Durability.NONE);
+			
+			this.assertLocked();
+		}
+		
+		try (SegmentStore store = new SegmentStore(this.storageDirectory))
+		{
+			Assert.isNull(store.get(1), "cleared records must not be replayed");
+			Assert.isTrue(this.readPayload(store, 2).equals(this.getPayload(2, 1)), "the segments must be opened once the store holding them is closed");
+		}
+	}
+	
+	private void assertLocked() throws Exception
+	{
+		boolean openRejected = false;
+		
+		try
+		{
+			new SegmentStore(this.storageDirectory).close();
+		}
+		catch (IOException e)
+		{
+			openRejected = true;
+		}
+		
+		Assert.isTrue(openRejected, "segments opened by a store must not be opened by another store");
+	}
+	
+	private Path copySegments() throws Exception
+	{
+		Path storageDirectory = this.temporaryFolder.newFolder().toPath();
+		Path directory = Files.createDirectories(storageDirectory.resolve(SegmentStore.DIRECTORY_NAME));
+		
+		try (Stream<Path> files = Files.list(this.storageDirectory.resolve(SegmentStore.DIRECTORY_NAME)))
+		{
+			for (Path file : (Iterable<Path>) files::iterator)
+			{
+				if (!SegmentStore.LOCK_FILE_NAME.equals(file.getFileName().toString())) Files.copy(file, directory.resolve(file.getFileName()));
+			}
+		}
+		
+		return storageDirectory;
+	}
+	
+	private void assertReplayed(SegmentStore store) throws Exception
+	{
+		Assert.isTrue(this.readPayload(store, 1).equals(this.getPayload(1, 2)), "the latest record of an id must be replayed");
+		Assert.isNull(store.get(2), "deleted records must not be replayed");
+		Assert.isTrue(this.readPayload(store, 21).equals(this.getPayload(21, 1)), "records appended after the checkpoint must be replayed");
+		
+		for (int id=3; id<=20; id++) Assert.isTrue(this.readPayload(store, id).equals(this.getPayload(id, 1)), "records before the checkpoint must be kept");
+	}
+	
+	private ByteBuffer createPayload(int id, int version)
+	{
+		byte[] payload = new byte[PAYLOAD_SIZE];
+		byte[] text = this.getPayload(id, version).getBytes(StandardCharsets.US_ASCII);
+		
+		System.arraycopy(text, 0, payload, 0, text.length);
+		
+		return ByteBuffer.wrap(payload);
+	}
+	
+	private String getPayload(int id, int version)
+	{
+		return String.format("%d-%d", id, version);
+	}
+	
+	private String readPayload(SegmentStore store, int id) throws Exception
+	{
+		ByteBuffer payload = store.get(id).getPayload();
+		
+		Assert.isTrue(payload.remaining() == PAYLOAD_SIZE, "the payload must be read completely");
+		
+		return new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), StandardCharsets.US_ASCII).trim();
+	}
+	
+	private Path getLastSegment() throws Exception
+	{
+		try (Stream<Path> files = Files.list(this.storageDirectory.resolve(SegmentStore.DIRECTORY_NAME)))
+		{
+			return files.filter(file -> file.getFileName().toString().startsWith("segment-")).sorted().reduce((first, second) -> second).get();
+		}
+	}
+	
+	private long countSegmentFiles() throws Exception
+	{
+		try (Stream<Path> files = Files.list(this.storageDirectory.resolve(SegmentStore.DIRECTORY_NAME)))
+		{
+			return files.filter(file -> file.getFileName().toString().startsWith("segment-")).count();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.springframework.util.Assert;
+
+/**
+ * Test class of the SlabCache class
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+public class SlabCacheTest
+{
+	private static final int SLAB_SIZE = 4096;
+	private static final int CHUNK_SIZE = 1024;
+	
+	/**
+	 * Asserts that cached contents are read as they have been put and that contents
+	 * of another version of the file or larger than a slab are not returned.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testPutAndAcquire() throws Exception
+	{
+		SlabCache cache = new SlabCache(2 * SLAB_SIZE, SLAB_SIZE);
+		
+		Assert.isTrue(cache.put(1, 10, this.createContent(1, 100)), "contents fitting into a slab must be cached");
+		Assert.isTrue(!cache.put(2, 10, this.createContent(2, SLAB_SIZE +1)), "contents larger than a slab must not be cached");
+		
+		try (SlabCache.Handle handle = cache.acquire(1, 10, 100))
+		{
+			Assert.notNull(handle, "a cached content must be returned");
+			Assert.isTrue(handle.getContent().equals(this.createContent(1, 100)), "the cached content must be returned");
+		}
+		
+		Assert.isNull(cache.acquire(1, 11, 100), "contents of another version of the file must not be returned");
+		Assert.isNull(cache.acquire(1, 10, 100), "contents of another version of the file must be removed");
+		Assert.isTrue(cache.getStats().getWeight() == 0, "removed contents must free their chunk");
+	}
+	
+	/**
+	 * Asserts that a slab is taken from the size class holding most slabs and assigned to the
+	 * size class of a new content, once no slab is free and the new size class holds no content.
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSlabReassignment() throws Exception
+	{
+		SlabCache cache = new SlabCache(2 * SLAB_SIZE, SLAB_SIZE);
+		int chunksPerSlab = SLAB_SIZE / CHUNK_SIZE;
+		
+		for (int key=1; key<=2 * chunksPerSlab; key++) Assert.isTrue(cache.put(key, 10, this.createContent(key, CHUNK_SIZE)), "small contents must fill both slabs");
+		
+		Assert.isTrue(cache.getStats().getWeight() == 2 * SLAB_SIZE, "both slabs must be used");
+		Assert.isTrue(cache.put(100, 10, this.createContent(100, SLAB_SIZE)), "a content of another size class must be cached");
+		Assert.isTrue(cache.getStats().getEvictions() == chunksPerSlab, "the least recently used contents must be evicted until a slab is free");
+		
+		for (int key=1; key<=chunksPerSlab; key++) Assert.isNull(cache.acquire(key, 10, CHUNK_SIZE), "the contents of the reassigned slab must be evicted");
+		
+		for (int key=chunksPerSlab +1; key<=2 * chunksPerSlab; key++)
+		{
+			try (SlabCache.Handle handle = cache.acquire(key, 10, CHUNK_SIZE))
+			{
+				Assert.isTrue((handle != null) && handle.getContent().equals(this.createContent(key, CHUNK_SIZE)), "the contents of the other slab must be kept");
+			}
+		}
+		
+		try (SlabCache.Handle handle = cache.acquire(100, 10, SLAB_SIZE))
+		{
+			Assert.isTrue((handle != null) && handle.getContent().equals(this.createContent(100, SLAB_SIZE)), "the content must be stored in the reassigned slab");
+		}
+		
+		cache.invalidate(100);
+		
+		Assert.isTrue(cache.put(200, 10, this.createContent(200, CHUNK_SIZE)) && (cache.getStats().getEvictions() == chunksPerSlab), "an empty slab must be returned for reassignment");
+	}
+	
+	/**
+	 * Asserts that a pinned content is neither evicted nor overwritten until its handle is closed
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testPinnedContent() throws Exception
+	{
+		SlabCache cache = new SlabCache(SLAB_SIZE, SLAB_SIZE);
+		
+		cache.put(1, 10, this.createContent(1, SLAB_SIZE));
+		
+		SlabCache.Handle handle = cache.acquire(1, 10, SLAB_SIZE);
+		
+		try
+		{
+			Assert.isTrue(!cache.put(2, 10, this.createContent(2, CHUNK_SIZE)), "pinned contents must not be evicted");
+			
+			cache.invalidate(1);
+			
+			Assert.isTrue(!cache.put(2, 10, this.createContent(2, CHUNK_SIZE)), "the chunk of a removed content must not be reused while it is pinned");
+			Assert.isTrue(handle.getContent().equals(this.createContent(1, SLAB_SIZE)), "a pinned content must not be overwritten");
+		}
+		finally
+		{
+			handle.close();
+		}
+		
+		Assert.isTrue(cache.put(2, 10, this.createContent(2, CHUNK_SIZE)), "the chunk must be reused once the handle is closed");
+	}
+	
+	private ByteBuffer createContent(int key, int size)
+	{
+		byte[] content = new byte[size];
+		
+		Arrays.fill(content, (byte) key);
+		
+		return ByteBuffer.wrap(content);
+	}
+}
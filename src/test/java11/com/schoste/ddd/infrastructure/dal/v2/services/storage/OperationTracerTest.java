@@ -0,0 +1,180 @@
+package com.schoste.ddd.infrastructure.dal.v2.services.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.util.Assert;
+
+import com.schoste.ddd.infrastructure.dal.v2.models.FileSystemDO;
+import com.schoste.ddd.infrastructure.dal.v2.models.GenericDataObject;
+import com.schoste.ddd.infrastructure.dal.v2.models.SerializationDO;
+import com.schoste.ddd.infrastructure.dal.v2.services.GenericDataAccessObject;
+import com.schoste.ddd.infrastructure.dal.v2.services.fs.FileSystemDAOImpl;
+import com.schoste.ddd.infrastructure.dal.v2.services.serialization.SerializationDAOImpl;
+
+/**
+ * Test class of the JDK Flight Recorder events of the OperationTracer. Compiled for Java 11 only
+ * (by the java11 profile), as the Java 8 tests must not depend on the jdk.jfr API.
+ * 
+ * @author Philipp Schosteritsch <s.philipp@schoste.com>
+ */
+@ContextConfiguration(locations = { "file:src/test/resources/unittest-beans.xml" })
+@RunWith(SpringJUnit4ClassRunner.class)
+public class OperationTracerTest
+{
+	@Autowired
+	protected FileSystemDAOImpl fileSystemDAOImpl;
+	
+	@Autowired
+	protected SerializationDAOImpl serializationDAOImpl;
+	
+	/**
+	 * Executed before every test is executed.
+	 * Asserts that the events are available, which the multi-release jar ensures on Java 11.
+	 */
+	@Before
+	public void initializeTest()
+	{
+		Assert.isTrue(OperationTracer.isAvailable(), "the operation traces must be available on Java 11");
+	}
+	
+	/**
+	 * Asserts that gets, saves, deletes and scans of the GenericFileSystemDAO are emitted as events while recorded
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testFileSystemDAOTraces() throws Exception
+	{
+		FileSystemDO dataObject = this.fileSystemDAOImpl.createDataObject();
+		
+		dataObject.setData(new byte[] { 1, 2, 3, 4 });
+		
+		RecordedEvent getEvent = this.recordOperations(this.fileSystemDAOImpl, dataObject);
+		
+		Assert.isTrue(getEvent.getLong("bytes") == 4, "the read bytes must be traced");
+	}
+	
+	/**
+	 * Asserts that the asynchronous gets of the GenericFileSystemDAO reading with asynchronous channels are emitted as events
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testFileSystemDAOAsyncGetTrace() throws Exception
+	{
+		FileSystemDO dataObject = this.fileSystemDAOImpl.createDataObject();
+		Path recordingFile = Files.createTempFile("testAsyncGetTrace", ".jfr");
+		
+		dataObject.setData(new byte[] { 1, 2, 3, 4 });
+		
+		try
+		{
+			// Gets of atomically published files are read by asynchronous channels
+			this.fileSystemDAOImpl.setWriteMode(WriteMode.ATOMIC);
+			this.fileSystemDAOImpl.save(dataObject);
+			
+			try (Recording recording = new Recording())
+			{
+				recording.enable(OperationTracer.EVENT_NAME).withThreshold(Duration.ZERO);
+				recording.start();
+				
+				this.fileSystemDAOImpl.getAsync(dataObject.getId()).join();
+				
+				recording.stop();
+				recording.dump(recordingFile);
+			}
+			
+			RecordedEvent getEvent = null;
+			
+			for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile))
+			{
+				if ("GET".equals(event.getString("operation")) && (event.getInt("id") == dataObject.getId())) getEvent = event;
+			}
+			
+			Assert.notNull(getEvent, "the asynchronous get must be traced with the id");
+			Assert.isTrue(getEvent.getLong("bytes") == 4, "the read bytes must be traced");
+		}
+		finally
+		{
+			this.fileSystemDAOImpl.delete(dataObject);
+			this.fileSystemDAOImpl.setWriteMode(WriteMode.IN_PLACE);
+			this.fileSystemDAOImpl.setAsyncExecutor(null);
+			
+			Files.deleteIfExists(recordingFile);
+		}
+	}
+	
+	/**
+	 * Asserts that gets, saves, deletes and scans of the GenericSerializationDAO are emitted as events while recorded
+	 * 
+	 * @throws Exception re-throws every exception
+	 */
+	@Test
+	public void testSerializationDAOTraces() throws Exception
+	{
+		SerializationDO dataObject = this.serializationDAOImpl.createDataObject();
+		
+		dataObject.setExampleStringProperty("testSerializationDAOTraces");
+		
+		RecordedEvent getEvent = this.recordOperations(this.serializationDAOImpl, dataObject);
+		
+		Assert.isTrue(getEvent.getLong("bytes") > 0, "the read bytes must be traced");
+	}
+	
+	private <T extends GenericDataObject> RecordedEvent recordOperations(GenericDataAccessObject<T> dao, T dataObject) throws Exception
+	{
+		Path recordingFile = Files.createTempFile("testOperationTraces", ".jfr");
+		
+		try
+		{
+			try (Recording recording = new Recording())
+			{
+				recording.enable(OperationTracer.EVENT_NAME).withThreshold(Duration.ZERO);
+				recording.start();
+				
+				dao.save(dataObject);
+				dao.get(dataObject.getId());
+				dao.getAll();
+				dao.delete(dataObject);
+				
+				recording.stop();
+				recording.dump(recordingFile);
+			}
+			
+			Set<String> operations = new HashSet<String>();
+			RecordedEvent getEvent = null;
+			
+			for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile))
+			{
+				operations.add(event.getString("operation"));
+				
+				if ("GET".equals(event.getString("operation")) && (event.getInt("id") == dataObject.getId())) getEvent = event;
+			}
+			
+			Assert.isTrue(operations.containsAll(Arrays.asList("GET", "SAVE", "DELETE", "SCAN")), "every operation must be traced");
+			Assert.notNull(getEvent, "the get must be traced with the id");
+			Assert.isTrue(getEvent.getDuration("io").compareTo(getEvent.getDuration()) <= 0, "the phases must not exceed the operation");
+			
+			return getEvent;
+		}
+		finally
+		{
+			Files.deleteIfExists(recordingFile);
+		}
+	}
+}